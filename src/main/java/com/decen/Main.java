@@ -1,17 +1,30 @@
 package com.decen;
 
+import com.decen.client.ChunkPlacer;
 import com.decen.client.FileManager;
 import com.decen.client.PeerController;
+import com.decen.client.Republisher;
 import com.decen.crypto.ECCKeyExchangeUtil;
+import com.decen.crypto.EncryptionMode;
 import com.decen.dht.*;
 import com.decen.networking.*;
+import com.decen.storage.BufferPool;
 import com.decen.storage.ChunkStore;
+import com.decen.storage.Chunking;
+import com.decen.storage.ErasureCoding;
+import com.decen.storage.FileChunkStore;
+import com.decen.storage.SegmentChunkStore;
+import com.decen.storage.CachedMetadataStore;
+import com.decen.storage.CachingChunkStore;
+import com.decen.storage.FileMetadataStore;
+import com.decen.storage.LogMetadataStore;
 import com.decen.storage.MetadataStore;
 
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.security.KeyPair;
+import java.time.Duration;
 import java.util.Scanner;
 
 public class Main {
@@ -39,8 +52,24 @@ public class Main {
 
         /* ---------- Storage ---------- */
         Path basePath = Path.of("data_" + port);
-        MetadataStore metadataStore = new MetadataStore(basePath);
-        ChunkStore chunkStore = new ChunkStore(basePath);
+        // -Ddecen.metadatastore=file keeps one text file per file
+        MetadataStore metadataStore =
+                "file".equals(System.getProperty("decen.metadatastore"))
+                        ? new FileMetadataStore(basePath)
+                        : new CachedMetadataStore(new LogMetadataStore(basePath));
+        // -Ddecen.chunkstore=segment selects the log-structured backend
+        ChunkStore diskStore =
+                "segment".equals(System.getProperty("decen.chunkstore"))
+                        ? new SegmentChunkStore(basePath)
+                        : new FileChunkStore(basePath);
+        // -Ddecen.chunkcache=<MB> sizes the hot chunk cache (0 = off),
+        // -Ddecen.chunkcache.offheap=true keeps it outside the heap
+        long cacheBytes = Long.getLong("decen.chunkcache",
+                CachingChunkStore.DEFAULT_MAX_BYTES >> 20) << 20;
+        ChunkStore chunkStore = cacheBytes > 0
+                ? new CachingChunkStore(diskStore, cacheBytes,
+                        Boolean.getBoolean("decen.chunkcache.offheap"))
+                : diskStore;
 
         /* ---------- Routing ---------- */
         RoutingTable routingTable = new RoutingTable(localNodeId, K);
@@ -78,6 +107,17 @@ public class Main {
         System.out.println("Port   = " + port);
         System.out.println("================================");
 
+        /* ---------- Chunk placement / repair ---------- */
+        ChunkPlacer placer = new ChunkPlacer(
+                peerClient, chunkStore, dhtNode,
+                ChunkPlacer.DEFAULT_REPLICAS, 4, Duration.ofSeconds(15));
+        placer.startRepair(metadataStore, ChunkPlacer.DEFAULT_REPAIR_INTERVAL);
+
+        /* ---------- Republish / expire DHT values ---------- */
+        Republisher republisher =
+                new Republisher(metadataStore, dhtNode, peerController);
+        republisher.start();
+
         /* ---------- Bootstrap ---------- */
         Contact bootstrapContact = null;
 
@@ -107,6 +147,8 @@ public class Main {
                         chunkStore,
                         metadataStore,
                         peerClient,
+                        peerController,
+                        placer,
                         bootstrapContact,
                         nodeKeyPair
                 );
@@ -115,9 +157,10 @@ public class Main {
         System.out.println("================================");
         System.out.println("Decen CLI ready");
         System.out.println("Commands:");
-        System.out.println(" store <filePath>");
+        System.out.println(" store <filePath> [fixed|fastcdc] [random|convergent|streaming] [rs-<k>+<m>]");
         System.out.println(" get <fileId> <outputPath>");
         System.out.println(" routes");
+        System.out.println(" cache");
         System.out.println(" exit");
         System.out.println("================================");
 
@@ -135,11 +178,27 @@ public class Main {
                 switch (parts[0].toLowerCase()) {
 
                     case "store":
-                        if (parts.length != 2) {
-                            System.out.println("Usage: store <filePath>");
+                        if (parts.length < 2 || parts.length > 5) {
+                            System.out.println(
+                                "Usage: store <filePath> [fixed|fastcdc] [random|convergent|streaming] [rs-<k>+<m>]"
+                            );
                             break;
                         }
-                        fileManager.storeFile(Path.of(parts[1]));
+                        Chunking chunking = Chunking.FIXED;
+                        EncryptionMode encryption = EncryptionMode.RANDOM;
+                        ErasureCoding erasure = null;
+                        for (int i = 2; i < parts.length; i++) {
+                            if (parts[i].equalsIgnoreCase("convergent")
+                                    || parts[i].equalsIgnoreCase("random")
+                                    || parts[i].equalsIgnoreCase("streaming")) {
+                                encryption = EncryptionMode.fromLabel(parts[i]);
+                            } else if (parts[i].toLowerCase().startsWith("rs-")) {
+                                erasure = ErasureCoding.fromLabel(parts[i]);
+                            } else {
+                                chunking = Chunking.fromLabel(parts[i]);
+                            }
+                        }
+                        fileManager.storeFile(Path.of(parts[1]), chunking, encryption, erasure);
                         break;
 
                     case "get":
@@ -160,6 +219,13 @@ public class Main {
                         System.out.println(routingTable);
                         break;
 
+                    case "cache":
+                        System.out.println(chunkStore instanceof CachingChunkStore
+                                ? "Chunk cache: " + chunkStore
+                                : "Chunk cache disabled");
+                        System.out.println("Buffer pool: " + BufferPool.shared());
+                        break;
+
                     case "exit":
                         System.out.println("Shutting down...");
                         System.exit(0);
@@ -0,0 +1,533 @@
+package com.decen.client;
+
+import com.decen.crypto.HashUtil;
+import com.decen.dht.Contact;
+import com.decen.networking.DHTMessage;
+import com.decen.networking.MessageSender;
+import com.decen.networking.MessageType;
+import com.decen.storage.ChunkStore;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Swarming chunk download.
+ *
+ * - Chunks already in the local store are handed out first
+ * - Missing chunks are spread over their holders, at most
+ *   {@code perPeerLimit} GET_CHUNK requests in flight per peer; each
+ *   chunk can have its own holder list (the nodes it was placed on)
+ * - A failed or timed-out chunk is re-queued for a peer that has not
+ *   failed it yet; peers that keep failing are dropped (a peer that
+ *   just does not have a chunk is not counted as failing)
+ * - Once every holder of a chunk has failed it, the chunk's fallback
+ *   holders are asked; holders are only a guess from this node's
+ *   routing table, the fallback is usually a network lookup
+ * - Once nothing is left to hand out, idle peers duplicate the
+ *   outstanding requests (endgame) so one slow peer cannot hold up
+ *   the tail; the first verified copy wins
+ * - Erasure coded files are fetched as groups of shards: every shard
+ *   is requested at once and a group is done as soon as enough of
+ *   them arrive, the slowest ones are cancelled
+ *
+ * Like NodeLookup, the scheduler runs on the calling thread and
+ * replies come back through a queue, so chunks are handed to the
+ * {@link ChunkHandler} on that thread as they arrive, in any order.
+ */
+public class ChunkDownloader {
+
+    /** Consecutive failures before a peer is no longer asked */
+    private static final int MAX_PEER_FAILURES = 3;
+
+    /** Copies of one chunk requested at once during endgame */
+    private static final int MAX_ENDGAME_COPIES = 2;
+
+    public interface ChunkHandler {
+        /**
+         * @param index position of the chunk in the file
+         * @param data  verified chunk bytes
+         */
+        void accept(int index, byte[] data) throws Exception;
+    }
+
+    private final MessageSender sender;
+    private final ChunkStore chunkStore;
+    private final int perPeerLimit;
+    private final Duration requestTimeout;
+
+    public ChunkDownloader(MessageSender sender,
+                           ChunkStore chunkStore,
+                           int perPeerLimit,
+                           Duration requestTimeout) {
+        this.sender = sender;
+        this.chunkStore = chunkStore;
+        this.perPeerLimit = perPeerLimit;
+        this.requestTimeout = requestTimeout;
+    }
+
+    /**
+     * Fetch every chunk from any of the given holders.
+     *
+     * @throws IllegalStateException if a chunk cannot be obtained from
+     *         any holder
+     */
+    public Result download(List<String> chunkIds,
+                           List<Contact> holders,
+                           ChunkHandler handler) throws Exception {
+        return download(chunkIds, chunkId -> holders, handler);
+    }
+
+    /**
+     * Fetch every chunk, storing the ones that came from the network.
+     * A chunk is only requested from the holders listed for it.
+     *
+     * @throws IllegalStateException if a chunk cannot be obtained from
+     *         any of its holders
+     */
+    public Result download(List<String> chunkIds,
+                           Function<String, List<Contact>> holdersOf,
+                           ChunkHandler handler) throws Exception {
+        return download(chunkIds, 1, 1, holdersOf, handler);
+    }
+
+    /**
+     * Fetch any {@code needed} chunks out of every {@code groupSize}
+     * consecutive ones. The last group may be shorter and then needs
+     * as many fewer. Only those chunks are handed to the handler.
+     *
+     * @throws IllegalStateException if a group cannot be completed
+     */
+    public Result download(List<String> chunkIds,
+                           int groupSize,
+                           int needed,
+                           Function<String, List<Contact>> holdersOf,
+                           ChunkHandler handler) throws Exception {
+        return download(chunkIds, groupSize, needed, holdersOf, id -> List.of(), handler);
+    }
+
+    /**
+     * Same, with a second list of holders per chunk that is only
+     * fetched, once, when all of the first have failed it.
+     *
+     * @param fallbackOf called on the scheduling thread; may block
+     */
+    public Result download(List<String> chunkIds,
+                           int groupSize,
+                           int needed,
+                           Function<String, List<Contact>> holdersOf,
+                           Function<String, List<Contact>> fallbackOf,
+                           ChunkHandler handler) throws Exception {
+        if (needed < 1 || needed > groupSize) {
+            throw new IllegalArgumentException("Need 1.." + groupSize + " per group: " + needed);
+        }
+
+        Result result = new Result();
+        Groups groups = new Groups(chunkIds.size(), groupSize, needed);
+        Deque<Integer> pending = new ArrayDeque<>();
+
+        /* 1. Local chunks */
+        for (int i = 0; i < chunkIds.size(); i++) {
+            if (groups.isDone(i)) continue;
+            byte[] data = chunkStore.getChunk(chunkIds.get(i));
+            if (data != null) {
+                handler.accept(i, data);
+                groups.arrived(i);
+                result.local++;
+            } else {
+                pending.add(i);
+            }
+        }
+        pending.removeIf(groups::isDone);
+        if (pending.isEmpty()) return result;
+
+        /* 2. Network */
+        Map<Contact, Peer> byContact = new LinkedHashMap<>();
+        Map<Integer, Set<Peer>> candidates = new HashMap<>();
+        for (int index : pending) {
+            Set<Peer> set = new HashSet<>();
+            for (Contact c : holdersOf.apply(chunkIds.get(index))) {
+                set.add(byContact.computeIfAbsent(c, Peer::new));
+            }
+            candidates.put(index, set);
+        }
+        List<Peer> peers = new ArrayList<>(byContact.values());
+
+        Map<Integer, List<Request>> inFlight = new HashMap<>();
+        Map<Integer, Set<Peer>> failedBy = new HashMap<>();
+        BlockingQueue<Reply> replies = new LinkedBlockingQueue<>();
+        Fallback fallback = new Fallback(chunkIds, fallbackOf, byContact, peers, candidates, failedBy);
+
+        for (int index : pending) fallback.widenIfExhausted(index);
+
+        try {
+            while (groups.remaining() > 0) {
+
+                dispatch(peers, pending, inFlight, candidates, failedBy, chunkIds, replies, result);
+
+                if (inFlight.isEmpty() && fallback.widenAll(pending)) {
+                    continue; // holders were dropped meanwhile
+                }
+                if (inFlight.isEmpty()) {
+                    int index = pending.isEmpty() ? -1 : pending.peekFirst();
+                    throw new IllegalStateException(
+                            (groupSize == 1 ? "Missing chunk: " : "Too few shards near: ")
+                            + (index < 0 ? "?" : chunkIds.get(index)));
+                }
+
+                Reply reply = replies.poll(
+                        requestTimeout.toMillis() * 2, TimeUnit.MILLISECONDS);
+                if (reply == null) {
+                    throw new IllegalStateException("Chunk download stalled");
+                }
+
+                Request req = reply.request;
+                req.peer.inFlight--;
+
+                List<Request> outstanding = inFlight.get(req.index);
+                if (outstanding == null || !outstanding.remove(req)) {
+                    continue; // chunk already done
+                }
+
+                String chunkId = chunkIds.get(req.index);
+                byte[] data = reply.response == null ? null : reply.response.getChunkData();
+
+                if (reply.response != null &&
+                    reply.response.getType() == MessageType.CHUNK_RESPONSE &&
+                    data != null &&
+                    hashMatches(chunkId, data)) {
+
+                    req.peer.failures = 0;
+                    inFlight.remove(req.index);
+
+                    // Endgame duplicates are no longer needed
+                    for (Request other : outstanding) {
+                        // A copy that already completed still queues its reply
+                        if (other.future.cancel(true)) other.peer.inFlight--;
+                    }
+
+                    chunkStore.putChunk(chunkId, data);
+                    handler.accept(req.index, data);
+                    result.fetched++;
+
+                    if (groups.arrived(req.index)) {
+                        // Enough shards: drop the rest of the group
+                        for (int i = groups.first(req.index); i < groups.end(req.index); i++) {
+                            List<Request> rest = inFlight.remove(i);
+                            if (rest == null) continue;
+                            for (Request other : rest) {
+                                if (other.future.cancel(true)) other.peer.inFlight--;
+                            }
+                        }
+                        pending.removeIf(groups::isDone);
+                    }
+                    continue;
+                }
+
+                /* Failed, timed out, missing or corrupt */
+                result.failures++;
+                boolean notHere = reply.response != null
+                        && reply.response.getType() == MessageType.CHUNK_RESPONSE
+                        && data == null;
+                if (!notHere && ++req.peer.failures >= MAX_PEER_FAILURES && !req.peer.dropped) {
+                    req.peer.dropped = true;
+                    System.err.println("[ChunkDownloader] Dropping peer " + req.peer.contact);
+                }
+                failedBy.computeIfAbsent(req.index, i -> new HashSet<>()).add(req.peer);
+
+                if (outstanding.isEmpty()) {
+                    inFlight.remove(req.index);
+                    fallback.widenIfExhausted(req.index);
+                    pending.addFirst(req.index); // retry before new chunks
+                }
+            }
+        } finally {
+            for (List<Request> list : inFlight.values()) {
+                for (Request r : list) r.future.cancel(true);
+            }
+        }
+
+        return result;
+    }
+
+    /* ================= SCHEDULING ================= */
+
+    /**
+     * Hand out work round-robin, one chunk per peer per pass, until
+     * every peer is full or nothing is left to ask for.
+     */
+    private void dispatch(List<Peer> peers,
+                          Deque<Integer> pending,
+                          Map<Integer, List<Request>> inFlight,
+                          Map<Integer, Set<Peer>> candidates,
+                          Map<Integer, Set<Peer>> failedBy,
+                          List<String> chunkIds,
+                          BlockingQueue<Reply> replies,
+                          Result result) {
+
+        boolean assigned = true;
+        while (assigned) {
+            assigned = false;
+
+            for (Peer peer : peers) {
+                if (peer.dropped || peer.inFlight >= perPeerLimit) continue;
+
+                int index = nextPending(peer, pending, candidates, failedBy);
+                if (index < 0 && pending.isEmpty()) {
+                    index = nextEndgame(peer, inFlight, candidates, failedBy);
+                }
+                if (index < 0) continue;
+
+                Request req = new Request(index, peer);
+                req.future = request(req, chunkIds.get(index), replies);
+                inFlight.computeIfAbsent(index, i -> new ArrayList<>()).add(req);
+                peer.inFlight++;
+                result.requests++;
+                assigned = true;
+            }
+        }
+    }
+
+    /** First queued chunk this peer holds and has not already failed */
+    private static int nextPending(Peer peer,
+                                   Deque<Integer> pending,
+                                   Map<Integer, Set<Peer>> candidates,
+                                   Map<Integer, Set<Peer>> failedBy) {
+        Iterator<Integer> it = pending.iterator();
+        while (it.hasNext()) {
+            int index = it.next();
+            if (!candidates.get(index).contains(peer)) continue;
+            Set<Peer> failed = failedBy.get(index);
+            if (failed == null || !failed.contains(peer)) {
+                it.remove();
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /** An outstanding chunk worth asking this peer for as well */
+    private static int nextEndgame(Peer peer,
+                                   Map<Integer, List<Request>> inFlight,
+                                   Map<Integer, Set<Peer>> candidates,
+                                   Map<Integer, Set<Peer>> failedBy) {
+        int best = -1;
+        int bestCopies = MAX_ENDGAME_COPIES;
+
+        for (Map.Entry<Integer, List<Request>> e : inFlight.entrySet()) {
+            List<Request> reqs = e.getValue();
+            if (reqs.size() >= bestCopies) continue;
+            if (!candidates.get(e.getKey()).contains(peer)) continue;
+
+            Set<Peer> failed = failedBy.get(e.getKey());
+            if (failed != null && failed.contains(peer)) continue;
+
+            boolean asked = false;
+            for (Request r : reqs) {
+                if (r.peer == peer) { asked = true; break; }
+            }
+            if (asked) continue;
+
+            best = e.getKey();
+            bestCopies = reqs.size();
+        }
+        return best;
+    }
+
+    private CompletableFuture<DHTMessage> request(Request req,
+                                                  String chunkId,
+                                                  BlockingQueue<Reply> replies) {
+        DHTMessage get = new DHTMessage();
+        get.setType(MessageType.GET_CHUNK);
+        get.setChunkId(chunkId);
+
+        CompletableFuture<DHTMessage> f =
+                sender.sendAsync(req.peer.contact, get, requestTimeout);
+
+        f.whenComplete((r, e) -> {
+            if (!f.isCancelled()) replies.add(new Reply(req, e == null ? r : null));
+        });
+        return f;
+    }
+
+    private static boolean hashMatches(String chunkId, byte[] data) {
+        try {
+            return chunkId.equals(HashUtil.sha256Hex(data));
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /** Fallback holders, added to a chunk's candidates at most once */
+    private static final class Fallback {
+        final List<String> chunkIds;
+        final Function<String, List<Contact>> fallbackOf;
+        final Map<Contact, Peer> byContact;
+        final List<Peer> peers;
+        final Map<Integer, Set<Peer>> candidates;
+        final Map<Integer, Set<Peer>> failedBy;
+        final Set<Integer> widened = new HashSet<>();
+
+        Fallback(List<String> chunkIds,
+                 Function<String, List<Contact>> fallbackOf,
+                 Map<Contact, Peer> byContact,
+                 List<Peer> peers,
+                 Map<Integer, Set<Peer>> candidates,
+                 Map<Integer, Set<Peer>> failedBy) {
+            this.chunkIds = chunkIds;
+            this.fallbackOf = fallbackOf;
+            this.byContact = byContact;
+            this.peers = peers;
+            this.candidates = candidates;
+            this.failedBy = failedBy;
+        }
+
+        /** @return true if the chunk got a peer it can still try */
+        boolean widenIfExhausted(int index) {
+            if (!exhausted(index) || !widened.add(index)) return false;
+
+            Set<Peer> set = candidates.get(index);
+            for (Contact c : fallbackOf.apply(chunkIds.get(index))) {
+                Peer peer = byContact.get(c);
+                if (peer == null) {
+                    peer = new Peer(c);
+                    byContact.put(c, peer);
+                    peers.add(peer);
+                }
+                set.add(peer);
+            }
+            return !exhausted(index);
+        }
+
+        boolean widenAll(Deque<Integer> pending) {
+            boolean any = false;
+            for (int index : pending) {
+                if (widenIfExhausted(index)) any = true;
+            }
+            return any;
+        }
+
+        private boolean exhausted(int index) {
+            Set<Peer> failed = failedBy.getOrDefault(index, Set.of());
+            for (Peer p : candidates.get(index)) {
+                if (!p.dropped && !failed.contains(p)) return false;
+            }
+            return true;
+        }
+    }
+
+    /** Completion of each group of chunks */
+    private static final class Groups {
+        final int size;
+        final int count;
+        final int[] missing;  // chunks still needed per group
+        int remaining;
+
+        Groups(int chunks, int size, int needed) {
+            this.size = size;
+            this.count = chunks;
+            int groups = (chunks + size - 1) / size;
+            this.missing = new int[groups];
+            for (int g = 0; g < groups; g++) {
+                int length = Math.min(size, chunks - g * size);
+                missing[g] = Math.max(1, needed - (size - length));
+            }
+            this.remaining = groups;
+        }
+
+        boolean isDone(int index) {
+            return missing[index / size] <= 0;
+        }
+
+        /** @return true if this chunk completed its group */
+        boolean arrived(int index) {
+            if (--missing[index / size] != 0) return false;
+            remaining--;
+            return true;
+        }
+
+        int first(int index) {
+            return index / size * size;
+        }
+
+        int end(int index) {
+            return Math.min(first(index) + size, count);
+        }
+
+        int remaining() {
+            return remaining;
+        }
+    }
+
+    private static final class Peer {
+        final Contact contact;
+        int inFlight;
+        int failures;
+        boolean dropped;
+
+        Peer(Contact contact) {
+            this.contact = contact;
+        }
+    }
+
+    private static final class Request {
+        final int index;
+        final Peer peer;
+        CompletableFuture<DHTMessage> future;
+
+        Request(int index, Peer peer) {
+            this.index = index;
+            this.peer = peer;
+        }
+    }
+
+    private static final class Reply {
+        final Request request;
+        final DHTMessage response; // null = failed / timed out
+
+        Reply(Request request, DHTMessage response) {
+            this.request = request;
+            this.response = response;
+        }
+    }
+
+    /* ================= RESULT ================= */
+
+    public static final class Result {
+        int local;
+        int fetched;
+        int requests;
+        int failures;
+
+        /** Chunks found in the local store */
+        public int getLocal() { return local; }
+
+        /** Chunks downloaded and verified */
+        public int getFetched() { return fetched; }
+
+        /** GET_CHUNK requests sent, including retries and endgame copies */
+        public int getRequests() { return requests; }
+
+        /** Requests that failed, timed out or returned bad data */
+        public int getFailures() { return failures; }
+
+        @Override
+        public String toString() {
+            return "local=" + local + " fetched=" + fetched +
+                   " requests=" + requests + " failures=" + failures;
+        }
+    }
+}
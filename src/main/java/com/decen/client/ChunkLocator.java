@@ -0,0 +1,82 @@
+package com.decen.client;
+
+import com.decen.dht.Contact;
+import com.decen.dht.NodeId;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Where a download looks for a chunk.
+ *
+ * First on the nodes this node's routing table says the chunk belongs
+ * on. The uploader placed it by its own routing table, which is never
+ * quite the same, so once those have all failed the chunk id is looked
+ * up iteratively and the closest nodes the network knows are asked,
+ * then a few fixed peers (the bootstrap node). Erasure coded shards
+ * go through the same steps, starting from the node each is assigned.
+ */
+public class ChunkLocator {
+
+    /** Iterative FIND_NODE toward a chunk id */
+    public interface Lookup {
+        List<Contact> closest(NodeId target) throws Exception;
+    }
+
+    private final ChunkPlacer placer;
+    private final Lookup lookup;
+    private final List<Contact> lastResort;
+
+    public ChunkLocator(ChunkPlacer placer, Lookup lookup, List<Contact> lastResort) {
+        this.placer = placer;
+        this.lookup = lookup;
+        this.lastResort = lastResort;
+    }
+
+    /**
+     * The R nodes closest to the chunk in our routing table.
+     */
+    public List<Contact> holdersOf(String chunkId) {
+        return placer.targetsFor(chunkId);
+    }
+
+    /**
+     * Where each shard of an erasure coded group may be: the node our
+     * routing table assigns it, then the others closest to the shard
+     * that the uploader's table may have assigned instead.
+     */
+    public Map<String, List<Contact>> shardHoldersOf(List<String> group) {
+        List<Contact> assigned = placer.assign(group);
+        Map<String, List<Contact>> holders = new HashMap<>();
+
+        for (int i = 0; i < group.size(); i++) {
+            String shardId = group.get(i);
+            Set<Contact> set = new LinkedHashSet<>();
+            if (assigned.get(i) != null) set.add(assigned.get(i));
+            set.addAll(placer.targetsFor(shardId, group.size()));
+            holders.put(shardId, new ArrayList<>(set));
+        }
+        return holders;
+    }
+
+    /**
+     * The closest nodes the network knows, then the fixed peers.
+     * A failed lookup leaves just the fixed peers.
+     */
+    public List<Contact> fallbackOf(String chunkId) {
+        Set<Contact> found = new LinkedHashSet<>();
+        try {
+            found.addAll(lookup.closest(NodeId.fromHex(chunkId)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            System.err.println("[ChunkLocator] Lookup for " + chunkId + " failed: " + e.getMessage());
+        }
+        found.addAll(lastResort);
+        return new ArrayList<>(found);
+    }
+}
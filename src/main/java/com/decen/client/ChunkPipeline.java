@@ -0,0 +1,274 @@
+package com.decen.client;
+
+import com.decen.crypto.ChunkEncryption;
+import com.decen.crypto.HashUtil;
+import com.decen.storage.BufferPool;
+import com.decen.storage.ChunkSource;
+import com.decen.storage.ChunkStore;
+import com.decen.storage.PooledBuffer;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ordered upload pipeline: read → encrypt + hash → store.
+ *
+ * - The calling thread reads chunks from the source
+ * - Worker threads encrypt and hash them in parallel
+ * - Writer threads hand them to the ChunkStore
+ *
+ * At most {@code window} chunks, and about {@code window} slabs of
+ * plaintext, are in flight; reading blocks on the oldest one when
+ * either is full. That bounds memory whatever the chunk size and keeps
+ * a slow disk from being flooded. Chunk ids come back in file order.
+ *
+ * Plaintext and ciphertext live in {@link BufferPool} slabs from read
+ * to store, so an upload of fixed-size chunks makes no chunk-sized
+ * heap allocations.
+ */
+public final class ChunkPipeline implements Closeable {
+
+    private final ChunkEncryption encryption;
+    private final ChunkStore chunkStore;
+    private final ExecutorService workers;
+    private final ExecutorService writers;
+    private final int window;
+    private final long windowBytes;
+    private final BufferPool pool;
+
+    /** putChunk calls skipped because the store already had the chunk */
+    private final AtomicLong skippedWrites = new AtomicLong();
+
+    /**
+     * Sized for this machine: one worker per core, a window of two
+     * chunks per worker.
+     */
+    public ChunkPipeline(ChunkEncryption encryption, ChunkStore chunkStore) {
+        this(encryption, chunkStore,
+                Runtime.getRuntime().availableProcessors(), 4,
+                2 * Runtime.getRuntime().availableProcessors());
+    }
+
+    public ChunkPipeline(ChunkEncryption encryption,
+                         ChunkStore chunkStore,
+                         int workerThreads,
+                         int writerThreads,
+                         int window) {
+        this(encryption, chunkStore, workerThreads, writerThreads, window,
+                BufferPool.shared());
+    }
+
+    public ChunkPipeline(ChunkEncryption encryption,
+                         ChunkStore chunkStore,
+                         int workerThreads,
+                         int writerThreads,
+                         int window,
+                         BufferPool pool) {
+        if (workerThreads < 1 || writerThreads < 1 || window < 1) {
+            throw new IllegalArgumentException("threads and window must be >= 1");
+        }
+        this.encryption = encryption;
+        this.chunkStore = chunkStore;
+        this.workers = Executors.newFixedThreadPool(
+                workerThreads, daemonThreads("chunk-worker"));
+        this.writers = Executors.newFixedThreadPool(
+                writerThreads, daemonThreads("chunk-writer"));
+        this.window = window;
+        this.windowBytes = (long) window * pool.slabSize();
+        this.pool = pool;
+    }
+
+    /**
+     * Encrypt and store every chunk of the source.
+     *
+     * @return chunk ids in source order
+     */
+    public List<String> process(ChunkSource source, byte[] key) throws Exception {
+        return process(source, encryption, key);
+    }
+
+    /**
+     * Same as {@link #process(ChunkSource, byte[])} with another cipher.
+     */
+    public List<String> process(ChunkSource source,
+                                ChunkEncryption cipher,
+                                byte[] key) throws Exception {
+        return process(source, cipher, key, null);
+    }
+
+    /**
+     * Same as {@link #process(ChunkSource, ChunkEncryption, byte[])},
+     * also collecting each chunk's key (see
+     * {@link ChunkEncryption#chunkKey}) in source order.
+     *
+     * @param chunkKeys filled with one key per chunk, or null
+     */
+    public List<String> process(ChunkSource source,
+                                ChunkEncryption cipher,
+                                byte[] key,
+                                List<byte[]> chunkKeys) throws Exception {
+
+        Deque<CompletableFuture<Encrypted>> inFlight = new ArrayDeque<>();
+        Deque<Integer> inFlightSizes = new ArrayDeque<>();
+        long inFlightBytes = 0;
+        List<String> chunkIds = new ArrayList<>();
+        boolean done = false;
+
+        try {
+            PooledBuffer chunk;
+            while ((chunk = source.nextChunk(pool)) != null) {
+                int size = chunk.buffer().remaining();
+                // Large chunks fill the byte budget before the window
+                while (!inFlight.isEmpty()
+                        && (inFlight.size() >= window || inFlightBytes + size > windowBytes)) {
+                    try {
+                        collect(await(inFlight.removeFirst()), chunkIds, chunkKeys);
+                        inFlightBytes -= inFlightSizes.removeFirst();
+                    } catch (Exception e) {
+                        chunk.release();
+                        throw e;
+                    }
+                }
+                inFlight.addLast(submit(cipher, chunk, key));
+                inFlightSizes.addLast(size);
+                inFlightBytes += size;
+            }
+            while (!inFlight.isEmpty()) {
+                collect(await(inFlight.removeFirst()), chunkIds, chunkKeys);
+            }
+            done = true;
+            return chunkIds;
+        } finally {
+            if (!done) {
+                // Chunks not yet started are dropped
+                for (CompletableFuture<Encrypted> f : inFlight) {
+                    f.cancel(false);
+                }
+            }
+        }
+    }
+
+    public long getSkippedWrites() {
+        return skippedWrites.get();
+    }
+
+    @Override
+    public void close() {
+        workers.shutdownNow();
+        writers.shutdownNow();
+    }
+
+    /* ================= STAGES ================= */
+
+    private CompletableFuture<Encrypted> submit(ChunkEncryption cipher,
+                                                PooledBuffer plaintext,
+                                                byte[] key) {
+        CompletableFuture<Encrypted> encrypted = CompletableFuture
+                .supplyAsync(() -> encrypt(cipher, plaintext, key), workers);
+        CompletableFuture<Encrypted> stored = encrypted.thenApplyAsync(this::store, writers);
+
+        // A cancelled chunk never reaches store(); give its slab back
+        stored.whenComplete((chunk, e) -> {
+            if (stored.isCancelled()) {
+                encrypted.thenAccept(c -> {
+                    if (c.claim()) c.data.release();
+                });
+            }
+        });
+        return stored;
+    }
+
+    private Encrypted encrypt(ChunkEncryption cipher, PooledBuffer plaintext, byte[] key) {
+        PooledBuffer out = null;
+        try {
+            ByteBuffer src = plaintext.buffer();
+            out = pool.acquire((int) Math.max(src.remaining() + BufferPool.HEADROOM,
+                    cipher.ciphertextLength(src.remaining())));
+            ByteBuffer data = out.buffer();
+            byte[] chunkKey = cipher.chunkKey(src, key);
+            cipher.encrypt(src, data, chunkKey);
+            data.flip();
+
+            String id = HashUtil.toHex(HashUtil.sha256(data.duplicate()));
+            return new Encrypted(id, chunkKey, out);
+        } catch (Exception e) {
+            if (out != null) out.release();
+            throw new CompletionException(e);
+        } finally {
+            plaintext.release();
+        }
+    }
+
+    private Encrypted store(Encrypted chunk) {
+        if (!chunk.claim()) throw new CancellationException();
+        try {
+            // Convergent chunks repeat across uploads; skip the write
+            if (chunkStore.hasChunk(chunk.id)) {
+                skippedWrites.incrementAndGet();
+            } else {
+                chunkStore.putChunk(chunk.id, chunk.data.buffer());
+            }
+            return chunk;
+        } catch (Exception e) {
+            throw new CompletionException(e);
+        } finally {
+            chunk.data.release();
+        }
+    }
+
+    private static void collect(Encrypted chunk, List<String> chunkIds, List<byte[]> chunkKeys) {
+        chunkIds.add(chunk.id);
+        if (chunkKeys != null) chunkKeys.add(chunk.key);
+    }
+
+    private static <T> T await(CompletableFuture<T> f) throws Exception {
+        try {
+            return f.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) throw (Exception) cause;
+            throw e;
+        }
+    }
+
+    private static final class Encrypted {
+        final String id;
+        final byte[] key;
+        final PooledBuffer data;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        Encrypted(String id, byte[] key, PooledBuffer data) {
+            this.id = id;
+            this.key = key;
+            this.data = data;
+        }
+
+        /* Exactly one of store() and the cancel path owns the slab */
+        boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + "-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
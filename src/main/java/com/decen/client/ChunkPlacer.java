@@ -0,0 +1,402 @@
+package com.decen.client;
+
+import com.decen.dht.Contact;
+import com.decen.dht.DHTNode;
+import com.decen.dht.NodeId;
+import com.decen.networking.DHTMessage;
+import com.decen.networking.MessageSender;
+import com.decen.networking.MessageType;
+import com.decen.storage.ChunkStore;
+import com.decen.storage.FileMetadata;
+import com.decen.storage.MetadataStore;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chunk placement and repair.
+ *
+ * - Every chunk belongs on the R nodes whose NodeId is XOR-closest
+ *   to the chunk hash, as this node's routing table sees them
+ * - Copies are pushed with STORE_CHUNK, in parallel, at most
+ *   {@code perPeerLimit} in flight per peer; chunk bytes are read from
+ *   the local store only when their request goes out
+ * - Nodes that acknowledged a copy are remembered. A repair pass
+ *   counts the ones still in the routing table and tops each chunk
+ *   back up to R on the next-closest nodes
+ * - Shards of an erasure coded group are kept once each, on distinct
+ *   nodes, so losing one node costs the group at most one shard
+ *
+ * Pushes wait in one queue per target, so a reply only looks at its
+ * own peer's queue. A failed push marks the peer stale and is retried
+ * on the next-closest node that was not already given the chunk,
+ * until the candidates run out.
+ * Holders are kept in memory, so the first pass after a restart
+ * pushes every chunk once more (receivers skip chunks they hold).
+ */
+public class ChunkPlacer implements Closeable {
+
+    public static final int DEFAULT_REPLICAS = 3;
+    public static final Duration DEFAULT_REPAIR_INTERVAL = Duration.ofMinutes(10);
+
+    private final MessageSender sender;
+    private final ChunkStore chunkStore;
+    private final DHTNode dhtNode;
+    private final int replicas;
+    private final int perPeerLimit;
+    private final Duration requestTimeout;
+
+    /** chunkId → nodes that acknowledged a copy */
+    private final Map<String, Set<Contact>> holders = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService repairer;
+
+    public ChunkPlacer(MessageSender sender,
+                       ChunkStore chunkStore,
+                       DHTNode dhtNode,
+                       int replicas,
+                       int perPeerLimit,
+                       Duration requestTimeout) {
+        if (replicas < 1 || perPeerLimit < 1) {
+            throw new IllegalArgumentException("replicas and perPeerLimit must be >= 1");
+        }
+        this.sender = sender;
+        this.chunkStore = chunkStore;
+        this.dhtNode = dhtNode;
+        this.replicas = replicas;
+        this.perPeerLimit = perPeerLimit;
+        this.requestTimeout = requestTimeout;
+    }
+
+    /**
+     * The nodes a chunk should live on, nearest first.
+     */
+    public List<Contact> targetsFor(String chunkId) {
+        return targetsFor(chunkId, replicas);
+    }
+
+    public List<Contact> targetsFor(String chunkId, int count) {
+        return dhtNode.findNode(NodeId.fromHex(chunkId), count);
+    }
+
+    /**
+     * The node each shard of an erasure coded group lives on: the one
+     * closest to the shard that no earlier shard of the group took.
+     * Anyone with the same routing table computes the same nodes.
+     *
+     * @return one node per shard (null while the table is empty)
+     */
+    public List<Contact> assign(List<String> group) {
+        List<Contact> assigned = new ArrayList<>(group.size());
+        Set<Contact> used = new HashSet<>();
+
+        for (String shardId : group) {
+            List<Contact> targets = targetsFor(shardId, group.size());
+            Contact pick = null;
+            for (Contact c : targets) {
+                if (used.add(c)) {
+                    pick = c;
+                    break;
+                }
+            }
+            // Fewer nodes than shards: double up on the closest
+            if (pick == null && !targets.isEmpty()) pick = targets.get(0);
+            assigned.add(pick);
+        }
+        return assigned;
+    }
+
+    /**
+     * Bring every chunk up to R live copies. Used both right after an
+     * upload and by the repair loop.
+     */
+    public Result replicate(Collection<String> chunkIds) throws InterruptedException {
+        Result result = new Result();
+        List<Push> queue = new ArrayList<>();
+
+        /* 1. Work out which copies are missing */
+        for (String chunkId : chunkIds) {
+            Set<Contact> live = liveHolders(chunkId);
+            int needed = replicas - live.size();
+            if (needed <= 0) {
+                result.satisfied++;
+                continue;
+            }
+            // The next R closest stand in for targets that fail
+            Deque<Contact> spares = new ArrayDeque<>();
+            for (Contact target : targetsFor(chunkId, replicas * 2)) {
+                if (live.contains(target)) continue;
+                if (needed > 0) {
+                    queue.add(new Push(chunkId, target, spares));
+                    needed--;
+                } else {
+                    spares.add(target);
+                }
+            }
+        }
+
+        /* 2. Push them */
+        push(queue, result);
+        return result;
+    }
+
+    /**
+     * Make sure every shard of every erasure coded group has one live
+     * copy, on the node {@link #assign} picks for it.
+     */
+    public Result spread(List<List<String>> groups) throws InterruptedException {
+        Result result = new Result();
+        List<Push> queue = new ArrayList<>();
+
+        for (List<String> group : groups) {
+            List<Contact> assigned = assign(group);
+            for (int i = 0; i < group.size(); i++) {
+                String shardId = group.get(i);
+                Contact target = assigned.get(i);
+                if (!liveHolders(shardId).isEmpty()) {
+                    result.satisfied++;
+                } else if (target != null) {
+                    // Stand-ins hold no other shard of the group
+                    Deque<Contact> spares = new ArrayDeque<>(targetsFor(shardId, group.size() * 2));
+                    spares.removeAll(assigned);
+                    queue.add(new Push(shardId, target, spares));
+                }
+            }
+        }
+
+        push(queue, result);
+        return result;
+    }
+
+    /** Send the queued pushes, per-peer limited */
+    private void push(List<Push> queue, Result result) throws InterruptedException {
+        if (queue.isEmpty()) return;
+
+        Map<Contact, Deque<Push>> waiting = new HashMap<>();
+        Map<Contact, Integer> inFlight = new HashMap<>();
+        Deque<Contact> ready = new ArrayDeque<>();   // peers that may have room
+        BlockingQueue<Reply> replies = new LinkedBlockingQueue<>();
+        int outstanding = 0;
+
+        for (Push push : queue) {
+            enqueue(push, waiting, ready);
+        }
+
+        while (true) {
+            Contact peer;
+            while ((peer = ready.poll()) != null) {
+                Deque<Push> pushes = waiting.get(peer);
+                if (pushes == null) continue;
+
+                int busy = inFlight.getOrDefault(peer, 0);
+                while (busy < perPeerLimit && !pushes.isEmpty()) {
+                    if (!send(pushes.poll(), replies)) {
+                        result.missing++;
+                        continue;
+                    }
+                    busy++;
+                    outstanding++;
+                    result.requests++;
+                }
+                inFlight.put(peer, busy);
+                if (pushes.isEmpty()) waiting.remove(peer);
+            }
+            if (outstanding == 0) break;
+
+            Reply reply = replies.poll(requestTimeout.toMillis() * 2, TimeUnit.MILLISECONDS);
+            if (reply == null) {
+                result.failures += outstanding;
+                for (Deque<Push> pushes : waiting.values()) result.failures += pushes.size();
+                break; // transport never answered
+            }
+            outstanding--;
+            Contact target = reply.push.target;
+            inFlight.merge(target, -1, Integer::sum);
+            if (waiting.containsKey(target)) ready.add(target);
+
+            if (reply.response != null && reply.response.getType() == MessageType.STORE_CHUNK) {
+                holders.computeIfAbsent(reply.push.chunkId, id -> ConcurrentHashMap.newKeySet())
+                       .add(target);
+                result.stored++;
+            } else {
+                dhtNode.markStale(target);
+                result.failures++;
+
+                Push retry = reply.push.next(dhtNode);
+                if (retry != null) enqueue(retry, waiting, ready);
+            }
+        }
+    }
+
+    private static void enqueue(Push push, Map<Contact, Deque<Push>> waiting, Deque<Contact> ready) {
+        Deque<Push> pushes = waiting.get(push.target);
+        if (pushes == null) {
+            pushes = new ArrayDeque<>();
+            waiting.put(push.target, pushes);
+            ready.add(push.target);
+        }
+        pushes.add(push);
+    }
+
+    /**
+     * @return recorded holders of the chunk that are still in the
+     *         routing table; the others are forgotten
+     */
+    private Set<Contact> liveHolders(String chunkId) {
+        Set<Contact> recorded = holders.get(chunkId);
+        if (recorded == null) return new LinkedHashSet<>();
+
+        recorded.removeIf(c -> !dhtNode.isKnown(c));
+        return new LinkedHashSet<>(recorded);
+    }
+
+    private boolean send(Push push, BlockingQueue<Reply> replies) {
+        byte[] data;
+        try {
+            data = chunkStore.getChunk(push.chunkId);
+        } catch (Exception e) {
+            data = null;
+        }
+        if (data == null) return false;
+
+        DHTMessage store = new DHTMessage();
+        store.setType(MessageType.STORE_CHUNK);
+        store.setChunkId(push.chunkId);
+        store.setChunkData(data);
+
+        sender.sendAsync(push.target, store, requestTimeout)
+              .whenComplete((r, e) -> replies.add(new Reply(push, e == null ? r : null)));
+        return true;
+    }
+
+    /* ================= REPAIR LOOP ================= */
+
+    /**
+     * Periodically re-replicate the chunks of every file this node
+     * published, or re-spread its shards if it is erasure coded.
+     */
+    public synchronized void startRepair(MetadataStore metadataStore, Duration interval) {
+        if (repairer != null) return;
+
+        repairer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "chunk-repair");
+            t.setDaemon(true);
+            return t;
+        });
+        long ms = interval.toMillis();
+        repairer.scheduleWithFixedDelay(() -> repairQuietly(metadataStore), ms, ms, TimeUnit.MILLISECONDS);
+    }
+
+    private void repairQuietly(MetadataStore metadataStore) {
+        try {
+            Set<String> chunkIds = new LinkedHashSet<>();
+            List<List<String>> groups = new ArrayList<>();
+            for (String fileId : metadataStore.getFileIds()) {
+                FileMetadata m = metadataStore.getFile(fileId);
+                if (m == null || !m.isPermanent()) continue;
+                if (m.isErasureCoded()) {
+                    groups.addAll(m.getShardGroups());
+                } else {
+                    chunkIds.addAll(m.getChunkIds());
+                }
+            }
+
+            Result result = replicate(chunkIds);
+            if (result.getRequests() > 0) {
+                System.out.println("[ChunkPlacer] Repair: " + result);
+            }
+            result = spread(groups);
+            if (result.getRequests() > 0) {
+                System.out.println("[ChunkPlacer] Repair (shards): " + result);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            System.err.println("[ChunkPlacer] Repair failed: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (repairer != null) repairer.shutdownNow();
+    }
+
+    /* ================= TYPES ================= */
+
+    private static final class Push {
+        final String chunkId;
+        final Contact target;
+        final Deque<Contact> spares;   // shared by the chunk's pushes, nearest first
+
+        Push(String chunkId, Contact target, Deque<Contact> spares) {
+            this.chunkId = chunkId;
+            this.target = target;
+            this.spares = spares;
+        }
+
+        /** The same chunk for the next spare still in the routing table, or null */
+        Push next(DHTNode dhtNode) {
+            Contact c;
+            while ((c = spares.poll()) != null) {
+                if (dhtNode.isKnown(c)) return new Push(chunkId, c, spares);
+            }
+            return null;
+        }
+    }
+
+    private static final class Reply {
+        final Push push;
+        final DHTMessage response; // null = failed / timed out
+
+        Reply(Push push, DHTMessage response) {
+            this.push = push;
+            this.response = response;
+        }
+    }
+
+    public static final class Result {
+        int satisfied;
+        int stored;
+        int requests;
+        int failures;
+        int missing;
+
+        /** Chunks that already had R live copies (shards: one) */
+        public int getSatisfied() { return satisfied; }
+
+        /** Copies acknowledged by their target */
+        public int getStored() { return stored; }
+
+        /** STORE_CHUNK requests sent */
+        public int getRequests() { return requests; }
+
+        /** Pushes that failed or timed out */
+        public int getFailures() { return failures; }
+
+        /** Pushes skipped because the chunk is not in the local store */
+        public int getMissing() { return missing; }
+
+        @Override
+        public String toString() {
+            return "satisfied=" + satisfied + " stored=" + stored +
+                   " requests=" + requests + " failures=" + failures +
+                   " missing=" + missing;
+        }
+    }
+}
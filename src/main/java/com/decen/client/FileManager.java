@@ -1,14 +1,24 @@
 package com.decen.client;
 
 import com.decen.crypto.AESUtil;
+import com.decen.crypto.ChunkEncryption;
+import com.decen.crypto.ConvergentAES;
 import com.decen.crypto.ECCKeyExchangeUtil;
+import com.decen.crypto.EncryptionMode;
 import com.decen.crypto.HashUtil;
 import com.decen.dht.Contact;
+import com.decen.dht.NodeId;
 import com.decen.networking.DHTMessage;
 import com.decen.networking.MessageType;
 import com.decen.networking.PeerClient;
+import com.decen.storage.ChunkSink;
+import com.decen.storage.ChunkSource;
 import com.decen.storage.ChunkStore;
+import com.decen.storage.Chunking;
+import com.decen.storage.ErasureCoder;
+import com.decen.storage.ErasureCoding;
 import com.decen.storage.FileChunker;
+import com.decen.storage.FileMetadata;
 import com.decen.storage.MetadataStore;
 
 import java.nio.file.Path;
@@ -16,66 +26,121 @@ import java.security.KeyFactory;
 import java.security.KeyPair;
 import java.security.PublicKey;
 import java.security.spec.X509EncodedKeySpec;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
 
 /**
  * FileManager
  *  - Encrypts files using AES-GCM
- *  - Stores encrypted chunks locally
- *  - Announces metadata to DHT
+ *  - Stores encrypted chunks locally and on the R nodes closest to each,
+ *    or adds Reed-Solomon parity and keeps each shard on one node
+ *  - Announces metadata to the k closest nodes in the DHT
  *  - Retrieves files using DHT + secure ECC key exchange
  */
 public class FileManager {
 
+    /** Deadline for a single GET_CHUNK round-trip */
+    private static final Duration CHUNK_TIMEOUT = Duration.ofSeconds(15);
+
+    /** GET_CHUNK requests in flight per peer while downloading */
+    private static final int CHUNKS_PER_PEER = 4;
+
     private final ChunkStore chunkStore;
     private final MetadataStore metadataStore;
     private final PeerClient peerClient;
+    private final PeerController peerController;
+    private final ChunkPlacer placer;
+    private final ChunkLocator locator;
     private final Contact bootstrapContact;
 
     /* Crypto */
     private final AESUtil encryptor = new AESUtil();
     private final KeyPair myKeyPair;
 
+    /* Upload workers / download scheduler */
+    private final ChunkPipeline pipeline;
+    private final ChunkDownloader downloader;
+
     public FileManager(ChunkStore chunkStore,
                        MetadataStore metadataStore,
                        PeerClient peerClient,
+                       PeerController peerController,
+                       ChunkPlacer placer,
                        Contact bootstrapContact,
                        KeyPair myKeyPair) {
 
         this.chunkStore = chunkStore;
         this.metadataStore = metadataStore;
         this.peerClient = peerClient;
+        this.peerController = peerController;
+        this.placer = placer;
         this.bootstrapContact = bootstrapContact;
+        this.locator = new ChunkLocator(placer, this::findClosest,
+                bootstrapContact == null ? List.of() : List.of(bootstrapContact));
         this.myKeyPair = myKeyPair;
+        this.pipeline = new ChunkPipeline(encryptor, chunkStore);
+        this.downloader = new ChunkDownloader(
+                peerClient, chunkStore, CHUNKS_PER_PEER, CHUNK_TIMEOUT);
     }
 
     /* =========================
        STORE FILE
        ========================= */
     public void storeFile(Path filePath) throws Exception {
+        storeFile(filePath, Chunking.FIXED);
+    }
 
-        /* 1. Chunk file */
-        List<byte[]> chunks = FileChunker.chunkFile(filePath);
-        List<String> chunkIds = new ArrayList<>();
-
-        /* 2. Generate AES key */
-        byte[] aesKey = AESUtil.generateKey();
+    public void storeFile(Path filePath, Chunking chunking) throws Exception {
+        storeFile(filePath, chunking, EncryptionMode.RANDOM);
+    }
 
-        /* 3. Encrypt & store chunks */
-        for (byte[] chunk : chunks) {
+    public void storeFile(Path filePath,
+                          Chunking chunking,
+                          EncryptionMode encryption) throws Exception {
+        storeFile(filePath, chunking, encryption, null);
+    }
 
-            byte[] encrypted =
-                    encryptor.encrypt(chunk, aesKey);
+    /**
+     * @param erasure Reed-Solomon layout, or null to replicate every
+     *                chunk in full
+     */
+    public void storeFile(Path filePath,
+                          Chunking chunking,
+                          EncryptionMode encryption,
+                          ErasureCoding erasure) throws Exception {
+
+        /* 1. Per-file AES key; convergent chunks are keyed from this
+              node's secret instead, which never leaves the node */
+        byte[] aesKey = AESUtil.generateKey();
+        ChunkEncryption cipher = encryption.newCipher();
+        byte[] cipherKey = cipher.keysPerChunk()
+                ? metadataStore.getConvergenceSecret()
+                : aesKey;
+
+        /* 2. Encrypt & store chunks in parallel, ids in file order */
+        List<String> chunkIds;
+        List<byte[]> keys = cipher.keysPerChunk() ? new ArrayList<>() : null;
+        long skippedBefore = pipeline.getSkippedWrites();
+        try (ChunkSource source = FileChunker.open(
+                filePath, chunking, FileChunker.chunkSize(encryption))) {
+            chunkIds = pipeline.process(source, cipher, cipherKey, keys);
+        }
+        long deduplicated = pipeline.getSkippedWrites() - skippedBefore;
 
-            String chunkId =
-                    HashUtil.sha256Hex(encrypted);
+        /* 2a. Chunk keys travel with the metadata, sealed under the file key */
+        byte[] chunkKeys = keys == null ? null : ConvergentAES.sealKeys(keys, aesKey);
 
-            chunkStore.putChunk(chunkId, encrypted);
-            chunkIds.add(chunkId);
-        }
+        /* 2b. Parity shards from the stored chunks */
+        List<String> parityIds = erasure == null
+                ? List.of()
+                : new ErasureCoder(chunkStore, erasure).encode(chunkIds);
 
-        /* 4. Generate fileId */
+        /* 3. Generate fileId */
         String fileId =
                 HashUtil.sha256Hex(
                         filePath.getFileName()
@@ -83,20 +148,30 @@ public class FileManager {
                                 .getBytes()
                 );
 
-        /* 5. Store metadata locally */
-        metadataStore.putFile(fileId, chunkIds);
+        /* 4. Store metadata locally (never expires; we republish it) */
+        FileMetadata metadata = new FileMetadata(
+                chunkIds, chunking, encryption, 0, erasure, parityIds, chunkKeys);
+        metadataStore.putFile(fileId, metadata);
         metadataStore.putEncryptedKey(fileId, aesKey); // owner only
 
-        /* 6. Announce STORE to DHT */
-        DHTMessage store = new DHTMessage();
-        store.setType(MessageType.STORE);
-        store.setFileId(fileId);
-        store.setChunkIds(chunkIds);
+        /* 5. Push every chunk to the R nodes closest to it, or every
+              shard of a group to its own node */
+        ChunkPlacer.Result placed = erasure == null
+                ? placer.replicate(chunkIds)
+                : placer.spread(metadata.getShardGroups());
 
-        peerClient.send(bootstrapContact, store);
+        /* 6. STORE on the k closest nodes to the fileId */
+        int replicas = peerController.iterativeStore(fileId, metadata);
 
         System.out.println("[FileManager] Stored file");
-        System.out.println("  fileId = " + fileId);
+        System.out.println("  fileId = " + fileId + " (" + chunking.getLabel() +
+                ", " + encryption.getLabel() +
+                (erasure == null ? "" : ", " + erasure.getLabel()) + ")");
+        System.out.println("  chunks = " + chunkIds.size() +
+                " (" + deduplicated + " already stored)" +
+                (erasure == null ? "" : " + " + parityIds.size() + " parity"));
+        System.out.println("  copies = " + placed);
+        System.out.println("  stored on " + replicas + " nodes");
     }
 
     /* =========================
@@ -104,98 +179,246 @@ public class FileManager {
        ========================= */
     public void getFile(String fileId, Path outputPath) throws Exception {
 
-        /* 1. Query DHT */
-        DHTMessage find = new DHTMessage();
-        find.setType(MessageType.FIND_VALUE);
-        find.setFileId(fileId);
-
-        DHTMessage response =
-                peerClient.send(bootstrapContact, find);
-
-        if (response.getType() != MessageType.FIND_VALUE_RESPONSE) {
+        /* 1. Iterative FIND_VALUE (our own copy first) */
+        FileMetadata metadata = metadataStore.getFile(fileId);
+        if (metadata == null) {
+            metadata = peerController.iterativeFindValue(fileId);
+        }
+        if (metadata == null) {
             throw new IllegalStateException(
                     "File not found in DHT"
             );
         }
 
-        List<String> chunkIds =
-                response.getChunkIds();
+        List<String> chunkIds = metadata.getChunkIds();
+        Chunking chunking = metadata.getChunking();
+        ChunkEncryption cipher = metadata.getEncryption() == EncryptionMode.RANDOM
+                ? encryptor
+                : metadata.getEncryption().newCipher();
 
-        /* 2. Fetch encrypted chunks */
-        List<byte[]> encryptedChunks = new ArrayList<>();
+        /* 2. Obtain AES key securely */
+        byte[] aesKey = requestAESKeyFromOwner(fileId);
+
+        /* 3. Per-chunk keys, if the file has them */
+        List<byte[]> keys = metadata.getChunkKeys() == null
+                ? null
+                : ConvergentAES.openKeys(metadata.getChunkKeys(), aesKey);
+        if (keys != null && keys.size() != chunkIds.size()) {
+            throw new IllegalStateException(
+                    keys.size() + " chunk keys for " + chunkIds.size() + " chunks");
+        }
+        IntFunction<byte[]> keyOf = keys == null ? index -> aesKey : keys::get;
+
+        /* 4. Download in parallel, decrypt & write */
+        try (ChunkSink sink = FileChunker.create(outputPath)) {
+            ChunkDownloader.ChunkHandler writer;
+            InOrderWriter ordered = null;
+
+            if (chunking.isFixedSize()) {
+                // Every chunk's offset is known from its index
+                int chunkSize = FileChunker.chunkSize(metadata.getEncryption());
+                writer = (index, encrypted) -> sink.write(
+                        (long) index * chunkSize,
+                        cipher.decrypt(encrypted, keyOf.apply(index)));
+            } else {
+                ordered = new InOrderWriter(chunkIds, sink, cipher, keyOf);
+                writer = ordered;
+            }
 
-        for (String chunkId : chunkIds) {
+            ChunkDownloader.Result stats = metadata.isErasureCoded()
+                    ? downloadShards(metadata, writer)
+                    : downloadChunks(chunkIds, writer);
 
-            byte[] encrypted =
-                    chunkStore.getChunk(chunkId);
+            if (ordered != null) ordered.finish();
+            sink.commit();
+            System.out.println("[FileManager] Chunks: " + stats);
+        }
 
-            if (encrypted == null) {
-                encrypted = fetchChunkFromNetwork(chunkId);
-                if (encrypted == null) {
-                    throw new IllegalStateException(
-                            "Missing chunk: " + chunkId
-                    );
+        System.out.println("[FileManager] Restored file → " + outputPath);
+    }
+
+    /**
+     * Each chunk lives on the R nodes closest to it. Our routing table
+     * is not the uploader's, so chunks those nodes lack are looked up.
+     */
+    private ChunkDownloader.Result downloadChunks(List<String> chunkIds,
+                                                  ChunkDownloader.ChunkHandler writer)
+            throws Exception {
+
+        return downloader.download(chunkIds, 1, 1,
+                locator::holdersOf, locator::fallbackOf, writer);
+    }
+
+    /**
+     * Each shard lives on the node the placer assigns it, by the
+     * uploader's routing table; ours may assign it elsewhere, so the
+     * shard's other close nodes and then a lookup are tried too. Every
+     * shard of a group is requested at once and the group is rebuilt
+     * from the first k to arrive.
+     */
+    private ChunkDownloader.Result downloadShards(FileMetadata metadata,
+                                                  ChunkDownloader.ChunkHandler writer)
+            throws Exception {
+
+        ErasureCoding erasure = metadata.getErasure();
+        List<String> shardIds = new ArrayList<>();
+        Map<String, List<Contact>> holders = new HashMap<>();
+
+        for (List<String> group : metadata.getShardGroups()) {
+            shardIds.addAll(group);
+            holders.putAll(locator.shardHoldersOf(group));
+        }
+
+        GroupDecoder decoder = new GroupDecoder(
+                new ErasureCoder(chunkStore, erasure), metadata.getChunkIds(), writer);
+        return downloader.download(
+                shardIds,
+                erasure.getTotalShards(),
+                erasure.getDataShards(),
+                holders::get,
+                locator::fallbackOf,
+                decoder);
+    }
+
+    /**
+     * Collects the shards of each group and, once k are in, hands the
+     * group's chunks to the writer in order. Rebuilt chunks are checked
+     * against their id and stored like downloaded ones.
+     */
+    private final class GroupDecoder implements ChunkDownloader.ChunkHandler {
+        private final ErasureCoder coder;
+        private final List<String> chunkIds;
+        private final ChunkDownloader.ChunkHandler writer;
+        private final int k;
+        private final int total;
+        private final Map<Integer, byte[][]> partial = new HashMap<>();
+
+        GroupDecoder(ErasureCoder coder,
+                     List<String> chunkIds,
+                     ChunkDownloader.ChunkHandler writer) {
+            this.coder = coder;
+            this.chunkIds = chunkIds;
+            this.writer = writer;
+            this.k = coder.getCoding().getDataShards();
+            this.total = coder.getCoding().getTotalShards();
+        }
+
+        @Override
+        public void accept(int index, byte[] shard) throws Exception {
+            int group = index / total;
+            int position = index % total;
+            int dataCount = Math.min(k, chunkIds.size() - group * k);
+
+            // Chunk ids come first in the group's list, then parity
+            int slot = position < dataCount ? position : k + position - dataCount;
+            byte[][] shards = partial.computeIfAbsent(group, g -> new byte[total][]);
+            shards[slot] = shard;
+
+            int have = 0;
+            for (byte[] s : shards) if (s != null) have++;
+            if (have < dataCount) return;
+            partial.remove(group);
+
+            List<byte[]> chunks = coder.decodeGroup(shards, dataCount);
+            for (int i = 0; i < dataCount; i++) {
+                String chunkId = chunkIds.get(group * k + i);
+                byte[] chunk = chunks.get(i);
+                if (shards[i] == null) {
+                    if (!chunkId.equals(HashUtil.sha256Hex(chunk))) {
+                        throw new IllegalStateException("Rebuilt chunk does not match: " + chunkId);
+                    }
+                    chunkStore.putChunk(chunkId, chunk);
                 }
-                chunkStore.putChunk(chunkId, encrypted);
+                writer.accept(group * k + i, chunk);
             }
+        }
+    }
 
-            encryptedChunks.add(encrypted);
+    /**
+     * Writes variable-size chunks in file order. A chunk that arrives
+     * early is only marked; it is read back from the ChunkStore (where
+     * the downloader already put it) once all chunks before it are
+     * written, so nothing is buffered in memory.
+     */
+    private final class InOrderWriter implements ChunkDownloader.ChunkHandler {
+        private final List<String> chunkIds;
+        private final ChunkSink sink;
+        private final ChunkEncryption cipher;
+        private final IntFunction<byte[]> keyOf;
+        private final BitSet arrived = new BitSet();
+        private int next;
+
+        InOrderWriter(List<String> chunkIds,
+                      ChunkSink sink,
+                      ChunkEncryption cipher,
+                      IntFunction<byte[]> keyOf) {
+            this.chunkIds = chunkIds;
+            this.sink = sink;
+            this.cipher = cipher;
+            this.keyOf = keyOf;
         }
 
-        /* 3. Obtain AES key securely */
-        byte[] aesKey = requestAESKeyFromOwner(fileId);
+        @Override
+        public void accept(int index, byte[] encrypted) throws Exception {
+            if (index != next) {
+                arrived.set(index);
+                return;
+            }
+            sink.write(cipher.decrypt(encrypted, keyOf.apply(index)));
+            next++;
 
-        /* 4. Decrypt chunks */
-        List<byte[]> plaintext = new ArrayList<>();
-        for (byte[] enc : encryptedChunks) {
-            plaintext.add(
-                    encryptor.decrypt(enc, aesKey)
-            );
+            while (arrived.get(next)) {
+                byte[] data = chunkStore.getChunk(chunkIds.get(next));
+                if (data == null) {
+                    throw new IllegalStateException(
+                            "Chunk vanished from store: " + chunkIds.get(next));
+                }
+                sink.write(cipher.decrypt(data, keyOf.apply(next)));
+                arrived.clear(next);
+                next++;
+            }
         }
 
-        /* 5. Reassemble */
-        FileChunker.reassembleFile(
-                plaintext,
-                outputPath
-        );
-
-        System.out.println("[FileManager] Restored file → " + outputPath);
+        void finish() {
+            if (next != chunkIds.size()) {
+                throw new IllegalStateException(
+                        "Only " + next + " of " + chunkIds.size() + " chunks written");
+            }
+        }
     }
 
     /* =========================
        NETWORK HELPERS
        ========================= */
 
-    private byte[] fetchChunkFromNetwork(String chunkId) throws Exception {
+    /**
+     * Iterative lookup toward a chunk; the bootstrap node's view while
+     * our routing table is empty.
+     */
+    private List<Contact> findClosest(NodeId target) throws Exception {
+        List<Contact> closest = peerController.iterativeFindNode(target);
+        return closest.isEmpty() ? findChunkHolders(target) : closest;
+    }
+
+    /**
+     * Ask the bootstrap node for the nodes it knows closest to a chunk.
+     */
+    private List<Contact> findChunkHolders(NodeId target) throws Exception {
 
         DHTMessage findNode = new DHTMessage();
         findNode.setType(MessageType.FIND_NODE);
+        findNode.setTargetNodeId(target);
 
         DHTMessage response =
                 peerClient.send(bootstrapContact, findNode);
 
-        @SuppressWarnings("unchecked")
-        List<Contact> peers =
-                (List<Contact>) response.getPayload();
-
-        for (Contact peer : peers) {
-            try {
-                DHTMessage get = new DHTMessage();
-                get.setType(MessageType.GET_CHUNK);
-                get.setChunkId(chunkId);
-
-                DHTMessage r =
-                        peerClient.send(peer, get);
-
-                if (r.getType() == MessageType.CHUNK_RESPONSE &&
-                    r.getChunkData() != null) {
-                    return r.getChunkData();
-                }
-
-            } catch (Exception ignored) {}
+        List<Contact> peers = new ArrayList<>();
+        if (response.getPayload() != null) {
+            for (Object o : response.getPayload()) {
+                if (o instanceof Contact) peers.add((Contact) o);
+            }
         }
-
-        return null;
+        return peers;
     }
 
     private byte[] requestAESKeyFromOwner(String fileId)
@@ -0,0 +1,296 @@
+package com.decen.client;
+
+import com.decen.crypto.EncryptionMode;
+import com.decen.dht.Contact;
+import com.decen.dht.NodeId;
+import com.decen.networking.DHTMessage;
+import com.decen.networking.MessageSender;
+import com.decen.networking.MessageType;
+import com.decen.storage.Chunking;
+import com.decen.storage.FileMetadata;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Iterative Kademlia lookup.
+ *
+ * - Keeps a shortlist ordered by XOR distance to the target
+ * - Keeps up to α queries in flight, always to the closest
+ *   contacts not yet asked
+ * - Finishes once the k closest live contacts have all answered
+ *   (FIND_NODE), or as soon as any node returns the value (FIND_VALUE)
+ *
+ * Each lookup runs on the calling thread; responses are handed back
+ * through a queue, so the shortlist is never shared between threads.
+ */
+public class NodeLookup {
+
+    private enum State { PENDING, IN_FLIGHT, RESPONDED, FAILED }
+
+    private final MessageSender sender;
+    private final NodeId localNodeId;
+    private final int k;
+    private final int alpha;
+    private final Duration rpcTimeout;
+
+    public NodeLookup(MessageSender sender,
+                      NodeId localNodeId,
+                      int k,
+                      int alpha,
+                      Duration rpcTimeout) {
+        this.sender = sender;
+        this.localNodeId = localNodeId;
+        this.k = k;
+        this.alpha = alpha;
+        this.rpcTimeout = rpcTimeout;
+    }
+
+    /**
+     * FIND_NODE: the k closest live contacts to {@code target}.
+     */
+    public Result findNode(NodeId target, List<Contact> seeds)
+            throws InterruptedException {
+
+        return run(target, null, seeds);
+    }
+
+    /**
+     * FIND_VALUE: chunk IDs for {@code fileId}, or the closest contacts
+     * if no node on the path holds the value.
+     */
+    public Result findValue(String fileId, List<Contact> seeds)
+            throws InterruptedException {
+
+        return run(NodeId.fromHex(fileId), fileId, seeds);
+    }
+
+    /* ================= ENGINE ================= */
+
+    private Result run(NodeId target, String fileId, List<Contact> seeds)
+            throws InterruptedException {
+
+        Comparator<Contact> byDistance = (a, b) ->
+                target.distanceCompare(a.getNodeId(), b.getNodeId());
+
+        TreeSet<Contact> shortlist = new TreeSet<>(byDistance);
+        Map<NodeId, State> states = new HashMap<>();
+        Map<NodeId, Integer> hops = new HashMap<>();
+        Map<NodeId, CompletableFuture<DHTMessage>> inFlight = new HashMap<>();
+        BlockingQueue<Reply> replies = new LinkedBlockingQueue<>();
+
+        for (Contact c : seeds) {
+            learn(c, 1, shortlist, states, hops);
+        }
+
+        List<Contact> responded = new ArrayList<>();
+        List<Contact> failed = new ArrayList<>();
+        int queries = 0;
+        int maxHops = 0;
+
+        try {
+            while (true) {
+
+                /* Fill the α window from the k closest candidates */
+                int considered = 0;
+                boolean closestAllAnswered = true;
+
+                for (Contact c : shortlist) {
+                    State s = states.get(c.getNodeId());
+                    if (s == State.FAILED) continue;
+                    if (++considered > k) break;
+
+                    if (s != State.RESPONDED) closestAllAnswered = false;
+
+                    if (s == State.PENDING && inFlight.size() < alpha) {
+                        states.put(c.getNodeId(), State.IN_FLIGHT);
+                        inFlight.put(c.getNodeId(), query(c, target, fileId, replies));
+                        queries++;
+                    }
+                }
+
+                if (closestAllAnswered || inFlight.isEmpty()) break;
+
+                /* Wait for the next answer (or failure) */
+                Reply reply = replies.poll(
+                        rpcTimeout.toMillis() * 2, TimeUnit.MILLISECONDS);
+                if (reply == null) break; // transport never answered
+
+                NodeId id = reply.contact.getNodeId();
+                inFlight.remove(id);
+
+                if (reply.response == null
+                        || reply.response.getType() == MessageType.ERROR) {
+                    states.put(id, State.FAILED);
+                    failed.add(reply.contact);
+                    continue;
+                }
+
+                states.put(id, State.RESPONDED);
+                responded.add(reply.contact);
+                int hop = hops.get(id);
+                maxHops = Math.max(maxHops, hop);
+
+                List<String> value = reply.response.getChunkIds();
+                if (fileId != null && value != null && !value.isEmpty()) {
+                    FileMetadata file;
+                    try {
+                        file = new FileMetadata(value,
+                                reply.response.getChunking() == null
+                                        ? Chunking.FIXED : reply.response.getChunking(),
+                                reply.response.getEncryption() == null
+                                        ? EncryptionMode.RANDOM : reply.response.getEncryption(),
+                                0,
+                                reply.response.getErasure(),
+                                reply.response.getErasure() == null
+                                        ? List.of() : reply.response.getParityIds(),
+                                reply.response.getChunkKeys());
+                    } catch (IllegalArgumentException e) {
+                        file = null; // parity ids do not fit the chunks
+                    }
+                    if (file != null) {
+                        return new Result(file, closestResponded(shortlist, states),
+                                responded, failed, queries, maxHops);
+                    }
+                }
+
+                List<?> payload = reply.response.getPayload();
+                if (payload != null) {
+                    for (Object o : payload) {
+                        if (o instanceof Contact) {
+                            learn((Contact) o, hop + 1, shortlist, states, hops);
+                        }
+                    }
+                }
+            }
+        } finally {
+            // Lookup is over: drop anything still outstanding
+            for (CompletableFuture<DHTMessage> f : inFlight.values()) {
+                f.cancel(true);
+            }
+        }
+
+        return new Result(null, closestResponded(shortlist, states),
+                responded, failed, queries, maxHops);
+    }
+
+    /**
+     * Add a contact to the shortlist if it is new.
+     */
+    private void learn(Contact c,
+                       int hop,
+                       TreeSet<Contact> shortlist,
+                       Map<NodeId, State> states,
+                       Map<NodeId, Integer> hops) {
+
+        NodeId id = c.getNodeId();
+        if (id == null || id.equals(localNodeId) || states.containsKey(id)) {
+            return;
+        }
+        states.put(id, State.PENDING);
+        hops.put(id, hop);
+        shortlist.add(c);
+    }
+
+    private CompletableFuture<DHTMessage> query(Contact contact,
+                                                NodeId target,
+                                                String fileId,
+                                                BlockingQueue<Reply> replies) {
+
+        DHTMessage request = new DHTMessage();
+        if (fileId != null) {
+            request.setType(MessageType.FIND_VALUE);
+            request.setFileId(fileId);
+        } else {
+            request.setType(MessageType.FIND_NODE);
+            request.setTargetNodeId(target);
+        }
+
+        CompletableFuture<DHTMessage> f =
+                sender.sendAsync(contact, request, rpcTimeout);
+
+        f.whenComplete((r, e) -> {
+            if (!f.isCancelled()) replies.add(new Reply(contact, e == null ? r : null));
+        });
+        return f;
+    }
+
+    private List<Contact> closestResponded(TreeSet<Contact> shortlist,
+                                           Map<NodeId, State> states) {
+        List<Contact> result = new ArrayList<>(k);
+        for (Contact c : shortlist) {
+            if (states.get(c.getNodeId()) == State.RESPONDED) {
+                result.add(c);
+                if (result.size() == k) break;
+            }
+        }
+        return result;
+    }
+
+    private static final class Reply {
+        final Contact contact;
+        final DHTMessage response; // null = failed / timed out
+
+        Reply(Contact contact, DHTMessage response) {
+            this.contact = contact;
+            this.response = response;
+        }
+    }
+
+    /* ================= RESULT ================= */
+
+    public static final class Result {
+
+        private final FileMetadata value;
+        private final List<Contact> closest;
+        private final List<Contact> responded;
+        private final List<Contact> failed;
+        private final int queries;
+        private final int hops;
+
+        private Result(FileMetadata value,
+                       List<Contact> closest,
+                       List<Contact> responded,
+                       List<Contact> failed,
+                       int queries,
+                       int hops) {
+            this.value = value;
+            this.closest = Collections.unmodifiableList(closest);
+            this.responded = Collections.unmodifiableList(responded);
+            this.failed = Collections.unmodifiableList(failed);
+            this.queries = queries;
+            this.hops = hops;
+        }
+
+        /** @return chunk IDs, or null if the value was not found */
+        public List<String> getValue() { return value == null ? null : value.getChunkIds(); }
+
+        /** @return the value with its chunking and encryption, or null */
+        public FileMetadata getFile() { return value; }
+
+        /** @return up to k closest contacts that answered, nearest first */
+        public List<Contact> getClosest() { return closest; }
+
+        /** @return every contact that answered during the lookup */
+        public List<Contact> getResponded() { return responded; }
+
+        /** @return contacts that errored or timed out */
+        public List<Contact> getFailed() { return failed; }
+
+        /** @return number of RPCs sent */
+        public int getQueries() { return queries; }
+
+        /** @return longest referral chain followed (round-trips on the critical path) */
+        public int getHops() { return hops; }
+    }
+}
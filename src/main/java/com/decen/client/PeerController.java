@@ -1,20 +1,29 @@
 package com.decen.client;
 
+import com.decen.crypto.EncryptionMode;
 import com.decen.dht.Contact;
 import com.decen.dht.DHTNode;
 import com.decen.dht.NodeId;
 import com.decen.networking.*;
+import com.decen.storage.FileMetadata;
 
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 public class PeerController {
     private static final int ALPHA = 3; // parallelism (standard Kademlia)
+    private static final int K = 20;    // replication / result size
 
+    /** Per-RPC deadline during lookups; a dead peer costs at most this */
+    private static final Duration LOOKUP_TIMEOUT = Duration.ofSeconds(2);
 
     private final NodeId localNodeId;
     private final DHTNode dhtNode;
     private final PeerClient peerClient;
+    private final NodeLookup lookup;
 
     public PeerController(NodeId localNodeId,
                           DHTNode dhtNode,
@@ -22,6 +31,7 @@ public class PeerController {
         this.localNodeId = localNodeId;
         this.dhtNode = dhtNode;
         this.peerClient = peerClient;
+        this.lookup = new NodeLookup(peerClient, localNodeId, K, ALPHA, LOOKUP_TIMEOUT);
     }
 
     /**
@@ -61,66 +71,98 @@ public class PeerController {
             }
         }
 
+        // 3️⃣ Self-lookup fills the buckets near our own id
+        iterativeFindNode(localNodeId);
+
         System.out.println("[BOOTSTRAP] Completed");
         dhtNode.printRoutingTable();
     }
-    public List<String> iterativeFindValue(String fileId) throws Exception {
-
-    System.out.println("[LOOKUP] FIND_VALUE " + fileId);
-
-    List<Contact> shortlist =
-            dhtNode.findNode(localNodeId, 20);
 
-    List<Contact> queried = new ArrayList<>();
+    /**
+     * Iterative FIND_NODE: the k closest live nodes to {@code target}.
+     */
+    public List<Contact> iterativeFindNode(NodeId target) throws Exception {
 
-    while (!shortlist.isEmpty()) {
+        NodeLookup.Result result =
+                lookup.findNode(target, dhtNode.findNode(target, K));
 
-        Contact contact = shortlist.remove(0);
+        learn(result);
+        return result.getClosest();
+    }
 
-        if (queried.contains(contact)) {
-            continue;
-        }
+    /**
+     * Iterative FIND_VALUE: the file record for {@code fileId}, or null.
+     */
+    public FileMetadata iterativeFindValue(String fileId) throws Exception {
 
-        queried.add(contact);
+        System.out.println("[LOOKUP] FIND_VALUE " + fileId);
 
-        /* Build FIND_VALUE request */
-        DHTMessage request = new DHTMessage();
-        request.setType(MessageType.FIND_VALUE);
-        request.setFileId(fileId);
+        NodeId key = NodeId.fromHex(fileId);
+        NodeLookup.Result result =
+                lookup.findValue(fileId, dhtNode.findNode(key, K));
 
-        DHTMessage response;
+        learn(result);
 
-        try {
-            response = peerClient.send(contact, request);
-        } catch (Exception e) {
-            continue; // node unreachable
+        if (result.getValue() != null) {
+            System.out.println("[LOOKUP] VALUE FOUND after "
+                    + result.getQueries() + " queries");
+            return result.getFile();
         }
 
-        /* CASE 1: Value found */
-        if (response.getChunkIds() != null &&
-            !response.getChunkIds().isEmpty()) {
+        System.out.println("[LOOKUP] VALUE NOT FOUND");
+        return null;
+    }
 
-            System.out.println("[LOOKUP] VALUE FOUND");
-            return response.getChunkIds();
+    /**
+     * Iterative STORE: put the record on the k closest nodes to its key.
+     * Our own records go out with the full TTL, records kept for
+     * other nodes with whatever is left of theirs.
+     *
+     * @return number of nodes that accepted the record
+     */
+    public int iterativeStore(String fileId, FileMetadata metadata) throws Exception {
+
+        long ttlSeconds = metadata.isPermanent()
+                ? DHTNode.VALUE_TTL.getSeconds()
+                : (metadata.getExpiresAt() - System.currentTimeMillis()) / 1000;
+        if (ttlSeconds <= 0) return 0;
+
+        List<Contact> closest = iterativeFindNode(NodeId.fromHex(fileId));
+
+        List<CompletableFuture<DHTMessage>> acks = new ArrayList<>();
+        for (Contact c : closest) {
+            // PeerClient stamps each request, so every peer gets its own
+            DHTMessage store = new DHTMessage();
+            store.setType(MessageType.STORE);
+            store.setFileId(fileId);
+            store.setChunkIds(metadata.getChunkIds());
+            if (!metadata.getChunking().isFixedSize()) store.setChunking(metadata.getChunking());
+            if (metadata.getEncryption() != EncryptionMode.RANDOM) store.setEncryption(metadata.getEncryption());
+            if (metadata.isErasureCoded()) store.setErasure(metadata.getErasure(), metadata.getParityIds());
+            store.setChunkKeys(metadata.getChunkKeys());
+            store.setTtlSeconds(ttlSeconds);
+
+            acks.add(peerClient.sendAsync(c, store, LOOKUP_TIMEOUT));
         }
 
-        /* CASE 2: Closer nodes returned */
-        if (response.getPayload() instanceof List<?>) {
-
-            @SuppressWarnings("unchecked")
-            List<Contact> closer =
-                    (List<Contact>) response.getPayload();
-
-            for (Contact c : closer) {
-                if (!queried.contains(c) && !shortlist.contains(c)) {
-                    shortlist.add(c);
-                }
+        int stored = 0;
+        for (int i = 0; i < acks.size(); i++) {
+            try {
+                if (acks.get(i).get().getType() == MessageType.STORE) stored++;
+            } catch (ExecutionException e) {
+                dhtNode.markStale(closest.get(i));
             }
         }
+        return stored;
     }
 
-    System.out.println("[LOOKUP] VALUE NOT FOUND");
-    return null;
-}
-
+    /* Refresh peers that answered; count a failure against the rest */
+    private void learn(NodeLookup.Result result) {
+        for (Contact c : result.getResponded()) {
+            dhtNode.store(c);
+        }
+        for (Contact c : result.getFailed()) {
+            dhtNode.markStale(c);
+        }
+    }
 }
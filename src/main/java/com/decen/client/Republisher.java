@@ -0,0 +1,105 @@
+package com.decen.client;
+
+import com.decen.dht.DHTNode;
+import com.decen.storage.FileMetadata;
+import com.decen.storage.MetadataStore;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps DHT values alive (Kademlia republish).
+ *
+ * Every interval:
+ * - values whose TTL has run out are dropped
+ * - files this node published are stored again on the k closest
+ *   nodes, which refreshes their TTL and reaches nodes that have
+ *   joined near the key since
+ * - values kept for other nodes are passed on with what is left of
+ *   their TTL, so they survive holders leaving but still die once
+ *   the publisher stops republishing
+ *
+ * A value that a STORE refreshed during the last interval is skipped:
+ * some other node has just republished it.
+ */
+public class Republisher implements Closeable {
+
+    public static final Duration DEFAULT_INTERVAL = Duration.ofHours(1);
+
+    private final MetadataStore metadataStore;
+    private final DHTNode dhtNode;
+    private final PeerController peerController;
+    private final Duration interval;
+    private final ScheduledExecutorService scheduler;
+
+    public Republisher(MetadataStore metadataStore,
+                       DHTNode dhtNode,
+                       PeerController peerController) {
+        this(metadataStore, dhtNode, peerController, DEFAULT_INTERVAL);
+    }
+
+    public Republisher(MetadataStore metadataStore,
+                       DHTNode dhtNode,
+                       PeerController peerController,
+                       Duration interval) {
+        this.metadataStore = metadataStore;
+        this.dhtNode = dhtNode;
+        this.peerController = peerController;
+        this.interval = interval;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "republisher");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public void start() {
+        long ms = interval.toMillis();
+        scheduler.scheduleWithFixedDelay(this::runQuietly, ms, ms, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * One republish pass.
+     *
+     * @return number of values sent out
+     */
+    public int republish() throws Exception {
+        int expired = dhtNode.expireValues();
+
+        long refreshedAfter = System.currentTimeMillis()
+                + DHTNode.VALUE_TTL.toMillis() - interval.toMillis();
+        int sent = 0;
+
+        for (String fileId : metadataStore.getFileIds()) {
+            FileMetadata m = metadataStore.getFile(fileId);
+            if (m == null) continue;
+            if (!m.isPermanent() && m.getExpiresAt() > refreshedAfter) continue;
+
+            try {
+                int stored = peerController.iterativeStore(fileId, m);
+                if (stored > 0) sent++;
+            } catch (Exception e) {
+                System.err.println("[Republisher] Failed to republish " + fileId + ": " + e.getMessage());
+            }
+        }
+
+        System.out.println("[Republisher] Republished " + sent + " values, expired " + expired);
+        return sent;
+    }
+
+    private void runQuietly() {
+        try {
+            republish();
+        } catch (Exception e) {
+            System.err.println("[Republisher] Pass failed: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
@@ -1,5 +1,7 @@
 package com.decen.crypto;
 
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
 import java.security.SecureRandom;
 import java.util.Arrays;
 import javax.crypto.Cipher;
@@ -8,6 +10,12 @@ import javax.crypto.SecretKey;
 import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
+/**
+ * AES-256-GCM chunk encryption. Output layout: [12-byte IV][ciphertext + 16-byte tag].
+ *
+ * Cipher instances are kept per thread (provider lookup is expensive and
+ * a Cipher is not thread-safe); every call re-inits with a fresh IV.
+ */
 public final class AESUtil implements ChunkEncryption {
 
     private static final String ALGORITHM = "AES/GCM/NoPadding";
@@ -15,6 +23,15 @@ public final class AESUtil implements ChunkEncryption {
     private static final int IV_LENGTH_BYTE = 12;
     private static final int KEY_SIZE = 256;
 
+    /** Bytes added to each chunk: IV + tag */
+    public static final int OVERHEAD = IV_LENGTH_BYTE + TAG_LENGTH_BIT / 8;
+
+    /* SecureRandom is thread-safe; seeding one per call was the slow part */
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private static final ThreadLocal<CipherState> STATE =
+            ThreadLocal.withInitial(CipherState::new);
+
     public AESUtil() {}
 
     public static byte[] generateKey() throws Exception {
@@ -24,39 +41,88 @@ public final class AESUtil implements ChunkEncryption {
         return key.getEncoded();
     }
 
+    public static int encryptedLength(int plaintextLength) {
+        return plaintextLength + OVERHEAD;
+    }
+
     @Override
     public byte[] encrypt(byte[] plaintext, byte[] key) throws Exception {
+        byte[] output = new byte[encryptedLength(plaintext.length)];
+        encrypt(ByteBuffer.wrap(plaintext), ByteBuffer.wrap(output), key);
+        return output;
+    }
+
+    @Override
+    public byte[] decrypt(byte[] encryptedChunk, byte[] key) throws Exception {
+        if (encryptedChunk.length < OVERHEAD) {
+            throw new GeneralSecurityException("Encrypted chunk too short");
+        }
+        Cipher cipher = STATE.get().init(Cipher.DECRYPT_MODE, key,
+                new GCMParameterSpec(TAG_LENGTH_BIT, encryptedChunk, 0, IV_LENGTH_BYTE));
+
+        return cipher.doFinal(encryptedChunk, IV_LENGTH_BYTE,
+                encryptedChunk.length - IV_LENGTH_BYTE);
+    }
+
+    /**
+     * Encrypt src (position..limit) into dst as IV + ciphertext + tag.
+     * dst needs {@link #encryptedLength} bytes remaining; both buffers
+     * advance.
+     *
+     * @return bytes written to dst
+     */
+    @Override
+    public int encrypt(ByteBuffer src, ByteBuffer dst, byte[] key) throws Exception {
         byte[] iv = new byte[IV_LENGTH_BYTE];
-        new SecureRandom().nextBytes(iv);
+        RANDOM.nextBytes(iv);
+
+        Cipher cipher = STATE.get().init(Cipher.ENCRYPT_MODE, key,
+                new GCMParameterSpec(TAG_LENGTH_BIT, iv));
 
-        Cipher cipher = Cipher.getInstance(ALGORITHM);
-        cipher.init(
-            Cipher.ENCRYPT_MODE,
-            new SecretKeySpec(key, "AES"),
-            new GCMParameterSpec(TAG_LENGTH_BIT, iv)
-        );
+        dst.put(iv);
+        return IV_LENGTH_BYTE + cipher.doFinal(src, dst);
+    }
 
-        byte[] ciphertext = cipher.doFinal(plaintext);
+    /**
+     * Decrypt IV + ciphertext + tag from src into dst.
+     *
+     * @return plaintext bytes written to dst
+     */
+    public int decrypt(ByteBuffer src, ByteBuffer dst, byte[] key) throws Exception {
+        if (src.remaining() < OVERHEAD) {
+            throw new GeneralSecurityException("Encrypted chunk too short");
+        }
+        byte[] iv = new byte[IV_LENGTH_BYTE];
+        src.get(iv);
 
-        byte[] output = new byte[iv.length + ciphertext.length];
-        System.arraycopy(iv, 0, output, 0, iv.length);
-        System.arraycopy(ciphertext, 0, output, iv.length, ciphertext.length);
+        Cipher cipher = STATE.get().init(Cipher.DECRYPT_MODE, key,
+                new GCMParameterSpec(TAG_LENGTH_BIT, iv));
 
-        return output;
+        return cipher.doFinal(src, dst);
     }
 
-    @Override
-    public byte[] decrypt(byte[] encryptedChunk, byte[] key) throws Exception {
-        byte[] iv = Arrays.copyOfRange(encryptedChunk, 0, IV_LENGTH_BYTE);
-        byte[] ciphertext = Arrays.copyOfRange(encryptedChunk, IV_LENGTH_BYTE, encryptedChunk.length);
+    /* One Cipher per thread, plus the last key so its spec is reused */
+    private static final class CipherState {
+        private final Cipher cipher;
+        private byte[] lastKey;
+        private SecretKeySpec lastSpec;
 
-        Cipher cipher = Cipher.getInstance(ALGORITHM);
-        cipher.init(
-            Cipher.DECRYPT_MODE,
-            new SecretKeySpec(key, "AES"),
-            new GCMParameterSpec(TAG_LENGTH_BIT, iv)
-        );
+        CipherState() {
+            try {
+                cipher = Cipher.getInstance(ALGORITHM);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(ALGORITHM + " unavailable", e);
+            }
+        }
 
-        return cipher.doFinal(ciphertext);
+        Cipher init(int mode, byte[] key, GCMParameterSpec params)
+                throws GeneralSecurityException {
+            if (lastKey == null || !Arrays.equals(lastKey, key)) {
+                lastKey = key.clone();
+                lastSpec = new SecretKeySpec(key, "AES");
+            }
+            cipher.init(mode, lastSpec, params);
+            return cipher;
+        }
     }
 }
@@ -1,11 +1,55 @@
 package com.decen.crypto;
 
+import java.nio.ByteBuffer;
+
 /**
  * Interface for chunk-level encryption.
+ *
+ * encrypt and decrypt take the key for one chunk. For most ciphers
+ * that is the file key itself; ciphers that key every chunk on its
+ * own derive it with {@link #chunkKey}.
  */
 public interface ChunkEncryption {
 
+    /**
+     * The key a chunk is encrypted and decrypted with. The buffer does
+     * not move.
+     *
+     * @param fileKey the file's key (convergent: this node's secret)
+     */
+    default byte[] chunkKey(ByteBuffer plaintext, byte[] fileKey) throws Exception {
+        return fileKey;
+    }
+
+    /** @return true if chunkKey differs per chunk */
+    default boolean keysPerChunk() {
+        return false;
+    }
+
+    /**
+     * Ciphertext size for a plaintext of the given size, so callers
+     * can size dst. The default fits one AES-GCM IV and tag.
+     */
+    default long ciphertextLength(long plaintextLength) {
+        return plaintextLength + AESUtil.OVERHEAD;
+    }
+
     byte[] encrypt(byte[] plaintext, byte[] key) throws Exception;
 
     byte[] decrypt(byte[] ciphertext, byte[] key) throws Exception;
+
+    /**
+     * Encrypt src (position..limit) into dst; both buffers advance.
+     * The default goes through byte arrays; ciphers that can work on
+     * (direct) buffers override it.
+     *
+     * @return bytes written to dst
+     */
+    default int encrypt(ByteBuffer src, ByteBuffer dst, byte[] key) throws Exception {
+        byte[] plaintext = new byte[src.remaining()];
+        src.get(plaintext);
+        byte[] ciphertext = encrypt(plaintext, key);
+        dst.put(ciphertext);
+        return ciphertext.length;
+    }
 }
@@ -0,0 +1,169 @@
+package com.decen.crypto;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Convergent (deterministic) AES-GCM chunk encryption.
+ *
+ * The chunk key is a keyed hash of the plaintext, and the nonce is
+ * derived from that key, so the same plaintext under the same secret
+ * always gives the same bytes, and so the same chunk id. The secret
+ * limits dedup (and "does this node hold file X?" guessing) to
+ * holders of the secret.
+ *
+ * Layout: [12-byte nonce][ciphertext + 16 tag]
+ *
+ *   chunkKey = HMAC-SHA256(secret, plaintext)     ({@link #chunkKey})
+ *   nonce    = SHA-256(chunkKey)[0..12)
+ *   body     = AES-GCM(chunkKey, nonce, plaintext)
+ *
+ * encrypt and decrypt take the chunk key, not the secret. The secret
+ * never leaves the node that uploads: readers get each chunk's key
+ * from the file's metadata, sealed under the file's own random key
+ * ({@link #sealKeys}), and that file key is all KEY_REQUEST hands out.
+ *
+ * A nonce repeats under a key only for identical plaintext, which
+ * then encrypts to identical output.
+ */
+public final class ConvergentAES implements ChunkEncryption {
+
+    private static final String ALGORITHM = "AES/GCM/NoPadding";
+    private static final int TAG_LENGTH = 16;
+    private static final int NONCE_LENGTH = 12;
+
+    /** Length of a chunk key */
+    public static final int KEY_LENGTH = 32;
+
+    /** Bytes added to each chunk */
+    public static final int OVERHEAD = NONCE_LENGTH + TAG_LENGTH;
+
+    private static final ThreadLocal<Primitives> PRIMITIVES =
+            ThreadLocal.withInitial(Primitives::new);
+
+    /**
+     * HMAC-SHA256(secret, plaintext) of the bytes between position and
+     * limit; the buffer does not move.
+     */
+    @Override
+    public byte[] chunkKey(ByteBuffer plaintext, byte[] secret) throws Exception {
+        Primitives p = PRIMITIVES.get();
+        p.mac.init(new SecretKeySpec(secret, "HmacSHA256"));
+        p.mac.update(plaintext.duplicate());
+        return p.mac.doFinal();
+    }
+
+    @Override
+    public byte[] encrypt(byte[] plaintext, byte[] chunkKey) throws Exception {
+        byte[] out = new byte[plaintext.length + OVERHEAD];
+        encrypt(ByteBuffer.wrap(plaintext), ByteBuffer.wrap(out), chunkKey);
+        return out;
+    }
+
+    @Override
+    public int encrypt(ByteBuffer src, ByteBuffer dst, byte[] chunkKey) throws Exception {
+        Primitives p = PRIMITIVES.get();
+        byte[] nonce = Arrays.copyOf(p.sha256.digest(chunkKey), NONCE_LENGTH);
+
+        int start = dst.position();
+        dst.put(nonce);
+
+        p.initEncrypt(chunkKey, nonce);
+        p.cipher.doFinal(src, dst);
+        return dst.position() - start;
+    }
+
+    @Override
+    public byte[] decrypt(byte[] chunk, byte[] chunkKey) throws Exception {
+        if (chunk.length < OVERHEAD) {
+            throw new GeneralSecurityException("Convergent chunk too short");
+        }
+        Primitives p = PRIMITIVES.get();
+        byte[] nonce = Arrays.copyOf(chunk, NONCE_LENGTH);
+
+        // The nonce is fixed by the key; a chunk under another key fails here or in GCM
+        if (!MessageDigest.isEqual(nonce, Arrays.copyOf(p.sha256.digest(chunkKey), NONCE_LENGTH))) {
+            throw new GeneralSecurityException("Convergent chunk key mismatch");
+        }
+        p.init(Cipher.DECRYPT_MODE, chunkKey, nonce);
+        return p.cipher.doFinal(chunk, NONCE_LENGTH, chunk.length - NONCE_LENGTH);
+    }
+
+    @Override
+    public boolean keysPerChunk() {
+        return true;
+    }
+
+    /* ================= CHUNK KEYS ================= */
+
+    /**
+     * Seal a file's chunk keys, in chunk order, under its file key
+     * (AES-GCM with a random IV) for the file's metadata.
+     */
+    public static byte[] sealKeys(List<byte[]> chunkKeys, byte[] fileKey) throws Exception {
+        ByteBuffer plain = ByteBuffer.allocate(chunkKeys.size() * KEY_LENGTH);
+        for (byte[] key : chunkKeys) plain.put(key);
+        return new AESUtil().encrypt(plain.array(), fileKey);
+    }
+
+    /**
+     * @return the chunk keys sealed by {@link #sealKeys}
+     * @throws GeneralSecurityException with the wrong file key, or if
+     *         the keys were tampered with
+     */
+    public static List<byte[]> openKeys(byte[] sealed, byte[] fileKey) throws Exception {
+        byte[] plain = new AESUtil().decrypt(sealed, fileKey);
+        if (plain.length % KEY_LENGTH != 0) {
+            throw new GeneralSecurityException("Bad chunk key list");
+        }
+        List<byte[]> keys = new ArrayList<>(plain.length / KEY_LENGTH);
+        for (int i = 0; i < plain.length; i += KEY_LENGTH) {
+            keys.add(Arrays.copyOfRange(plain, i, i + KEY_LENGTH));
+        }
+        return keys;
+    }
+
+    /* One set of JCA objects per thread (none of them is thread-safe) */
+    private static final class Primitives {
+        Cipher cipher;
+        final Mac mac;
+        final MessageDigest sha256;
+        private byte[] lastEncryptKey;
+
+        Primitives() {
+            try {
+                cipher = Cipher.getInstance(ALGORITHM);
+                mac = Mac.getInstance("HmacSHA256");
+                sha256 = MessageDigest.getInstance("SHA-256");
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("Convergent encryption unavailable", e);
+            }
+        }
+
+        /*
+         * GCM refuses to encrypt twice with one key and IV in a row,
+         * which is exactly what a repeated chunk does here (and is safe:
+         * the output is identical). A fresh Cipher has no such memory.
+         */
+        void initEncrypt(byte[] key, byte[] nonce) throws GeneralSecurityException {
+            if (Arrays.equals(key, lastEncryptKey)) {
+                cipher = Cipher.getInstance(ALGORITHM);
+            }
+            init(Cipher.ENCRYPT_MODE, key, nonce);
+            lastEncryptKey = key;
+        }
+
+        void init(int mode, byte[] key, byte[] nonce) throws GeneralSecurityException {
+            cipher.init(mode, new SecretKeySpec(key, "AES"),
+                    new GCMParameterSpec(TAG_LENGTH * 8, nonce));
+        }
+    }
+}
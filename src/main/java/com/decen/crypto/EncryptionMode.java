@@ -0,0 +1,64 @@
+package com.decen.crypto;
+
+/**
+ * How a file's chunks were encrypted. Recorded with the file's
+ * metadata so a downloader picks the matching cipher.
+ *
+ * - RANDOM:     AESUtil, random IV; the key is per file
+ * - CONVERGENT: ConvergentAES; equal plaintext gives equal chunks,
+ *               so they deduplicate. Chunk keys come from the owner's
+ *               convergence secret and are sealed under a random
+ *               per-file key in the metadata; the secret stays home
+ * - STREAMING:  StreamingAES; segmented, so chunks can be large
+ *               (FileChunker.LARGE_CHUNK_SIZE) with bounded buffers;
+ *               the key is per file
+ */
+public enum EncryptionMode {
+
+    RANDOM(0, "random"),
+    CONVERGENT(1, "convergent"),
+    STREAMING(2, "streaming");
+
+    /* Stable ids for the wire and metadata files (never reuse) */
+    private final int code;
+    private final String label;
+
+    EncryptionMode(int code, String label) {
+        this.code = code;
+        this.label = label;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public ChunkEncryption newCipher() {
+        switch (this) {
+            case CONVERGENT:
+                return new ConvergentAES();
+            case STREAMING:
+                return new StreamingAES();
+            case RANDOM:
+            default:
+                return new AESUtil();
+        }
+    }
+
+    public static EncryptionMode fromCode(int code) {
+        for (EncryptionMode m : values()) {
+            if (m.code == code) return m;
+        }
+        throw new IllegalArgumentException("Unknown encryption mode: " + code);
+    }
+
+    public static EncryptionMode fromLabel(String label) {
+        for (EncryptionMode m : values()) {
+            if (m.label.equalsIgnoreCase(label)) return m;
+        }
+        throw new IllegalArgumentException("Unknown encryption mode: " + label);
+    }
+}
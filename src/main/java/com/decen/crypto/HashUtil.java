@@ -1,26 +1,56 @@
 package com.decen.crypto;
 // https://github.com/Kumar-laxmi/Algorithms/blob/main/Java/Cryptography/SHA256.java taken from this repo without cli componenets . Do not write encryption / decryption here in this file only hashing keep all functions in seperate files which are interlinked . each folder should have minimum access to each other!!
 // without it is easily crackable with RE ....etc. 
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 public final class HashUtil {
 
     private static final String HASH_ALGO = "SHA-256";
 
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /* MessageDigest is not thread-safe; keep one per thread */
+    private static final ThreadLocal<MessageDigest> DIGEST =
+            ThreadLocal.withInitial(() -> {
+                try {
+                    return MessageDigest.getInstance(HASH_ALGO);
+                } catch (NoSuchAlgorithmException e) {
+                    throw new IllegalStateException(HASH_ALGO + " unavailable", e);
+                }
+            });
+
     private HashUtil() {}
 
     public static byte[] sha256(byte[] data) throws Exception {
-        MessageDigest digest = MessageDigest.getInstance(HASH_ALGO);
-        return digest.digest(data);
+        // digest() resets the instance for the next call
+        return DIGEST.get().digest(data);
+    }
+
+    /**
+     * Hash the remaining bytes of a buffer (consumes them).
+     */
+    public static byte[] sha256(ByteBuffer data) throws Exception {
+        MessageDigest digest = DIGEST.get();
+        digest.update(data);
+        return digest.digest();
     }
 
     public static String sha256Hex(byte[] data) throws Exception {
-        byte[] hash = sha256(data);
-        StringBuilder sb = new StringBuilder();
-        for (byte b : hash) {
-            // converting to 2 digit hexa raw data is not safe !!! 
-            sb.append(String.format("%02x", b));
+        return toHex(sha256(data));
+    }
+
+    /**
+     * Lowercase hex, two digits per byte.
+     */
+    public static String toHex(byte[] bytes) {
+        char[] out = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int v = bytes[i] & 0xFF;
+            out[i * 2] = HEX[v >>> 4];
+            out[i * 2 + 1] = HEX[v & 0x0F];
         }
-        return sb.toString();
+        return new String(out);
     }
 }
@@ -0,0 +1,370 @@
+package com.decen.crypto;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Segmented streaming AES-GCM, so a chunk never has to fit in memory.
+ *
+ * Layout:
+ *   [version][16-byte salt][7-byte nonce prefix]  header
+ *   [segment 0 ciphertext + tag] ... [last segment ciphertext + tag]
+ *
+ * - Every segment holds {@code segmentSize} plaintext bytes (the last
+ *   one may hold fewer, even zero) and is authenticated on its own
+ * - Segment key  = HMAC-SHA256(key, salt), fresh for every chunk
+ * - Segment nonce = prefix || counter (4 bytes) || last flag (1 byte),
+ *   so segments cannot be reordered, dropped or the stream truncated
+ *   without a tag failure
+ *
+ * Memory use is one segment per stream, whatever the chunk size. The
+ * buffer and array paths work segment by segment in place, so large
+ * chunks (EncryptionMode.STREAMING) need no chunk-sized scratch copy.
+ */
+public final class StreamingAES implements ChunkEncryption {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024;
+
+    private static final byte VERSION = 1;
+    private static final int SALT_LENGTH = 16;
+    private static final int PREFIX_LENGTH = 7;
+    private static final int TAG_LENGTH = 16;
+
+    public static final int HEADER_LENGTH = 1 + SALT_LENGTH + PREFIX_LENGTH;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final int segmentSize;
+
+    public StreamingAES() {
+        this(DEFAULT_SEGMENT_SIZE);
+    }
+
+    public StreamingAES(int segmentSize) {
+        if (segmentSize < 1) {
+            throw new IllegalArgumentException("segmentSize must be >= 1");
+        }
+        this.segmentSize = segmentSize;
+    }
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    /**
+     * Ciphertext size for a plaintext of the given size.
+     */
+    @Override
+    public long ciphertextLength(long plaintextLength) {
+        long segments = Math.max(1, (plaintextLength + segmentSize - 1) / segmentSize);
+        return HEADER_LENGTH + plaintextLength + segments * TAG_LENGTH;
+    }
+
+    /**
+     * Wrap a stream so that everything written to it is encrypted.
+     * The final segment is written by close(), which also closes out.
+     */
+    public OutputStream encryptingStream(OutputStream out, byte[] key)
+            throws IOException {
+        return new EncryptingStream(out, key);
+    }
+
+    /**
+     * Wrap a stream of ciphertext. Reads fail with an IOException as
+     * soon as a segment does not authenticate.
+     */
+    public InputStream decryptingStream(InputStream in, byte[] key)
+            throws IOException {
+        return new DecryptingStream(in, key);
+    }
+
+    /* ================= ChunkEncryption ================= */
+
+    @Override
+    public byte[] encrypt(byte[] plaintext, byte[] key) throws Exception {
+        byte[] out = new byte[(int) ciphertextLength(plaintext.length)];
+        encrypt(ByteBuffer.wrap(plaintext), ByteBuffer.wrap(out), key);
+        return out;
+    }
+
+    /**
+     * Same bytes as {@link #encryptingStream}, sealed one segment at a
+     * time from src straight into dst.
+     */
+    @Override
+    public int encrypt(ByteBuffer src, ByteBuffer dst, byte[] key) throws Exception {
+        int start = dst.position();
+        byte[] salt = new byte[SALT_LENGTH];
+        byte[] prefix = new byte[PREFIX_LENGTH];
+        RANDOM.nextBytes(salt);
+        RANDOM.nextBytes(prefix);
+        dst.put(VERSION).put(salt).put(prefix);
+
+        Segments segments = new Segments(key, salt, prefix);
+        boolean last;
+        do {
+            int n = Math.min(segmentSize, src.remaining());
+            last = n == src.remaining();
+            ByteBuffer segment = src.duplicate();
+            segment.limit(segment.position() + n);
+            segments.process(Cipher.ENCRYPT_MODE, segment, last, dst);
+            src.position(src.position() + n);
+        } while (!last);
+        return dst.position() - start;
+    }
+
+    @Override
+    public byte[] decrypt(byte[] ciphertext, byte[] key) throws Exception {
+        long body = ciphertext.length - HEADER_LENGTH;
+        long segmentCount = Math.max(1, (body + segmentSize + TAG_LENGTH - 1) / (segmentSize + TAG_LENGTH));
+        long plainLength = body - segmentCount * TAG_LENGTH;
+        if (body < TAG_LENGTH || plainLength < 0 || ciphertext[0] != VERSION) {
+            throw new IOException("Not a streaming AES chunk");
+        }
+
+        byte[] salt = Arrays.copyOfRange(ciphertext, 1, 1 + SALT_LENGTH);
+        byte[] prefix = Arrays.copyOfRange(ciphertext, 1 + SALT_LENGTH, HEADER_LENGTH);
+        Segments segments = new Segments(key, salt, prefix);
+
+        byte[] plain = new byte[(int) plainLength];
+        ByteBuffer src = ByteBuffer.wrap(ciphertext, HEADER_LENGTH, (int) body);
+        ByteBuffer dst = ByteBuffer.wrap(plain);
+        for (long i = 0; i < segmentCount; i++) {
+            int n = Math.min(segmentSize + TAG_LENGTH, src.remaining());
+            ByteBuffer segment = src.duplicate();
+            segment.limit(segment.position() + n);
+            segments.process(Cipher.DECRYPT_MODE, segment, i == segmentCount - 1, dst);
+            src.position(src.position() + n);
+        }
+        return plain;
+    }
+
+    /* ================= SEGMENTS ================= */
+
+    /** Cipher and nonce state shared by both directions */
+    private static final class Segments {
+        private final Cipher cipher;
+        private final SecretKeySpec key;
+        private final byte[] nonce = new byte[12];
+        private long counter;
+
+        Segments(byte[] masterKey, byte[] salt, byte[] prefix) throws IOException {
+            try {
+                Mac mac = Mac.getInstance("HmacSHA256");
+                mac.init(new SecretKeySpec(masterKey, "HmacSHA256"));
+                this.key = new SecretKeySpec(mac.doFinal(salt), "AES");
+                this.cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Cannot set up streaming cipher", e);
+            }
+            System.arraycopy(prefix, 0, nonce, 0, PREFIX_LENGTH);
+        }
+
+        /**
+         * Encrypt or decrypt the next segment.
+         *
+         * @return bytes written to out
+         */
+        int process(int mode, byte[] in, int len, boolean last, byte[] out)
+                throws IOException {
+            init(mode, last);
+            try {
+                return cipher.doFinal(in, 0, len, out, 0);
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Segment " + (counter - 1) + " failed to authenticate", e);
+            }
+        }
+
+        /** Same, from in's position to its limit, appending to out */
+        int process(int mode, ByteBuffer in, boolean last, ByteBuffer out)
+                throws IOException {
+            init(mode, last);
+            try {
+                return cipher.doFinal(in, out);
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Segment " + (counter - 1) + " failed to authenticate", e);
+            }
+        }
+
+        private void init(int mode, boolean last) throws IOException {
+            if (counter > 0xFFFFFFFFL) {
+                throw new IOException("Too many segments");
+            }
+            nonce[7] = (byte) (counter >>> 24);
+            nonce[8] = (byte) (counter >>> 16);
+            nonce[9] = (byte) (counter >>> 8);
+            nonce[10] = (byte) counter;
+            nonce[11] = (byte) (last ? 1 : 0);
+            counter++;
+
+            try {
+                cipher.init(mode, key, new GCMParameterSpec(TAG_LENGTH * 8, nonce));
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Cannot set up segment " + (counter - 1), e);
+            }
+        }
+    }
+
+    private final class EncryptingStream extends OutputStream {
+
+        private final OutputStream out;
+        private final Segments segments;
+        private final byte[] plain = new byte[segmentSize];
+        private final byte[] sealed = new byte[segmentSize + TAG_LENGTH];
+        private int filled;
+        private boolean closed;
+
+        EncryptingStream(OutputStream out, byte[] key) throws IOException {
+            this.out = out;
+
+            byte[] header = new byte[HEADER_LENGTH];
+            header[0] = VERSION;
+            byte[] salt = new byte[SALT_LENGTH];
+            byte[] prefix = new byte[PREFIX_LENGTH];
+            RANDOM.nextBytes(salt);
+            RANDOM.nextBytes(prefix);
+            System.arraycopy(salt, 0, header, 1, SALT_LENGTH);
+            System.arraycopy(prefix, 0, header, 1 + SALT_LENGTH, PREFIX_LENGTH);
+
+            this.segments = new Segments(key, salt, prefix);
+            out.write(header);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (closed) throw new IOException("Stream closed");
+            while (len > 0) {
+                // A full segment is only known not to be the last once more data arrives
+                if (filled == segmentSize) {
+                    emit(false);
+                }
+                int n = Math.min(len, segmentSize - filled);
+                System.arraycopy(b, off, plain, filled, n);
+                filled += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            try {
+                emit(true);
+            } finally {
+                out.close();
+            }
+        }
+
+        private void emit(boolean last) throws IOException {
+            int n = segments.process(Cipher.ENCRYPT_MODE, plain, filled, last, sealed);
+            out.write(sealed, 0, n);
+            filled = 0;
+        }
+    }
+
+    private final class DecryptingStream extends InputStream {
+
+        private final InputStream in;
+        private final Segments segments;
+
+        /* One sealed segment plus one byte of look-ahead to spot the last */
+        private final byte[] sealed = new byte[segmentSize + TAG_LENGTH + 1];
+        private final byte[] plain = new byte[segmentSize];
+        private int carried;
+        private int pos;
+        private int limit;
+        private boolean finished;
+
+        DecryptingStream(InputStream in, byte[] key) throws IOException {
+            this.in = in;
+
+            byte[] header = in.readNBytes(HEADER_LENGTH);
+            if (header.length < HEADER_LENGTH || header[0] != VERSION) {
+                throw new IOException("Not a streaming AES chunk");
+            }
+            byte[] salt = new byte[SALT_LENGTH];
+            byte[] prefix = new byte[PREFIX_LENGTH];
+            System.arraycopy(header, 1, salt, 0, SALT_LENGTH);
+            System.arraycopy(header, 1 + SALT_LENGTH, prefix, 0, PREFIX_LENGTH);
+
+            this.segments = new Segments(key, salt, prefix);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            while (pos == limit) {
+                if (finished) return -1;
+                nextSegment();
+            }
+            int n = Math.min(len, limit - pos);
+            System.arraycopy(plain, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return limit - pos;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        private void nextSegment() throws IOException {
+            int want = sealed.length;
+            int filled = carried;
+            while (filled < want) {
+                int n = in.read(sealed, filled, want - filled);
+                if (n < 0) break;
+                filled += n;
+            }
+
+            boolean last = filled < want;
+            int len = last ? filled : want - 1;
+            if (len < TAG_LENGTH) {
+                throw new IOException("Streaming AES chunk truncated");
+            }
+
+            limit = segments.process(Cipher.DECRYPT_MODE, sealed, len, last, plain);
+            pos = 0;
+
+            if (last) {
+                finished = true;
+                carried = 0;
+            } else {
+                sealed[0] = sealed[want - 1];
+                carried = 1;
+            }
+        }
+    }
+}
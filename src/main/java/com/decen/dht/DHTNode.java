@@ -1,7 +1,10 @@
 package com.decen.dht;
 
+import com.decen.storage.FileMetadata;
 import com.decen.storage.MetadataStore;
 
+import java.io.IOException;
+import java.time.Duration;
 import java.util.List;
 
 /**
@@ -15,6 +18,9 @@ import java.util.List;
  */
 public class DHTNode {
 
+    /** How long a value stored for another node lives without a republish */
+    public static final Duration VALUE_TTL = Duration.ofHours(24);
+
     private final NodeId localNodeId;
     private final RoutingTable routingTable;
     private final MetadataStore metadataStore;
@@ -50,9 +56,14 @@ public class DHTNode {
      */
     public FindValueResult findValue(String fileId, int k) {
         try {
-            if (metadataStore.hasFile(fileId)) {
-                List<String> chunkIds = metadataStore.getChunks(fileId);
-                return FindValueResult.foundValue(chunkIds);
+            FileMetadata metadata = metadataStore.getFile(fileId);
+            if (metadata != null && metadata.isExpired(System.currentTimeMillis())) {
+                // A refresh since the read keeps its record, not served here
+                metadataStore.removeFileIf(fileId, metadata.getExpiresAt());
+                metadata = null;
+            }
+            if (metadata != null) {
+                return FindValueResult.foundValue(metadata);
             }
         } catch (Exception e) {
             // Metadata read failure → behave like value not found
@@ -72,6 +83,20 @@ public class DHTNode {
         routingTable.insert(contact);
     }
 
+    /**
+     * @return true while the contact is still in the routing table
+     */
+    public boolean isKnown(Contact contact) {
+        return routingTable.contains(contact);
+    }
+
+    /**
+     * Record that a contact did not answer.
+     */
+    public void markStale(Contact contact) {
+        routingTable.markStale(contact);
+    }
+
     public NodeId getLocalNodeId() {
         return localNodeId;
     }
@@ -98,5 +123,49 @@ public void storeFile(String fileId, List<String> chunkIds) {
     }
 }
 
+/**
+ * STORE from another node: keep the record for ttl (at most
+ * VALUE_TTL). A record this node published itself is never replaced,
+ * and a republish of the same chunk list never shortens the expiry.
+ *
+ * @return false if a record of our own was kept instead
+ */
+public boolean storeValue(String fileId, FileMetadata metadata, Duration ttl)
+        throws IOException {
+
+    if (ttl.compareTo(VALUE_TTL) > 0) ttl = VALUE_TTL;
+    long expiresAt = System.currentTimeMillis() + ttl.toMillis();
+
+    FileMetadata existing = metadataStore.getFile(fileId);
+    if (existing != null) {
+        if (existing.isPermanent()) return false;
+        if (existing.sameContent(metadata)) {
+            expiresAt = Math.max(expiresAt, existing.getExpiresAt());
+        }
+    }
+
+    metadataStore.putFile(fileId, metadata.withExpiry(expiresAt));
+    return true;
+}
+
+/**
+ * Drop every stored value whose TTL has run out. A value refreshed by
+ * storeValue after it was read here is kept.
+ *
+ * @return number of records removed
+ */
+public int expireValues() throws IOException {
+    long now = System.currentTimeMillis();
+    int removed = 0;
+    for (String fileId : metadataStore.getFileIds()) {
+        FileMetadata m = metadataStore.getFile(fileId);
+        if (m != null && m.isExpired(now)
+                && metadataStore.removeFileIf(fileId, m.getExpiresAt())) {
+            removed++;
+        }
+    }
+    return removed;
+}
+
 
 }
@@ -1,5 +1,9 @@
 package com.decen.dht;
 
+import com.decen.crypto.EncryptionMode;
+import com.decen.storage.Chunking;
+import com.decen.storage.FileMetadata;
+
 import java.util.List;
 
 /**
@@ -11,15 +15,12 @@ import java.util.List;
  */
 public final class FindValueResult {
 
-    private final boolean hasValue;
-    private final List<String> chunkIds;
+    private final FileMetadata value;
     private final List<Contact> closestNodes;
 
-    private FindValueResult(boolean hasValue,
-                            List<String> chunkIds,
+    private FindValueResult(FileMetadata value,
                             List<Contact> closestNodes) {
-        this.hasValue = hasValue;
-        this.chunkIds = chunkIds;
+        this.value = value;
         this.closestNodes = closestNodes;
     }
 
@@ -28,11 +29,21 @@ public final class FindValueResult {
        ========================= */
 
     public static FindValueResult foundValue(List<String> chunkIds) {
-        return new FindValueResult(true, chunkIds, null);
+        return foundValue(chunkIds, Chunking.FIXED, EncryptionMode.RANDOM);
+    }
+
+    public static FindValueResult foundValue(List<String> chunkIds,
+                                             Chunking chunking,
+                                             EncryptionMode encryption) {
+        return foundValue(new FileMetadata(chunkIds, chunking, encryption));
+    }
+
+    public static FindValueResult foundValue(FileMetadata value) {
+        return new FindValueResult(value, null);
     }
 
     public static FindValueResult foundNodes(List<Contact> contacts) {
-        return new FindValueResult(false, null, contacts);
+        return new FindValueResult(null, contacts);
     }
 
     /* =========================
@@ -40,11 +51,26 @@ public final class FindValueResult {
        ========================= */
 
     public boolean hasValue() {
-        return hasValue;
+        return value != null;
+    }
+
+    /** The whole stored record (only with a value) */
+    public FileMetadata getFile() {
+        return value;
     }
 
     public List<String> getChunkIds() {
-        return chunkIds;
+        return value == null ? null : value.getChunkIds();
+    }
+
+    /** How the chunks were cut (only with a value) */
+    public Chunking getChunking() {
+        return value == null ? null : value.getChunking();
+    }
+
+    /** How the chunks were encrypted (only with a value) */
+    public EncryptionMode getEncryption() {
+        return value == null ? null : value.getEncryption();
     }
 
     public List<Contact> getClosestNodes() {
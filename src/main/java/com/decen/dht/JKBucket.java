@@ -1,34 +1,57 @@
 package com.decen.dht;
 
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 
 /**
- * Simplified Kademlia K-Bucket implementation.
+ * Kademlia K-Bucket implementation.
  *
  * Responsibilities:
  * - Store up to k contacts
  * - Maintain LRU (least-recently-seen) ordering
  * - Use NodeId (via Contact) for identity
+ * - Keep a bounded replacement cache of newcomers seen while full
  *
- * This implementation intentionally omits:
- * - Replacement cache
- * - Stale counters
- * - Background maintenance
+ * Contacts live in an insertion-ordered hash map keyed by NodeId, so
+ * lookup, touch (move to most-recent), insert and remove are O(1).
  *
- * These are not required for core Kademlia routing semantics.
+ * A full bucket never drops a live contact for a newcomer. The
+ * newcomer waits in the replacement cache and is promoted only once
+ * a bucket member has failed {@code staleLimit} times in a row.
+ *
+ * Thread safety: writers take this bucket's monitor, so different
+ * buckets never contend. Every change republishes an immutable
+ * contact array; readers use that array and never take the lock.
  */
 public class JKBucket implements KBucket {
 
+    /** Failures in a row before a contact may be replaced */
+    public static final int DEFAULT_STALE_LIMIT = 2;
+
     /** Depth of this bucket in the routing table */
     private final int depth;
 
     /** Maximum number of contacts allowed (k) */
     private final int k;
 
-    /** Contacts stored in LRU order (head = least recent, tail = most recent) */
-    private final LinkedList<Contact> contacts;
+    /** Maximum number of replacement candidates kept */
+    private final int replacementLimit;
+
+    private final int staleLimit;
+
+    /** Contacts in LRU order (head = least recent, tail = most recent) */
+    private final LinkedHashMap<NodeId, Contact> contacts;
+
+    /** Newcomers seen while full (head = oldest, tail = newest) */
+    private final LinkedHashMap<NodeId, Contact> replacements;
+
+    private static final Contact[] EMPTY = new Contact[0];
+
+    /** Immutable copy of the contacts in LRU order, replaced on every change */
+    private volatile Contact[] snapshot = EMPTY;
 
     /**
      * Create a K-Bucket.
@@ -37,9 +60,20 @@ public class JKBucket implements KBucket {
      * @param k maximum number of contacts
      */
     public JKBucket(int depth, int k) {
+        this(depth, k, k, DEFAULT_STALE_LIMIT);
+    }
+
+    /**
+     * @param replacementLimit size of the replacement cache
+     * @param staleLimit failures before a contact can be replaced
+     */
+    public JKBucket(int depth, int k, int replacementLimit, int staleLimit) {
         this.depth = depth;
         this.k = k;
-        this.contacts = new LinkedList<>();
+        this.replacementLimit = replacementLimit;
+        this.staleLimit = staleLimit;
+        this.contacts = new LinkedHashMap<>(k * 2);
+        this.replacements = new LinkedHashMap<>(replacementLimit * 2);
     }
 
     /**
@@ -50,22 +84,66 @@ public class JKBucket implements KBucket {
      *
      * If contact is new:
      * - Add it if space exists.
-     * - Otherwise evict least-recently-seen contact.
+     * - Otherwise replace the least-recently-seen contact if it is stale,
+     *   or park the newcomer in the replacement cache.
      */
     @Override
-    public void insert(Contact c) {
-        if (contacts.contains(c)) {
+    public synchronized void insert(Contact c) {
+        NodeId id = c.getNodeId();
+        c.setSeenNow();
+        c.resetStaleCount();
+
+        if (contacts.remove(id) != null) {
             // Seen again → move to most recent
-            contacts.remove(c);
-            contacts.addLast(c);
-        } else {
-            if (contacts.size() < k) {
-                contacts.addLast(c);
-            } else {
-                // Bucket full → evict LRU
-                contacts.removeFirst();
-                contacts.addLast(c);
-            }
+            contacts.put(id, c);
+            publish();
+            return;
+        }
+
+        if (contacts.size() < k) {
+            replacements.remove(id);
+            contacts.put(id, c);
+            publish();
+            return;
+        }
+
+        Contact lru = contacts.values().iterator().next();
+        if (lru.staleCount() >= staleLimit) {
+            contacts.remove(lru.getNodeId());
+            replacements.remove(id);
+            contacts.put(id, c);
+            publish();
+            return;
+        }
+
+        // Bucket full of live contacts → remember the newcomer
+        replacements.remove(id);
+        replacements.put(id, c);
+        if (replacements.size() > replacementLimit) {
+            Iterator<NodeId> oldest = replacements.keySet().iterator();
+            oldest.next();
+            oldest.remove();
+        }
+    }
+
+    /**
+     * Record a failed contact attempt. Once the contact reaches the
+     * stale limit it is replaced by the newest replacement candidate,
+     * if there is one.
+     */
+    @Override
+    public synchronized void markStale(Contact c) {
+        Contact existing = contacts.get(c.getNodeId());
+        if (existing == null) {
+            replacements.remove(c.getNodeId());
+            return;
+        }
+
+        existing.incrementStaleCount();
+        if (existing.staleCount() >= staleLimit && !replacements.isEmpty()) {
+            contacts.remove(existing.getNodeId());
+            promoteReplacement();
+            publish();
         }
     }
 
@@ -74,17 +152,43 @@ public class JKBucket implements KBucket {
      */
     @Override
     public boolean containsContact(Contact c) {
-        return contacts.contains(c);
+        for (Contact existing : snapshot) {
+            if (existing.equals(c)) return true;
+        }
+        return false;
     }
 
     /**
-     * Remove a contact from the bucket.
+     * Remove a contact from the bucket. A replacement candidate,
+     * if any, takes its place.
      *
      * @return true if removed, false otherwise
      */
     @Override
-    public boolean removeContact(Contact c) {
-        return contacts.remove(c);
+    public synchronized boolean removeContact(Contact c) {
+        if (contacts.remove(c.getNodeId()) == null) {
+            return false;
+        }
+        promoteReplacement();
+        publish();
+        return true;
+    }
+
+    /* Caller holds the lock */
+    private void publish() {
+        snapshot = contacts.isEmpty() ? EMPTY : contacts.values().toArray(EMPTY);
+    }
+
+    private void promoteReplacement() {
+        if (replacements.isEmpty()) return;
+
+        // Newest candidate is the most likely to still be online
+        Contact newest = null;
+        for (Contact r : replacements.values()) {
+            newest = r;
+        }
+        replacements.remove(newest.getNodeId());
+        contacts.put(newest.getNodeId(), newest);
     }
 
     /**
@@ -92,7 +196,7 @@ public class JKBucket implements KBucket {
      */
     @Override
     public int numContacts() {
-        return contacts.size();
+        return snapshot.length;
     }
 
     /**
@@ -104,18 +208,36 @@ public class JKBucket implements KBucket {
     }
 
     /**
-     * @return a copy of the contact list (to preserve encapsulation)
+     * @return a copy of the contact list in LRU order (to preserve encapsulation)
      */
     @Override
     public List<Contact> getContacts() {
-        return new ArrayList<>(contacts);
+        return new ArrayList<>(Arrays.asList(snapshot));
+    }
+
+    /**
+     * @return contacts in LRU order as of the last change; never blocks
+     */
+    @Override
+    public Contact[] snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * @return a copy of the replacement cache, oldest first
+     */
+    @Override
+    public synchronized List<Contact> getReplacementCache() {
+        return new ArrayList<>(replacements.values());
     }
 
     @Override
     public String toString() {
+        Contact[] current = snapshot;
         StringBuilder sb = new StringBuilder();
-        sb.append("KBucket(depth=").append(depth).append(", contacts=").append(contacts.size()).append(")\n");
-        for (Contact c : contacts) {
+        sb.append("KBucket(depth=").append(depth)
+          .append(", contacts=").append(current.length).append(")\n");
+        for (Contact c : current) {
             sb.append("  ").append(c).append("\n");
         }
         return sb.toString();
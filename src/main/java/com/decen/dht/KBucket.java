@@ -7,8 +7,12 @@ public void insert(Contact c);
 public boolean containsContact(Contact c
 );
 public boolean removeContact(Contact c);
+public void markStale(Contact c);
 public int numContacts();
 public int getDepth();
     public List<Contact> getContacts();
+    /** Read-only array of the current contacts; do not modify */
+    public Contact[] snapshot();
+    public List<Contact> getReplacementCache();
     
-}
\ No newline at end of file
+}
@@ -1,20 +1,47 @@
 package com.decen.dht;
 import java.io.Serializable;
 //in this file nodeid is not using serealizer as it would be unsafe and break the code at many points as observed. in the refressed repo serializer is used as it is very out dated and is more of a very flexible system for apps to incorporate. This file's implimentation eases the load on Node id and insures the principle of least privilage which is being followed to build this whole project . MessageSerealizer.java is in the /networking folder . 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.security.SecureRandom;
 import java.util.Arrays;
 
+/**
+ * 256-bit Kademlia node identifier.
+ *
+ * The bits are held as four big-endian longs (w0 = most significant),
+ * so XOR distance, distance comparison and bucket indexing run on
+ * registers without allocating.
+ */
 public final class NodeId implements Serializable{
- private static final long serialVersionUID = 1L;
+ private static final long serialVersionUID = 2L;
     public static final int ID_LENGTH_BITS = 256;
     public static final int ID_LENGTH_BYTES = ID_LENGTH_BITS / 8;
 
-    private final byte[] keyBytes;
+    private static final int WORDS = ID_LENGTH_BYTES / Long.BYTES;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /* Nibble value of each ASCII hex digit, -1 for anything else */
+    private static final byte[] NIBBLE = new byte[128];
+    static {
+        Arrays.fill(NIBBLE, (byte) -1);
+        for (int i = 0; i < 16; i++) {
+            NIBBLE[HEX[i]] = (byte) i;
+            NIBBLE[Character.toUpperCase(HEX[i])] = (byte) i;
+        }
+    }
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final long w0, w1, w2, w3;
+
+    /** Cached: ids are hash-map keys in every k-bucket */
+    private final int hash;
 
    
     public NodeId() {
-        this.keyBytes = new byte[ID_LENGTH_BYTES];
-        new SecureRandom().nextBytes(this.keyBytes);
+        this(RANDOM.nextLong(), RANDOM.nextLong(), RANDOM.nextLong(), RANDOM.nextLong());
     }
 
     // Construct NodeId from raw bytes (used by networking layer)
@@ -24,42 +51,126 @@ public final class NodeId implements Serializable{
                 "NodeId must be exactly " + ID_LENGTH_BYTES + " bytes"
             );
         }
-        this.keyBytes = Arrays.copyOf(bytes, bytes.length);
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        this.w0 = buf.getLong();
+        this.w1 = buf.getLong();
+        this.w2 = buf.getLong();
+        this.w3 = buf.getLong();
+        this.hash = computeHash();
+    }
+
+    private NodeId(long w0, long w1, long w2, long w3) {
+        this.w0 = w0;
+        this.w1 = w1;
+        this.w2 = w2;
+        this.w3 = w3;
+        this.hash = computeHash();
     }
 
-    // Safe accessor
+    /** Read 32 big-endian bytes */
+    public static NodeId readFrom(ByteBuffer buf) {
+        return new NodeId(buf.getLong(), buf.getLong(), buf.getLong(), buf.getLong());
+    }
+
+    /** Read 32 big-endian bytes */
+    public static NodeId readFrom(DataInput in) throws IOException {
+        return new NodeId(in.readLong(), in.readLong(), in.readLong(), in.readLong());
+    }
+
+    // Safe accessor (allocates; hot paths use writeTo)
     public byte[] getBytes() {
-        return Arrays.copyOf(keyBytes, keyBytes.length);
+        ByteBuffer buf = ByteBuffer.allocate(ID_LENGTH_BYTES);
+        writeTo(buf);
+        return buf.array();
+    }
+
+    /** Write the id as 32 big-endian bytes without an intermediate copy */
+    public void writeTo(ByteBuffer buf) {
+        buf.putLong(w0).putLong(w1).putLong(w2).putLong(w3);
+    }
+
+    /** Write the id as 32 big-endian bytes without an intermediate copy */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeLong(w0);
+        out.writeLong(w1);
+        out.writeLong(w2);
+        out.writeLong(w3);
     }
 
     // XOR distance (Kademlia core) taken from ref repo.
     public byte[] xor(NodeId other) {
-        byte[] result = new byte[ID_LENGTH_BYTES];
-        for (int i = 0; i < ID_LENGTH_BYTES; i++) {
-            result[i] = (byte) (this.keyBytes[i] ^ other.keyBytes[i]);
-        }
-        return result;
+        ByteBuffer buf = ByteBuffer.allocate(ID_LENGTH_BYTES);
+        buf.putLong(w0 ^ other.w0)
+           .putLong(w1 ^ other.w1)
+           .putLong(w2 ^ other.w2)
+           .putLong(w3 ^ other.w3);
+        return buf.array();
+    }
+
+    /**
+     * Compare the XOR distances of {@code a} and {@code b} to this id.
+     *
+     * @return negative if a is closer, positive if b is closer, 0 if equal
+     */
+    public int distanceCompare(NodeId a, NodeId b) {
+        long da = w0 ^ a.w0, db = w0 ^ b.w0;
+        if (da != db) return Long.compareUnsigned(da, db);
+        da = w1 ^ a.w1; db = w1 ^ b.w1;
+        if (da != db) return Long.compareUnsigned(da, db);
+        da = w2 ^ a.w2; db = w2 ^ b.w2;
+        if (da != db) return Long.compareUnsigned(da, db);
+        return Long.compareUnsigned(w3 ^ a.w3, w3 ^ b.w3);
+    }
+
+    /**
+     * Number of leading bits shared with {@code other}
+     * (256 if the ids are equal).
+     */
+    public int commonPrefixLength(NodeId other) {
+        long d = w0 ^ other.w0;
+        if (d != 0) return Long.numberOfLeadingZeros(d);
+        d = w1 ^ other.w1;
+        if (d != 0) return 64 + Long.numberOfLeadingZeros(d);
+        d = w2 ^ other.w2;
+        if (d != 0) return 128 + Long.numberOfLeadingZeros(d);
+        d = w3 ^ other.w3;
+        return 192 + Long.numberOfLeadingZeros(d);
     }
 
     @Override
     public boolean equals(Object o) {
+        if (this == o) return true;
         if (!(o instanceof NodeId)) return false;
-        return Arrays.equals(this.keyBytes, ((NodeId) o).keyBytes);
+        NodeId other = (NodeId) o;
+        return w0 == other.w0 && w1 == other.w1
+                && w2 == other.w2 && w3 == other.w3;
     }
 
     @Override
     public int hashCode() {
-        return Arrays.hashCode(keyBytes);
+        return hash;
+    }
+
+    private int computeHash() {
+        long h = w0 * 31 + w1;
+        h = h * 31 + w2;
+        h = h * 31 + w3;
+        return (int) (h ^ (h >>> 32));
     }
 
     @Override
     public String toString() {
-        StringBuilder sb = new StringBuilder();
-        for (byte b : keyBytes) {
-            sb.append(String.format("%02x", b));
+        char[] out = new char[ID_LENGTH_BYTES * 2];
+        long[] words = { w0, w1, w2, w3 };
+        int pos = 0;
+        for (int w = 0; w < WORDS; w++) {
+            for (int shift = 60; shift >= 0; shift -= 4) {
+                out[pos++] = HEX[(int) (words[w] >>> shift) & 0x0F];
+            }
         }
-        return sb.toString();
+        return new String(out);
     }
+
     public static NodeId fromHex(String hex) {
 
     if (hex.length() != ID_LENGTH_BYTES * 2) {
@@ -68,17 +179,18 @@ public final class NodeId implements Serializable{
         );
     }
 
-    byte[] bytes = new byte[ID_LENGTH_BYTES];
+    long[] words = new long[WORDS];
 
-    for (int i = 0; i < bytes.length; i++) {
-        int index = i * 2;
-        bytes[i] = (byte) Integer.parseInt(
-                hex.substring(index, index + 2),
-                16
-        );
+    for (int i = 0; i < hex.length(); i++) {
+        char c = hex.charAt(i);
+        int digit = c < 128 ? NIBBLE[c] : -1;
+        if (digit < 0) {
+            throw new IllegalArgumentException("Invalid NodeId hex: " + hex);
+        }
+        words[i / 16] = (words[i / 16] << 4) | digit;
     }
 
-    return new NodeId(bytes);
+    return new NodeId(words[0], words[1], words[2], words[3]);
 }
 
 }
@@ -10,12 +10,15 @@ import java.util.List;
  * - Maintains k-buckets indexed by XOR distance
  * - Inserts contacts into correct buckets
  * - Finds closest contacts to a target NodeId
+ * - Tracks failed contacts so buckets can replace them
+ *
+ * Safe for concurrent use. The bucket array never changes; each
+ * bucket locks its own writes and readers (findClosest,
+ * getAllContacts) work from per-bucket snapshots without blocking.
  *
  * This implementation intentionally avoids:
  * - KadConfiguration
  * - Node / networking logic
- * - Replacement cache
- * - Stale contact handling
  */
 public class RoutingTable {
 
@@ -53,50 +56,99 @@ public class RoutingTable {
         buckets[bucketId].insert(contact);
     }
 
+    /**
+     * Record that a contact failed to respond.
+     */
+    public void markStale(Contact contact) {
+        if (contact == null || contact.getNodeId() == null) return;
+
+        int bucketId = getBucketId(contact.getNodeId());
+        buckets[bucketId].markStale(contact);
+    }
+
     /**
      * Compute bucket index using XOR distance.
      *
      * Bucket index = position of first differing bit.
      */
     public int getBucketId(NodeId target) {
-        if (target.equals(localNodeId)) {
-            return 0;
-        }
+        int prefix = localNodeId.commonPrefixLength(target);
 
-        byte[] distance = localNodeId.xor(target);
-
-        for (int byteIndex = 0; byteIndex < distance.length; byteIndex++) {
-            int value = distance[byteIndex] & 0xFF;
-            if (value != 0) {
-                int bitIndex = Integer.numberOfLeadingZeros(value) - 24;
-                return byteIndex * 8 + bitIndex;
-            }
-        }
-
-        // Should never happen unless IDs are identical
-        return ID_BITS - 1;
+        // Identical IDs share all bits; keep them in bucket 0
+        return prefix == ID_BITS ? 0 : prefix;
     }
 
     /**
      * Find the closest contacts to a target NodeId.
      *
+     * Buckets partition contacts by distance to the target as well:
+     * with j = getBucketId(target), bucket j is nearest, then buckets
+     * above j (all share j bits with the target), then j-1 down to 0.
+     * The search walks groups in that order and stops as soon as a
+     * whole group has been seen with {@code count} contacts in hand.
+     *
      * @param target NodeId to compare against
      * @param count max number of contacts to return
+     * @return up to {@code count} contacts, nearest first
      */
     public List<Contact> findClosest(NodeId target, int count) {
-        List<Contact> allContacts = getAllContacts();
+        List<Contact> closest = new ArrayList<>(count);
+        if (count <= 0) return closest;
 
-        Collections.sort(allContacts, (c1, c2) ->
-                compareDistance(
-                        localNodeId.xor(c1.getNodeId()),
-                        localNodeId.xor(c2.getNodeId())
-                )
-        );
+        int prefix = localNodeId.commonPrefixLength(target);
 
-        if (allContacts.size() <= count) {
-            return allContacts;
+        if (prefix == ID_BITS) {
+            // Target is us: a longer shared prefix is always closer
+            for (int i = ID_BITS - 1; i >= 0 && closest.size() < count; i--) {
+                offerAll(buckets[i], target, count, closest);
+            }
+            return closest;
         }
-        return new ArrayList<>(allContacts.subList(0, count));
+
+        offerAll(buckets[prefix], target, count, closest);
+        if (closest.size() < count) {
+            for (int i = prefix + 1; i < ID_BITS; i++) {
+                offerAll(buckets[i], target, count, closest);
+            }
+        }
+        for (int i = prefix - 1; i >= 0 && closest.size() < count; i--) {
+            offerAll(buckets[i], target, count, closest);
+        }
+        return closest;
+    }
+
+    /**
+     * Merge a bucket into the bounded, nearest-first result list.
+     */
+    private static void offerAll(KBucket bucket,
+                                 NodeId target,
+                                 int count,
+                                 List<Contact> closest) {
+        for (Contact c : bucket.snapshot()) {
+            int size = closest.size();
+            if (size == count
+                    && target.distanceCompare(c.getNodeId(), closest.get(size - 1).getNodeId()) >= 0) {
+                continue; // farther than everything we keep
+            }
+
+            int pos = size;
+            while (pos > 0
+                    && target.distanceCompare(c.getNodeId(), closest.get(pos - 1).getNodeId()) < 0) {
+                pos--;
+            }
+
+            if (size == count) closest.remove(size - 1);
+            closest.add(pos, c);
+        }
+    }
+
+    /**
+     * @return true if the contact is in its bucket (not just cached
+     *         as a replacement)
+     */
+    public boolean contains(Contact contact) {
+        if (contact == null || contact.getNodeId() == null) return false;
+        return buckets[getBucketId(contact.getNodeId())].containsContact(contact);
     }
 
     /**
@@ -106,7 +158,7 @@ public class RoutingTable {
         List<Contact> result = new ArrayList<>();
 
         for (KBucket bucket : buckets) {
-            result.addAll(bucket.getContacts());
+            Collections.addAll(result, bucket.snapshot());
         }
 
         return result;
@@ -119,21 +171,6 @@ public class RoutingTable {
         return buckets;
     }
 
-    /**
-     * Compare two XOR distances represented as byte arrays.
-     * Comparison is unsigned and lexicographical (big-endian).
-     */
-    private static int compareDistance(byte[] a, byte[] b) {
-        for (int i = 0; i < a.length; i++) {
-            int ai = a[i] & 0xFF;
-            int bi = b[i] & 0xFF;
-            if (ai != bi) {
-                return Integer.compare(ai, bi);
-            }
-        }
-        return 0;
-    }
-
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder("RoutingTable\n");
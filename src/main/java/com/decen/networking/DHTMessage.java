@@ -1,21 +1,81 @@
 package com.decen.networking;
 
+import com.decen.crypto.EncryptionMode;
+import com.decen.dht.Contact;
 import com.decen.dht.NodeId;
+import com.decen.storage.ChunkRegion;
+import com.decen.storage.Chunking;
+import com.decen.storage.ErasureCoding;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
  * Unified DHT message container.
- * Pure DTO (no logic).
+ *
+ * Plain DTO plus its compact binary wire form ({@link Streamable}):
+ *
+ *   [version][type][varint requestId][varint field mask][fields...]
+ *
+ * Only fields that are set are written. Chunk data is always the
+ * last field so it can be streamed straight after the header.
+ *
+ * Fields are not length-prefixed, so a reader cannot skip one it does
+ * not know. Instead every version fixes its set of fields, and adding
+ * a field bumps {@link #WIRE_VERSION}:
+ *
+ *   1: sender, target, file id, chunk ids, chunk id, payload,
+ *      public key, AES key, chunk data
+ *   2: + chunking, encryption, TTL, erasure coding
+ *   3: + sealed chunk keys
+ *
+ * A message is sent with the lowest version that has all the fields
+ * it sets, so peers on an older version still understand everything
+ * that does not need the newer fields. A reader rejects versions newer
+ * than its own and fields its version does not have.
  */
-public class DHTMessage implements Serializable {
-    
+public class DHTMessage implements Serializable, Streamable {
 
+    /** Current wire format version */
+    public static final int WIRE_VERSION = 3;
+
+    /* Field presence bits (append new fields, never renumber) */
+    private static final int F_SENDER_ID   = 1;
+    private static final int F_SENDER_IP   = 1 << 1;
+    private static final int F_SENDER_PORT = 1 << 2;
+    private static final int F_TARGET      = 1 << 3;
+    private static final int F_FILE_ID     = 1 << 4;
+    private static final int F_CHUNK_IDS   = 1 << 5;
+    private static final int F_CHUNK_ID    = 1 << 6;
+    private static final int F_PAYLOAD     = 1 << 7;
+    private static final int F_PUBLIC_KEY  = 1 << 8;
+    private static final int F_AES_KEY     = 1 << 9;
+    private static final int F_CHUNK_DATA  = 1 << 10;
+    private static final int F_CHUNKING    = 1 << 11;
+    private static final int F_ENCRYPTION  = 1 << 12;
+    private static final int F_TTL         = 1 << 13;
+    private static final int F_ERASURE     = 1 << 14;
+    private static final int F_CHUNK_KEYS  = 1 << 15;
+
+    /* Fields known to each version, indexed by version */
+    private static final int[] VERSION_FIELDS = {
+            0,
+            (1 << 11) - 1,
+            (1 << 15) - 1,
+            (1 << 16) - 1,
+    };
 
     /* ================= MESSAGE TYPE ================= */
     private MessageType type;
 
+    /* ================= CORRELATION ================= */
+    private long requestId;             // echoed back in the response
+
     /* ================= SENDER ================= */
     private NodeId senderNodeId;
     private String senderIp;
@@ -27,11 +87,23 @@ public class DHTMessage implements Serializable {
     /* ================= METADATA ================= */
     private String fileId;              // FIND_VALUE / STORE
     private List<String> chunkIds;      // metadata response
+    private Chunking chunking;          // how chunkIds were cut (null = FIXED)
+    private EncryptionMode encryption;  // how they were encrypted (null = RANDOM)
+    private long ttlSeconds;            // STORE: how long to keep the value (0 = unset)
+    private ErasureCoding erasure;      // Reed-Solomon layout (null = replicated)
+    private List<String> parityIds;     // parity shards, with erasure
+    private byte[] chunkKeys;           // convergent: keys sealed under the file key
 
     /* ================= CHUNK TRANSFER ================= */
     private String chunkId;             // GET_CHUNK
     private byte[] chunkData;           // CHUNK_RESPONSE
 
+    /** Server side: chunk bytes sent from storage without a heap copy */
+    private transient ChunkRegion chunkRegion;
+
+    /** Server side: received chunk bytes, still in the frame's slab */
+    private transient ByteBuffer chunkBuffer;
+
     /* ================= GENERIC PAYLOAD ================= */
     private List<?> payload;            // List<Contact>
 
@@ -44,6 +116,11 @@ public class DHTMessage implements Serializable {
     public MessageType getType() { return type; }
     public void setType(MessageType type) { this.type = type; }
 
+    public long getRequestId() { return requestId; }
+    public void setRequestId(long requestId) {
+        this.requestId = requestId;
+    }
+
     public NodeId getSenderNodeId() { return senderNodeId; }
     public void setSenderNodeId(NodeId senderNodeId) {
         this.senderNodeId = senderNodeId;
@@ -74,16 +151,87 @@ public class DHTMessage implements Serializable {
         this.chunkIds = chunkIds;
     }
 
+    public Chunking getChunking() { return chunking; }
+    public void setChunking(Chunking chunking) {
+        this.chunking = chunking;
+    }
+
+    public EncryptionMode getEncryption() { return encryption; }
+    public void setEncryption(EncryptionMode encryption) {
+        this.encryption = encryption;
+    }
+
+    public long getTtlSeconds() { return ttlSeconds; }
+    public void setTtlSeconds(long ttlSeconds) {
+        this.ttlSeconds = ttlSeconds;
+    }
+
+    public ErasureCoding getErasure() { return erasure; }
+    public List<String> getParityIds() { return parityIds; }
+    public void setErasure(ErasureCoding erasure, List<String> parityIds) {
+        this.erasure = erasure;
+        this.parityIds = parityIds;
+    }
+
+    public byte[] getChunkKeys() { return chunkKeys; }
+    public void setChunkKeys(byte[] chunkKeys) {
+        this.chunkKeys = chunkKeys;
+    }
+
     public String getChunkId() { return chunkId; }
     public void setChunkId(String chunkId) {
         this.chunkId = chunkId;
     }
 
-    public byte[] getChunkData() { return chunkData; }
+    /**
+     * Chunk bytes as an array. A message decoded from a buffer copies
+     * them out on every call; prefer {@link #getChunkBuffer} there.
+     */
+    public byte[] getChunkData() {
+        if (chunkData == null && chunkBuffer != null) {
+            ByteBuffer view = chunkBuffer.duplicate();
+            byte[] copy = new byte[view.remaining()];
+            view.get(copy);
+            return copy;
+        }
+        return chunkData;
+    }
     public void setChunkData(byte[] chunkData) {
         this.chunkData = chunkData;
     }
 
+    /**
+     * Chunk bytes as a buffer the caller may consume, or null.
+     *
+     * For a message decoded by {@link MessageCodec#decode(ByteBuffer)}
+     * this is a view of the received frame, valid only until the
+     * handler returns (the server then recycles the frame's slab).
+     */
+    public ByteBuffer getChunkBuffer() {
+        if (chunkData != null) return ByteBuffer.wrap(chunkData);
+        return chunkBuffer == null ? null : chunkBuffer.duplicate();
+    }
+    public void setChunkBuffer(ByteBuffer chunkBuffer) {
+        this.chunkBuffer = chunkBuffer;
+    }
+
+    /**
+     * Chunk bytes as a file region. Sent in place of chunkData (the
+     * wire form is identical); receivers see chunkData, or
+     * chunkBuffer on the server.
+     */
+    public ChunkRegion getChunkRegion() { return chunkRegion; }
+    public void setChunkRegion(ChunkRegion chunkRegion) {
+        this.chunkRegion = chunkRegion;
+    }
+
+    /** @return length of the chunk bytes this message carries, or -1 */
+    public int getChunkLength() {
+        if (chunkRegion != null) return chunkRegion.length();
+        if (chunkData != null) return chunkData.length;
+        return chunkBuffer == null ? -1 : chunkBuffer.remaining();
+    }
+
     public List<?> getPayload() { return payload; }
     public void setPayload(List<?> payload) {
         this.payload = payload;
@@ -98,4 +246,208 @@ public class DHTMessage implements Serializable {
     public void setEncryptedAesKey(byte[] encryptedAesKey) {
         this.encryptedAesKey = encryptedAesKey;
     }
+
+    /* ================= WIRE FORMAT ================= */
+
+    @Override
+    public void toStream(DataOutputStream out) throws IOException {
+        writeHeader(out);
+        if (chunkRegion != null) {
+            chunkRegion.writeTo(out);
+        } else if (getChunkLength() >= 0) {
+            out.write(getChunkData());
+        }
+    }
+
+    /**
+     * Write everything except the raw chunk bytes. The chunk length is
+     * part of the header, so the caller can send the bytes afterwards
+     * from wherever they live.
+     */
+    void writeHeader(DataOutputStream out) throws IOException {
+        if (type == null) {
+            throw new IOException("Message type not set");
+        }
+
+        int mask = 0;
+        if (senderNodeId != null)    mask |= F_SENDER_ID;
+        if (senderIp != null)        mask |= F_SENDER_IP;
+        if (senderPort != 0)         mask |= F_SENDER_PORT;
+        if (targetNodeId != null)    mask |= F_TARGET;
+        if (fileId != null)          mask |= F_FILE_ID;
+        if (chunkIds != null)        mask |= F_CHUNK_IDS;
+        if (chunkId != null)         mask |= F_CHUNK_ID;
+        if (payload != null)         mask |= F_PAYLOAD;
+        if (publicKey != null)       mask |= F_PUBLIC_KEY;
+        if (encryptedAesKey != null) mask |= F_AES_KEY;
+        if (getChunkLength() >= 0)   mask |= F_CHUNK_DATA;
+        if (chunking != null)        mask |= F_CHUNKING;
+        if (encryption != null)      mask |= F_ENCRYPTION;
+        if (ttlSeconds > 0)          mask |= F_TTL;
+        if (erasure != null)         mask |= F_ERASURE;
+        if (chunkKeys != null)       mask |= F_CHUNK_KEYS;
+
+        out.writeByte(versionFor(mask));
+        out.writeByte(type.getCode());
+        WireFormat.writeVarLong(out, requestId);
+        WireFormat.writeVarInt(out, mask);
+
+        if (senderNodeId != null) WireFormat.writeNodeId(out, senderNodeId);
+        if (senderIp != null)     WireFormat.writeString(out, senderIp);
+        if (senderPort != 0)      WireFormat.writeVarInt(out, senderPort);
+        if (targetNodeId != null) WireFormat.writeNodeId(out, targetNodeId);
+        if (fileId != null)       WireFormat.writeHashId(out, fileId);
+
+        if (chunkIds != null) {
+            WireFormat.writeVarInt(out, chunkIds.size());
+            for (String id : chunkIds) {
+                WireFormat.writeHashId(out, id);
+            }
+        }
+
+        if (chunkId != null) WireFormat.writeHashId(out, chunkId);
+
+        if (payload != null) {
+            WireFormat.writeVarInt(out, payload.size());
+            for (Object o : payload) {
+                if (!(o instanceof Contact)) {
+                    throw new IOException("Unsupported payload element: " + o);
+                }
+                WireFormat.writeContact(out, (Contact) o);
+            }
+        }
+
+        if (publicKey != null)       WireFormat.writeBytes(out, publicKey);
+        if (encryptedAesKey != null) WireFormat.writeBytes(out, encryptedAesKey);
+        if (chunking != null)        WireFormat.writeVarInt(out, chunking.getCode());
+        if (encryption != null)      WireFormat.writeVarInt(out, encryption.getCode());
+        if (ttlSeconds > 0)          WireFormat.writeVarLong(out, ttlSeconds);
+
+        if (erasure != null) {
+            WireFormat.writeVarInt(out, erasure.getDataShards());
+            WireFormat.writeVarInt(out, erasure.getParityShards());
+            List<String> ids = parityIds == null ? List.of() : parityIds;
+            WireFormat.writeVarInt(out, ids.size());
+            for (String id : ids) {
+                WireFormat.writeHashId(out, id);
+            }
+        }
+
+        if (chunkKeys != null) WireFormat.writeBytes(out, chunkKeys);
+
+        // Chunk bytes follow the header directly
+        if (getChunkLength() >= 0) WireFormat.writeVarInt(out, getChunkLength());
+    }
+
+    /**
+     * @param in one whole frame held in memory; lengths in it are
+     *           checked against what the stream has left
+     */
+    @Override
+    public void fromStream(DataInputStream in) throws IOException {
+        int chunkLength = readHeader(in);
+        if (chunkLength >= 0) {
+            WireFormat.checkRemaining(in, chunkLength);
+            chunkData = new byte[chunkLength];
+            in.readFully(chunkData);
+        }
+    }
+
+    /**
+     * Read everything except the raw chunk bytes.
+     *
+     * @return length of the chunk bytes that follow, or -1 if none
+     */
+    int readHeader(DataInputStream in) throws IOException {
+        int version = in.readUnsignedByte();
+        if (version < 1 || version > WIRE_VERSION) {
+            throw new IOException("Unsupported wire version: " + version);
+        }
+
+        try {
+            type = MessageType.fromCode(in.readUnsignedByte());
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        }
+        requestId = WireFormat.readVarLong(in);
+
+        int mask = WireFormat.readVarInt(in);
+        if ((mask & ~VERSION_FIELDS[version]) != 0) {
+            throw new IOException("Fields not in wire version " + version + ": "
+                    + Integer.toHexString(mask & ~VERSION_FIELDS[version]));
+        }
+
+        if ((mask & F_SENDER_ID) != 0)   senderNodeId = WireFormat.readNodeId(in);
+        if ((mask & F_SENDER_IP) != 0)   senderIp = WireFormat.readString(in);
+        if ((mask & F_SENDER_PORT) != 0) senderPort = WireFormat.readVarInt(in);
+        if ((mask & F_TARGET) != 0)      targetNodeId = WireFormat.readNodeId(in);
+        if ((mask & F_FILE_ID) != 0)     fileId = WireFormat.readHashId(in);
+
+        if ((mask & F_CHUNK_IDS) != 0) {
+            int count = WireFormat.readVarInt(in);
+            List<String> ids = new ArrayList<>(Math.min(count, 1024));
+            for (int i = 0; i < count; i++) {
+                ids.add(WireFormat.readHashId(in));
+            }
+            chunkIds = ids;
+        }
+
+        if ((mask & F_CHUNK_ID) != 0) chunkId = WireFormat.readHashId(in);
+
+        if ((mask & F_PAYLOAD) != 0) {
+            int count = WireFormat.readVarInt(in);
+            List<Contact> contacts = new ArrayList<>(Math.min(count, 256));
+            for (int i = 0; i < count; i++) {
+                contacts.add(WireFormat.readContact(in));
+            }
+            payload = contacts;
+        }
+
+        if ((mask & F_PUBLIC_KEY) != 0) publicKey = WireFormat.readBytes(in);
+        if ((mask & F_AES_KEY) != 0)    encryptedAesKey = WireFormat.readBytes(in);
+
+        try {
+            if ((mask & F_CHUNKING) != 0) {
+                chunking = Chunking.fromCode(WireFormat.readVarInt(in));
+            }
+            if ((mask & F_ENCRYPTION) != 0) {
+                encryption = EncryptionMode.fromCode(WireFormat.readVarInt(in));
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        }
+        if ((mask & F_TTL) != 0) ttlSeconds = WireFormat.readVarLong(in);
+
+        if ((mask & F_ERASURE) != 0) {
+            int k = WireFormat.readVarInt(in);
+            int m = WireFormat.readVarInt(in);
+            try {
+                erasure = new ErasureCoding(k, m);
+            } catch (IllegalArgumentException e) {
+                throw new IOException(e.getMessage());
+            }
+            int count = WireFormat.readVarInt(in);
+            List<String> ids = new ArrayList<>(Math.min(count, 1024));
+            for (int i = 0; i < count; i++) {
+                ids.add(WireFormat.readHashId(in));
+            }
+            parityIds = ids;
+        }
+
+        if ((mask & F_CHUNK_KEYS) != 0) chunkKeys = WireFormat.readBytes(in);
+
+        if ((mask & F_CHUNK_DATA) == 0) return -1;
+
+        int chunkLength = WireFormat.readVarInt(in);
+        MessageCodec.checkFrameLength(chunkLength);
+        return chunkLength;
+    }
+
+    /** The oldest wire version that has every field in the mask */
+    static int versionFor(int mask) {
+        for (int v = 1; v < WIRE_VERSION; v++) {
+            if ((mask & ~VERSION_FIELDS[v]) == 0) return v;
+        }
+        return WIRE_VERSION;
+    }
 }
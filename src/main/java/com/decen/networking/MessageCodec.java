@@ -0,0 +1,176 @@
+package com.decen.networking;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Length-prefixed framing for DHT messages.
+ *
+ * Every message on the wire is sent as:
+ *   [int length][payload bytes]
+ *
+ * The payload is the binary form written by
+ * {@link DHTMessage#toStream}. The length prefix lets the
+ * non-blocking server know how many bytes belong to a request
+ * before it hands it to a worker.
+ */
+public final class MessageCodec {
+
+    /** Size of the frame length prefix */
+    public static final int HEADER_BYTES = Integer.BYTES;
+
+    /** Upper bound for a single frame (guards against bogus prefixes) */
+    public static final int MAX_FRAME_BYTES = 72 * 1024 * 1024;
+
+    private MessageCodec() {}
+
+    /* ================= PAYLOAD ================= */
+
+    public static byte[] encode(DHTMessage message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        message.toStream(new DataOutputStream(bytes));
+        return bytes.toByteArray();
+    }
+
+    public static DHTMessage decode(byte[] payload) throws IOException {
+        DHTMessage message = new DHTMessage();
+        message.fromStream(
+                new DataInputStream(new ByteArrayInputStream(payload)));
+        return message;
+    }
+
+    /**
+     * Decode a payload held in a buffer (the server reads large frames
+     * into pooled direct slabs). The header is parsed as usual; the
+     * chunk bytes are not copied but left in place as the message's
+     * {@link DHTMessage#getChunkBuffer chunk buffer}, so they stay
+     * valid only as long as {@code payload} does.
+     */
+    public static DHTMessage decode(ByteBuffer payload) throws IOException {
+        ByteBuffer in = payload.duplicate();
+        DHTMessage message = new DHTMessage();
+        int chunkLength = message.readHeader(new DataInputStream(new BufferInput(in)));
+
+        if (chunkLength >= 0) {
+            if (chunkLength > in.remaining()) {
+                throw new EOFException("Chunk data truncated");
+            }
+            ByteBuffer chunk = in.slice();
+            chunk.limit(chunkLength);
+            message.setChunkBuffer(chunk);
+        }
+        return message;
+    }
+
+    /* ================= FRAMES ================= */
+
+    /**
+     * Encode a message into a ready-to-write frame buffer.
+     * Chunk data is copied once, directly into the frame.
+     */
+    public static ByteBuffer encodeFrame(DHTMessage message) throws IOException {
+        if (message.getChunkRegion() != null) {
+            throw new IOException("Region-backed message needs encodeFrameHead");
+        }
+        byte[] header = encodeHeader(message);
+        ByteBuffer data = message.getChunkBuffer();
+        int length = header.length + (data == null ? 0 : data.remaining());
+
+        ByteBuffer frame = ByteBuffer.allocate(HEADER_BYTES + length);
+        frame.putInt(length);
+        frame.put(header);
+        if (data != null) frame.put(data);
+        frame.flip();
+        return frame;
+    }
+
+    /**
+     * Encode the frame prefix and message header only. The frame
+     * length covers the chunk region, whose bytes the caller must
+     * send immediately after this buffer.
+     */
+    public static ByteBuffer encodeFrameHead(DHTMessage message) throws IOException {
+        byte[] header = encodeHeader(message);
+        int chunk = Math.max(message.getChunkLength(), 0);
+
+        ByteBuffer head = ByteBuffer.allocate(HEADER_BYTES + header.length);
+        head.putInt(header.length + chunk);
+        head.put(header);
+        head.flip();
+        return head;
+    }
+
+    /**
+     * Write a frame to a stream. Chunk data goes straight from the
+     * message's buffer to the stream without an intermediate copy.
+     */
+    public static void writeFrame(DataOutputStream out, DHTMessage message)
+            throws IOException {
+
+        byte[] header = encodeHeader(message);
+        int chunk = Math.max(message.getChunkLength(), 0);
+
+        out.writeInt(header.length + chunk);
+        out.write(header);
+        if (message.getChunkRegion() != null) {
+            message.getChunkRegion().writeTo(out);
+        } else if (chunk > 0) {
+            out.write(message.getChunkData());
+        }
+    }
+
+    public static DHTMessage readFrame(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        checkFrameLength(length);
+
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return decode(payload);
+    }
+
+    public static void checkFrameLength(int length) throws IOException {
+        if (length < 0 || length > MAX_FRAME_BYTES) {
+            throw new IOException("Invalid frame length: " + length);
+        }
+    }
+
+    private static byte[] encodeHeader(DHTMessage message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        message.writeHeader(new DataOutputStream(bytes));
+        return bytes.toByteArray();
+    }
+
+    /* Reads a buffer through the stream-based header decoder */
+    private static final class BufferInput extends InputStream {
+        private final ByteBuffer buf;
+
+        BufferInput(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        @Override
+        public int read() {
+            return buf.hasRemaining() ? buf.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) return 0;
+            if (!buf.hasRemaining()) return -1;
+            int n = Math.min(len, buf.remaining());
+            buf.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buf.remaining();
+        }
+    }
+}
@@ -1,14 +1,20 @@
 package com.decen.networking;
 
 import com.decen.crypto.ECCKeyExchangeUtil;
+import com.decen.crypto.EncryptionMode;
 import com.decen.dht.*;
+import com.decen.storage.ChunkRegion;
 import com.decen.storage.ChunkStore;
+import com.decen.storage.Chunking;
+import com.decen.storage.FileMetadata;
 import com.decen.storage.MetadataStore;
 
+import java.nio.ByteBuffer;
 import java.security.KeyFactory;
 import java.security.KeyPair;
 import java.security.PublicKey;
 import java.security.spec.X509EncodedKeySpec;
+import java.time.Duration;
 import java.util.List;
 
 public class MessageHandler {
@@ -54,7 +60,7 @@ public class MessageHandler {
                 return handleFindValue(request);
 
             case STORE:
-                return ack(MessageType.STORE);
+                return handleStore(request);
 
             case STORE_CHUNK:
                 return handleStoreChunk(request);
@@ -73,6 +79,10 @@ public class MessageHandler {
     /* ================= HANDLERS ================= */
 
     private DHTMessage handleFindNode(DHTMessage req) {
+        // Closest to what? Older clients sent no target
+        if (req.getTargetNodeId() == null) {
+            return error("FIND_NODE without a target");
+        }
         List<Contact> closest =
                 dhtNode.findNode(req.getTargetNodeId(), k);
 
@@ -91,6 +101,16 @@ public class MessageHandler {
         if (result.hasValue()) {
             r.setType(MessageType.FIND_VALUE_RESPONSE);
             r.setChunkIds(result.getChunkIds());
+            if (!result.getChunking().isFixedSize()) {
+                r.setChunking(result.getChunking());
+            }
+            if (result.getEncryption() != EncryptionMode.RANDOM) {
+                r.setEncryption(result.getEncryption());
+            }
+            if (result.getFile().isErasureCoded()) {
+                r.setErasure(result.getFile().getErasure(), result.getFile().getParityIds());
+            }
+            r.setChunkKeys(result.getFile().getChunkKeys());
         } else {
             r.setType(MessageType.FIND_NODE_RESPONSE);
             r.setPayload(result.getClosestNodes());
@@ -98,13 +118,45 @@ public class MessageHandler {
         return r;
     }
 
+    private DHTMessage handleStore(DHTMessage req) {
+        if (req.getFileId() == null || req.getChunkIds() == null) {
+            return error("STORE without a value");
+        }
+        try {
+            FileMetadata metadata = new FileMetadata(
+                    req.getChunkIds(),
+                    req.getChunking() == null ? Chunking.FIXED : req.getChunking(),
+                    req.getEncryption() == null ? EncryptionMode.RANDOM : req.getEncryption(),
+                    0,
+                    req.getErasure(),
+                    req.getErasure() == null ? List.of() : req.getParityIds(),
+                    req.getChunkKeys());
+            Duration ttl = req.getTtlSeconds() > 0
+                    ? Duration.ofSeconds(req.getTtlSeconds())
+                    : DHTNode.VALUE_TTL;
+
+            dhtNode.storeValue(req.getFileId(), metadata, ttl);
+            return ack(MessageType.STORE);
+        } catch (Exception e) {
+            return error("Failed to store value");
+        }
+    }
+
     private DHTMessage handleStoreChunk(DHTMessage req) {
+        if (req.getChunkId() == null || req.getChunkBuffer() == null) {
+            return error("STORE_CHUNK without a chunk");
+        }
         try {
+            // Straight from the received frame, no heap copy. The store
+            // hashes the bytes before keeping or acking anything, and a
+            // copy already here counts only if it still verifies.
             chunkStore.putChunk(
                     req.getChunkId(),
-                    req.getChunkData()
+                    req.getChunkBuffer()
             );
             return ack(MessageType.STORE_CHUNK);
+        } catch (IllegalArgumentException e) {
+            return error("Chunk does not match its id");
         } catch (Exception e) {
             return error("Failed to store chunk");
         }
@@ -112,12 +164,20 @@ public class MessageHandler {
 
     private DHTMessage handleGetChunk(DHTMessage req) {
         try {
-            byte[] chunk =
-                    chunkStore.getChunk(req.getChunkId());
-
             DHTMessage r = new DHTMessage();
             r.setType(MessageType.CHUNK_RESPONSE);
-            r.setChunkData(chunk); // null allowed = not found
+
+            // Hot chunks come from the chunk cache
+            ByteBuffer cached = chunkStore.getCachedChunk(req.getChunkId());
+            if (cached != null) {
+                r.setChunkBuffer(cached);
+                return r;
+            }
+
+            // Others are served from the file by the server, never copied to the heap
+            ChunkRegion chunk =
+                    chunkStore.openChunk(req.getChunkId());
+            r.setChunkRegion(chunk); // null allowed = not found
             return r;
 
         } catch (Exception e) {
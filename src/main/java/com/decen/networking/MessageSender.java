@@ -0,0 +1,23 @@
+package com.decen.networking;
+
+import com.decen.dht.Contact;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Asynchronous request/response transport to remote peers.
+ *
+ * Implemented by {@link PeerClient}; lookups depend only on this
+ * interface so they can also run against an in-memory network.
+ */
+public interface MessageSender {
+
+    /**
+     * Send a request. The future completes with the response, or
+     * fails if the peer is unreachable or does not answer in time.
+     */
+    CompletableFuture<DHTMessage> sendAsync(Contact remote,
+                                            DHTMessage request,
+                                            Duration timeout);
+}
@@ -2,16 +2,33 @@ package com.decen.networking;
 
 public enum MessageType {
 
-  FIND_NODE,
-FIND_NODE_RESPONSE,
-FIND_VALUE,
-FIND_VALUE_RESPONSE,
-STORE,
-STORE_CHUNK,
-GET_CHUNK,
-CHUNK_RESPONSE,
-KEY_REQUEST,
-KEY_RESPONSE,
-ERROR
+    FIND_NODE(0),
+    FIND_NODE_RESPONSE(1),
+    FIND_VALUE(2),
+    FIND_VALUE_RESPONSE(3),
+    STORE(4),
+    STORE_CHUNK(5),
+    GET_CHUNK(6),
+    CHUNK_RESPONSE(7),
+    KEY_REQUEST(8),
+    KEY_RESPONSE(9),
+    ERROR(10);
 
+    /* Stable ids for the wire (never reuse; reordering the enum is safe) */
+    private final int code;
+
+    MessageType(int code) {
+        this.code = code;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    public static MessageType fromCode(int code) {
+        for (MessageType t : values()) {
+            if (t.code == code) return t;
+        }
+        throw new IllegalArgumentException("Unknown message type: " + code);
+    }
 }
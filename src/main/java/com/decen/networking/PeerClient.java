@@ -3,37 +3,244 @@ package com.decen.networking;
 import com.decen.dht.Contact;
 import com.decen.dht.NodeId;
 
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.Socket;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
-public class PeerClient {
+/**
+ * PeerClient sends DHT requests to remote peers.
+ *
+ * Connections are pooled per peer address and kept open between
+ * calls. Concurrent requests to the same peer share one socket and
+ * are matched to their responses by request id. Idle connections are
+ * closed in the background, and the pool never holds more than
+ * {@code maxConnections} sockets.
+ *
+ * Every request has a deadline covering connect, write and response.
+ * {@link #sendAsync} exposes the pending request as a future that the
+ * caller can cancel once it no longer needs the answer.
+ */
+public class PeerClient implements MessageSender, AutoCloseable {
+
+    public static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(10);
+
+    private static final int DEFAULT_MAX_CONNECTIONS = 256;
+    private static final long DEFAULT_IDLE_TIMEOUT_MS = 60_000;
+    private static final int CONNECT_TIMEOUT_MS = 5_000;
 
     private final NodeId localNodeId;
     private final String localIp;
     private final int localPort;
 
+    private final int maxConnections;
+    private final long idleTimeoutMillis;
+
+    /** "ip:port" → open connection */
+    private final Map<String, PeerConnection> connections = new ConcurrentHashMap<>();
+    private final AtomicLong nextRequestId = new AtomicLong();
+
+    /** Request deadlines and idle sweeps */
+    private final ScheduledExecutorService scheduler;
+
+    /** Blocking connects, kept off the caller's thread */
+    private final ExecutorService connector;
+
     public PeerClient(NodeId localNodeId, String localIp, int localPort) {
+        this(localNodeId, localIp, localPort,
+                DEFAULT_MAX_CONNECTIONS, DEFAULT_IDLE_TIMEOUT_MS);
+    }
+
+    public PeerClient(NodeId localNodeId,
+                      String localIp,
+                      int localPort,
+                      int maxConnections,
+                      long idleTimeoutMillis) {
         this.localNodeId = localNodeId;
         this.localIp = localIp;
         this.localPort = localPort;
+        this.maxConnections = maxConnections;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                daemonThreads("peer-client-scheduler"));
+        this.connector = Executors.newCachedThreadPool(
+                daemonThreads("peer-client-connect"));
+
+        long sweep = Math.max(1, idleTimeoutMillis / 2);
+        scheduler.scheduleWithFixedDelay(this::evictIdle, sweep, sweep, TimeUnit.MILLISECONDS);
     }
 
+    /**
+     * Send a request and wait for the response, using {@link #DEFAULT_TIMEOUT}.
+     */
     public DHTMessage send(Contact remote, DHTMessage request) throws Exception {
+        try {
+            return sendAsync(remote, request, DEFAULT_TIMEOUT).get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+    }
+
+    /**
+     * Send a request without blocking.
+     *
+     * The future fails with {@link TimeoutException} if no response
+     * arrives within {@code timeout}. Cancelling the future abandons
+     * the request; a late response is then discarded.
+     */
+    @Override
+    public CompletableFuture<DHTMessage> sendAsync(Contact remote,
+                                                   DHTMessage request,
+                                                   Duration timeout) {
 
         // ✅ FIXED METHOD NAMES
         request.setSenderNodeId(localNodeId);
         request.setSenderIp(localIp);
         request.setSenderPort(localPort);
+        request.setRequestId(nextRequestId.incrementAndGet());
+
+        CompletableFuture<DHTMessage> result = new CompletableFuture<>();
+        String address = remote.getIp() + ":" + remote.getPort();
+
+        ScheduledFuture<?> deadline = scheduler.schedule(
+                () -> result.completeExceptionally(new TimeoutException(
+                        request.getType() + " to " + address
+                                + " timed out after " + timeout.toMillis() + " ms")),
+                timeout.toMillis(), TimeUnit.MILLISECONDS);
+        result.whenComplete((r, e) -> deadline.cancel(false));
+
+        PeerConnection conn = connections.get(address);
+        if (conn != null && !conn.isClosed()) {
+            conn.request(request, result);
+            return result;
+        }
+
+        int connectTimeout = (int) Math.min(CONNECT_TIMEOUT_MS, timeout.toMillis());
+        connector.execute(() -> {
+            if (result.isDone()) return;
+            try {
+                connectionFor(remote, connectTimeout).request(request, result);
+            } catch (Exception e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    /* ================= POOL ================= */
+
+    private PeerConnection connectionFor(Contact remote, int connectTimeoutMillis)
+            throws Exception {
 
-        try (Socket socket = new Socket(remote.getIp(), remote.getPort());
-             ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
-             ObjectInputStream in = new ObjectInputStream(socket.getInputStream())) {
+        String address = remote.getIp() + ":" + remote.getPort();
 
-            out.writeObject(request);
-            out.flush();
+        PeerConnection conn = connections.get(address);
+        if (conn != null && !conn.isClosed()) {
+            return conn;
+        }
+
+        PeerConnection fresh = PeerConnection.open(
+                remote.getIp(), remote.getPort(), connectTimeoutMillis);
+
+        synchronized (connections) {
+            PeerConnection existing = connections.get(address);
+            if (existing != null && !existing.isClosed()) {
+                // Another thread connected first; keep theirs
+                fresh.close();
+                return existing;
+            }
+            if (existing == null && connections.size() >= maxConnections) {
+                evictLeastRecentlyUsed();
+            }
+            connections.put(address, fresh);
+        }
+        return fresh;
+    }
+
+    /**
+     * Close the least recently used connection, preferring ones with
+     * no requests in flight. Called with the pool lock held.
+     */
+    private void evictLeastRecentlyUsed() {
+        String victim = null;
+        long oldest = Long.MAX_VALUE;
+        boolean victimIdle = false;
+
+        for (Map.Entry<String, PeerConnection> e : connections.entrySet()) {
+            PeerConnection c = e.getValue();
+            boolean idle = c.inFlightCount() == 0;
+            if ((idle && !victimIdle) || (idle == victimIdle && c.lastUsed() < oldest)) {
+                victim = e.getKey();
+                oldest = c.lastUsed();
+                victimIdle = idle;
+            }
+        }
+
+        if (victim != null) {
+            connections.remove(victim).close();
+        }
+    }
 
-            return (DHTMessage) in.readObject();
+    private void evictIdle() {
+        long cutoff = System.currentTimeMillis() - idleTimeoutMillis;
+        synchronized (connections) {
+            connections.entrySet().removeIf(e -> {
+                PeerConnection c = e.getValue();
+                if (c.isClosed() || c.isIdleSince(cutoff)) {
+                    c.close();
+                    return true;
+                }
+                return false;
+            });
         }
     }
+
+    /**
+     * @return number of pooled connections (closed ones included until swept)
+     */
+    int connectionCount() {
+        return connections.size();
+    }
+
+    /**
+     * @return requests still waiting for a response, across all connections
+     */
+    int inFlightCount() {
+        int total = 0;
+        for (PeerConnection c : connections.values()) {
+            total += c.inFlightCount();
+        }
+        return total;
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        connector.shutdownNow();
+        synchronized (connections) {
+            connections.values().forEach(PeerConnection::close);
+            connections.clear();
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + "-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
 }
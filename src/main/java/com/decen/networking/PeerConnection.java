@@ -0,0 +1,188 @@
+package com.decen.networking;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * One persistent TCP connection to a remote peer.
+ *
+ * Many requests can be in flight at once. Each request carries a
+ * unique request id; a dedicated reader thread matches responses
+ * back to the waiting futures by that id, so responses may arrive
+ * in any order.
+ *
+ * Writes happen on a dedicated writer thread too. A request only queues
+ * its frame, so a caller never blocks on a slow peer's socket; the
+ * writer flushes once the queue runs dry, so a burst of small requests
+ * goes out in few packets.
+ */
+final class PeerConnection implements Closeable {
+
+    private final String address;
+    private final Socket socket;
+    private final DataOutputStream out;
+    private final DataInputStream in;
+
+    /** requestId → caller waiting for the response */
+    private final Map<Long, CompletableFuture<DHTMessage>> inFlight =
+            new ConcurrentHashMap<>();
+
+    /** Frames waiting for the writer thread */
+    private final BlockingQueue<Outgoing> outbox = new LinkedBlockingQueue<>();
+
+    /** Queued by {@link #fail} to stop the writer */
+    private static final Outgoing CLOSE = new Outgoing(null, null);
+
+    private volatile long lastUsed = System.currentTimeMillis();
+    private volatile boolean closed;
+
+    private PeerConnection(String address, Socket socket) throws IOException {
+        this.address = address;
+        this.socket = socket;
+        this.out = new DataOutputStream(
+                new BufferedOutputStream(socket.getOutputStream()));
+        this.in = new DataInputStream(
+                new BufferedInputStream(socket.getInputStream()));
+    }
+
+    static PeerConnection open(String ip, int port, int connectTimeoutMillis)
+            throws IOException {
+
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(ip, port), connectTimeoutMillis);
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+
+        PeerConnection conn = new PeerConnection(ip + ":" + port, socket);
+        Thread reader = new Thread(conn::readLoop, "peer-conn-" + conn.address);
+        reader.setDaemon(true);
+        reader.start();
+        Thread writer = new Thread(conn::writeLoop, "peer-write-" + conn.address);
+        writer.setDaemon(true);
+        writer.start();
+        return conn;
+    }
+
+    /**
+     * Queue a request for the writer thread; the reader thread completes
+     * {@code future} when the matching response arrives. If the caller
+     * completes the future first (timeout or cancellation), the request
+     * is forgotten, and not sent at all if it was still queued.
+     */
+    void request(DHTMessage message, CompletableFuture<DHTMessage> future) {
+        long requestId = message.getRequestId();
+
+        if (closed) {
+            future.completeExceptionally(new IOException("Connection closed: " + address));
+            return;
+        }
+
+        inFlight.put(requestId, future);
+        future.whenComplete((r, e) -> inFlight.remove(requestId, future));
+        lastUsed = System.currentTimeMillis();
+
+        // fail() may have swept inFlight between the check and the put
+        if (closed) {
+            inFlight.remove(requestId, future);
+            future.completeExceptionally(new IOException("Connection closed: " + address));
+            return;
+        }
+        outbox.add(new Outgoing(message, future));
+    }
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                Outgoing next = outbox.take();
+                if (next == CLOSE) return;
+                if (next.future.isDone()) continue;
+
+                MessageCodec.writeFrame(out, next.message);
+                if (outbox.isEmpty()) out.flush();
+            }
+        } catch (IOException e) {
+            fail(e);
+        } catch (InterruptedException e) {
+            fail(new IOException("Writer interrupted: " + address));
+        }
+    }
+
+    private void readLoop() {
+        try {
+            while (!closed) {
+                DHTMessage response = MessageCodec.readFrame(in);
+                lastUsed = System.currentTimeMillis();
+
+                CompletableFuture<DHTMessage> future =
+                        inFlight.remove(response.getRequestId());
+                if (future != null) {
+                    future.complete(response);
+                }
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /* ================= STATE ================= */
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    int inFlightCount() {
+        return inFlight.size();
+    }
+
+    long lastUsed() {
+        return lastUsed;
+    }
+
+    boolean isIdleSince(long cutoffMillis) {
+        return inFlight.isEmpty() && lastUsed < cutoffMillis;
+    }
+
+    @Override
+    public void close() {
+        fail(new IOException("Connection closed: " + address));
+    }
+
+    private void fail(IOException cause) {
+        closed = true;
+        try { socket.close(); } catch (IOException ignored) {}
+
+        outbox.clear();
+        outbox.add(CLOSE);
+
+        for (Long id : inFlight.keySet()) {
+            CompletableFuture<DHTMessage> future = inFlight.remove(id);
+            if (future != null) future.completeExceptionally(cause);
+        }
+    }
+
+    private static final class Outgoing {
+        final DHTMessage message;
+        final CompletableFuture<DHTMessage> future;
+
+        Outgoing(DHTMessage message, CompletableFuture<DHTMessage> future) {
+            this.message = message;
+            this.future = future;
+        }
+    }
+}
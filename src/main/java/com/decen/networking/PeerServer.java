@@ -1,83 +1,442 @@
 package com.decen.networking;
 
-import com.decen.dht.Contact;
 import com.decen.dht.NodeId;
+import com.decen.storage.BufferPool;
+import com.decen.storage.ChunkRegion;
+import com.decen.storage.FastCDC;
+import com.decen.storage.PooledBuffer;
 
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * PeerServer listens for incoming DHT messages.
+ *
+ * A single selector thread accepts connections and reads
+ * length-prefixed frames without blocking. Each complete request
+ * is handed to a bounded worker pool, which runs
+ * {@link MessageHandler#handle} and queues the response back on
+ * the connection. A slow peer streaming a large chunk therefore
+ * never delays requests from other peers.
+ *
+ * CHUNK_RESPONSE bytes backed by a {@link ChunkRegion} go from the
+ * file to the socket with transferTo (sendfile) and never touch the
+ * Java heap. Large request frames (STORE_CHUNK) are read into
+ * {@link BufferPool} slabs and stored from there, so receiving a chunk
+ * does not allocate it on the heap either.
+ *
+ * A frame's length prefix comes from an unauthenticated peer, so only
+ * up to the largest chunk frame is allocated on its word; longer frames
+ * (big file records) get their buffer grown as the bytes arrive.
  */
 public class PeerServer implements Runnable {
 
+    private static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    /** Frames at least this large are read into pooled slabs */
+    private static final int POOLED_FRAME_BYTES = 64 * 1024;
+
+    /** The largest chunk (FastCDC's cap) with its STORE_CHUNK header */
+    private static final int EAGER_FRAME_BYTES = FastCDC.DEFAULT_MAX_SIZE + BufferPool.HEADROOM;
+
     private final int port;
     private final NodeId localNodeId;
     private final MessageHandler messageHandler;
+    private final ExecutorService workers;
+    private final boolean ownsWorkers;
+    private final BufferPool pool = BufferPool.shared();
 
+    /** Connections with responses waiting to be flushed */
+    private final Queue<Connection> pendingWrites = new ConcurrentLinkedQueue<>();
+
+    private volatile Selector selector;
     private volatile boolean running = true;
 
     public PeerServer(int port,
                       NodeId localNodeId,
                       MessageHandler messageHandler) {
+        this(port, localNodeId, messageHandler,
+                newWorkerPool(Runtime.getRuntime().availableProcessors() * 2,
+                        DEFAULT_QUEUE_CAPACITY),
+                true);
+    }
+
+    /**
+     * @param workers executor that runs message handling; owned by the caller
+     */
+    public PeerServer(int port,
+                      NodeId localNodeId,
+                      MessageHandler messageHandler,
+                      ExecutorService workers) {
+        this(port, localNodeId, messageHandler, workers, false);
+    }
+
+    private PeerServer(int port,
+                       NodeId localNodeId,
+                       MessageHandler messageHandler,
+                       ExecutorService workers,
+                       boolean ownsWorkers) {
         this.port = port;
         this.localNodeId = localNodeId;
         this.messageHandler = messageHandler;
+        this.workers = workers;
+        this.ownsWorkers = ownsWorkers;
+    }
+
+    /**
+     * Create a fixed-size worker pool with a bounded task queue.
+     * Requests beyond the queue capacity are answered with ERROR.
+     */
+    public static ExecutorService newWorkerPool(int threads, int queueCapacity) {
+        AtomicInteger counter = new AtomicInteger();
+        return new ThreadPoolExecutor(
+                threads,
+                threads,
+                60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> {
+                    Thread t = new Thread(r, "peer-worker-" + counter.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy()
+        );
     }
 
     @Override
     public void run() {
-        try (ServerSocket serverSocket = new ServerSocket(port)) {
+        try (Selector sel = Selector.open();
+             ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+
+            serverChannel.bind(new InetSocketAddress(port));
+            serverChannel.configureBlocking(false);
+            serverChannel.register(sel, SelectionKey.OP_ACCEPT);
+            selector = sel;
+
             System.out.println("[PeerServer] Listening on port " + port);
 
             while (running) {
-                Socket client = serverSocket.accept();
-                handleClient(client);
+                sel.select();
+                flushPendingWrites();
+
+                Iterator<SelectionKey> keys = sel.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    if (!key.isValid()) continue;
+
+                    if (key.isAcceptable()) {
+                        try {
+                            accept(serverChannel, sel);
+                        } catch (IOException e) {
+                            // e.g. out of file descriptors; keep serving the others
+                            System.err.println("[PeerServer] Accept failed: " + e.getMessage());
+                        }
+                    } else {
+                        Connection conn = (Connection) key.attachment();
+                        try {
+                            if (key.isReadable()) conn.read();
+                            if (key.isValid() && key.isWritable()) conn.write();
+                        } catch (IOException e) {
+                            conn.close();
+                        }
+                    }
+                }
+            }
+
+            for (SelectionKey key : sel.keys()) {
+                if (key.attachment() instanceof Connection) {
+                    ((Connection) key.attachment()).close();
+                }
             }
         } catch (Exception e) {
             System.err.println("[PeerServer] Error: " + e.getMessage());
+        } finally {
+            if (ownsWorkers) workers.shutdownNow();
+        }
+    }
+
+    public void shutdown() {
+        running = false;
+        Selector sel = selector;
+        if (sel != null) sel.wakeup();
+    }
+
+    /* ================= SELECTOR THREAD ================= */
+
+    private void accept(ServerSocketChannel serverChannel, Selector sel)
+            throws IOException {
+
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) return;
+
+        try {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+
+            Connection conn = new Connection(channel);
+            conn.key = channel.register(sel, SelectionKey.OP_READ, conn);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
         }
     }
 
-    private void handleClient(Socket client) {
-    try {
-        ObjectOutputStream out =
-                new ObjectOutputStream(client.getOutputStream());
-        out.flush(); // 🔴 REQUIRED
+    private void flushPendingWrites() {
+        Connection conn;
+        while ((conn = pendingWrites.poll()) != null) {
+            SelectionKey key = conn.key;
+            if (key != null && key.isValid()) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+            }
+        }
+    }
 
-        ObjectInputStream in =
-                new ObjectInputStream(client.getInputStream());
+    /* ================= WORKER SIDE ================= */
 
-        /* Read request */
-        DHTMessage request = (DHTMessage) in.readObject();
+    private void dispatch(Connection conn, PooledBuffer payload) {
+        try {
+            workers.execute(() -> conn.enqueue(process(payload)));
+        } catch (RejectedExecutionException e) {
+            // Overloaded: decode only to echo the id so the caller fails fast
+            long requestId = 0;
+            try {
+                requestId = MessageCodec.decode(payload.buffer()).getRequestId();
+            } catch (IOException ignored) {
+            } finally {
+                payload.release();
+            }
+            conn.enqueue(errorFrame(requestId));
+        }
+    }
 
-        /* Rebuild sender contact */
-        Contact sender = new Contact(
-                request.getSenderNodeId(),
-                request.getSenderIp(),
-                request.getSenderPort()
-        );
+    /* Owns payload: the handler is done with the chunk bytes on return */
+    private Outbound process(PooledBuffer payload) {
+        long requestId = 0;
+        DHTMessage response = null;
+        try {
+            DHTMessage request = MessageCodec.decode(payload.buffer());
+            requestId = request.getRequestId();
 
-        /* Handle message */
-        DHTMessage response = messageHandler.handle(request);
+            /* Handle message */
+            response = messageHandler.handle(request);
 
-        /* Attach local identity */
-        response.setSenderNodeId(localNodeId);
+            /* Attach local identity and correlation id */
+            response.setSenderNodeId(localNodeId);
+            response.setRequestId(request.getRequestId());
 
-        /* Send response */
-        out.writeObject(response);
-        out.flush();
+            ChunkRegion region = response.getChunkRegion();
+            if (region != null) {
+                return new Outbound(MessageCodec.encodeFrameHead(response), region, null);
+            }
+            if (response.getChunkLength() >= 0) {
+                // Cached chunk bytes go out as they are, not copied into the frame
+                return new Outbound(MessageCodec.encodeFrameHead(response), null,
+                        response.getChunkBuffer());
+            }
+            return new Outbound(MessageCodec.encodeFrame(response), null, null);
 
-    } catch (Exception e) {
-        System.err.println("[PeerServer] Client handling error: " + e);
-    } finally {
-        try { client.close(); } catch (Exception ignored) {}
+        } catch (Exception e) {
+            System.err.println("[PeerServer] Client handling error: " + e);
+            if (response != null) closeQuietly(response.getChunkRegion());
+            return errorFrame(requestId);
+        } finally {
+            payload.release();
+        }
     }
-}
 
-    public void shutdown() {
-        running = false;
+    private Outbound errorFrame(long requestId) {
+        DHTMessage error = new DHTMessage();
+        error.setType(MessageType.ERROR);
+        error.setSenderNodeId(localNodeId);
+        error.setRequestId(requestId);
+        try {
+            return new Outbound(MessageCodec.encodeFrame(error), null, null);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void closeQuietly(ChunkRegion region) {
+        if (region == null) return;
+        try { region.close(); } catch (IOException ignored) {}
+    }
+
+    /* ================= OUTBOUND FRAME ================= */
+
+    /**
+     * A response frame: the encoded head, then optionally the chunk,
+     * either a file region sent straight from the page cache or a
+     * buffer (a cached chunk) written with the head in one call.
+     */
+    private static final class Outbound {
+        final ByteBuffer head;
+        final ChunkRegion region;
+        final ByteBuffer body;
+        long regionSent;
+
+        Outbound(ByteBuffer head, ChunkRegion region, ByteBuffer body) {
+            this.head = head;
+            this.region = region;
+            this.body = body;
+        }
+
+        /** @return true once every byte has been written */
+        boolean writeTo(SocketChannel channel) throws IOException {
+            if (body != null) {
+                channel.write(new ByteBuffer[] { head, body });
+                return !head.hasRemaining() && !body.hasRemaining();
+            }
+            if (head.hasRemaining()) {
+                channel.write(head);
+                if (head.hasRemaining()) return false;
+            }
+            if (region == null) return true;
+
+            while (regionSent < region.length()) {
+                long n = region.transferTo(regionSent, region.length() - regionSent, channel);
+                if (n <= 0) return false; // socket buffer full
+                regionSent += n;
+            }
+            return true;
+        }
+
+        void release() {
+            closeQuietly(region);
+        }
+    }
+
+    /* ================= CONNECTION STATE ================= */
+
+    private final class Connection {
+
+        private final SocketChannel channel;
+        private final ByteBuffer header = ByteBuffer.allocate(MessageCodec.HEADER_BYTES);
+        private final Queue<Outbound> outbound = new ConcurrentLinkedQueue<>();
+
+        private SelectionKey key;
+        private PooledBuffer body;
+        private int frameLength;   // of the frame being read into body
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * Read as many complete frames as are available.
+         * Partial frames stay buffered until the next readiness event.
+         */
+        void read() throws IOException {
+            while (true) {
+                if (body == null) {
+                    if (channel.read(header) < 0) {
+                        close();
+                        return;
+                    }
+                    if (header.hasRemaining()) return;
+
+                    header.flip();
+                    int length = header.getInt();
+                    header.clear();
+                    MessageCodec.checkFrameLength(length);
+                    if (length < POOLED_FRAME_BYTES) {
+                        body = PooledBuffer.wrap(new byte[length]);
+                    } else if (length <= EAGER_FRAME_BYTES) {
+                        body = pool.acquire(length);
+                    } else {
+                        body = PooledBuffer.wrap(new byte[EAGER_FRAME_BYTES]);
+                    }
+                    body.buffer().limit(Math.min(length, body.buffer().capacity()));
+                    frameLength = length;
+                }
+
+                ByteBuffer buf = body.buffer();
+                if (channel.read(buf) < 0) {
+                    close();
+                    return;
+                }
+                if (buf.hasRemaining()) return;
+                if (buf.position() < frameLength) {
+                    grow();
+                    continue;
+                }
+
+                buf.flip();
+                PooledBuffer payload = body;
+                body = null;
+                dispatch(this, payload);
+            }
+        }
+
+        /* Double the body of an oversized frame, up to its length */
+        private void grow() {
+            ByteBuffer old = body.buffer();
+            int capacity = (int) Math.min(frameLength, 2L * old.capacity());
+            PooledBuffer bigger = PooledBuffer.wrap(new byte[capacity]);
+
+            old.flip();
+            bigger.buffer().put(old);
+            body.release();
+            body = bigger;
+        }
+
+        void write() throws IOException {
+            Outbound out;
+            while ((out = outbound.peek()) != null) {
+                if (!out.writeTo(channel)) return; // socket buffer full
+                outbound.poll();
+                out.release();
+            }
+            key.interestOps(SelectionKey.OP_READ);
+
+            // A worker may have queued a frame after the loop drained
+            if (!outbound.isEmpty()) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        }
+
+        void enqueue(Outbound frame) {
+            outbound.add(frame);
+            if (!channel.isOpen()) {
+                drain(); // peer left while the worker ran
+                return;
+            }
+            pendingWrites.add(this);
+            Selector sel = selector;
+            if (sel != null) sel.wakeup();
+        }
+
+        void close() {
+            if (key != null) key.cancel();
+            try { channel.close(); } catch (IOException ignored) {}
+            drain();
+            if (body != null) {
+                body.release(); // partial frame
+                body = null;
+            }
+        }
+
+        /* Release file regions nobody will send */
+        private void drain() {
+            Outbound out;
+            while ((out = outbound.poll()) != null) {
+                out.release();
+            }
+        }
     }
 }
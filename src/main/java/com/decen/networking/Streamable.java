@@ -10,20 +10,20 @@ public interface Streamable
 {
 
     /**
-     * 
+     * Write this object's binary form to the stream.
      *
-     * @param out
+     * @param out destination stream
      *
      * @throws java.io.IOException
      */
     public void toStream(DataOutputStream out) throws IOException;
 
     /**
-     * 
+     * Populate this object from its binary form.
      *
-     * @param out
+     * @param out source stream
      *
-     * @throws java.io.IOException
+     * @throws java.io.IOException if the data is malformed or truncated
      */
     public void fromStream(DataInputStream out) throws IOException;
 }
\ No newline at end of file
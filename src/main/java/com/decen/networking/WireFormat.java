@@ -0,0 +1,185 @@
+package com.decen.networking;
+
+import com.decen.dht.Contact;
+import com.decen.dht.NodeId;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Primitive encoders shared by the binary message codec.
+ *
+ * - Lengths and small integers are unsigned LEB128 varints
+ * - NodeIds are written as their raw 32 bytes
+ * - Hex content hashes (chunk / file IDs) are packed to 32 raw bytes
+ *
+ * Readers take a stream over one whole frame held in memory (see
+ * MessageCodec.decode), so available() is exactly what is left of it.
+ * A peer-supplied length is checked against that before anything is
+ * allocated for it.
+ */
+final class WireFormat {
+
+    /** Tag for an ID that was packed from 64 lowercase hex chars */
+    private static final int PACKED_HASH = 0;
+
+    private static final int HASH_HEX_CHARS = NodeId.ID_LENGTH_BYTES * 2;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private WireFormat() {}
+
+    /* ================= VARINTS ================= */
+
+    static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Malformed varlong");
+    }
+
+    /* ================= BYTES / STRINGS ================= */
+
+    static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = readVarInt(in);
+        checkRemaining(in, length);
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * Reject a length longer than the rest of the frame, before a
+     * buffer of that size is allocated.
+     */
+    static void checkRemaining(DataInputStream in, int length) throws IOException {
+        if (length < 0 || length > in.available()) {
+            throw new EOFException("Length " + length + " exceeds the "
+                    + in.available() + " bytes left in the frame");
+        }
+    }
+
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        writeBytes(out, s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        return new String(readBytes(in), StandardCharsets.UTF_8);
+    }
+
+    /* ================= IDS ================= */
+
+    static void writeNodeId(DataOutputStream out, NodeId id) throws IOException {
+        id.writeTo(out);
+    }
+
+    static NodeId readNodeId(DataInputStream in) throws IOException {
+        return NodeId.readFrom(in);
+    }
+
+    /**
+     * Write a content-hash ID. SHA-256 hex IDs take 33 bytes instead
+     * of 65; anything else falls back to a tagged UTF-8 string.
+     */
+    static void writeHashId(DataOutputStream out, String id) throws IOException {
+        if (isLowerHex(id)) {
+            byte[] packed = new byte[NodeId.ID_LENGTH_BYTES];
+            for (int i = 0; i < packed.length; i++) {
+                packed[i] = (byte) ((hexValue(id.charAt(2 * i)) << 4)
+                        | hexValue(id.charAt(2 * i + 1)));
+            }
+            writeVarInt(out, PACKED_HASH);
+            out.write(packed);
+        } else {
+            byte[] utf8 = id.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(out, utf8.length + 1);
+            out.write(utf8);
+        }
+    }
+
+    static String readHashId(DataInputStream in) throws IOException {
+        int tag = readVarInt(in);
+        if (tag == PACKED_HASH) {
+            byte[] packed = new byte[NodeId.ID_LENGTH_BYTES];
+            in.readFully(packed);
+
+            char[] hex = new char[HASH_HEX_CHARS];
+            for (int i = 0; i < packed.length; i++) {
+                int b = packed[i] & 0xFF;
+                hex[2 * i] = HEX[b >>> 4];
+                hex[2 * i + 1] = HEX[b & 0x0F];
+            }
+            return new String(hex);
+        }
+
+        int length = tag - 1;
+        checkRemaining(in, length);
+        byte[] utf8 = new byte[length];
+        in.readFully(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    private static int hexValue(char c) {
+        return c <= '9' ? c - '0' : c - 'a' + 10;
+    }
+
+    private static boolean isLowerHex(String s) {
+        if (s.length() != HASH_HEX_CHARS) return false;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))) return false;
+        }
+        return true;
+    }
+
+    /* ================= CONTACTS ================= */
+
+    static void writeContact(DataOutputStream out, Contact c) throws IOException {
+        writeNodeId(out, c.getNodeId());
+        writeString(out, c.getIp());
+        writeVarInt(out, c.getPort());
+    }
+
+    static Contact readContact(DataInputStream in) throws IOException {
+        NodeId id = readNodeId(in);
+        String ip = readString(in);
+        int port = readVarInt(in);
+        return new Contact(id, ip, port);
+    }
+}
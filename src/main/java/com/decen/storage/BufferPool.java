@@ -0,0 +1,133 @@
+package com.decen.storage;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of direct ByteBuffer slabs for chunk payloads.
+ *
+ * A 1 MB byte[] is a humongous object for G1, and an upload used to
+ * allocate several per chunk (read, ciphertext, frame body, decoded
+ * chunk data). With the pool, a chunk is read, encrypted, hashed,
+ * written and received in slabs that are handed back and reused, so a
+ * steady transfer allocates no chunk-sized heap arrays at all.
+ *
+ * Slabs are {@link PooledBuffer}s with a reference count; the last
+ * {@link PooledBuffer#release} puts the slab back on the free list.
+ * At most {@code maxSlabs} slabs exist at once. Past that, and for
+ * requests larger than a slab (FastCDC chunks can reach 4 MB), callers
+ * get a plain heap buffer, so a burst degrades to the old behaviour
+ * instead of exhausting direct memory.
+ */
+public final class BufferPool {
+
+    /** Room past CHUNK_SIZE for cipher overhead and a frame header */
+    public static final int HEADROOM = 4096;
+
+    /** A full chunk, encrypted, with its STORE_CHUNK header */
+    public static final int SLAB_SIZE = FileChunker.CHUNK_SIZE + HEADROOM;
+
+    public static final int DEFAULT_MAX_SLABS = 64;
+
+    private static final BufferPool SHARED = new BufferPool(SLAB_SIZE, DEFAULT_MAX_SLABS);
+
+    private final int slabSize;
+    private final int maxSlabs;
+
+    private final Queue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+
+    /** Direct slabs handed out and not yet released */
+    private final AtomicInteger outstanding = new AtomicInteger();
+
+    private final AtomicLong allocated = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+    private final AtomicLong overflows = new AtomicLong();
+
+    public BufferPool(int slabSize, int maxSlabs) {
+        if (slabSize < 1 || maxSlabs < 0) {
+            throw new IllegalArgumentException("slabSize must be >= 1, maxSlabs >= 0");
+        }
+        this.slabSize = slabSize;
+        this.maxSlabs = maxSlabs;
+    }
+
+    /** The pool used by the upload pipeline and the server */
+    public static BufferPool shared() {
+        return SHARED;
+    }
+
+    public int slabSize() {
+        return slabSize;
+    }
+
+    /**
+     * @return an empty slab (position 0, limit = capacity) with a
+     *         reference count of one
+     */
+    public PooledBuffer acquire() {
+        return acquire(slabSize);
+    }
+
+    /**
+     * @return an empty buffer with at least {@code capacity} bytes:
+     *         a pooled slab if one fits, otherwise a heap buffer
+     */
+    public PooledBuffer acquire(int capacity) {
+        if (capacity > slabSize) {
+            overflows.incrementAndGet();
+            return PooledBuffer.wrap(ByteBuffer.allocate(capacity));
+        }
+        if (outstanding.incrementAndGet() > maxSlabs) {
+            outstanding.decrementAndGet();
+            overflows.incrementAndGet();
+            return PooledBuffer.wrap(ByteBuffer.allocate(capacity));
+        }
+
+        ByteBuffer slab = free.poll();
+        if (slab != null) {
+            reused.incrementAndGet();
+        } else {
+            slab = ByteBuffer.allocateDirect(slabSize);
+            allocated.incrementAndGet();
+        }
+        return new PooledBuffer(this, slab);
+    }
+
+    /* Called once per slab, when its count reaches zero */
+    void recycle(ByteBuffer slab) {
+        slab.clear();
+        free.offer(slab);
+        outstanding.decrementAndGet();
+    }
+
+    /* ================= STATS ================= */
+
+    /** Direct slabs created so far */
+    public long getAllocated() {
+        return allocated.get();
+    }
+
+    /** Acquires answered from the free list */
+    public long getReused() {
+        return reused.get();
+    }
+
+    /** Acquires that got a heap buffer (pool exhausted or too large) */
+    public long getOverflows() {
+        return overflows.get();
+    }
+
+    /** Slabs currently in use */
+    public int getOutstanding() {
+        return outstanding.get();
+    }
+
+    @Override
+    public String toString() {
+        return "slabs=" + allocated.get() + " inUse=" + outstanding.get()
+                + " reused=" + reused.get() + " overflows=" + overflows.get();
+    }
+}
@@ -0,0 +1,175 @@
+package com.decen.storage;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU read cache in front of another MetadataStore.
+ *
+ * FIND_VALUE for a popular file is answered from memory. Unknown
+ * files are not cached, so a miss always asks the backend. Writes go
+ * straight through and update the cached entry.
+ *
+ * A miss reads the backend without the lock. Every write bumps a
+ * generation for its key, and a miss only fills the cache if that
+ * generation is unchanged, so a record removed or replaced meanwhile
+ * is not cached again.
+ */
+public class CachedMetadataStore implements MetadataStore {
+
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private final MetadataStore backend;
+
+    /* Access-ordered, guarded by itself */
+    private final LinkedHashMap<String, FileMetadata> cache;
+
+    /* Write generations per key, striped to bound memory; guarded by cache */
+    private static final int GENERATION_STRIPES = 256;
+    private final long[] generations = new long[GENERATION_STRIPES];
+
+    private long hits;
+    private long misses;
+
+    public CachedMetadataStore(MetadataStore backend) {
+        this(backend, DEFAULT_CAPACITY);
+    }
+
+    public CachedMetadataStore(MetadataStore backend, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be >= 1");
+        }
+        this.backend = backend;
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, FileMetadata> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /* ================= FILE METADATA ================= */
+
+    @Override
+    public void putFile(String fileId, FileMetadata metadata) throws IOException {
+        backend.putFile(fileId, metadata);
+        synchronized (cache) {
+            generations[stripe(fileId)]++;
+            cache.put(fileId, metadata);
+        }
+    }
+
+    @Override
+    public void putFiles(Map<String, FileMetadata> files) throws IOException {
+        backend.putFiles(files);
+        synchronized (cache) {
+            // A bulk import should not flush the working set
+            for (String fileId : files.keySet()) {
+                generations[stripe(fileId)]++;
+                cache.remove(fileId);
+            }
+        }
+    }
+
+    @Override
+    public FileMetadata getFile(String fileId) throws IOException {
+        long generation;
+        synchronized (cache) {
+            FileMetadata m = cache.get(fileId);
+            if (m != null) {
+                hits++;
+                return m;
+            }
+            misses++;
+            generation = generations[stripe(fileId)];
+        }
+
+        FileMetadata m = backend.getFile(fileId);
+        if (m != null) {
+            synchronized (cache) {
+                // A write since the miss may have made m stale
+                if (generations[stripe(fileId)] == generation) {
+                    cache.putIfAbsent(fileId, m);
+                }
+            }
+        }
+        return m;
+    }
+
+    @Override
+    public boolean hasFile(String fileId) {
+        synchronized (cache) {
+            if (cache.containsKey(fileId)) return true;
+        }
+        return backend.hasFile(fileId);
+    }
+
+    @Override
+    public void removeFile(String fileId) throws IOException {
+        backend.removeFile(fileId);
+        synchronized (cache) {
+            generations[stripe(fileId)]++;
+            cache.remove(fileId);
+        }
+    }
+
+    @Override
+    public boolean removeFileIf(String fileId, long expiresAt) throws IOException {
+        if (!backend.removeFileIf(fileId, expiresAt)) return false;
+        synchronized (cache) {
+            generations[stripe(fileId)]++;
+            cache.remove(fileId);
+        }
+        return true;
+    }
+
+    @Override
+    public Collection<String> getFileIds() throws IOException {
+        return backend.getFileIds();
+    }
+
+    /* ================= KEYS ================= */
+
+    @Override
+    public void putEncryptedKey(String fileId, byte[] encryptedKey) throws IOException {
+        backend.putEncryptedKey(fileId, encryptedKey);
+    }
+
+    @Override
+    public byte[] getEncryptedKey(String fileId) throws IOException {
+        return backend.getEncryptedKey(fileId);
+    }
+
+    @Override
+    public byte[] getConvergenceSecret() throws IOException {
+        return backend.getConvergenceSecret();
+    }
+
+    private static int stripe(String fileId) {
+        return fileId.hashCode() & (GENERATION_STRIPES - 1);
+    }
+
+    /* ================= STATS ================= */
+
+    public long getHits() {
+        synchronized (cache) {
+            return hits;
+        }
+    }
+
+    public long getMisses() {
+        synchronized (cache) {
+            return misses;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (cache) {
+            cache.clear();
+        }
+        backend.close();
+    }
+}
@@ -0,0 +1,345 @@
+package com.decen.storage;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Size-bounded in-memory chunk cache in front of another ChunkStore.
+ *
+ * Eviction is segmented LRU:
+ * - a chunk read for the first time enters the probation segment
+ * - reading it again while it is still there moves it to the protected
+ *   segment (at most {@link #PROTECTED_RATIO} of the cache)
+ * - victims come from probation first, so a one-off scan (an upload
+ *   being replicated, a repair pass) cannot flush the hot set
+ *
+ * Concurrent misses for one chunk share a single backend read. Writes
+ * go straight to the backend and are not cached.
+ *
+ * GET_CHUNK is normally sent zero-copy from disk; see
+ * {@link #getCachedChunk} for how popular chunks move into memory.
+ * With {@code offHeap} the bytes live in direct buffers outside the
+ * Java heap; GET_CHUNK hits hand out read-only views of them, and only
+ * {@link #getChunk} copies them into an array.
+ *
+ * Returned arrays are shared with the cache and must not be modified.
+ */
+public class CachingChunkStore implements ChunkStore {
+
+    public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+    /** Share of the cache kept for chunks read more than once */
+    public static final double PROTECTED_RATIO = 0.8;
+
+    /** Chunk ids remembered for GET_CHUNK admission */
+    private static final int MAX_RECENT_IDS = 16 * 1024;
+
+    private final ChunkStore backend;
+    private final long maxBytes;
+    private final long maxProtectedBytes;
+    private final boolean offHeap;
+
+    /* Access-ordered, eldest first; both guarded by this */
+    private final LinkedHashMap<String, Entry> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, Entry> protectedSet = new LinkedHashMap<>(16, 0.75f, true);
+    private long probationBytes;
+    private long protectedBytes;
+
+    /* Ids served from disk once recently (guarded by this) */
+    private final LinkedHashMap<String, Boolean> recent = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_RECENT_IDS;
+        }
+    };
+
+    /* Backend reads in progress */
+    private final Map<String, CompletableFuture<byte[]>> loading = new ConcurrentHashMap<>();
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long loads;
+
+    public CachingChunkStore(ChunkStore backend) {
+        this(backend, DEFAULT_MAX_BYTES, false);
+    }
+
+    /**
+     * @param maxBytes total chunk bytes kept in memory
+     * @param offHeap  keep them in direct buffers instead of the heap
+     */
+    public CachingChunkStore(ChunkStore backend, long maxBytes, boolean offHeap) {
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException("maxBytes must be >= 1");
+        }
+        this.backend = backend;
+        this.maxBytes = maxBytes;
+        this.maxProtectedBytes = (long) (maxBytes * PROTECTED_RATIO);
+        this.offHeap = offHeap;
+    }
+
+    /* ================= CHUNK STORE ================= */
+
+    @Override
+    public void putChunk(String chunkId, byte[] data) throws IOException {
+        backend.putChunk(chunkId, data);
+    }
+
+    @Override
+    public void putChunk(String chunkId, ByteBuffer data) throws IOException {
+        backend.putChunk(chunkId, data);
+    }
+
+    @Override
+    public byte[] getChunk(String chunkId) throws IOException {
+        Entry e = lookup(chunkId);
+        if (e != null) return e.bytes();
+
+        synchronized (this) {
+            misses++;
+        }
+        return load(chunkId);
+    }
+
+    /**
+     * Bytes for GET_CHUNK if the chunk is hot, or null to send it
+     * zero-copy from the backend.
+     *
+     * The first request for a chunk is served from disk and only
+     * remembered; a second one while it is still remembered reads it
+     * into the cache.
+     */
+    @Override
+    public ByteBuffer getCachedChunk(String chunkId) throws IOException {
+        Entry e = lookup(chunkId);
+        if (e != null) return e.buffer();
+
+        synchronized (this) {
+            misses++;
+            if (recent.remove(chunkId) == null) {
+                recent.put(chunkId, Boolean.TRUE);
+                return null;
+            }
+        }
+        byte[] data = load(chunkId);
+        return data == null ? null : ByteBuffer.wrap(data).asReadOnlyBuffer();
+    }
+
+    @Override
+    public ChunkRegion openChunk(String chunkId) throws IOException {
+        return backend.openChunk(chunkId);
+    }
+
+    @Override
+    public boolean hasChunk(String chunkId) {
+        synchronized (this) {
+            if (probation.containsKey(chunkId) || protectedSet.containsKey(chunkId)) {
+                return true;
+            }
+        }
+        return backend.hasChunk(chunkId);
+    }
+
+    @Override
+    public boolean deleteChunk(String chunkId) throws IOException {
+        // A read still in flight must not put the chunk back
+        loading.remove(chunkId);
+        synchronized (this) {
+            remove(chunkId);
+            recent.remove(chunkId);
+        }
+        return backend.deleteChunk(chunkId);
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            probation.clear();
+            protectedSet.clear();
+            recent.clear();
+            probationBytes = 0;
+            protectedBytes = 0;
+        }
+        backend.close();
+    }
+
+    /* ================= CACHE ================= */
+
+    /** @return the cached entry (counted as a hit), or null */
+    private Entry lookup(String chunkId) {
+        Entry e;
+        synchronized (this) {
+            e = protectedSet.get(chunkId);
+            if (e == null) {
+                e = probation.remove(chunkId);
+                if (e == null) return null;
+
+                // Second read: promote
+                probationBytes -= e.length;
+                protectedSet.put(chunkId, e);
+                protectedBytes += e.length;
+                demote();
+            }
+            hits++;
+        }
+        return e;
+    }
+
+    /**
+     * Read from the backend, sharing the read with any caller that
+     * misses on the same chunk meanwhile.
+     */
+    private byte[] load(String chunkId) throws IOException {
+        CompletableFuture<byte[]> mine = new CompletableFuture<>();
+        CompletableFuture<byte[]> running = loading.putIfAbsent(chunkId, mine);
+        if (running != null) return await(running);
+
+        try {
+            byte[] data = backend.getChunk(chunkId);
+            synchronized (this) {
+                loads++;
+                if (data != null && loading.get(chunkId) == mine) {
+                    admit(chunkId, data);
+                }
+            }
+            mine.complete(data);
+            return data;
+        } catch (IOException | RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(chunkId, mine);
+        }
+    }
+
+    private static byte[] await(CompletableFuture<byte[]> running) throws IOException {
+        try {
+            return running.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for chunk read");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    /* Caller holds this */
+    private void admit(String chunkId, byte[] data) {
+        if (data.length > maxBytes - maxProtectedBytes) return; // would flush probation
+        if (probation.containsKey(chunkId) || protectedSet.containsKey(chunkId)) return;
+
+        probation.put(chunkId, new Entry(data, offHeap));
+        probationBytes += data.length;
+
+        while (probationBytes + protectedBytes > maxBytes) {
+            LinkedHashMap<String, Entry> from = probation.isEmpty() ? protectedSet : probation;
+            Iterator<Map.Entry<String, Entry>> it = from.entrySet().iterator();
+            Entry victim = it.next().getValue();
+            it.remove();
+            if (from == probation) probationBytes -= victim.length;
+            else protectedBytes -= victim.length;
+            evictions++;
+        }
+    }
+
+    /* Caller holds this. Overflow of the protected segment goes back on probation. */
+    private void demote() {
+        while (protectedBytes > maxProtectedBytes) {
+            Iterator<Map.Entry<String, Entry>> it = protectedSet.entrySet().iterator();
+            Map.Entry<String, Entry> eldest = it.next();
+            it.remove();
+            protectedBytes -= eldest.getValue().length;
+            probation.put(eldest.getKey(), eldest.getValue());
+            probationBytes += eldest.getValue().length;
+        }
+    }
+
+    /* Caller holds this */
+    private void remove(String chunkId) {
+        Entry e = probation.remove(chunkId);
+        if (e != null) {
+            probationBytes -= e.length;
+            return;
+        }
+        e = protectedSet.remove(chunkId);
+        if (e != null) protectedBytes -= e.length;
+    }
+
+    /* ================= STATS ================= */
+
+    /** Reads answered from memory */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /** Reads that were not in memory (including GET_CHUNK sent from disk) */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /** Chunks dropped to stay within the size bound */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /** Backend reads; concurrent misses on one chunk count once */
+    public synchronized long getLoads() {
+        return loads;
+    }
+
+    /** Chunk bytes currently cached */
+    public synchronized long getCachedBytes() {
+        return probationBytes + protectedBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "hits=" + hits + " misses=" + misses + " evictions=" + evictions
+                + " loads=" + loads + " bytes=" + (probationBytes + protectedBytes);
+    }
+
+    /* ================= TYPES ================= */
+
+    private static final class Entry {
+        final byte[] heap;
+        final ByteBuffer direct;
+        final int length;
+
+        Entry(byte[] data, boolean offHeap) {
+            this.length = data.length;
+            if (offHeap) {
+                this.heap = null;
+                this.direct = ByteBuffer.allocateDirect(data.length);
+                this.direct.put(data).flip();
+            } else {
+                this.heap = data;
+                this.direct = null;
+            }
+        }
+
+        byte[] bytes() {
+            if (heap != null) return heap;
+            byte[] copy = new byte[length];
+            direct.duplicate().get(copy);
+            return copy;
+        }
+
+        /** A read-only view with its own position; never a copy */
+        ByteBuffer buffer() {
+            return heap != null
+                    ? ByteBuffer.wrap(heap).asReadOnlyBuffer()
+                    : direct.asReadOnlyBuffer();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.decen.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A stored chunk as a slice of a file: (channel, position, length).
+ *
+ * Lets the network layer send chunk bytes with
+ * {@link FileChannel#transferTo} (sendfile) instead of reading them
+ * onto the heap. The region owns its channel; close it when done.
+ */
+public final class ChunkRegion implements Closeable {
+
+    private final FileChannel channel;
+    private final long position;
+    private final int length;
+
+    public ChunkRegion(FileChannel channel, long position, int length) {
+        this.channel = channel;
+        this.position = position;
+        this.length = length;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Send part of the region. May write fewer bytes than asked
+     * (for example to a non-blocking socket whose buffer is full).
+     *
+     * @param offset offset within the region
+     * @return bytes written
+     */
+    public long transferTo(long offset, long count, WritableByteChannel target)
+            throws IOException {
+        return channel.transferTo(position + offset, count, target);
+    }
+
+    /**
+     * Copy the whole region to a stream (blocking paths and tests).
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(Math.min(length, 64 * 1024));
+        long done = 0;
+        while (done < length) {
+            buf.clear().limit((int) Math.min(buf.capacity(), length - done));
+            int n = channel.read(buf, position + done);
+            if (n < 0) throw new IOException("Chunk region truncated");
+            out.write(buf.array(), 0, n);
+            done += n;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
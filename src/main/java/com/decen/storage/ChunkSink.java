@@ -0,0 +1,26 @@
+package com.decen.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Push-based writer that reassembles a file chunk by chunk.
+ *
+ * Chunks go to a temporary file next to the target. {@link #commit()}
+ * moves it into place; closing without commit discards it, so a
+ * failed download never leaves a partial file behind.
+ */
+public interface ChunkSink extends Closeable {
+
+    /** Append the next chunk in file order */
+    void write(byte[] chunk) throws IOException;
+
+    /**
+     * Write data at a byte offset, for chunks that arrive out of
+     * order. Later appends continue after the furthest byte written.
+     */
+    void write(long offset, byte[] data) throws IOException;
+
+    /** Flush and atomically move the finished file into place */
+    void commit() throws IOException;
+}
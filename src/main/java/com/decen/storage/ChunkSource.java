@@ -0,0 +1,33 @@
+package com.decen.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Pull-based stream of plaintext chunks read from a file.
+ *
+ * Only the chunk being returned is held in memory, so callers can
+ * process files of any size in constant space.
+ */
+public interface ChunkSource extends Closeable {
+
+    /**
+     * @return the next chunk (CHUNK_SIZE bytes, the last one may be
+     *         shorter), or null once the input is exhausted
+     */
+    byte[] nextChunk() throws IOException;
+
+    /**
+     * The next chunk in a buffer from {@code pool}, between position
+     * and limit. The caller releases it.
+     *
+     * The default wraps {@link #nextChunk()}; sources that can read
+     * straight into a slab override it.
+     *
+     * @return the chunk, or null once the input is exhausted
+     */
+    default PooledBuffer nextChunk(BufferPool pool) throws IOException {
+        byte[] chunk = nextChunk();
+        return chunk == null ? null : PooledBuffer.wrap(chunk);
+    }
+}
@@ -1,29 +1,122 @@
 package com.decen.storage;
 
+import com.decen.crypto.HashUtil;
+
+import java.io.Closeable;
 import java.io.IOException;
-import java.nio.file.*;
+import java.nio.ByteBuffer;
+
+/**
+ * Content-addressed chunk storage.
+ *
+ * Chunk IDs are the lowercase SHA-256 hex of the stored bytes.
+ * Implementations verify that on read and treat a mismatch as missing.
+ *
+ * - FileChunkStore: one file per chunk in a sharded directory tree
+ * - SegmentChunkStore: chunks appended to large segment files
+ * - CachingChunkStore: in-memory cache in front of either
+ */
+public interface ChunkStore extends Closeable {
+
+    /** Chunk IDs are lowercase SHA-256 hex */
+    int ID_LENGTH = 64;
+
+    /**
+     * Store a chunk.
+     *
+     * @throws IllegalArgumentException if the bytes do not hash to the
+     *         id; nothing is stored. A valid copy already present is
+     *         kept, one that no longer matches its id is replaced.
+     */
+    void putChunk(String chunkId, byte[] data) throws IOException;
+
+    /**
+     * Store the chunk bytes between a buffer's position and limit.
+     * Lets pooled direct buffers reach the disk without a heap copy. The default copies them to an array; stores that
+     * write through a channel override it.
+     */
+    default void putChunk(String chunkId, ByteBuffer data) throws IOException {
+        byte[] bytes = new byte[data.remaining()];
+        data.get(bytes);
+        putChunk(chunkId, bytes);
+    }
 
-public class ChunkStore {
+    /**
+     * @return the chunk bytes, or null if absent or corrupt
+     */
+    byte[] getChunk(String chunkId) throws IOException;
 
-    private final Path chunkDir;
+    /**
+     * Open a chunk for zero-copy sending. Unlike getChunk the bytes
+     * are not re-hashed; the receiver checks them against the id.
+     *
+     * @return the chunk's file region (caller closes it), or null if absent
+     */
+    ChunkRegion openChunk(String chunkId) throws IOException;
 
-    public ChunkStore(Path baseDir) throws IOException {
-        this.chunkDir = baseDir.resolve("chunks");
-        Files.createDirectories(chunkDir);
+    /**
+     * Chunk bytes for GET_CHUNK if they are already in memory.
+     *
+     * @return a read-only view of the bytes (heap or direct), or null
+     *         to send the chunk with {@link #openChunk}; stores without
+     *         a cache always say null
+     */
+    default ByteBuffer getCachedChunk(String chunkId) throws IOException {
+        return null;
     }
 
-    public void putChunk(String chunkId, byte[] data)
-            throws IOException {
+    boolean hasChunk(String chunkId);
 
-        Path p = chunkDir.resolve(chunkId);
-        Files.write(p, data);
+    /**
+     * @return true if the chunk existed
+     */
+    boolean deleteChunk(String chunkId) throws IOException;
+
+    @Override
+    default void close() throws IOException {}
+
+    /* ================= HELPERS ================= */
+
+    static boolean isChunkId(String id) {
+        if (id == null || id.length() != ID_LENGTH) return false;
+        for (int i = 0; i < ID_LENGTH; i++) {
+            char c = id.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) return false;
+        }
+        return true;
     }
 
-    public byte[] getChunk(String chunkId)
-            throws IOException {
+    /**
+     * @throws IllegalArgumentException if the id is not a SHA-256 hex
+     *         string (also keeps remote ids from escaping the store)
+     */
+    static void checkId(String id) {
+        if (!isChunkId(id)) {
+            throw new IllegalArgumentException("Invalid chunk id: " + id);
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if the bytes between the
+     *         buffer's position and limit do not hash to the id
+     */
+    static void checkData(String chunkId, ByteBuffer data) throws IOException {
+        String actual;
+        try {
+            actual = HashUtil.toHex(HashUtil.sha256(data.duplicate()));
+        } catch (Exception e) {
+            throw new IOException("SHA-256 unavailable", e);
+        }
+        if (!actual.equals(chunkId)) {
+            throw new IllegalArgumentException("Chunk data does not match id " + chunkId);
+        }
+    }
 
-        Path p = chunkDir.resolve(chunkId);
-        if (!Files.exists(p)) return null;
-        return Files.readAllBytes(p);
+    static String sha256Hex(byte[] data) throws IOException {
+        try {
+            return HashUtil.sha256Hex(data);
+        } catch (Exception e) {
+            throw new IOException("SHA-256 unavailable", e);
+        }
     }
 }
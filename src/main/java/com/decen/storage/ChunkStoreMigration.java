@@ -0,0 +1,83 @@
+package com.decen.storage;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Moves chunks from the old flat layout (data_<port>/chunks/<id>)
+ * into the sharded FileChunkStore layout.
+ *
+ * Usage: java com.decen.storage.ChunkStoreMigration data_5000 [data_5001 ...]
+ *
+ * Safe to re-run: already-sharded chunks are left alone. Files whose
+ * bytes do not match their id are renamed to <id>.corrupt.
+ */
+public final class ChunkStoreMigration {
+
+    private ChunkStoreMigration() {}
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.out.println(
+                "Usage: java com.decen.storage.ChunkStoreMigration <dataDir>..."
+            );
+            return;
+        }
+
+        for (String dir : args) {
+            Report r = migrate(Path.of(dir));
+            System.out.println("[Migration] " + dir + ": " + r);
+        }
+    }
+
+    /**
+     * Migrate one node's data directory.
+     */
+    public static Report migrate(Path baseDir) throws IOException {
+        FileChunkStore store = new FileChunkStore(baseDir);
+        Path chunkDir = baseDir.resolve("chunks");
+        Report report = new Report();
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(chunkDir)) {
+            for (Path file : stream) {
+                if (!Files.isRegularFile(file)) continue; // shard dirs, tmp
+
+                String name = file.getFileName().toString();
+                if (!ChunkStore.isChunkId(name)) {
+                    report.skipped++;
+                    continue;
+                }
+
+                byte[] data = Files.readAllBytes(file);
+                if (!name.equals(ChunkStore.sha256Hex(data))) {
+                    Files.move(file, file.resolveSibling(name + ".corrupt"));
+                    report.corrupt++;
+                    continue;
+                }
+
+                Path target = store.pathFor(name);
+                Files.createDirectories(target.getParent());
+                FileChunkStore.moveIntoPlace(file, target);
+                report.migrated++;
+            }
+        }
+        return report;
+    }
+
+    public static final class Report {
+        int migrated;
+        int corrupt;
+        int skipped;
+
+        public int getMigrated() { return migrated; }
+        public int getCorrupt() { return corrupt; }
+        public int getSkipped() { return skipped; }
+
+        @Override
+        public String toString() {
+            return "migrated=" + migrated + " corrupt=" + corrupt + " skipped=" + skipped;
+        }
+    }
+}
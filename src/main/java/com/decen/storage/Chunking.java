@@ -0,0 +1,52 @@
+package com.decen.storage;
+
+/**
+ * How a file was cut into chunks. Recorded with the file's metadata
+ * so a downloader knows how to put the chunks back together.
+ *
+ * - FIXED:   CHUNK_SIZE pieces; chunk i starts at i * CHUNK_SIZE
+ *            (the size follows the encryption, see FileChunker.chunkSize)
+ * - FASTCDC: content-defined boundaries; an edit only changes the
+ *            chunks around it, so other versions share the rest
+ */
+public enum Chunking {
+
+    FIXED(0, "fixed"),
+    FASTCDC(1, "fastcdc");
+
+    /* Stable ids for the wire and metadata files (never reuse) */
+    private final int code;
+    private final String label;
+
+    Chunking(int code, String label) {
+        this.code = code;
+        this.label = label;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    /** Chunks can be placed by index alone */
+    public boolean isFixedSize() {
+        return this == FIXED;
+    }
+
+    public static Chunking fromCode(int code) {
+        for (Chunking c : values()) {
+            if (c.code == code) return c;
+        }
+        throw new IllegalArgumentException("Unknown chunking: " + code);
+    }
+
+    public static Chunking fromLabel(String label) {
+        for (Chunking c : values()) {
+            if (c.label.equalsIgnoreCase(label)) return c;
+        }
+        throw new IllegalArgumentException("Unknown chunking: " + label);
+    }
+}
@@ -0,0 +1,184 @@
+package com.decen.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Turns groups of encrypted chunks into Reed-Solomon parity shards and
+ * back. Sits between the chunk pipeline and STORE_CHUNK: chunks are
+ * stored as before, parity shards are stored next to them as ordinary
+ * content-addressed chunks.
+ *
+ * Chunks in a group differ in length (the last chunk of a file, or
+ * any FastCDC chunk), so they are coded as if zero-padded to the
+ * longest one. Every parity shard ends with the k real lengths:
+ *
+ *   [parity bytes][int length × k]
+ *
+ * A group only needs rebuilding when a chunk is missing, and then at
+ * least one parity shard is present to say how long it was.
+ */
+public class ErasureCoder {
+
+    private final ChunkStore chunkStore;
+    private final ErasureCoding coding;
+    private final ReedSolomon rs;
+
+    public ErasureCoder(ChunkStore chunkStore, ErasureCoding coding) {
+        this.chunkStore = chunkStore;
+        this.coding = coding;
+        this.rs = new ReedSolomon(coding.getDataShards(), coding.getParityShards());
+    }
+
+    public ErasureCoding getCoding() {
+        return coding;
+    }
+
+    /**
+     * Compute and store the parity shards of a file whose chunks are
+     * already in the chunk store.
+     *
+     * @return parity ids, m per group, in group order
+     */
+    public List<String> encode(List<String> chunkIds) throws IOException {
+        int k = coding.getDataShards();
+        List<String> parityIds = new ArrayList<>(
+                coding.groupCount(chunkIds.size()) * coding.getParityShards());
+
+        for (int from = 0; from < chunkIds.size(); from += k) {
+            int to = Math.min(from + k, chunkIds.size());
+            byte[][] data = new byte[k][];
+            for (int i = from; i < to; i++) {
+                data[i - from] = chunkStore.getChunk(chunkIds.get(i));
+                if (data[i - from] == null) {
+                    throw new IOException("Chunk not in store: " + chunkIds.get(i));
+                }
+            }
+
+            for (byte[] parity : encodeGroup(data)) {
+                String id = ChunkStore.sha256Hex(parity);
+                chunkStore.putChunk(id, parity);
+                parityIds.add(id);
+            }
+        }
+        return parityIds;
+    }
+
+    /**
+     * @param data k chunk slots; null slots (past the end of the file)
+     *             count as empty
+     * @return m parity shards, each with its length trailer
+     */
+    public byte[][] encodeGroup(byte[][] data) {
+        int k = coding.getDataShards();
+        int m = coding.getParityShards();
+
+        int width = 0;
+        for (byte[] d : data) if (d != null) width = Math.max(width, d.length);
+
+        byte[][] shards = new byte[k + m][];
+        for (int i = 0; i < k; i++) {
+            shards[i] = padded(data[i], width);
+        }
+        for (int p = 0; p < m; p++) {
+            shards[k + p] = new byte[width + 4 * k];
+        }
+        rs.encodeParity(shards, 0, width);
+
+        byte[][] parity = new byte[m][];
+        for (int p = 0; p < m; p++) {
+            ByteBuffer trailer = ByteBuffer.wrap(shards[k + p], width, 4 * k);
+            for (int i = 0; i < k; i++) {
+                trailer.putInt(data[i] == null ? 0 : data[i].length);
+            }
+            parity[p] = shards[k + p];
+        }
+        return parity;
+    }
+
+    /**
+     * Rebuild a group's chunks.
+     *
+     * @param shards    k chunk slots then m parity slots, null where
+     *                  the shard did not arrive
+     * @param dataCount chunks in this group (k, or fewer for the last)
+     * @return the group's dataCount chunks
+     * @throws IOException if too few shards arrived or a parity shard
+     *         is malformed
+     */
+    public List<byte[]> decodeGroup(byte[][] shards, int dataCount) throws IOException {
+        int k = coding.getDataShards();
+        int m = coding.getParityShards();
+        if (shards.length != k + m || dataCount < 1 || dataCount > k) {
+            throw new IllegalArgumentException("Bad group: " + shards.length + " shards, "
+                    + dataCount + " chunks");
+        }
+
+        boolean complete = true;
+        for (int i = 0; i < dataCount; i++) {
+            if (shards[i] == null) complete = false;
+        }
+        if (complete) {
+            return new ArrayList<>(Arrays.asList(shards).subList(0, dataCount));
+        }
+
+        /* 1. Width and real lengths from the first parity shard */
+        int[] lengths = null;
+        int width = -1;
+        for (int p = 0; p < m && lengths == null; p++) {
+            byte[] parity = shards[k + p];
+            if (parity == null) continue;
+
+            width = parity.length - 4 * k;
+            if (width < 0) {
+                throw new IOException("Parity shard too short: " + parity.length);
+            }
+            ByteBuffer trailer = ByteBuffer.wrap(parity, width, 4 * k);
+            lengths = new int[k];
+            for (int i = 0; i < k; i++) {
+                lengths[i] = trailer.getInt();
+                if (lengths[i] < 0 || lengths[i] > width) {
+                    throw new IOException("Bad chunk length in parity shard: " + lengths[i]);
+                }
+            }
+        }
+        if (lengths == null) {
+            throw new IOException("No parity shard to rebuild from");
+        }
+
+        /* 2. Pad what we have and let Reed-Solomon fill the gaps */
+        byte[][] coded = new byte[k + m][];
+        boolean[] present = new boolean[k + m];
+        for (int i = 0; i < k; i++) {
+            // Slots past the end of the file are known to be empty
+            byte[] d = i < dataCount ? shards[i] : new byte[0];
+            present[i] = d != null && d.length == lengths[i];
+            coded[i] = present[i] ? padded(d, width) : new byte[width];
+        }
+        for (int p = 0; p < m; p++) {
+            byte[] parity = shards[k + p];
+            present[k + p] = parity != null && parity.length == width + 4 * k;
+            coded[k + p] = present[k + p] ? parity : new byte[width + 4 * k];
+        }
+
+        try {
+            rs.reconstruct(coded, present, 0, width);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        }
+
+        List<byte[]> chunks = new ArrayList<>(dataCount);
+        for (int i = 0; i < dataCount; i++) {
+            chunks.add(present[i] ? shards[i] : Arrays.copyOf(coded[i], lengths[i]));
+        }
+        return chunks;
+    }
+
+    private static byte[] padded(byte[] data, int width) {
+        if (data == null) return new byte[width];
+        return data.length == width ? data : Arrays.copyOf(data, width);
+    }
+}
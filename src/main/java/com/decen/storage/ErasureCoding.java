@@ -0,0 +1,107 @@
+package com.decen.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reed-Solomon layout of a file, recorded with its metadata.
+ *
+ * Chunks are taken in groups of k (the last group may be shorter).
+ * Each group gets m parity shards, so any k of its k + m shards
+ * rebuild it and each shard needs to live on one peer only, instead
+ * of R full copies of every chunk.
+ */
+public final class ErasureCoding {
+
+    private static final String PREFIX = "rs-";
+
+    private final int dataShards;
+    private final int parityShards;
+
+    public ErasureCoding(int dataShards, int parityShards) {
+        if (dataShards < 1 || parityShards < 1
+                || dataShards + parityShards > ReedSolomon.MAX_SHARDS) {
+            throw new IllegalArgumentException(
+                    "Bad erasure coding: " + dataShards + "+" + parityShards);
+        }
+        this.dataShards = dataShards;
+        this.parityShards = parityShards;
+    }
+
+    /** k: chunks per group */
+    public int getDataShards() {
+        return dataShards;
+    }
+
+    /** m: parity shards per group */
+    public int getParityShards() {
+        return parityShards;
+    }
+
+    public int getTotalShards() {
+        return dataShards + parityShards;
+    }
+
+    public int groupCount(int chunks) {
+        return (chunks + dataShards - 1) / dataShards;
+    }
+
+    /**
+     * Split a file's shards into groups: each group's chunk ids
+     * followed by its parity ids.
+     */
+    public List<List<String>> groups(List<String> chunkIds, List<String> parityIds) {
+        int groups = groupCount(chunkIds.size());
+        if (parityIds.size() != groups * parityShards) {
+            throw new IllegalArgumentException(
+                    "Expected " + groups * parityShards + " parity ids, got " + parityIds.size());
+        }
+
+        List<List<String>> out = new ArrayList<>(groups);
+        for (int g = 0; g < groups; g++) {
+            int from = g * dataShards;
+            int to = Math.min(from + dataShards, chunkIds.size());
+            List<String> group = new ArrayList<>(to - from + parityShards);
+            group.addAll(chunkIds.subList(from, to));
+            group.addAll(parityIds.subList(g * parityShards, (g + 1) * parityShards));
+            out.add(group);
+        }
+        return out;
+    }
+
+    /** e.g. "rs-4+2" */
+    public String getLabel() {
+        return PREFIX + dataShards + "+" + parityShards;
+    }
+
+    /** Accepts "rs-4+2" or "4+2" */
+    public static ErasureCoding fromLabel(String label) {
+        String s = label.toLowerCase();
+        if (s.startsWith(PREFIX)) s = s.substring(PREFIX.length());
+        int plus = s.indexOf('+');
+        try {
+            return new ErasureCoding(
+                    Integer.parseInt(s.substring(0, plus)),
+                    Integer.parseInt(s.substring(plus + 1)));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Unknown erasure coding: " + label);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof ErasureCoding)) return false;
+        ErasureCoding e = (ErasureCoding) o;
+        return dataShards == e.dataShards && parityShards == e.parityShards;
+    }
+
+    @Override
+    public int hashCode() {
+        return dataShards * 257 + parityShards;
+    }
+
+    @Override
+    public String toString() {
+        return getLabel();
+    }
+}
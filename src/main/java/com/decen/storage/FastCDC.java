@@ -0,0 +1,152 @@
+package com.decen.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * FastCDC content-defined chunking (Xia et al., USENIX ATC '16).
+ *
+ * A Gear rolling hash runs over the data; a boundary is declared where
+ * the hash has enough zero bits under a mask. Normalized chunking uses
+ * a harder mask before the average size and an easier one after it,
+ * which keeps sizes close to the average. Nothing is cut before
+ * {@code minSize}, everything is cut at {@code maxSize}.
+ *
+ * Boundaries depend only on content, so they must never change between
+ * releases: the Gear table is derived from a fixed formula below.
+ */
+public final class FastCDC {
+
+    public static final int DEFAULT_MIN_SIZE = 256 * 1024;
+    public static final int DEFAULT_AVG_SIZE = 1024 * 1024;
+    public static final int DEFAULT_MAX_SIZE = 4 * 1024 * 1024;
+
+    private static final long[] GEAR = new long[256];
+
+    static {
+        // splitmix64 over 0..255; fixed forever
+        long x = 0x9E3779B97F4A7C15L;
+        for (int i = 0; i < 256; i++) {
+            long z = (x += 0x9E3779B97F4A7C15L);
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            GEAR[i] = z ^ (z >>> 31);
+        }
+    }
+
+    private final int minSize;
+    private final int avgSize;
+    private final int maxSize;
+    private final long maskSmall;
+    private final long maskLarge;
+
+    public FastCDC() {
+        this(DEFAULT_MIN_SIZE, DEFAULT_AVG_SIZE, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @param avgSize target average, a power of two
+     */
+    public FastCDC(int minSize, int avgSize, int maxSize) {
+        if (Integer.bitCount(avgSize) != 1 || avgSize < 64) {
+            throw new IllegalArgumentException("avgSize must be a power of two >= 64");
+        }
+        if (minSize < 1 || minSize > avgSize || maxSize < avgSize) {
+            throw new IllegalArgumentException("need 1 <= min <= avg <= max");
+        }
+        this.minSize = minSize;
+        this.avgSize = avgSize;
+        this.maxSize = maxSize;
+
+        int bits = Integer.numberOfTrailingZeros(avgSize);
+        // High bits: with a left-shifting Gear hash they cover the most bytes
+        this.maskSmall = topBits(bits + 2);
+        this.maskLarge = topBits(bits - 2);
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Find the first boundary in buf[off, off + len).
+     *
+     * @return length of the first chunk (== len if no boundary is found
+     *         and len < maxSize)
+     */
+    public int cut(byte[] buf, int off, int len) {
+        if (len <= minSize) return len;
+
+        int n = Math.min(len, maxSize);
+        int normal = Math.min(n, avgSize);
+        long fp = 0;
+        int i = minSize;
+
+        for (; i < normal; i++) {
+            fp = (fp << 1) + GEAR[buf[off + i] & 0xFF];
+            if ((fp & maskSmall) == 0) return i + 1;
+        }
+        for (; i < n; i++) {
+            fp = (fp << 1) + GEAR[buf[off + i] & 0xFF];
+            if ((fp & maskLarge) == 0) return i + 1;
+        }
+        return n;
+    }
+
+    /**
+     * Stream chunks from an input. Holds at most maxSize bytes.
+     */
+    public ChunkSource source(InputStream in) {
+        return new Source(in);
+    }
+
+    private static long topBits(int n) {
+        return n <= 0 ? 0 : -1L << (64 - n);
+    }
+
+    private final class Source implements ChunkSource {
+
+        private final InputStream in;
+        private final byte[] buf = new byte[maxSize];
+        private int start;
+        private int end;
+        private boolean eof;
+
+        Source(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public byte[] nextChunk() throws IOException {
+            // Keep a full window so every cut sees up to maxSize bytes
+            if (end - start < maxSize && !eof) refill();
+            if (start == end) return null;
+
+            int len = cut(buf, start, end - start);
+            byte[] chunk = new byte[len];
+            System.arraycopy(buf, start, chunk, 0, len);
+            start += len;
+            return chunk;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        private void refill() throws IOException {
+            System.arraycopy(buf, start, buf, 0, end - start);
+            end -= start;
+            start = 0;
+
+            while (end < buf.length) {
+                int n = in.read(buf, end, buf.length - end);
+                if (n < 0) {
+                    eof = true;
+                    break;
+                }
+                end += n;
+            }
+        }
+    }
+}
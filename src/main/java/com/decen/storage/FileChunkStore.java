@@ -0,0 +1,141 @@
+package com.decen.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+/**
+ * Content-addressed chunk storage, one file per chunk.
+ *
+ * Layout: chunks/ab/cd/abcd...  (first two bytes of the SHA-256 id
+ * fan out to 65536 directories, so no directory grows large).
+ *
+ * - Writes go to chunks/tmp, are forced to disk, then atomically
+ *   renamed into place; a crash never leaves a partial chunk
+ *   under its final name
+ * - Writes are checked against the id first
+ * - Reads re-hash the bytes; a chunk that no longer matches its id
+ *   is deleted and reported as missing so it is fetched again
+ */
+public class FileChunkStore implements ChunkStore {
+
+    private final Path chunkDir;
+    private final Path tmpDir;
+
+    public FileChunkStore(Path baseDir) throws IOException {
+        this.chunkDir = baseDir.resolve("chunks");
+        this.tmpDir = chunkDir.resolve("tmp");
+        Files.createDirectories(tmpDir);
+        clearTemp();
+    }
+
+    @Override
+    public void putChunk(String chunkId, byte[] data)
+            throws IOException {
+        putChunk(chunkId, ByteBuffer.wrap(data));
+    }
+
+    @Override
+    public void putChunk(String chunkId, ByteBuffer data)
+            throws IOException {
+
+        Path p = pathFor(chunkId);
+        ChunkStore.checkData(chunkId, data);
+
+        // Trust a complete-looking copy; getChunk catches corruption on read
+        if (hasSize(p, data.remaining())) return;
+
+        Files.createDirectories(p.getParent());
+
+        Path tmp = Files.createTempFile(tmpDir, chunkId, ".tmp");
+        try {
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                while (data.hasRemaining()) {
+                    ch.write(data);
+                }
+                ch.force(false);
+            }
+            moveIntoPlace(tmp, p);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /* True if the file exists with exactly this many bytes (a torn write is shorter) */
+    private static boolean hasSize(Path p, long size) throws IOException {
+        try {
+            return Files.size(p) == size;
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public byte[] getChunk(String chunkId)
+            throws IOException {
+
+        Path p = pathFor(chunkId);
+        if (!Files.exists(p)) return null;
+
+        byte[] data = Files.readAllBytes(p);
+        if (!chunkId.equals(ChunkStore.sha256Hex(data))) {
+            System.err.println("[FileChunkStore] Corrupt chunk " + chunkId + ", discarding");
+            Files.deleteIfExists(p);
+            return null;
+        }
+        return data;
+    }
+
+    @Override
+    public ChunkRegion openChunk(String chunkId) throws IOException {
+        FileChannel ch;
+        try {
+            ch = FileChannel.open(pathFor(chunkId), StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        return new ChunkRegion(ch, 0, (int) ch.size());
+    }
+
+    @Override
+    public boolean hasChunk(String chunkId) {
+        return Files.exists(pathFor(chunkId));
+    }
+
+    @Override
+    public boolean deleteChunk(String chunkId) throws IOException {
+        return Files.deleteIfExists(pathFor(chunkId));
+    }
+
+    /**
+     * Sharded location of a chunk: chunks/ab/cd/<id>.
+     *
+     * @throws IllegalArgumentException if the id is not a SHA-256 hex
+     *         string (also keeps remote ids from escaping chunkDir)
+     */
+    Path pathFor(String chunkId) {
+        ChunkStore.checkId(chunkId);
+        return chunkDir
+                .resolve(chunkId.substring(0, 2))
+                .resolve(chunkId.substring(2, 4))
+                .resolve(chunkId);
+    }
+
+    static void moveIntoPlace(Path from, Path to) throws IOException {
+        try {
+            Files.move(from, to, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /* Leftovers from writes interrupted by a crash */
+    private void clearTemp() throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(tmpDir)) {
+            for (Path p : stream) {
+                Files.deleteIfExists(p);
+            }
+        }
+    }
+}
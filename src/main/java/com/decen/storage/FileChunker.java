@@ -1,81 +1,181 @@
 package com.decen.storage;
 
+import com.decen.crypto.EncryptionMode;
+
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
+/**
+ * Chunking of files, streamed one chunk at a time: fixed-size pieces
+ * or content-defined ({@link FastCDC}) boundaries.
+ */
 public final class FileChunker {
 
     // 1 MB chunk size only this is the so far only size tested out and works properly without hassle 
     public static final int CHUNK_SIZE = 1024 * 1024;
 
+    /** Fixed chunk size for EncryptionMode.STREAMING (fits MAX_FRAME_BYTES) */
+    public static final int LARGE_CHUNK_SIZE = 16 * 1024 * 1024;
+
     private FileChunker() {
         // Prevent instantiation because should be used
     }
 
     /**
-     * Splits a file into fixed-size byte chunks.
+     * Open a file as a stream of fixed-size chunks.
+     */
+    public static ChunkSource open(Path filePath) throws IOException {
+        return open(filePath, Chunking.FIXED);
+    }
+
+    /**
+     * Open a file as a stream of chunks cut the given way.
      */
-    public static List<byte[]> chunkFile(Path filePath) throws IOException {
+    public static ChunkSource open(Path filePath, Chunking chunking) throws IOException {
+        return open(filePath, chunking, CHUNK_SIZE);
+    }
+
+    /**
+     * @param chunkSize size of FIXED chunks; FastCDC picks its own
+     */
+    public static ChunkSource open(Path filePath, Chunking chunking, int chunkSize)
+            throws IOException {
         if (!Files.exists(filePath)) {
             throw new IllegalArgumentException("File does not exist: " + filePath);
         }
+        switch (chunking) {
+            case FASTCDC:
+                return new FastCDC().source(Files.newInputStream(filePath));
+            case FIXED:
+            default:
+                return new FileSource(FileChannel.open(filePath, StandardOpenOption.READ), chunkSize);
+        }
+    }
+
+    /**
+     * FIXED chunk size for files encrypted the given way; segmented
+     * streaming encryption keeps large chunks cheap.
+     */
+    public static int chunkSize(EncryptionMode encryption) {
+        return encryption == EncryptionMode.STREAMING ? LARGE_CHUNK_SIZE : CHUNK_SIZE;
+    }
+
+    /**
+     * Start reassembling a file at {@code outputPath}.
+     */
+    public static ChunkSink create(Path outputPath) throws IOException {
+        Path dir = outputPath.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, outputPath.getFileName().toString(), ".part");
+        return new FileSink(tmp, outputPath);
+    }
+
+    /* ================= IMPLEMENTATIONS ================= */
+
+    private static final class FileSource implements ChunkSource {
+
+        private final ReadableByteChannel in;
+        private final int chunkSize;
+
+        FileSource(ReadableByteChannel in, int chunkSize) {
+            this.in = in;
+            this.chunkSize = chunkSize;
+        }
 
-        List<byte[]> chunks = new ArrayList<>();
+        @Override
+        public byte[] nextChunk() throws IOException {
+            ByteBuffer chunk = ByteBuffer.allocate(chunkSize);
+            fill(chunk);
+            if (chunk.position() == 0) return null;
+            return chunk.hasRemaining()
+                    ? Arrays.copyOf(chunk.array(), chunk.position())
+                    : chunk.array();
+        }
 
-        try (InputStream in = Files.newInputStream(filePath)) {
-            byte[] buffer = new byte[CHUNK_SIZE];
-            int bytesRead;
+        /**
+         * Reads straight into a slab, so with a direct pool the file
+         * bytes never pass through the heap.
+         */
+        @Override
+        public PooledBuffer nextChunk(BufferPool pool) throws IOException {
+            if (pool.slabSize() < chunkSize) return ChunkSource.super.nextChunk(pool);
+
+            PooledBuffer slab = pool.acquire(chunkSize);
+            try {
+                ByteBuffer chunk = slab.buffer();
+                chunk.limit(chunkSize);
+                fill(chunk);
+                if (chunk.position() == 0) {
+                    slab.release();
+                    return null;
+                }
+                chunk.flip();
+                return slab;
+            } catch (IOException | RuntimeException e) {
+                slab.release();
+                throw e;
+            }
+        }
 
-            while ((bytesRead = in.read(buffer)) != -1) {
-                byte[] chunk = new byte[bytesRead];
-                System.arraycopy(buffer, 0, chunk, 0, bytesRead);
-                chunks.add(chunk);
+        /* Keep reading until the buffer is full or the file ends */
+        private void fill(ByteBuffer chunk) throws IOException {
+            while (chunk.hasRemaining()) {
+                if (in.read(chunk) < 0) return;
             }
         }
 
-        return chunks;
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
     }
 
-    /**
-     * Reassembles chunks back into a file.
-     */
-    public static void assembleFile(List<byte[]> chunks, Path outputPath)
-            throws IOException {
+    private static final class FileSink implements ChunkSink {
+
+        private final Path tmp;
+        private final Path target;
+        private final FileChannel out;
+        private long position;
+        private boolean committed;
 
-        if (chunks == null || chunks.isEmpty()) {
-            throw new IllegalArgumentException("Chunk list is empty");
+        FileSink(Path tmp, Path target) throws IOException {
+            this.tmp = tmp;
+            this.target = target;
+            this.out = FileChannel.open(tmp,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
         }
 
-        try (OutputStream out = Files.newOutputStream(outputPath)) {
-            for (byte[] chunk : chunks) {
-                out.write(chunk);
+        @Override
+        public void write(byte[] chunk) throws IOException {
+            write(position, chunk);
+        }
+
+        @Override
+        public void write(long offset, byte[] data) throws IOException {
+            ByteBuffer buf = ByteBuffer.wrap(data);
+            while (buf.hasRemaining()) {
+                out.write(buf, offset + buf.position());
             }
+            position = Math.max(position, offset + data.length);
         }
-    }
-    public static void reassembleFile(
-        List<byte[]> chunks,
-        Path outputPath
-) throws IOException {
-
-    Files.createDirectories(outputPath.getParent());
-
-    try (OutputStream out =
-                 Files.newOutputStream(
-                         outputPath,
-                         StandardOpenOption.CREATE,
-                         StandardOpenOption.TRUNCATE_EXISTING
-                 )) {
-
-        for (byte[] chunk : chunks) {
-            out.write(chunk);
+
+        @Override
+        public void commit() throws IOException {
+            out.close();
+            FileChunkStore.moveIntoPlace(tmp, target);
+            committed = true;
         }
-    }
-}
 
+        @Override
+        public void close() throws IOException {
+            out.close();
+            if (!committed) Files.deleteIfExists(tmp);
+        }
+    }
 }
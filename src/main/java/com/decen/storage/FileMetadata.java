@@ -0,0 +1,159 @@
+package com.decen.storage;
+
+import com.decen.crypto.EncryptionMode;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What a MetadataStore keeps for one file: its chunk ids in file
+ * order, how those chunks were cut and encrypted and, for erasure
+ * coded files, the parity shards that protect them. Convergent files
+ * also carry their chunk keys, sealed under the file key.
+ *
+ * Records this node published itself never expire. Records stored on
+ * behalf of other nodes (DHT STORE) carry an expiry time and are
+ * dropped once it passes unless they are republished.
+ */
+public final class FileMetadata {
+
+    private final List<String> chunkIds;
+    private final Chunking chunking;
+    private final EncryptionMode encryption;
+    private final long expiresAt;
+    private final ErasureCoding erasure;
+    private final List<String> parityIds;
+    private final byte[] chunkKeys;
+
+    public FileMetadata(List<String> chunkIds) {
+        this(chunkIds, Chunking.FIXED, EncryptionMode.RANDOM);
+    }
+
+    public FileMetadata(List<String> chunkIds,
+                        Chunking chunking,
+                        EncryptionMode encryption) {
+        this(chunkIds, chunking, encryption, 0);
+    }
+
+    /**
+     * @param expiresAt epoch millis after which the record is dropped,
+     *                  or 0 for a record that never expires
+     */
+    public FileMetadata(List<String> chunkIds,
+                        Chunking chunking,
+                        EncryptionMode encryption,
+                        long expiresAt) {
+        this(chunkIds, chunking, encryption, expiresAt, null, List.of());
+    }
+
+    /**
+     * @param erasure   how the chunks are grouped, or null when every
+     *                  chunk is fully replicated
+     * @param parityIds m parity shard ids per group, in group order
+     */
+    public FileMetadata(List<String> chunkIds,
+                        Chunking chunking,
+                        EncryptionMode encryption,
+                        long expiresAt,
+                        ErasureCoding erasure,
+                        List<String> parityIds) {
+        this(chunkIds, chunking, encryption, expiresAt, erasure, parityIds, null);
+    }
+
+    /**
+     * @param chunkKeys per-chunk keys sealed under the file key
+     *                  (ConvergentAES.sealKeys), or null
+     */
+    public FileMetadata(List<String> chunkIds,
+                        Chunking chunking,
+                        EncryptionMode encryption,
+                        long expiresAt,
+                        ErasureCoding erasure,
+                        List<String> parityIds,
+                        byte[] chunkKeys) {
+        if (erasure == null ? !parityIds.isEmpty()
+                : parityIds.size() != erasure.groupCount(chunkIds.size()) * erasure.getParityShards()) {
+            throw new IllegalArgumentException(
+                    parityIds.size() + " parity ids for " + chunkIds.size() + " chunks ("
+                    + (erasure == null ? "replicated" : erasure.getLabel()) + ")");
+        }
+        this.chunkIds = Collections.unmodifiableList(chunkIds);
+        this.chunking = chunking;
+        this.encryption = encryption;
+        this.expiresAt = expiresAt;
+        this.erasure = erasure;
+        this.parityIds = Collections.unmodifiableList(parityIds);
+        this.chunkKeys = chunkKeys;
+    }
+
+    public List<String> getChunkIds() {
+        return chunkIds;
+    }
+
+    public Chunking getChunking() {
+        return chunking;
+    }
+
+    public EncryptionMode getEncryption() {
+        return encryption;
+    }
+
+    /** @return the Reed-Solomon layout, or null for replicated files */
+    public ErasureCoding getErasure() {
+        return erasure;
+    }
+
+    public boolean isErasureCoded() {
+        return erasure != null;
+    }
+
+    /** @return parity shard ids, empty for replicated files */
+    public List<String> getParityIds() {
+        return parityIds;
+    }
+
+    /** @return sealed per-chunk keys, or null if every chunk uses the file key */
+    public byte[] getChunkKeys() {
+        return chunkKeys;
+    }
+
+    /** @return chunk and parity ids grouped per Reed-Solomon group */
+    public List<List<String>> getShardGroups() {
+        if (erasure == null) {
+            throw new IllegalStateException("File is not erasure coded");
+        }
+        return erasure.groups(chunkIds, parityIds);
+    }
+
+    /** @return true if both records name the same chunks and shards */
+    public boolean sameContent(FileMetadata other) {
+        return chunkIds.equals(other.chunkIds) && parityIds.equals(other.parityIds);
+    }
+
+    /** @return epoch millis of expiry, or 0 if the record never expires */
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    /** @return true for records this node published itself */
+    public boolean isPermanent() {
+        return expiresAt == 0;
+    }
+
+    public boolean isExpired(long now) {
+        return expiresAt != 0 && now >= expiresAt;
+    }
+
+    /** Same record with another expiry time */
+    public FileMetadata withExpiry(long expiresAt) {
+        return new FileMetadata(chunkIds, chunking, encryption, expiresAt,
+                erasure, parityIds, chunkKeys);
+    }
+
+    @Override
+    public String toString() {
+        return chunkIds.size() + " chunks (" + chunking.getLabel()
+                + ", " + encryption.getLabel()
+                + (erasure == null ? "" : ", " + erasure.getLabel()) + ")";
+    }
+}
@@ -0,0 +1,188 @@
+package com.decen.storage;
+
+import com.decen.crypto.AESUtil;
+import com.decen.crypto.EncryptionMode;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * One text file per file (metadata/&lt;fileId&gt;.meta) and one per key
+ * (keys/&lt;fileId&gt;.key).
+ */
+public class FileMetadataStore implements MetadataStore {
+
+    /*
+     * A .meta file is "#key=value" header lines followed by one chunk id
+     * per line. Headers are only written for non-default modes, so old
+     * files (no headers) read as FIXED / RANDOM.
+     */
+    private static final String HEADER = "#";
+    private static final String CHUNKING = "chunking";
+    private static final String ENCRYPTION = "encryption";
+    private static final String EXPIRES = "expires";
+    private static final String ERASURE = "erasure";
+    private static final String PARITY = "parity";
+    private static final String CHUNK_KEYS = "chunkkeys";
+
+    static final String CONVERGENCE_SECRET = "convergence.secret";
+
+    private final Path metadataDir;
+    private final Path keyDir;
+
+    public FileMetadataStore(Path baseDir) throws IOException {
+        this.metadataDir = baseDir.resolve("metadata");
+        this.keyDir = baseDir.resolve("keys");
+
+        Files.createDirectories(metadataDir);
+        Files.createDirectories(keyDir);
+    }
+
+    /* ================= FILE METADATA ================= */
+
+    /* Writes are synchronized so removeFileIf can check and delete as one step */
+    @Override
+    public synchronized void putFile(String fileId, FileMetadata metadata)
+            throws IOException {
+
+        List<String> lines = new ArrayList<>(metadata.getChunkIds().size() + 6);
+        if (metadata.getChunking() != Chunking.FIXED) {
+            lines.add(HEADER + CHUNKING + "=" + metadata.getChunking().getLabel());
+        }
+        if (metadata.getEncryption() != EncryptionMode.RANDOM) {
+            lines.add(HEADER + ENCRYPTION + "=" + metadata.getEncryption().getLabel());
+        }
+        if (!metadata.isPermanent()) {
+            lines.add(HEADER + EXPIRES + "=" + metadata.getExpiresAt());
+        }
+        if (metadata.isErasureCoded()) {
+            lines.add(HEADER + ERASURE + "=" + metadata.getErasure().getLabel());
+            lines.add(HEADER + PARITY + "=" + String.join(",", metadata.getParityIds()));
+        }
+        if (metadata.getChunkKeys() != null) {
+            lines.add(HEADER + CHUNK_KEYS + "="
+                    + Base64.getEncoder().encodeToString(metadata.getChunkKeys()));
+        }
+        lines.addAll(metadata.getChunkIds());
+
+        Path file = metadataDir.resolve(fileId + ".meta");
+        Files.write(file, lines);
+    }
+
+    @Override
+    public FileMetadata getFile(String fileId)
+            throws IOException {
+
+        Path file = metadataDir.resolve(fileId + ".meta");
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(file);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+
+        Map<String, String> headers = new HashMap<>();
+        int first = 0;
+        while (first < lines.size() && lines.get(first).startsWith(HEADER)) {
+            String line = lines.get(first++);
+            int eq = line.indexOf('=');
+            if (eq > 0) {
+                headers.put(line.substring(1, eq), line.substring(eq + 1));
+            }
+        }
+
+        String chunking = headers.get(CHUNKING);
+        String encryption = headers.get(ENCRYPTION);
+        String expires = headers.get(EXPIRES);
+        String erasure = headers.get(ERASURE);
+        String parity = headers.get(PARITY);
+        String chunkKeys = headers.get(CHUNK_KEYS);
+        return new FileMetadata(
+                first == 0 ? lines : lines.subList(first, lines.size()),
+                chunking == null ? Chunking.FIXED : Chunking.fromLabel(chunking),
+                encryption == null ? EncryptionMode.RANDOM : EncryptionMode.fromLabel(encryption),
+                expires == null ? 0 : Long.parseLong(expires),
+                erasure == null ? null : ErasureCoding.fromLabel(erasure),
+                parity == null || parity.isEmpty() ? List.of() : Arrays.asList(parity.split(",")),
+                chunkKeys == null ? null : Base64.getDecoder().decode(chunkKeys));
+    }
+
+    @Override
+    public boolean hasFile(String fileId) {
+        return Files.exists(metadataDir.resolve(fileId + ".meta"));
+    }
+
+    @Override
+    public synchronized void removeFile(String fileId) throws IOException {
+        Files.deleteIfExists(metadataDir.resolve(fileId + ".meta"));
+    }
+
+    @Override
+    public synchronized boolean removeFileIf(String fileId, long expiresAt) throws IOException {
+        FileMetadata m = getFile(fileId);
+        if (m == null || m.getExpiresAt() != expiresAt) return false;
+        removeFile(fileId);
+        return true;
+    }
+
+    @Override
+    public Collection<String> getFileIds() throws IOException {
+        List<String> ids = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(metadataDir, "*.meta")) {
+            for (Path p : stream) {
+                String name = p.getFileName().toString();
+                ids.add(name.substring(0, name.length() - ".meta".length()));
+            }
+        }
+        return ids;
+    }
+
+    /* ================= ENCRYPTED AES KEY ================= */
+
+    @Override
+    public void putEncryptedKey(String fileId, byte[] encryptedKey)
+            throws IOException {
+
+        Path keyFile = keyDir.resolve(fileId + ".key");
+        Files.write(keyFile, encryptedKey);
+    }
+
+    @Override
+    public byte[] getEncryptedKey(String fileId)
+            throws IOException {
+
+        Path keyFile = keyDir.resolve(fileId + ".key");
+        if (!Files.exists(keyFile)) return null;
+        return Files.readAllBytes(keyFile);
+    }
+
+    /* ================= CONVERGENCE SECRET ================= */
+
+    @Override
+    public synchronized byte[] getConvergenceSecret() throws IOException {
+        return readOrCreateSecret(keyDir.resolve(CONVERGENCE_SECRET));
+    }
+
+    /**
+     * Shared with LogMetadataStore, so switching backends keeps the
+     * secret and with it deduplication against old uploads.
+     */
+    static byte[] readOrCreateSecret(Path file) throws IOException {
+        if (Files.exists(file)) {
+            return Files.readAllBytes(file);
+        }
+
+        byte[] secret;
+        try {
+            secret = AESUtil.generateKey();
+        } catch (Exception e) {
+            throw new IOException("Cannot generate convergence secret", e);
+        }
+        // A torn secret would make every convergent file unreadable
+        Path tmp = Files.createTempFile(file.getParent(), CONVERGENCE_SECRET, ".tmp");
+        Files.write(tmp, secret);
+        FileChunkStore.moveIntoPlace(tmp, file);
+        return secret;
+    }
+}
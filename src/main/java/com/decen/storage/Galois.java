@@ -0,0 +1,125 @@
+package com.decen.storage;
+
+/**
+ * Arithmetic in GF(2^8) with the polynomial x^8 + x^4 + x^3 + x^2 + 1
+ * (0x11D) and generator 2, all table driven.
+ *
+ * Addition is XOR. Multiplication uses a full 256 × 256 product table
+ * (64 KB), so the coding loops do one lookup per byte.
+ */
+final class Galois {
+
+    private static final int POLYNOMIAL = 0x11D;
+
+    /** EXP[i] = 2^i, doubled so EXP[LOG[a] + LOG[b]] needs no modulo */
+    private static final byte[] EXP = new byte[510];
+    private static final int[] LOG = new int[256];
+
+    /** MUL[a][b] = a · b */
+    static final byte[][] MUL = new byte[256][256];
+
+    static {
+        int x = 1;
+        for (int i = 0; i < 255; i++) {
+            EXP[i] = (byte) x;
+            EXP[i + 255] = (byte) x;
+            LOG[x] = i;
+            x <<= 1;
+            if (x >= 256) x ^= POLYNOMIAL;
+        }
+        for (int a = 1; a < 256; a++) {
+            for (int b = 1; b < 256; b++) {
+                MUL[a][b] = EXP[LOG[a] + LOG[b]];
+            }
+        }
+    }
+
+    private Galois() {}
+
+    static byte multiply(byte a, byte b) {
+        return MUL[a & 0xFF][b & 0xFF];
+    }
+
+    static byte divide(byte a, byte b) {
+        if (b == 0) throw new ArithmeticException("Division by zero");
+        if (a == 0) return 0;
+        return EXP[LOG[a & 0xFF] - LOG[b & 0xFF] + 255];
+    }
+
+    /** a^n */
+    static byte power(byte a, int n) {
+        if (n == 0) return 1;
+        if (a == 0) return 0;
+        return EXP[(LOG[a & 0xFF] * n) % 255];
+    }
+
+    /* ================= MATRICES ================= */
+
+    /** rows × cols matrix with m[r][c] = r^c; any cols rows are independent */
+    static byte[][] vandermonde(int rows, int cols) {
+        byte[][] m = new byte[rows][cols];
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                m[r][c] = power((byte) r, c);
+            }
+        }
+        return m;
+    }
+
+    static byte[][] multiply(byte[][] a, byte[][] b) {
+        int n = b[0].length;
+        byte[][] out = new byte[a.length][n];
+        for (int r = 0; r < a.length; r++) {
+            for (int c = 0; c < n; c++) {
+                byte v = 0;
+                for (int i = 0; i < b.length; i++) {
+                    v ^= multiply(a[r][i], b[i][c]);
+                }
+                out[r][c] = v;
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Inverse of a square matrix by Gauss-Jordan elimination.
+     *
+     * @throws IllegalArgumentException if the matrix is singular
+     */
+    static byte[][] invert(byte[][] m) {
+        int n = m.length;
+        byte[][] work = new byte[n][2 * n];
+        for (int r = 0; r < n; r++) {
+            System.arraycopy(m[r], 0, work[r], 0, n);
+            work[r][n + r] = 1;
+        }
+
+        for (int col = 0; col < n; col++) {
+            int pivot = col;
+            while (pivot < n && work[pivot][col] == 0) pivot++;
+            if (pivot == n) throw new IllegalArgumentException("Singular matrix");
+
+            byte[] tmp = work[col];
+            work[col] = work[pivot];
+            work[pivot] = tmp;
+
+            byte scale = divide((byte) 1, work[col][col]);
+            byte[] row = work[col];
+            for (int c = 0; c < 2 * n; c++) row[c] = multiply(row[c], scale);
+
+            for (int r = 0; r < n; r++) {
+                byte factor = work[r][col];
+                if (r == col || factor == 0) continue;
+                for (int c = 0; c < 2 * n; c++) {
+                    work[r][c] ^= multiply(factor, row[c]);
+                }
+            }
+        }
+
+        byte[][] inv = new byte[n][n];
+        for (int r = 0; r < n; r++) {
+            System.arraycopy(work[r], n, inv[r], 0, n);
+        }
+        return inv;
+    }
+}
@@ -0,0 +1,577 @@
+package com.decen.storage;
+
+import com.decen.crypto.EncryptionMode;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.BufferUnderflowException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * Log-structured metadata storage.
+ *
+ * Every change is appended to one file (metadata/metadata.log) and
+ * located through an in-memory index: fileId → (offset, length).
+ * A lookup is a map probe and one positional read.
+ *
+ * Record: [int magic][byte kind][short keyLength][int bodyLength]
+ *         [int crc32 of key + body][key UTF-8][body]
+ * FILE body: [byte chunking][byte encryption][int count][32-byte id]...
+ *            then, if the encryption byte has its top bit set,
+ *            [int length][sealed chunk keys],
+ *            then, for erasure coded files only,
+ *            [short k][short m][int parityCount][32-byte id]...
+ * EXPIRING:  [long expiresAt] then a FILE body (records kept for others)
+ * KEY body:  the encrypted key bytes
+ * REMOVE:    no body
+ *
+ * - Startup scans the log, verifying each record, and truncates a
+ *   torn tail
+ * - Once at least half the log is overwritten or removed records it
+ *   is rewritten with only the live ones
+ * - putFiles appends the whole batch and syncs once
+ *
+ * The convergence secret stays in keys/, shared with FileMetadataStore.
+ */
+public class LogMetadataStore implements MetadataStore {
+
+    /** Compact once this fraction of the log is dead */
+    public static final double DEFAULT_GARBAGE_RATIO = 0.5;
+
+    /** Logs smaller than this are never worth compacting */
+    public static final long DEFAULT_MIN_COMPACT_BYTES = 1024 * 1024;
+
+    private static final int RECORD_MAGIC = 0x4D455441;   // "META"
+
+    private static final byte KIND_FILE = 0;
+    private static final byte KIND_KEY = 1;
+    private static final byte KIND_REMOVE = 2;
+    private static final byte KIND_EXPIRING_FILE = 3;
+
+    /* Set on the encryption byte when sealed chunk keys follow the ids */
+    private static final int HAS_CHUNK_KEYS = 0x80;
+
+    private static final int ID_BYTES = ChunkStore.ID_LENGTH / 2;
+    private static final int RECORD_HEADER = 4 + 1 + 2 + 4 + 4;
+    private static final int MAX_KEY_BYTES = 0xFFFF;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Path logFile;
+    private final Path keyDir;
+    private final double garbageRatio;
+    private final long minCompactBytes;
+
+    /*
+     * Written under the write lock. hasFile and getFileIds read them
+     * without a lock, so recovery builds new maps and swaps them in
+     * rather than clearing these.
+     */
+    private volatile Map<String, Location> files = new ConcurrentHashMap<>();
+    private volatile Map<String, Location> keys = new ConcurrentHashMap<>();
+
+    /* Readers share the channel; appends and compaction are exclusive */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private FileChannel channel;
+    private long size;
+    private long liveBytes;
+
+    public LogMetadataStore(Path baseDir) throws IOException {
+        this(baseDir, DEFAULT_GARBAGE_RATIO, DEFAULT_MIN_COMPACT_BYTES);
+    }
+
+    /**
+     * @param garbageRatio dead fraction of the log that triggers compaction
+     * @param minCompactBytes log size below which compaction never runs
+     */
+    public LogMetadataStore(Path baseDir,
+                            double garbageRatio,
+                            long minCompactBytes) throws IOException {
+        Path metadataDir = baseDir.resolve("metadata");
+        this.logFile = metadataDir.resolve("metadata.log");
+        this.keyDir = baseDir.resolve("keys");
+        this.garbageRatio = garbageRatio;
+        this.minCompactBytes = minCompactBytes;
+
+        Files.createDirectories(metadataDir);
+        Files.createDirectories(keyDir);
+
+        this.channel = open(logFile);
+        recover();
+    }
+
+    /* ================= FILE METADATA ================= */
+
+    @Override
+    public void putFile(String fileId, FileMetadata metadata) throws IOException {
+        putFiles(Map.of(fileId, metadata));
+    }
+
+    @Override
+    public void putFiles(Map<String, FileMetadata> batch) throws IOException {
+        // Encode outside the lock; bad ids fail before anything is written
+        List<String> ids = new ArrayList<>(batch.size());
+        List<byte[]> bodies = new ArrayList<>(batch.size());
+        byte[] kinds = new byte[batch.size()];
+        for (Map.Entry<String, FileMetadata> e : batch.entrySet()) {
+            kinds[ids.size()] = e.getValue().isPermanent() ? KIND_FILE : KIND_EXPIRING_FILE;
+            ids.add(e.getKey());
+            bodies.add(encodeFile(e.getValue()));
+        }
+
+        lock.writeLock().lock();
+        try {
+            long[] offsets = new long[ids.size()];
+            for (int i = 0; i < ids.size(); i++) {
+                offsets[i] = append(kinds[i], ids.get(i), bodies.get(i));
+            }
+            channel.force(false);
+
+            for (int i = 0; i < ids.size(); i++) {
+                index(files, ids.get(i),
+                        new Location(kinds[i], offsets[i], bodies.get(i).length, ids.get(i)));
+            }
+            maybeCompact();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public FileMetadata getFile(String fileId) throws IOException {
+        lock.readLock().lock();
+        try {
+            Location loc = files.get(fileId);
+            return loc == null ? null : decodeFile(loc.kind, read(loc));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean hasFile(String fileId) {
+        return files.containsKey(fileId);
+    }
+
+    @Override
+    public Collection<String> getFileIds() {
+        return new ArrayList<>(files.keySet());
+    }
+
+    @Override
+    public void removeFile(String fileId) throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (!files.containsKey(fileId)) return;
+            remove(fileId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean removeFileIf(String fileId, long expiresAt) throws IOException {
+        lock.writeLock().lock();
+        try {
+            Location loc = files.get(fileId);
+            if (loc == null || expiresAtOf(loc) != expiresAt) return false;
+            remove(fileId);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /* Caller holds the write lock */
+    private void remove(String fileId) throws IOException {
+        append(KIND_REMOVE, fileId, new byte[0]);
+        channel.force(false);
+        unindex(files, fileId);
+        maybeCompact();
+    }
+
+    /* Caller holds a lock. Expiring records start with their expiry time. */
+    private long expiresAtOf(Location loc) throws IOException {
+        if (loc.kind != KIND_EXPIRING_FILE) return 0;
+        ByteBuffer buf = ByteBuffer.allocate(8);
+        readFully(channel, buf, loc.offset);
+        return buf.getLong(0);
+    }
+
+    /* ================= ENCRYPTED AES KEY ================= */
+
+    @Override
+    public void putEncryptedKey(String fileId, byte[] encryptedKey) throws IOException {
+        lock.writeLock().lock();
+        try {
+            long offset = append(KIND_KEY, fileId, encryptedKey);
+            channel.force(false);
+            index(keys, fileId, new Location(KIND_KEY, offset, encryptedKey.length, fileId));
+            maybeCompact();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public byte[] getEncryptedKey(String fileId) throws IOException {
+        lock.readLock().lock();
+        try {
+            Location loc = keys.get(fileId);
+            return loc == null ? null : read(loc);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /* ================= CONVERGENCE SECRET ================= */
+
+    @Override
+    public synchronized byte[] getConvergenceSecret() throws IOException {
+        return FileMetadataStore.readOrCreateSecret(
+                keyDir.resolve(FileMetadataStore.CONVERGENCE_SECRET));
+    }
+
+    /* ================= COMPACTION ================= */
+
+    /**
+     * Rewrite the log with only the live records.
+     *
+     * @return bytes reclaimed
+     */
+    public long compact() throws IOException {
+        lock.writeLock().lock();
+        try {
+            long before = size;
+            Path tmp = logFile.resolveSibling(logFile.getFileName() + ".tmp");
+
+            try (FileChannel out = FileChannel.open(tmp,
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE)) {
+
+                long pos = copyLive(out, 0, files);
+                copyLive(out, pos, keys);
+                out.force(true);
+            }
+
+            channel.close();
+            try {
+                FileChunkStore.moveIntoPlace(tmp, logFile);
+            } finally {
+                // On failure the old log and its index are still valid
+                channel = open(logFile);
+            }
+
+            recover();
+
+            System.out.println("[LogMetadataStore] Compacted " + before + " -> " + size + " bytes");
+            return before - size;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /* Caller holds the write lock */
+    private long copyLive(FileChannel out,
+                          long pos,
+                          Map<String, Location> live) throws IOException {
+        for (Location loc : live.values()) {
+            ByteBuffer record = record(loc.kind, loc.key, read(loc));
+            int n = record.remaining();
+            writeFully(out, record, pos);
+            pos += n;
+        }
+        return pos;
+    }
+
+    /* Caller holds the write lock */
+    private void maybeCompact() throws IOException {
+        if (size < minCompactBytes || size == 0) return;
+        if (1.0 - (double) liveBytes / size >= garbageRatio) {
+            compact();
+        }
+    }
+
+    /** @return current size of the log file */
+    long logSize() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            channel.force(false);
+            channel.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /* ================= LOG ================= */
+
+    /* Caller holds the write lock. Returns the offset of the record's body. */
+    private long append(byte kind, String key, byte[] body) throws IOException {
+        ByteBuffer record = record(kind, key, body);
+        int headerAndKey = record.remaining() - body.length;
+
+        long start = size;
+        writeFully(channel, record, start);
+        size = start + headerAndKey + body.length;
+        return start + headerAndKey;
+    }
+
+    private static ByteBuffer record(byte kind, String key, byte[] body) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        if (keyBytes.length > MAX_KEY_BYTES) {
+            throw new IllegalArgumentException("File id too long: " + key.length());
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(keyBytes);
+        crc.update(body);
+
+        ByteBuffer buf = ByteBuffer.allocate(RECORD_HEADER + keyBytes.length + body.length);
+        buf.putInt(RECORD_MAGIC).put(kind)
+           .putShort((short) keyBytes.length)
+           .putInt(body.length)
+           .putInt((int) crc.getValue())
+           .put(keyBytes)
+           .put(body);
+        buf.flip();
+        return buf;
+    }
+
+    /* Caller holds the write lock */
+    private void index(Map<String, Location> map, String key, Location loc) {
+        liveBytes += loc.recordBytes();
+        Location old = map.put(key, loc);
+        if (old != null) liveBytes -= old.recordBytes();
+    }
+
+    /* Caller holds the write lock */
+    private void unindex(Map<String, Location> map, String key) {
+        Location old = map.remove(key);
+        if (old != null) liveBytes -= old.recordBytes();
+    }
+
+    /* Caller holds a lock */
+    private byte[] read(Location loc) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(loc.length);
+        readFully(channel, buf, loc.offset);
+        return buf.array();
+    }
+
+    /**
+     * Rebuild the index by replaying the log, and cut it at the first
+     * record that is incomplete or fails its checksum.
+     */
+    private void recover() throws IOException {
+        Map<String, Location> files = new ConcurrentHashMap<>();
+        Map<String, Location> keys = new ConcurrentHashMap<>();
+        liveBytes = 0;
+
+        long fileSize = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+
+        long pos = 0;
+        while (pos + RECORD_HEADER <= fileSize) {
+            header.clear();
+            readFully(channel, header, pos);
+            header.flip();
+
+            if (header.getInt() != RECORD_MAGIC) break;
+            byte kind = header.get();
+            int keyLength = header.getShort() & 0xFFFF;
+            int bodyLength = header.getInt();
+            int crc = header.getInt();
+
+            if (kind < KIND_FILE || kind > KIND_EXPIRING_FILE || bodyLength < 0
+                    || pos + RECORD_HEADER + keyLength + bodyLength > fileSize) {
+                break;
+            }
+
+            ByteBuffer rest = ByteBuffer.allocate(keyLength + bodyLength);
+            readFully(channel, rest, pos + RECORD_HEADER);
+            CRC32 check = new CRC32();
+            check.update(rest.array());
+            if ((int) check.getValue() != crc) break;
+
+            String key = new String(rest.array(), 0, keyLength, StandardCharsets.UTF_8);
+            Location loc = new Location(kind, pos + RECORD_HEADER + keyLength, bodyLength, key);
+
+            if (kind == KIND_KEY) {
+                index(keys, key, loc);
+            } else if (kind == KIND_REMOVE) {
+                unindex(files, key);
+            } else {
+                index(files, key, loc);
+            }
+            pos = loc.offset + bodyLength;
+        }
+
+        if (pos < fileSize) {
+            System.out.println("[LogMetadataStore] Truncating torn tail at " + pos);
+            channel.truncate(pos);
+        }
+        size = pos;
+        this.files = files;
+        this.keys = keys;
+
+        System.out.println("[LogMetadataStore] Loaded " + files.size()
+                + " files and " + keys.size() + " keys");
+    }
+
+    private static FileChannel open(Path path) throws IOException {
+        return FileChannel.open(path,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            pos += ch.write(buf, pos);
+        }
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = ch.read(buf, pos);
+            if (n < 0) throw new IOException("Unexpected end of metadata log");
+            pos += n;
+        }
+    }
+
+    /* ================= ENCODING ================= */
+
+    private static byte[] encodeFile(FileMetadata m) {
+        List<String> ids = m.getChunkIds();
+        List<String> parity = m.getParityIds();
+        int expiry = m.isPermanent() ? 0 : 8;
+        byte[] chunkKeys = m.getChunkKeys();
+        int keys = chunkKeys == null ? 0 : 4 + chunkKeys.length;
+        int erasure = m.isErasureCoded() ? 2 + 2 + 4 + parity.size() * ID_BYTES : 0;
+        ByteBuffer buf = ByteBuffer.allocate(
+                expiry + 1 + 1 + 4 + ids.size() * ID_BYTES + keys + erasure);
+        if (!m.isPermanent()) buf.putLong(m.getExpiresAt());
+        buf.put((byte) m.getChunking().getCode())
+           .put((byte) (m.getEncryption().getCode() | (chunkKeys == null ? 0 : HAS_CHUNK_KEYS)))
+           .putInt(ids.size());
+        putIds(buf, ids);
+
+        if (chunkKeys != null) {
+            buf.putInt(chunkKeys.length).put(chunkKeys);
+        }
+
+        if (m.isErasureCoded()) {
+            buf.putShort((short) m.getErasure().getDataShards())
+               .putShort((short) m.getErasure().getParityShards())
+               .putInt(parity.size());
+            putIds(buf, parity);
+        }
+        return buf.array();
+    }
+
+    /* Chunk ids are stored as their 32 raw hash bytes */
+    private static void putIds(ByteBuffer buf, List<String> ids) {
+        for (String id : ids) {
+            ChunkStore.checkId(id);
+            for (int i = 0; i < ChunkStore.ID_LENGTH; i += 2) {
+                buf.put((byte) ((Character.digit(id.charAt(i), 16) << 4)
+                        | Character.digit(id.charAt(i + 1), 16)));
+            }
+        }
+    }
+
+    private static FileMetadata decodeFile(byte kind, byte[] body) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(body);
+        try {
+            long expiresAt = kind == KIND_EXPIRING_FILE ? buf.getLong() : 0;
+            Chunking chunking = Chunking.fromCode(buf.get());
+            int encryptionByte = buf.get() & 0xFF;
+            EncryptionMode encryption = EncryptionMode.fromCode(encryptionByte & ~HAS_CHUNK_KEYS);
+            List<String> ids = getIds(buf);
+
+            byte[] chunkKeys = null;
+            if ((encryptionByte & HAS_CHUNK_KEYS) != 0) {
+                int length = buf.getInt();
+                if (length < 0 || length > buf.remaining()) {
+                    throw new IOException("Bad file record: " + length + " key bytes");
+                }
+                chunkKeys = new byte[length];
+                buf.get(chunkKeys);
+            }
+
+            ErasureCoding erasure = null;
+            List<String> parity = List.of();
+            if (buf.hasRemaining()) {
+                erasure = new ErasureCoding(buf.getShort(), buf.getShort());
+                parity = getIds(buf);
+            }
+            if (buf.hasRemaining()) {
+                throw new IOException("Bad file record: " + buf.remaining() + " trailing bytes");
+            }
+            return new FileMetadata(ids, chunking, encryption, expiresAt, erasure, parity, chunkKeys);
+        } catch (IllegalArgumentException | BufferUnderflowException e) {
+            throw new IOException("Bad file record", e);
+        }
+    }
+
+    private static List<String> getIds(ByteBuffer buf) throws IOException {
+        int count = buf.getInt();
+        if (count < 0 || buf.remaining() < (long) count * ID_BYTES) {
+            throw new IOException("Bad file record: " + count + " chunks");
+        }
+
+        List<String> ids = new ArrayList<>(count);
+        char[] hex = new char[ChunkStore.ID_LENGTH];
+        for (int c = 0; c < count; c++) {
+            for (int i = 0; i < ID_BYTES; i++) {
+                int b = buf.get() & 0xFF;
+                hex[2 * i] = HEX[b >>> 4];
+                hex[2 * i + 1] = HEX[b & 0x0F];
+            }
+            ids.add(new String(hex));
+        }
+        return ids;
+    }
+
+    /* ================= TYPES ================= */
+
+    private static final class Location {
+        final byte kind;
+        final long offset;   // of the body
+        final int length;    // of the body
+        final String key;
+
+        Location(byte kind, long offset, int length, String key) {
+            this.kind = kind;
+            this.offset = offset;
+            this.length = length;
+            this.key = key;
+        }
+
+        long recordBytes() {
+            return RECORD_HEADER + key.getBytes(StandardCharsets.UTF_8).length + length;
+        }
+    }
+}
@@ -1,57 +1,134 @@
 package com.decen.storage;
 
+import com.decen.crypto.EncryptionMode;
+
+import java.io.Closeable;
 import java.io.IOException;
-import java.nio.file.*;
-import java.util.*;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * File metadata and owner keys.
+ *
+ * - FileMetadataStore: one text file per file, one per key
+ * - LogMetadataStore: every record appended to a single indexed log,
+ *   chunk ids kept as raw 32-byte hashes
+ * - CachedMetadataStore: LRU read cache in front of either
+ */
+public interface MetadataStore extends Closeable {
 
-public class MetadataStore {
+    /* ================= FILE METADATA ================= */
 
-    private final Path metadataDir;
-    private final Path keyDir;
+    void putFile(String fileId, FileMetadata metadata) throws IOException;
 
-    public MetadataStore(Path baseDir) throws IOException {
-        this.metadataDir = baseDir.resolve("metadata");
-        this.keyDir = baseDir.resolve("keys");
+    /**
+     * @return the file's metadata, or null if the file is unknown
+     */
+    FileMetadata getFile(String fileId) throws IOException;
 
-        Files.createDirectories(metadataDir);
-        Files.createDirectories(keyDir);
-    }
+    boolean hasFile(String fileId);
 
-    /* ================= FILE METADATA ================= */
+    void removeFile(String fileId) throws IOException;
+
+    /**
+     * Remove the file only if its stored record still expires at
+     * {@code expiresAt}, atomically with respect to putFile, so a
+     * record replaced or refreshed since it was read is kept.
+     *
+     * @return true if the record was removed
+     */
+    boolean removeFileIf(String fileId, long expiresAt) throws IOException;
 
-    public void putFile(String fileId, List<String> chunkIds)
+    /**
+     * @return ids of every stored file, a snapshot
+     */
+    Collection<String> getFileIds() throws IOException;
+
+    default void putFile(String fileId, List<String> chunkIds)
             throws IOException {
 
-        Path file = metadataDir.resolve(fileId + ".meta");
-        Files.write(file, chunkIds);
+        putFile(fileId, new FileMetadata(chunkIds));
     }
 
-    public List<String> getChunks(String fileId)
+    default void putFile(String fileId, List<String> chunkIds, Chunking chunking)
             throws IOException {
 
-        Path file = metadataDir.resolve(fileId + ".meta");
-        if (!Files.exists(file)) return null;
-        return Files.readAllLines(file);
+        putFile(fileId, new FileMetadata(chunkIds, chunking, EncryptionMode.RANDOM));
     }
 
-    public boolean hasFile(String fileId) {
-        return Files.exists(metadataDir.resolve(fileId + ".meta"));
+    default void putFile(String fileId,
+                         List<String> chunkIds,
+                         Chunking chunking,
+                         EncryptionMode encryption) throws IOException {
+
+        putFile(fileId, new FileMetadata(chunkIds, chunking, encryption));
     }
 
-    /* ================= ENCRYPTED AES KEY ================= */
+    default List<String> getChunks(String fileId) throws IOException {
+        FileMetadata m = getFile(fileId);
+        return m == null ? null : m.getChunkIds();
+    }
 
-    public void putEncryptedKey(String fileId, byte[] encryptedKey)
-            throws IOException {
+    /**
+     * @return how the file was chunked, or null if the file is unknown
+     */
+    default Chunking getChunking(String fileId) throws IOException {
+        FileMetadata m = getFile(fileId);
+        return m == null ? null : m.getChunking();
+    }
 
-        Path keyFile = keyDir.resolve(fileId + ".key");
-        Files.write(keyFile, encryptedKey);
+    /**
+     * @return how the file's chunks were encrypted, or null if the file is unknown
+     */
+    default EncryptionMode getEncryption(String fileId) throws IOException {
+        FileMetadata m = getFile(fileId);
+        return m == null ? null : m.getEncryption();
     }
 
-    public byte[] getEncryptedKey(String fileId)
+    /* ================= BATCH ================= */
+
+    /**
+     * Store many files at once, for bulk import. Backends that sync
+     * to disk do so once for the whole batch.
+     */
+    default void putFiles(Map<String, FileMetadata> files) throws IOException {
+        for (Map.Entry<String, FileMetadata> e : files.entrySet()) {
+            putFile(e.getKey(), e.getValue());
+        }
+    }
+
+    /**
+     * @return chunk ids of every known file among fileIds, in the
+     *         order asked; unknown files are left out
+     */
+    default Map<String, List<String>> getChunks(Collection<String> fileIds)
             throws IOException {
 
-        Path keyFile = keyDir.resolve(fileId + ".key");
-        if (!Files.exists(keyFile)) return null;
-        return Files.readAllBytes(keyFile);
+        Map<String, List<String>> result = new LinkedHashMap<>();
+        for (String fileId : fileIds) {
+            List<String> chunkIds = getChunks(fileId);
+            if (chunkIds != null) result.put(fileId, chunkIds);
+        }
+        return result;
     }
+
+    /* ================= KEYS ================= */
+
+    void putEncryptedKey(String fileId, byte[] encryptedKey) throws IOException;
+
+    /**
+     * @return the stored key, or null if there is none
+     */
+    byte[] getEncryptedKey(String fileId) throws IOException;
+
+    /**
+     * This node's secret for convergent encryption, created on first
+     * use. Files stored with the same secret share identical chunks.
+     */
+    byte[] getConvergenceSecret() throws IOException;
+
+    @Override
+    default void close() throws IOException {}
 }
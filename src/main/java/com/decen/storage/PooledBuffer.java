@@ -0,0 +1,82 @@
+package com.decen.storage;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A reference-counted buffer from a {@link BufferPool}.
+ *
+ * Starts with one reference. A stage that hands the buffer on while
+ * still using it calls {@link #retain}; every holder calls
+ * {@link #release} exactly once. The buffer must not be touched after
+ * the last release, since the pool may already have given it to
+ * someone else.
+ *
+ * Buffers from {@link #wrap} are not pooled; releasing them only
+ * checks the count.
+ */
+public final class PooledBuffer {
+
+    private final BufferPool pool;
+    private final ByteBuffer buffer;
+    private final AtomicInteger refs = new AtomicInteger(1);
+
+    PooledBuffer(BufferPool pool, ByteBuffer buffer) {
+        this.pool = pool;
+        this.buffer = buffer;
+    }
+
+    /** An unpooled buffer around existing bytes */
+    public static PooledBuffer wrap(byte[] data) {
+        return wrap(ByteBuffer.wrap(data));
+    }
+
+    static PooledBuffer wrap(ByteBuffer buffer) {
+        return new PooledBuffer(null, buffer);
+    }
+
+    /**
+     * The underlying buffer. Position and limit belong to the caller;
+     * hand other stages a {@code duplicate()} if they must not move.
+     */
+    public ByteBuffer buffer() {
+        if (refs.get() <= 0) {
+            throw new IllegalStateException("Buffer already released");
+        }
+        return buffer;
+    }
+
+    public boolean isPooled() {
+        return pool != null;
+    }
+
+    public PooledBuffer retain() {
+        refs.getAndUpdate(n -> {
+            if (n <= 0) throw new IllegalStateException("Buffer already released");
+            return n + 1;
+        });
+        return this;
+    }
+
+    /**
+     * Drop one reference; the last one returns the slab to its pool.
+     */
+    public void release() {
+        int left = refs.decrementAndGet();
+        if (left < 0) {
+            refs.incrementAndGet();
+            throw new IllegalStateException("Buffer released too often");
+        }
+        if (left == 0 && pool != null) {
+            pool.recycle(buffer);
+        }
+    }
+
+    /** Copy of the bytes between position and limit (heap fallback paths) */
+    public byte[] toArray() {
+        ByteBuffer view = buffer().duplicate();
+        byte[] out = new byte[view.remaining()];
+        view.get(out);
+        return out;
+    }
+}
@@ -0,0 +1,178 @@
+package com.decen.storage;
+
+/**
+ * Systematic Reed-Solomon erasure code over GF(256).
+ *
+ * k data shards are kept as they are and m parity shards are computed
+ * from them; any k of the k + m shards rebuild the rest. The coding
+ * matrix is a Vandermonde matrix turned systematic (top k rows the
+ * identity), so every k × k sub-matrix is invertible.
+ *
+ * All shards of one call have the same length; callers pad short ones.
+ * Instances are immutable and thread-safe.
+ */
+public final class ReedSolomon {
+
+    /** GF(256) has 256 distinct Vandermonde rows */
+    public static final int MAX_SHARDS = 256;
+
+    private final int dataShards;
+    private final int parityShards;
+
+    /* (k + m) × k; rows k.. are the parity coefficients */
+    private final byte[][] matrix;
+
+    public ReedSolomon(int dataShards, int parityShards) {
+        if (dataShards < 1 || parityShards < 1
+                || dataShards + parityShards > MAX_SHARDS) {
+            throw new IllegalArgumentException(
+                    "Bad shard counts: " + dataShards + "+" + parityShards);
+        }
+        this.dataShards = dataShards;
+        this.parityShards = parityShards;
+
+        int total = dataShards + parityShards;
+        byte[][] v = Galois.vandermonde(total, dataShards);
+        byte[][] top = new byte[dataShards][];
+        System.arraycopy(v, 0, top, 0, dataShards);
+        this.matrix = Galois.multiply(v, Galois.invert(top));
+    }
+
+    public int getDataShards() {
+        return dataShards;
+    }
+
+    public int getParityShards() {
+        return parityShards;
+    }
+
+    public int getTotalShards() {
+        return dataShards + parityShards;
+    }
+
+    /**
+     * Compute the parity shards from the data shards.
+     *
+     * @param shards k data shards followed by m parity shards, each at
+     *               least offset + length bytes; parity is overwritten
+     */
+    public void encodeParity(byte[][] shards, int offset, int length) {
+        checkShards(shards, offset, length);
+
+        byte[][] inputs = new byte[dataShards][];
+        System.arraycopy(shards, 0, inputs, 0, dataShards);
+        byte[][] rows = new byte[parityShards][];
+        byte[][] outputs = new byte[parityShards][];
+        for (int p = 0; p < parityShards; p++) {
+            rows[p] = matrix[dataShards + p];
+            outputs[p] = shards[dataShards + p];
+        }
+        codeSomeShards(rows, inputs, outputs, offset, length);
+    }
+
+    /**
+     * Rebuild every missing shard from the present ones.
+     *
+     * @param shards  all k + m shards; missing ones must still be
+     *                allocated and are overwritten
+     * @param present which shards hold valid data
+     * @throws IllegalArgumentException if fewer than k are present
+     */
+    public void reconstruct(byte[][] shards, boolean[] present, int offset, int length) {
+        checkShards(shards, offset, length);
+        if (present.length != shards.length) {
+            throw new IllegalArgumentException("present[] does not match shards");
+        }
+
+        int count = 0;
+        for (boolean p : present) if (p) count++;
+        if (count == shards.length) return;
+        if (count < dataShards) {
+            throw new IllegalArgumentException(
+                    "Need " + dataShards + " shards, have " + count);
+        }
+
+        /* 1. Data: invert the rows of the first k shards we have */
+        byte[][] sub = new byte[dataShards][];
+        byte[][] inputs = new byte[dataShards][];
+        for (int i = 0, n = 0; n < dataShards; i++) {
+            if (!present[i]) continue;
+            sub[n] = matrix[i];
+            inputs[n] = shards[i];
+            n++;
+        }
+        byte[][] decode = Galois.invert(sub);
+
+        int missingData = 0;
+        for (int i = 0; i < dataShards; i++) if (!present[i]) missingData++;
+        if (missingData > 0) {
+            byte[][] rows = new byte[missingData][];
+            byte[][] outputs = new byte[missingData][];
+            for (int i = 0, n = 0; i < dataShards; i++) {
+                if (present[i]) continue;
+                rows[n] = decode[i];
+                outputs[n] = shards[i];
+                n++;
+            }
+            codeSomeShards(rows, inputs, outputs, offset, length);
+        }
+
+        /* 2. Parity: re-encode from the now complete data */
+        int missingParity = shards.length - count - missingData;
+        if (missingParity > 0) {
+            byte[][] data = new byte[dataShards][];
+            System.arraycopy(shards, 0, data, 0, dataShards);
+            byte[][] rows = new byte[missingParity][];
+            byte[][] outputs = new byte[missingParity][];
+            for (int i = dataShards, n = 0; i < shards.length; i++) {
+                if (present[i]) continue;
+                rows[n] = matrix[i];
+                outputs[n] = shards[i];
+                n++;
+            }
+            codeSomeShards(rows, data, outputs, offset, length);
+        }
+    }
+
+    /**
+     * outputs[r] = Σ rows[r][i] · inputs[i]. Each pass streams one
+     * input through a single 256-byte row of the product table.
+     */
+    private static void codeSomeShards(byte[][] rows,
+                                       byte[][] inputs,
+                                       byte[][] outputs,
+                                       int offset,
+                                       int length) {
+        int end = offset + length;
+        for (int r = 0; r < outputs.length; r++) {
+            byte[] out = outputs[r];
+            byte[] table = Galois.MUL[rows[r][0] & 0xFF];
+            byte[] in = inputs[0];
+            for (int b = offset; b < end; b++) {
+                out[b] = table[in[b] & 0xFF];
+            }
+            for (int i = 1; i < inputs.length; i++) {
+                table = Galois.MUL[rows[r][i] & 0xFF];
+                in = inputs[i];
+                for (int b = offset; b < end; b++) {
+                    out[b] ^= table[in[b] & 0xFF];
+                }
+            }
+        }
+    }
+
+    private void checkShards(byte[][] shards, int offset, int length) {
+        if (shards.length != getTotalShards()) {
+            throw new IllegalArgumentException(
+                    "Expected " + getTotalShards() + " shards, got " + shards.length);
+        }
+        if (offset < 0 || length < 0) {
+            throw new IllegalArgumentException("Bad range: " + offset + "+" + length);
+        }
+        for (byte[] s : shards) {
+            if (s == null || s.length < offset + length) {
+                throw new IllegalArgumentException("Shard shorter than " + (offset + length));
+            }
+        }
+    }
+}
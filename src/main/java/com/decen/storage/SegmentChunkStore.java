@@ -0,0 +1,610 @@
+package com.decen.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Log-structured chunk storage.
+ *
+ * Chunks are appended to large segment files (segments/00000001.seg)
+ * and located through an in-memory index:
+ * chunkId → (segment, offset, length).
+ *
+ * Record: [int magic][byte kind][32-byte id][int length][int crc32][data]
+ * Footer, written when a segment fills up and is sealed:
+ *         [entry: byte kind, 32-byte id, long offset, int length]...
+ *         [int count][long FOOTER_MAGIC]
+ *
+ * - Startup reads the footers of sealed segments; only the last,
+ *   unsealed segment is scanned, and a torn tail is truncated
+ * - deleteChunk appends a tombstone
+ * - Compaction copies the live records of mostly-dead sealed segments
+ *   into the active segment and deletes the old files
+ *
+ * Writes are serialized; reads go straight to the index and a
+ * positional read, and never wait for writers.
+ */
+public class SegmentChunkStore implements ChunkStore {
+
+    public static final long DEFAULT_SEGMENT_BYTES = 256L * 1024 * 1024;
+    public static final Duration DEFAULT_COMPACTION_INTERVAL = Duration.ofMinutes(1);
+
+    /** Compact a sealed segment once this fraction of it is dead */
+    public static final double DEFAULT_GARBAGE_RATIO = 0.5;
+
+    private static final int RECORD_MAGIC = 0x43484E4B;              // "CHNK"
+    private static final long FOOTER_MAGIC = 0x444543454E534547L;    // "DECENSEG"
+
+    private static final byte KIND_PUT = 0;
+    private static final byte KIND_DELETE = 1;
+
+    private static final int ID_BYTES = ID_LENGTH / 2;
+    private static final int RECORD_HEADER = 4 + 1 + ID_BYTES + 4 + 4;
+    private static final int ENTRY_BYTES = 1 + ID_BYTES + 8 + 4;
+    private static final int FOOTER_TRAILER = 4 + 8;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final byte[] EMPTY = new byte[0];
+
+    private final Path dir;
+    private final long maxSegmentBytes;
+    private final double garbageRatio;
+
+    private final Map<String, Location> index = new ConcurrentHashMap<>();
+
+    /* Guarded by this */
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private Segment active;
+    private List<Entry> activeEntries;
+
+    private final ScheduledExecutorService compactor;
+    private final Object compactionLock = new Object();
+
+    public SegmentChunkStore(Path baseDir) throws IOException {
+        this(baseDir, DEFAULT_SEGMENT_BYTES, DEFAULT_COMPACTION_INTERVAL, DEFAULT_GARBAGE_RATIO);
+    }
+
+    /**
+     * @param maxSegmentBytes size at which a segment is sealed
+     * @param compactionInterval background compaction period, or null for none
+     * @param garbageRatio dead fraction that makes a segment worth compacting
+     */
+    public SegmentChunkStore(Path baseDir,
+                             long maxSegmentBytes,
+                             Duration compactionInterval,
+                             double garbageRatio) throws IOException {
+        this.dir = baseDir.resolve("segments");
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.garbageRatio = garbageRatio;
+
+        Files.createDirectories(dir);
+        recover();
+
+        if (compactionInterval != null) {
+            compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "segment-compactor");
+                t.setDaemon(true);
+                return t;
+            });
+            long ms = compactionInterval.toMillis();
+            compactor.scheduleWithFixedDelay(this::compactQuietly, ms, ms, TimeUnit.MILLISECONDS);
+        } else {
+            compactor = null;
+        }
+    }
+
+    /* ================= CHUNK STORE ================= */
+
+    @Override
+    public void putChunk(String chunkId, byte[] data) throws IOException {
+        putChunk(chunkId, ByteBuffer.wrap(data));
+    }
+
+    @Override
+    public void putChunk(String chunkId, ByteBuffer data) throws IOException {
+        ChunkStore.checkId(chunkId);
+        ChunkStore.checkData(chunkId, data);
+        // A valid copy stays; getChunk drops one that no longer matches
+        if (index.containsKey(chunkId) && getChunk(chunkId) != null) return;
+
+        synchronized (this) {
+            if (index.containsKey(chunkId)) return;
+
+            int length = data.remaining();
+            long offset = append(KIND_PUT, chunkId, data);
+            active.channel().force(false);
+            index(chunkId, new Location(active, offset, length));
+        }
+    }
+
+    @Override
+    public byte[] getChunk(String chunkId) throws IOException {
+        ChunkStore.checkId(chunkId);
+
+        for (int attempt = 0; ; attempt++) {
+            Location loc = index.get(chunkId);
+            if (loc == null) return null;
+
+            byte[] data;
+            try {
+                data = read(loc);
+            } catch (ClosedChannelException e) {
+                // Compacted away underneath us: the index has moved on
+                if (attempt > 0 || Thread.currentThread().isInterrupted()) throw e;
+                continue;
+            }
+
+            if (!chunkId.equals(ChunkStore.sha256Hex(data))) {
+                System.err.println("[SegmentChunkStore] Corrupt chunk " + chunkId + ", discarding");
+                deleteChunk(chunkId);
+                return null;
+            }
+            return data;
+        }
+    }
+
+    /**
+     * The region gets its own channel on the segment file, so it stays
+     * readable even if compaction deletes the segment meanwhile.
+     */
+    @Override
+    public ChunkRegion openChunk(String chunkId) throws IOException {
+        ChunkStore.checkId(chunkId);
+
+        for (int attempt = 0; ; attempt++) {
+            Location loc = index.get(chunkId);
+            if (loc == null) return null;
+
+            try {
+                FileChannel ch = FileChannel.open(loc.segment.path, StandardOpenOption.READ);
+                return new ChunkRegion(ch, loc.offset, loc.length);
+            } catch (NoSuchFileException e) {
+                if (attempt > 0) throw e; // compacted away; retry at its new place
+            }
+        }
+    }
+
+    @Override
+    public boolean hasChunk(String chunkId) {
+        return index.containsKey(chunkId);
+    }
+
+    @Override
+    public synchronized boolean deleteChunk(String chunkId) throws IOException {
+        ChunkStore.checkId(chunkId);
+
+        Location loc = index.get(chunkId);
+        if (loc == null) return false;
+
+        append(KIND_DELETE, chunkId, EMPTY);
+        active.channel().force(false);
+        unindex(chunkId);
+        return true;
+    }
+
+    /* ================= COMPACTION ================= */
+
+    /**
+     * Rewrite every sealed segment whose dead fraction has reached
+     * the garbage ratio.
+     *
+     * @return number of segments reclaimed
+     */
+    public int compact() throws IOException {
+        synchronized (compactionLock) {
+            List<Segment> victims = new ArrayList<>();
+            synchronized (this) {
+                for (Segment s : segments.values()) {
+                    if (s.sealed && s.garbage() >= garbageRatio) victims.add(s);
+                }
+            }
+
+            for (Segment victim : victims) {
+                compact(victim);
+            }
+            return victims.size();
+        }
+    }
+
+    private void compact(Segment victim) throws IOException {
+        List<Entry> entries = readFooter(victim);
+
+        for (Entry e : entries) {
+            synchronized (this) {
+                if (e.kind == KIND_PUT) {
+                    Location loc = index.get(e.id);
+                    if (loc == null || loc.segment != victim || loc.offset != e.offset) {
+                        continue; // dead
+                    }
+                    byte[] data = read(loc);
+                    long offset = append(KIND_PUT, e.id, data);
+                    index(e.id, new Location(active, offset, data.length));
+                } else {
+                    // Dead records can only sit in this or older segments
+                    if (segments.firstKey() == victim.id) continue;
+                    if (index.containsKey(e.id)) continue; // stored again since
+                    append(KIND_DELETE, e.id, EMPTY);
+                }
+            }
+        }
+
+        synchronized (this) {
+            active.channel().force(false);
+            segments.remove(victim.id);
+            victim.delete();
+        }
+        System.out.println("[SegmentChunkStore] Compacted segment " + victim.id);
+    }
+
+    private void compactQuietly() {
+        try {
+            compact();
+        } catch (Exception e) {
+            System.err.println("[SegmentChunkStore] Compaction failed: " + e.getMessage());
+        }
+    }
+
+    /** @return number of segment files, including the active one */
+    synchronized int segmentCount() {
+        return segments.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (compactor != null) compactor.shutdownNow();
+
+        synchronized (this) {
+            active.channel().force(false);
+            for (Segment s : segments.values()) {
+                s.close();
+            }
+        }
+    }
+
+    /* ================= LOG ================= */
+
+    /* Caller holds the lock. Returns the offset of the record's data. */
+    private long append(byte kind, String id, byte[] data) throws IOException {
+        return append(kind, id, ByteBuffer.wrap(data));
+    }
+
+    private long append(byte kind, String id, ByteBuffer data) throws IOException {
+        int length = data.remaining();
+        long needed = RECORD_HEADER + length
+                + (long) (activeEntries.size() + 1) * ENTRY_BYTES + FOOTER_TRAILER;
+        if (active.size > 0 && active.size + needed > maxSegmentBytes) {
+            seal(active, activeEntries);
+            openActive(active.id + 1);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(data.duplicate());
+
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+        header.putInt(RECORD_MAGIC).put(kind);
+        putId(header, id);
+        header.putInt(length).putInt((int) crc.getValue());
+        header.flip();
+
+        long start = active.size;
+        FileChannel ch = active.channel();
+        writeFully(ch, header, start);
+        writeFully(ch, data, start + RECORD_HEADER);
+
+        active.size = start + RECORD_HEADER + length;
+        active.totalBytes += RECORD_HEADER + length;
+        activeEntries.add(new Entry(kind, id, start + RECORD_HEADER, length));
+        return start + RECORD_HEADER;
+    }
+
+    /* Caller holds the lock */
+    private void index(String id, Location loc) {
+        loc.segment.liveBytes += RECORD_HEADER + loc.length;
+        Location old = index.put(id, loc);
+        if (old != null) old.segment.liveBytes -= RECORD_HEADER + old.length;
+    }
+
+    /* Caller holds the lock */
+    private void unindex(String id) {
+        Location old = index.remove(id);
+        if (old != null) old.segment.liveBytes -= RECORD_HEADER + old.length;
+    }
+
+    private static byte[] read(Location loc) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(loc.length);
+        FileChannel ch = loc.segment.channel();
+        long pos = loc.offset;
+        while (buf.hasRemaining()) {
+            int n = ch.read(buf, pos + buf.position());
+            if (n < 0) throw new IOException("Truncated segment " + loc.segment.path);
+        }
+        return buf.array();
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            pos += ch.write(buf, pos);
+        }
+    }
+
+    /* ================= SEGMENTS ================= */
+
+    private void seal(Segment s, List<Entry> entries) throws IOException {
+        ByteBuffer footer = ByteBuffer.allocate(entries.size() * ENTRY_BYTES + FOOTER_TRAILER);
+        for (Entry e : entries) {
+            footer.put(e.kind);
+            putId(footer, e.id);
+            footer.putLong(e.offset).putInt(e.length);
+        }
+        footer.putInt(entries.size()).putLong(FOOTER_MAGIC);
+        footer.flip();
+
+        FileChannel ch = s.channel();
+        writeFully(ch, footer, s.size);
+        ch.truncate(s.size + entries.size() * ENTRY_BYTES + FOOTER_TRAILER);
+        ch.force(true);
+        s.sealed = true;
+    }
+
+    private void openActive(long id) throws IOException {
+        Segment s = new Segment(id, dir.resolve(String.format("%08d.seg", id)));
+        segments.put(id, s);
+        active = s;
+        activeEntries = new ArrayList<>();
+    }
+
+    /**
+     * Rebuild the index from the segment files in id order.
+     */
+    private void recover() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*.seg")) {
+            for (Path p : stream) files.add(p);
+        }
+        files.sort(null);
+
+        for (int i = 0; i < files.size(); i++) {
+            Path path = files.get(i);
+            String name = path.getFileName().toString();
+            long id = Long.parseLong(name.substring(0, name.length() - 4));
+
+            Segment s = new Segment(id, path);
+            segments.put(id, s);
+
+            List<Entry> entries = readFooter(s);
+            if (entries != null) {
+                s.sealed = true;
+            } else {
+                entries = scan(s);
+                if (i < files.size() - 1) {
+                    seal(s, entries); // crashed while rolling over
+                } else {
+                    active = s;
+                    activeEntries = entries;
+                }
+            }
+
+            for (Entry e : entries) {
+                s.totalBytes += RECORD_HEADER + e.length;
+                if (e.kind == KIND_PUT) {
+                    index(e.id, new Location(s, e.offset, e.length));
+                } else {
+                    unindex(e.id);
+                }
+            }
+        }
+
+        if (active == null) {
+            openActive(segments.isEmpty() ? 1 : segments.lastKey() + 1);
+        }
+
+        System.out.println("[SegmentChunkStore] Loaded " + index.size()
+                + " chunks from " + segments.size() + " segments");
+    }
+
+    /**
+     * @return entries listed in the segment footer, or null if the
+     *         segment has not been sealed
+     */
+    private static List<Entry> readFooter(Segment s) throws IOException {
+        FileChannel ch = s.channel();
+        long fileSize = ch.size();
+        if (fileSize < FOOTER_TRAILER) return null;
+
+        ByteBuffer trailer = ByteBuffer.allocate(FOOTER_TRAILER);
+        readFully(ch, trailer, fileSize - FOOTER_TRAILER);
+        trailer.flip();
+        int count = trailer.getInt();
+        if (trailer.getLong() != FOOTER_MAGIC || count < 0) return null;
+
+        long start = fileSize - FOOTER_TRAILER - (long) count * ENTRY_BYTES;
+        if (start < 0) return null;
+
+        ByteBuffer buf = ByteBuffer.allocate(count * ENTRY_BYTES);
+        readFully(ch, buf, start);
+        buf.flip();
+
+        List<Entry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte kind = buf.get();
+            String id = getId(buf);
+            long offset = buf.getLong();
+            int length = buf.getInt();
+            entries.add(new Entry(kind, id, offset, length));
+        }
+        s.size = start;
+        return entries;
+    }
+
+    /**
+     * Walk the records of an unsealed segment, verifying each one, and
+     * cut the file at the first record that is incomplete.
+     */
+    private static List<Entry> scan(Segment s) throws IOException {
+        FileChannel ch = s.channel();
+        long fileSize = ch.size();
+        List<Entry> entries = new ArrayList<>();
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+
+        long pos = 0;
+        while (pos + RECORD_HEADER <= fileSize) {
+            header.clear();
+            readFully(ch, header, pos);
+            header.flip();
+
+            if (header.getInt() != RECORD_MAGIC) break;
+            byte kind = header.get();
+            String id = getId(header);
+            int length = header.getInt();
+            int crc = header.getInt();
+
+            if ((kind != KIND_PUT && kind != KIND_DELETE) || length < 0
+                    || pos + RECORD_HEADER + length > fileSize) {
+                break;
+            }
+
+            ByteBuffer data = ByteBuffer.allocate(length);
+            readFully(ch, data, pos + RECORD_HEADER);
+            CRC32 check = new CRC32();
+            check.update(data.array());
+            if ((int) check.getValue() != crc) break;
+
+            entries.add(new Entry(kind, id, pos + RECORD_HEADER, length));
+            pos += RECORD_HEADER + length;
+        }
+
+        if (pos < fileSize) {
+            System.out.println("[SegmentChunkStore] Truncating torn tail of "
+                    + s.path.getFileName() + " at " + pos);
+            ch.truncate(pos);
+        }
+        s.size = pos;
+        return entries;
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = ch.read(buf, pos);
+            if (n < 0) throw new IOException("Unexpected end of segment");
+            pos += n;
+        }
+    }
+
+    /* Chunk IDs are stored as their 32 raw hash bytes */
+    private static void putId(ByteBuffer buf, String id) {
+        for (int i = 0; i < ID_LENGTH; i += 2) {
+            buf.put((byte) ((Character.digit(id.charAt(i), 16) << 4)
+                    | Character.digit(id.charAt(i + 1), 16)));
+        }
+    }
+
+    private static String getId(ByteBuffer buf) {
+        char[] hex = new char[ID_LENGTH];
+        for (int i = 0; i < ID_BYTES; i++) {
+            int b = buf.get() & 0xFF;
+            hex[2 * i] = HEX[b >>> 4];
+            hex[2 * i + 1] = HEX[b & 0x0F];
+        }
+        return new String(hex);
+    }
+
+    /* ================= TYPES ================= */
+
+    private static final class Segment {
+        final long id;
+        final Path path;
+        private volatile FileChannel channel;
+        private volatile boolean deleted;
+
+        /* Guarded by the store lock */
+        long size;          // end of record data
+        long totalBytes;    // bytes of records, live or dead
+        long liveBytes;     // bytes of records the index points at
+        boolean sealed;
+
+        Segment(long id, Path path) throws IOException {
+            this.id = id;
+            this.path = path;
+            this.channel = open(path);
+        }
+
+        private static FileChannel open(Path path) throws IOException {
+            return FileChannel.open(path,
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+        }
+
+        /**
+         * An interrupted reader closes the shared channel; reopen it
+         * unless the segment was compacted away.
+         */
+        FileChannel channel() throws IOException {
+            FileChannel ch = channel;
+            if (ch.isOpen()) return ch;
+
+            synchronized (this) {
+                if (deleted) throw new ClosedChannelException();
+                if (!channel.isOpen()) channel = open(path);
+                return channel;
+            }
+        }
+
+        double garbage() {
+            return totalBytes == 0 ? 0 : 1.0 - (double) liveBytes / totalBytes;
+        }
+
+        synchronized void delete() throws IOException {
+            deleted = true;
+            channel.close();
+            Files.deleteIfExists(path);
+        }
+
+        void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private static final class Location {
+        final Segment segment;
+        final long offset;
+        final int length;
+
+        Location(Segment segment, long offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private static final class Entry {
+        final byte kind;
+        final String id;
+        final long offset;
+        final int length;
+
+        Entry(byte kind, String id, long offset, int length) {
+            this.kind = kind;
+            this.id = id;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
@@ -5,6 +5,8 @@ import java.nio.file.Files;
 import java.util.Arrays;
 import java.util.List;
 
+import com.decen.storage.Chunking;
+import com.decen.storage.FileMetadataStore;
 import com.decen.storage.MetadataStore;
 
 /**
@@ -27,6 +29,7 @@ public class MetadataStoreTest {
         testPutAndGet();
         testHasFile();
         testRemoveFile();
+        testChunkingIsRecorded();
     }
 
     /**
@@ -36,7 +39,7 @@ public class MetadataStoreTest {
         System.out.println("Running testPutAndGet...");
 
         Path baseDir = Path.of("test_node_data");
-        MetadataStore metadataStore = new MetadataStore(baseDir);
+        MetadataStore metadataStore = new FileMetadataStore(baseDir);
 
         String fileId = "file123";
         List<String> chunks = Arrays.asList("chunkA", "chunkB", "chunkC");
@@ -59,7 +62,7 @@ public class MetadataStoreTest {
         System.out.println("Running testHasFile...");
 
         Path baseDir = Path.of("test_node_data");
-        MetadataStore metadataStore = new MetadataStore(baseDir);
+        MetadataStore metadataStore = new FileMetadataStore(baseDir);
 
         String fileId = "fileExists";
         List<String> chunks = Arrays.asList("c1", "c2");
@@ -80,7 +83,7 @@ public class MetadataStoreTest {
         System.out.println("Running testRemoveFile...");
 
         Path baseDir = Path.of("test_node_data");
-        MetadataStore metadataStore = new MetadataStore(baseDir);
+        MetadataStore metadataStore = new FileMetadataStore(baseDir);
 
         String fileId = "fileToRemove";
         List<String> chunks = Arrays.asList("x1", "x2", "x3");
@@ -94,4 +97,29 @@ public class MetadataStoreTest {
 
         System.out.println("✔ testRemoveFile passed");
     }
+
+    /**
+     * Test that the chunking mode is kept apart from the chunk list.
+     */
+    private static void testChunkingIsRecorded() throws Exception {
+        System.out.println("Running testChunkingIsRecorded...");
+
+        Path baseDir = Path.of("test_node_data");
+        MetadataStore metadataStore = new FileMetadataStore(baseDir);
+
+        List<String> chunks = Arrays.asList("k1", "k2");
+
+        metadataStore.putFile("cdcFile", chunks, Chunking.FASTCDC);
+        metadataStore.putFile("fixedFile", chunks);
+
+        if (!chunks.equals(metadataStore.getChunks("cdcFile"))) {
+            throw new AssertionError("Chunk list mismatch");
+        }
+        if (metadataStore.getChunking("cdcFile") != Chunking.FASTCDC
+                || metadataStore.getChunking("fixedFile") != Chunking.FIXED) {
+            throw new AssertionError("Chunking mode mismatch");
+        }
+
+        System.out.println("✔ testChunkingIsRecorded passed");
+    }
 }
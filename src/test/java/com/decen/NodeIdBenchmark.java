@@ -0,0 +1,70 @@
+package com.decen;
+
+import com.decen.dht.NodeId;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares sorting by XOR distance with the old byte-array comparator
+ * and with NodeId.distanceCompare. Run this as a normal Java application.
+ */
+public class NodeIdBenchmark {
+
+    private static final int IDS = 5_000;
+    private static final int SORTS = 200;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        Random random = new Random(11);
+        List<NodeId> ids = new ArrayList<>(IDS);
+        for (int i = 0; i < IDS; i++) {
+            byte[] bytes = new byte[NodeId.ID_LENGTH_BYTES];
+            random.nextBytes(bytes);
+            ids.add(new NodeId(bytes));
+        }
+        NodeId target = new NodeId();
+
+        Comparator<NodeId> byBytes = (a, b) ->
+                compareBytes(target.xor(a), target.xor(b));
+        Comparator<NodeId> byLongs = target::distanceCompare;
+
+        for (int round = 0; round < ROUNDS; round++) {
+            long bytesNs = sort(ids, byBytes, random);
+            long longsNs = sort(ids, byLongs, random);
+
+            System.out.printf("round %d  xor byte[]=%.2f ms/sort  distanceCompare=%.2f ms/sort%n",
+                    round,
+                    bytesNs / 1e6 / SORTS,
+                    longsNs / 1e6 / SORTS);
+        }
+    }
+
+    private static long sort(List<NodeId> ids, Comparator<NodeId> cmp, Random random) {
+        long total = 0;
+        for (int i = 0; i < SORTS; i++) {
+            List<NodeId> copy = new ArrayList<>(ids);
+            Collections.shuffle(copy, random);
+
+            long start = System.nanoTime();
+            copy.sort(cmp);
+            total += System.nanoTime() - start;
+        }
+        return total;
+    }
+
+    /** The comparator RoutingTable used before the packed representation */
+    private static int compareBytes(byte[] a, byte[] b) {
+        for (int i = 0; i < a.length; i++) {
+            int ai = a[i] & 0xFF;
+            int bi = b[i] & 0xFF;
+            if (ai != bi) {
+                return Integer.compare(ai, bi);
+            }
+        }
+        return 0;
+    }
+}
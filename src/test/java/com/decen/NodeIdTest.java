@@ -4,6 +4,10 @@ import org.junit.jupiter.api.Test;
 
 import com.decen.dht.NodeId;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 public class NodeIdTest {
@@ -78,4 +82,63 @@ public class NodeIdTest {
         assertEquals(NodeId.ID_LENGTH_BYTES * 2, hex.length());
         assertTrue(hex.matches("[0-9a-f]+"));
     }
+
+    @Test
+    void distanceCompareShouldMatchXorByteOrder() {
+        Random random = new Random(7);
+        for (int i = 0; i < 1000; i++) {
+            NodeId target = randomId(random);
+            NodeId a = randomId(random);
+            NodeId b = randomId(random);
+
+            int expected = Integer.signum(
+                    Arrays.compareUnsigned(target.xor(a), target.xor(b)));
+            assertEquals(expected, Integer.signum(target.distanceCompare(a, b)));
+        }
+    }
+
+    @Test
+    void commonPrefixLengthShouldCountSharedLeadingBits() {
+        byte[] bytes = new byte[NodeId.ID_LENGTH_BYTES];
+        NodeId zero = new NodeId(bytes);
+
+        assertEquals(NodeId.ID_LENGTH_BITS, zero.commonPrefixLength(zero));
+
+        for (int bit : new int[] { 0, 7, 63, 64, 130, 255 }) {
+            byte[] other = new byte[NodeId.ID_LENGTH_BYTES];
+            other[bit / 8] = (byte) (0x80 >>> (bit % 8));
+            assertEquals(bit, zero.commonPrefixLength(new NodeId(other)));
+        }
+    }
+
+    @Test
+    void writeToShouldRoundTrip() {
+        NodeId id = new NodeId();
+        ByteBuffer buf = ByteBuffer.allocate(NodeId.ID_LENGTH_BYTES);
+        id.writeTo(buf);
+
+        assertArrayEquals(id.getBytes(), buf.array());
+        buf.flip();
+        assertEquals(id, NodeId.readFrom(buf));
+    }
+
+    @Test
+    void fromHexShouldRoundTrip() {
+        NodeId id = new NodeId();
+        assertEquals(id, NodeId.fromHex(id.toString()));
+        assertEquals(id, NodeId.fromHex(id.toString().toUpperCase()));
+
+        // Only ASCII hex digits count (Character.digit would take '\u0661')
+        String hex = id.toString();
+        assertThrows(IllegalArgumentException.class,
+                () -> NodeId.fromHex('g' + hex.substring(1)));
+        assertThrows(IllegalArgumentException.class,
+                () -> NodeId.fromHex('\u0661' + hex.substring(1)));
+    }
+
+    private static NodeId randomId(Random random) {
+        byte[] bytes = new byte[NodeId.ID_LENGTH_BYTES];
+        random.nextBytes(bytes);
+        return new NodeId(bytes);
+    }
 }
@@ -0,0 +1,270 @@
+package com.decen.client;
+
+import com.decen.crypto.HashUtil;
+import com.decen.dht.Contact;
+import com.decen.dht.NodeId;
+import com.decen.networking.DHTMessage;
+import com.decen.networking.MessageSender;
+import com.decen.networking.MessageType;
+import com.decen.storage.ChunkStore;
+import com.decen.storage.FileChunkStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the download scheduler against simulated chunk holders.
+ */
+public class ChunkDownloaderTest {
+
+    private static final int PER_PEER = 3;
+    private static final Duration TIMEOUT = Duration.ofMillis(300);
+
+    @TempDir
+    Path dir;
+
+    private ChunkStore store;
+    private ScheduledExecutorService timer;
+    private final Map<String, byte[]> chunks = new HashMap<>();
+    private final List<String> chunkIds = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        store = new FileChunkStore(dir);
+        timer = Executors.newScheduledThreadPool(4);
+
+        Random random = new Random(15);
+        for (int i = 0; i < 40; i++) {
+            byte[] data = new byte[512];
+            random.nextBytes(data);
+            String id = HashUtil.sha256Hex(data);
+            chunks.put(id, data);
+            chunkIds.add(id);
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        timer.shutdownNow();
+    }
+
+    @Test
+    public void testChunksAreSpreadOverPeersWithinLimit() throws Exception {
+        FakePeers net = new FakePeers();
+        List<Contact> peers = List.of(
+                net.add(Behaviour.GOOD), net.add(Behaviour.GOOD),
+                net.add(Behaviour.GOOD), net.add(Behaviour.GOOD));
+
+        byte[][] got = download(net, peers);
+
+        assertAllChunks(got);
+        for (Contact c : peers) {
+            int served = net.served.get(c).get();
+            assertTrue(served > 0, c + " was never asked");
+            assertTrue(net.maxInFlight.get(c).get() <= PER_PEER,
+                    "in flight " + net.maxInFlight.get(c).get());
+        }
+        for (String id : chunkIds) assertTrue(store.hasChunk(id));
+    }
+
+    @Test
+    public void testFailedAndCorruptChunksAreRetriedElsewhere() throws Exception {
+        FakePeers net = new FakePeers();
+        Contact good = net.add(Behaviour.GOOD);
+        Contact dead = net.add(Behaviour.DEAD);
+        Contact liar = net.add(Behaviour.CORRUPT);
+        Contact missing = net.add(Behaviour.MISSING);
+
+        ChunkDownloader.Result result = new ChunkDownloader(net, store, PER_PEER, TIMEOUT)
+                .download(chunkIds, List.of(dead, liar, missing, good), (i, d) -> {});
+
+        assertEquals(chunkIds.size(), result.getFetched());
+        assertTrue(result.getFailures() > 0);
+        // Bad peers are dropped after a few failures
+        assertTrue(net.requests.get(dead).get() <= 3 + PER_PEER);
+        assertTrue(net.requests.get(liar).get() <= 3 + PER_PEER);
+    }
+
+    @Test
+    public void testSlowPeerIsOvertakenInEndgame() throws Exception {
+        FakePeers net = new FakePeers();
+        Contact fast = net.add(Behaviour.GOOD);
+        Contact slow = net.add(Behaviour.SLOW);
+
+        long start = System.nanoTime();
+        byte[][] got = download(net, List.of(slow, fast));
+        long ms = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertAllChunks(got);
+        // The slow peer's chunks were duplicated to the fast one
+        // instead of waiting out its (almost timeout-long) delay
+        assertTrue(ms < TIMEOUT.toMillis(), "took " + ms + " ms");
+    }
+
+    @Test
+    public void testLocalChunksAreNotRequested() throws Exception {
+        for (String id : chunkIds) store.putChunk(id, chunks.get(id));
+
+        FakePeers net = new FakePeers();
+        Contact good = net.add(Behaviour.GOOD);
+
+        ChunkDownloader.Result result = new ChunkDownloader(net, store, PER_PEER, TIMEOUT)
+                .download(chunkIds, List.of(good), (i, d) -> {});
+
+        assertEquals(chunkIds.size(), result.getLocal());
+        assertEquals(0, result.getRequests());
+    }
+
+    @Test
+    public void testChunksAreOnlyRequestedFromTheirOwnHolders() throws Exception {
+        FakePeers net = new FakePeers();
+        Contact even = net.add(Behaviour.GOOD);
+        Contact odd = net.add(Behaviour.GOOD);
+        Contact both = net.add(Behaviour.GOOD);
+
+        ChunkDownloader.Result result = new ChunkDownloader(net, store, PER_PEER, TIMEOUT)
+                .download(chunkIds,
+                        id -> chunkIds.indexOf(id) % 2 == 0 ? List.of(even, both) : List.of(odd, both),
+                        (i, d) -> {});
+
+        assertEquals(chunkIds.size(), result.getFetched());
+        assertEquals(0, result.getFailures());
+        for (String id : chunkIds) {
+            Contact wrong = chunkIds.indexOf(id) % 2 == 0 ? odd : even;
+            assertFalse(net.asked.get(wrong).contains(id));
+        }
+    }
+
+    @Test
+    public void testGroupIsDoneWithTheFirstShardsToArrive() throws Exception {
+        FakePeers net = new FakePeers();
+        Contact slow = net.add(Behaviour.SLOW);
+        Contact fast = net.add(Behaviour.GOOD);
+        int groupSize = 6;
+        int needed = 4;
+
+        // The first two shards of every group sit on the slow peer
+        int[] handed = new int[(chunkIds.size() + groupSize - 1) / groupSize];
+        long start = System.nanoTime();
+        ChunkDownloader.Result result = new ChunkDownloader(net, store, PER_PEER, TIMEOUT)
+                .download(chunkIds, groupSize, needed,
+                        id -> List.of(chunkIds.indexOf(id) % groupSize < 2 ? slow : fast),
+                        (i, d) -> {
+                            assertArrayEquals(chunks.get(chunkIds.get(i)), d);
+                            handed[i / groupSize]++;
+                        });
+        long ms = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // 40 ids: six full groups need 4 each, the last (4 ids) needs 2
+        for (int g = 0; g < 6; g++) assertEquals(needed, handed[g]);
+        assertEquals(2, handed[6]);
+        assertEquals(6 * needed + 2, result.getFetched());
+        assertEquals(0, net.served.get(slow).get());
+        assertTrue(ms < TIMEOUT.toMillis() / 2, "took " + ms + " ms");
+    }
+
+    @Test
+    public void testNoHolderFailsWithMissingChunk() {
+        FakePeers net = new FakePeers();
+        Contact missing = net.add(Behaviour.MISSING);
+
+        IllegalStateException e = assertThrows(IllegalStateException.class,
+                () -> download(net, List.of(missing)));
+        assertTrue(e.getMessage().startsWith("Missing chunk"), e.getMessage());
+    }
+
+    /* ================= HELPERS ================= */
+
+    private byte[][] download(FakePeers net, List<Contact> peers) throws Exception {
+        byte[][] got = new byte[chunkIds.size()][];
+        new ChunkDownloader(net, store, PER_PEER, TIMEOUT).download(
+                chunkIds, peers, (i, data) -> {
+                    assertNull(got[i], "chunk " + i + " handed out twice");
+                    got[i] = data;
+                });
+        return got;
+    }
+
+    private void assertAllChunks(byte[][] got) {
+        for (int i = 0; i < chunkIds.size(); i++) {
+            assertArrayEquals(chunks.get(chunkIds.get(i)), got[i], "chunk " + i);
+        }
+    }
+
+    private enum Behaviour { GOOD, SLOW, DEAD, CORRUPT, MISSING }
+
+    private final class FakePeers implements MessageSender {
+        final Map<Contact, Behaviour> behaviour = new HashMap<>();
+        final Map<Contact, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+        final Map<Contact, AtomicInteger> maxInFlight = new ConcurrentHashMap<>();
+        final Map<Contact, AtomicInteger> served = new ConcurrentHashMap<>();
+        final Map<Contact, AtomicInteger> requests = new ConcurrentHashMap<>();
+        final Map<Contact, Set<String>> asked = new ConcurrentHashMap<>();
+
+        Contact add(Behaviour b) {
+            byte[] id = new byte[NodeId.ID_LENGTH_BYTES];
+            id[0] = (byte) behaviour.size();
+            Contact c = new Contact(new NodeId(id), "10.0.0.1", 6000 + behaviour.size());
+            behaviour.put(c, b);
+            inFlight.put(c, new AtomicInteger());
+            maxInFlight.put(c, new AtomicInteger());
+            served.put(c, new AtomicInteger());
+            requests.put(c, new AtomicInteger());
+            asked.put(c, ConcurrentHashMap.newKeySet());
+            return c;
+        }
+
+        @Override
+        public CompletableFuture<DHTMessage> sendAsync(Contact remote,
+                                                       DHTMessage request,
+                                                       Duration timeout) {
+            CompletableFuture<DHTMessage> f = new CompletableFuture<>();
+            requests.get(remote).incrementAndGet();
+            asked.get(remote).add(request.getChunkId());
+            int now = inFlight.get(remote).incrementAndGet();
+            maxInFlight.get(remote).accumulateAndGet(now, Math::max);
+            f.whenComplete((r, e) -> inFlight.get(remote).decrementAndGet());
+
+            Behaviour b = behaviour.get(remote);
+            long delay = b == Behaviour.SLOW ? timeout.toMillis() - 50 : 5;
+
+            timer.schedule(() -> {
+                if (b == Behaviour.DEAD) {
+                    f.completeExceptionally(new TimeoutException());
+                    return;
+                }
+                DHTMessage resp = new DHTMessage();
+                resp.setType(MessageType.CHUNK_RESPONSE);
+                byte[] data = chunks.get(request.getChunkId());
+                if (b == Behaviour.CORRUPT) {
+                    data = Arrays.copyOf(data, data.length);
+                    data[0] ^= 1;
+                }
+                if (b != Behaviour.MISSING) resp.setChunkData(data);
+                served.get(remote).incrementAndGet();
+                f.complete(resp);
+            }, delay, TimeUnit.MILLISECONDS);
+            return f;
+        }
+    }
+}
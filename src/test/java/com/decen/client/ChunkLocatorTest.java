@@ -0,0 +1,212 @@
+package com.decen.client;
+
+import com.decen.crypto.HashUtil;
+import com.decen.dht.Contact;
+import com.decen.dht.DHTNode;
+import com.decen.dht.NodeId;
+import com.decen.dht.RoutingTable;
+import com.decen.networking.DHTMessage;
+import com.decen.networking.MessageSender;
+import com.decen.networking.MessageType;
+import com.decen.storage.ChunkStore;
+import com.decen.storage.FileChunkStore;
+import com.decen.storage.FileMetadataStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Downloads by a node whose routing table differs from the uploader's.
+ */
+public class ChunkLocatorTest {
+
+    private static final int NODES = 24;
+    private static final int REPLICAS = 3;
+    private static final int K = 8;
+    private static final Duration TIMEOUT = Duration.ofMillis(300);
+
+    @TempDir
+    Path dir;
+
+    private final Network net = new Network();
+    private final List<Contact> nodes = new ArrayList<>();
+    private final List<String> chunkIds = new ArrayList<>();
+
+    private Contact uploader;
+    private ChunkStore uploaderStore;
+    private DHTNode uploaderNode;
+    private DHTNode downloaderNode;
+    private NodeId downloaderId;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        Random random = new Random(22);
+        for (int i = 0; i < NODES; i++) {
+            nodes.add(net.add(randomId(random), "10.0.0." + i));
+        }
+        // Every network node knows every other one
+        for (Contact c : nodes) {
+            for (Contact other : nodes) {
+                if (!other.equals(c)) net.tables.get(c).insert(other);
+            }
+        }
+
+        uploader = net.add(randomId(random), "10.0.1.1");
+        uploaderStore = new FileChunkStore(dir.resolve("uploader"));
+        net.stores.put(uploader, uploaderStore);
+        for (int i = 0; i < 30; i++) {
+            byte[] data = new byte[256];
+            random.nextBytes(data);
+            String id = HashUtil.sha256Hex(data);
+            uploaderStore.putChunk(id, data);
+            chunkIds.add(id);
+        }
+
+        // The uploader knows the first half of the network, the downloader the other
+        uploaderNode = node(uploader.getNodeId(), nodes.subList(0, NODES / 2), "a");
+        downloaderId = randomId(random);
+        downloaderNode = node(downloaderId, nodes.subList(NODES / 2, NODES), "b");
+    }
+
+    @Test
+    public void testChunksPlacedByAnotherRoutingTableAreFound() throws Exception {
+        ChunkPlacer uploaderPlacer = new ChunkPlacer(net, uploaderStore, uploaderNode, REPLICAS, 2, TIMEOUT);
+        assertEquals(chunkIds.size() * REPLICAS, uploaderPlacer.replicate(chunkIds).getStored());
+
+        ChunkPlacer placer = new ChunkPlacer(net, null, downloaderNode, REPLICAS, 2, TIMEOUT);
+        NodeLookup lookup = new NodeLookup(net, downloaderId, K, 3, TIMEOUT);
+        ChunkLocator locator = new ChunkLocator(placer,
+                target -> lookup.findNode(target, downloaderNode.findNode(target, K)).getClosest(),
+                List.of(uploader));
+
+        // None of our R closest hold anything: the placed holders alone are not enough
+        ChunkDownloader first = new ChunkDownloader(net, new FileChunkStore(dir.resolve("b1")), 2, TIMEOUT);
+        assertThrows(IllegalStateException.class,
+                () -> first.download(chunkIds, locator::holdersOf, (i, d) -> {}));
+
+        ChunkDownloader downloader = new ChunkDownloader(net, new FileChunkStore(dir.resolve("b2")), 2, TIMEOUT);
+        byte[][] got = new byte[chunkIds.size()][];
+        ChunkDownloader.Result result = downloader.download(chunkIds, 1, 1,
+                locator::holdersOf, locator::fallbackOf, (i, d) -> got[i] = d);
+
+        assertEquals(chunkIds.size(), result.getFetched());
+        for (int i = 0; i < got.length; i++) {
+            assertEquals(chunkIds.get(i), HashUtil.sha256Hex(got[i]));
+        }
+        // Most chunks came from the replicas the lookup found, not the uploader
+        assertTrue(net.served.get(uploader).get() < chunkIds.size() / 2,
+                "uploader served " + net.served.get(uploader).get());
+    }
+
+    @Test
+    public void testShardsAssignedByAnotherRoutingTableAreFound() throws Exception {
+        List<List<String>> groups = new ArrayList<>();
+        for (int i = 0; i < chunkIds.size(); i += 6) {
+            groups.add(chunkIds.subList(i, i + 6));
+        }
+        ChunkPlacer uploaderPlacer = new ChunkPlacer(net, uploaderStore, uploaderNode, REPLICAS, 2, TIMEOUT);
+        assertEquals(chunkIds.size(), uploaderPlacer.spread(groups).getStored());
+
+        ChunkPlacer placer = new ChunkPlacer(net, null, downloaderNode, REPLICAS, 2, TIMEOUT);
+        NodeLookup lookup = new NodeLookup(net, downloaderId, K, 3, TIMEOUT);
+        ChunkLocator locator = new ChunkLocator(placer,
+                target -> lookup.findNode(target, downloaderNode.findNode(target, K)).getClosest(),
+                List.of());
+
+        Map<String, List<Contact>> holders = new HashMap<>();
+        for (List<String> group : groups) holders.putAll(locator.shardHoldersOf(group));
+
+        ChunkDownloader first = new ChunkDownloader(net, new FileChunkStore(dir.resolve("b1")), 2, TIMEOUT);
+        assertThrows(IllegalStateException.class,
+                () -> first.download(chunkIds, 6, 4, holders::get, (i, d) -> {}));
+
+        ChunkDownloader downloader = new ChunkDownloader(net, new FileChunkStore(dir.resolve("b2")), 2, TIMEOUT);
+        int[] perGroup = new int[groups.size()];
+        downloader.download(chunkIds, 6, 4, holders::get, locator::fallbackOf, (i, d) -> {
+            assertEquals(chunkIds.get(i), HashUtil.sha256Hex(d));
+            perGroup[i / 6]++;
+        });
+
+        for (int got : perGroup) assertTrue(got >= 4, "group short of shards: " + got);
+        assertEquals(0, net.served.get(uploader).get());
+    }
+
+    /* ================= HELPERS ================= */
+
+    private DHTNode node(NodeId id, List<Contact> known, String name) throws Exception {
+        RoutingTable table = new RoutingTable(id, 20);
+        for (Contact c : known) table.insert(c);
+        return new DHTNode(id, table, new FileMetadataStore(dir.resolve(name)));
+    }
+
+    private static NodeId randomId(Random random) {
+        byte[] id = new byte[NodeId.ID_LENGTH_BYTES];
+        random.nextBytes(id);
+        return new NodeId(id);
+    }
+
+    /**
+     * In-memory network: nodes keep pushed chunks and answer GET_CHUNK
+     * and FIND_NODE from their own store and routing table.
+     */
+    private static final class Network implements MessageSender {
+        final Map<Contact, RoutingTable> tables = new HashMap<>();
+        final Map<Contact, ChunkStore> stores = new HashMap<>();
+        final Map<Contact, Map<String, byte[]>> held = new HashMap<>();
+        final Map<Contact, AtomicInteger> served = new HashMap<>();
+
+        Contact add(NodeId id, String ip) {
+            Contact c = new Contact(id, ip, 7000);
+            tables.put(c, new RoutingTable(id, 20));
+            held.put(c, new ConcurrentHashMap<>());
+            served.put(c, new AtomicInteger());
+            return c;
+        }
+
+        @Override
+        public CompletableFuture<DHTMessage> sendAsync(Contact remote,
+                                                       DHTMessage request,
+                                                       Duration timeout) {
+            DHTMessage r = new DHTMessage();
+            r.setSenderNodeId(remote.getNodeId());
+            try {
+                switch (request.getType()) {
+                    case STORE_CHUNK:
+                        held.get(remote).put(request.getChunkId(), request.getChunkData());
+                        r.setType(MessageType.STORE_CHUNK);
+                        break;
+                    case GET_CHUNK:
+                        byte[] data = held.get(remote).get(request.getChunkId());
+                        ChunkStore store = stores.get(remote);
+                        if (data == null && store != null) data = store.getChunk(request.getChunkId());
+                        if (data != null) served.get(remote).incrementAndGet();
+                        r.setType(MessageType.CHUNK_RESPONSE);
+                        r.setChunkData(data);
+                        break;
+                    case FIND_NODE:
+                        r.setType(MessageType.FIND_NODE_RESPONSE);
+                        r.setPayload(tables.get(remote).findClosest(request.getTargetNodeId(), K));
+                        break;
+                    default:
+                        r.setType(MessageType.ERROR);
+                }
+            } catch (Exception e) {
+                return CompletableFuture.failedFuture(e);
+            }
+            return CompletableFuture.completedFuture(r);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.decen.client;
+
+import com.decen.crypto.AESUtil;
+import com.decen.storage.BufferPool;
+import com.decen.storage.ChunkRegion;
+import com.decen.storage.ChunkSource;
+import com.decen.storage.ChunkStore;
+import com.decen.storage.FileChunker;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * Upload throughput of ChunkPipeline against the number of worker
+ * threads. Run this as a normal Java application.
+ *
+ * Chunks come from memory and the store discards them, so this
+ * measures AES-GCM + SHA-256 scaling only (no disk or network).
+ *
+ * The second table runs all cores with ciphertext in pooled direct
+ * slabs against a pool of size 0 (every chunk on the heap) and prints
+ * the garbage collections each round caused.
+ */
+public class ChunkPipelineBenchmark {
+
+    private static final int CHUNKS = 256; // 256 MB per run
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        byte[] chunk = new byte[FileChunker.CHUNK_SIZE];
+        new Random(14).nextBytes(chunk);
+        byte[] key = AESUtil.generateKey();
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.println("cores=" + cores);
+
+        for (int threads = 1; threads <= cores; threads *= 2) {
+            try (ChunkPipeline pipeline = new ChunkPipeline(
+                    new AESUtil(), new NullStore(), threads, 2, 2 * threads)) {
+
+                for (int round = 0; round < ROUNDS; round++) {
+                    long start = System.nanoTime();
+                    pipeline.process(source(chunk), key);
+                    double secs = (System.nanoTime() - start) / 1e9;
+
+                    System.out.printf("threads=%-3d round %d  %.0f MB/s%n",
+                            threads, round, CHUNKS / secs);
+                }
+            }
+        }
+
+        for (int slabs : new int[] { 0, BufferPool.DEFAULT_MAX_SLABS }) {
+            BufferPool pool = new BufferPool(BufferPool.SLAB_SIZE, slabs);
+            try (ChunkPipeline pipeline = new ChunkPipeline(
+                    new AESUtil(), new NullStore(), cores, 2, 2 * cores, pool)) {
+
+                for (int round = 0; round < ROUNDS; round++) {
+                    long[] gcBefore = gcStats();
+                    long start = System.nanoTime();
+                    pipeline.process(source(chunk), key);
+                    double secs = (System.nanoTime() - start) / 1e9;
+                    long[] gcAfter = gcStats();
+
+                    System.out.printf("%-6s round %d  %.0f MB/s  gcs=%d gcTime=%d ms  pool: %s%n",
+                            slabs == 0 ? "heap" : "pooled", round, CHUNKS / secs,
+                            gcAfter[0] - gcBefore[0], gcAfter[1] - gcBefore[1], pool);
+                }
+            }
+        }
+    }
+
+    /** Collections and milliseconds spent in them so far */
+    private static long[] gcStats() {
+        long count = 0, millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(gc.getCollectionCount(), 0);
+            millis += Math.max(gc.getCollectionTime(), 0);
+        }
+        return new long[] { count, millis };
+    }
+
+    private static ChunkSource source(byte[] chunk) {
+        return new ChunkSource() {
+            int left = CHUNKS;
+
+            @Override
+            public byte[] nextChunk() {
+                return left-- > 0 ? chunk : null;
+            }
+
+            @Override
+            public void close() {}
+        };
+    }
+
+    private static final class NullStore implements ChunkStore {
+        @Override public void putChunk(String chunkId, byte[] data) {}
+        @Override public byte[] getChunk(String chunkId) { return null; }
+        @Override public ChunkRegion openChunk(String chunkId) { return null; }
+        @Override public boolean hasChunk(String chunkId) { return false; }
+        @Override public boolean deleteChunk(String chunkId) { return false; }
+    }
+}
@@ -0,0 +1,255 @@
+package com.decen.client;
+
+import com.decen.crypto.AESUtil;
+import com.decen.crypto.ChunkEncryption;
+import com.decen.crypto.ConvergentAES;
+import com.decen.crypto.HashUtil;
+import com.decen.storage.BufferPool;
+import com.decen.storage.ChunkRegion;
+import com.decen.storage.ChunkSource;
+import com.decen.storage.ChunkStore;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the parallel upload pipeline: ordering, backpressure
+ * and error propagation.
+ */
+public class ChunkPipelineTest {
+
+    private static final int WINDOW = 4;
+
+    private final byte[] key = new byte[32];
+    private final MemoryStore store = new MemoryStore();
+
+    /** Identity "encryption" with random delays so chunks finish out of order */
+    private final ChunkEncryption jittery = new ChunkEncryption() {
+        @Override
+        public byte[] encrypt(byte[] plaintext, byte[] key) throws Exception {
+            Thread.sleep(ThreadLocalRandom.current().nextInt(5));
+            return plaintext.clone();
+        }
+
+        @Override
+        public byte[] decrypt(byte[] ciphertext, byte[] key) {
+            return ciphertext;
+        }
+    };
+
+    @Test
+    public void testChunkIdsKeepSourceOrder() throws Exception {
+        List<byte[]> chunks = randomChunks(64);
+        List<String> expected = new ArrayList<>();
+        for (byte[] c : chunks) expected.add(HashUtil.sha256Hex(c));
+
+        try (ChunkPipeline pipeline = new ChunkPipeline(jittery, store, 8, 3, WINDOW)) {
+            assertEquals(expected, pipeline.process(new ListSource(chunks), key));
+        }
+        assertEquals(64, store.chunks.size());
+    }
+
+    @Test
+    public void testInFlightChunksAreBoundedByWindow() throws Exception {
+        ListSource source = new ListSource(randomChunks(100));
+
+        try (ChunkPipeline pipeline = new ChunkPipeline(jittery, store, 8, 2, WINDOW)) {
+            store.onPut = () -> {
+                int inFlight = source.read.get() - store.chunks.size();
+                assertTrue(inFlight <= WINDOW + 1, "in flight: " + inFlight);
+            };
+            pipeline.process(source, key);
+        }
+        assertNull(store.failure, () -> store.failure.getMessage());
+    }
+
+    @Test
+    public void testLargeChunksAreBoundedByBytes() throws Exception {
+        // Window of 4 slabs; each chunk takes 3, so only one is in flight
+        BufferPool pool = new BufferPool(1000, 8);
+        Random random = new Random(3);
+        List<byte[]> chunks = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            byte[] c = new byte[3000];
+            random.nextBytes(c);
+            chunks.add(c);
+        }
+        ListSource source = new ListSource(chunks);
+
+        try (ChunkPipeline pipeline = new ChunkPipeline(jittery, store, 8, 2, WINDOW, pool)) {
+            store.onPut = () -> {
+                int inFlight = source.read.get() - store.chunks.size();
+                assertTrue(inFlight <= 2, "in flight: " + inFlight);
+            };
+            assertEquals(20, pipeline.process(source, key).size());
+        }
+        assertNull(store.failure, () -> store.failure.getMessage());
+    }
+
+    @Test
+    public void testStoreFailureIsRethrown() throws Exception {
+        store.onPut = () -> {
+            if (store.chunks.size() == 10) throw new IllegalStateException("disk full");
+        };
+
+        try (ChunkPipeline pipeline = new ChunkPipeline(jittery, store, 4, 1, WINDOW)) {
+            IllegalStateException e = assertThrows(IllegalStateException.class,
+                    () -> pipeline.process(new ListSource(randomChunks(40)), key));
+            assertEquals("disk full", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testRealEncryptionDecryptsInOrder() throws Exception {
+        byte[] aesKey = AESUtil.generateKey();
+        AESUtil aes = new AESUtil();
+        List<byte[]> chunks = randomChunks(16);
+
+        List<String> ids;
+        try (ChunkPipeline pipeline = new ChunkPipeline(aes, store, 4, 2, WINDOW)) {
+            ids = pipeline.process(new ListSource(chunks), aesKey);
+        }
+
+        for (int i = 0; i < chunks.size(); i++) {
+            assertArrayEquals(chunks.get(i), aes.decrypt(store.getChunk(ids.get(i)), aesKey));
+        }
+    }
+
+    @Test
+    public void testConvergentChunksAreStoredOnce() throws Exception {
+        byte[] secret = AESUtil.generateKey();
+        List<byte[]> chunks = randomChunks(12);
+        // A file that repeats itself dedups within one upload too
+        chunks.add(chunks.get(0));
+
+        try (ChunkPipeline pipeline = new ChunkPipeline(jittery, store, 4, 2, WINDOW)) {
+            ConvergentAES convergent = new ConvergentAES();
+
+            List<String> first = pipeline.process(new ListSource(chunks), convergent, secret);
+            assertEquals(first.get(0), first.get(12));
+            assertEquals(12, store.chunks.size());
+
+            long skipped = pipeline.getSkippedWrites();
+            List<String> second = pipeline.process(new ListSource(chunks), convergent, secret);
+
+            assertEquals(first, second);
+            assertEquals(13, pipeline.getSkippedWrites() - skipped);
+            assertEquals(12, store.chunks.size());
+        }
+    }
+
+    @Test
+    public void testEveryPooledSlabIsReturned() throws Exception {
+        byte[] secret = AESUtil.generateKey();
+        ConvergentAES convergent = new ConvergentAES();
+        BufferPool pool = new BufferPool(BufferPool.SLAB_SIZE, 2 * WINDOW);
+        List<byte[]> chunks = randomChunks(40);
+
+        try (ChunkPipeline pipeline = new ChunkPipeline(convergent, store, 4, 2, WINDOW, pool)) {
+            List<byte[]> keys = new ArrayList<>();
+            List<String> ids = pipeline.process(new ListSource(chunks), convergent, secret, keys);
+
+            // The buffer cipher path writes exactly what the array path does
+            assertEquals(chunks.size(), keys.size());
+            for (int i = 0; i < chunks.size(); i++) {
+                byte[] key = convergent.chunkKey(ByteBuffer.wrap(chunks.get(i)), secret);
+                assertArrayEquals(key, keys.get(i));
+                assertEquals(HashUtil.sha256Hex(convergent.encrypt(chunks.get(i), key)), ids.get(i));
+            }
+            assertEquals(0, pool.getOutstanding());
+            assertEquals(0, pool.getOverflows());
+            assertTrue(pool.getAllocated() <= 2 * WINDOW, "slabs: " + pool.getAllocated());
+
+            // A failed upload gives back the slabs of the chunks it dropped
+            store.onPut = () -> {
+                if (store.chunks.size() == 50) throw new IllegalStateException("disk full");
+            };
+            assertThrows(IllegalStateException.class,
+                    () -> pipeline.process(new ListSource(randomChunks(30)), secret));
+            long deadline = System.currentTimeMillis() + 5000;
+            while (pool.getOutstanding() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, pool.getOutstanding());
+        }
+    }
+
+    /* ================= HELPERS ================= */
+
+    private static List<byte[]> randomChunks(int n) {
+        Random random = new Random(n);
+        List<byte[]> chunks = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            byte[] c = new byte[1024];
+            random.nextBytes(c);
+            chunks.add(c);
+        }
+        return chunks;
+    }
+
+    private static final class ListSource implements ChunkSource {
+        final List<byte[]> chunks;
+        final AtomicInteger read = new AtomicInteger();
+
+        ListSource(List<byte[]> chunks) {
+            this.chunks = chunks;
+        }
+
+        @Override
+        public byte[] nextChunk() {
+            int i = read.get();
+            if (i == chunks.size()) return null;
+            read.incrementAndGet();
+            return chunks.get(i);
+        }
+
+        @Override
+        public void close() {}
+    }
+
+    private static final class MemoryStore implements ChunkStore {
+        final Map<String, byte[]> chunks = new ConcurrentHashMap<>();
+        volatile Runnable onPut = () -> {};
+        volatile AssertionError failure;
+
+        @Override
+        public synchronized void putChunk(String chunkId, byte[] data) {
+            try {
+                onPut.run();
+            } catch (AssertionError e) {
+                failure = e;
+            }
+            chunks.put(chunkId, data);
+        }
+
+        @Override
+        public byte[] getChunk(String chunkId) {
+            return chunks.get(chunkId);
+        }
+
+        @Override
+        public ChunkRegion openChunk(String chunkId) {
+            return null;
+        }
+
+        @Override
+        public boolean hasChunk(String chunkId) {
+            return chunks.containsKey(chunkId);
+        }
+
+        @Override
+        public boolean deleteChunk(String chunkId) throws IOException {
+            return chunks.remove(chunkId) != null;
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package com.decen.client;
+
+import com.decen.crypto.HashUtil;
+import com.decen.dht.Contact;
+import com.decen.dht.DHTNode;
+import com.decen.dht.NodeId;
+import com.decen.dht.RoutingTable;
+import com.decen.networking.DHTMessage;
+import com.decen.networking.MessageSender;
+import com.decen.networking.MessageType;
+import com.decen.storage.ChunkStore;
+import com.decen.storage.FileChunkStore;
+import com.decen.storage.FileMetadataStore;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs chunk placement and repair against simulated peers.
+ */
+public class ChunkPlacerTest {
+
+    private static final int REPLICAS = 3;
+    private static final int PER_PEER = 2;
+    private static final Duration TIMEOUT = Duration.ofMillis(300);
+
+    @TempDir
+    Path dir;
+
+    private ChunkStore store;
+    private RoutingTable routingTable;
+    private DHTNode dhtNode;
+    private ScheduledExecutorService timer;
+    private FakePeers net;
+    private final List<Contact> contacts = new ArrayList<>();
+    private final List<String> chunkIds = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        store = new FileChunkStore(dir);
+        NodeId self = new NodeId();
+        routingTable = new RoutingTable(self, 20);
+        dhtNode = new DHTNode(self, routingTable, new FileMetadataStore(dir));
+        timer = Executors.newScheduledThreadPool(4);
+        net = new FakePeers();
+
+        Random random = new Random(22);
+        for (int i = 0; i < 12; i++) {
+            byte[] id = new byte[NodeId.ID_LENGTH_BYTES];
+            random.nextBytes(id);
+            Contact c = new Contact(new NodeId(id), "10.0.0." + i, 7000 + i);
+            contacts.add(c);
+            routingTable.insert(c);
+        }
+        for (int i = 0; i < 30; i++) {
+            byte[] data = new byte[256];
+            random.nextBytes(data);
+            String id = HashUtil.sha256Hex(data);
+            store.putChunk(id, data);
+            chunkIds.add(id);
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        timer.shutdownNow();
+    }
+
+    private ChunkPlacer placer() {
+        return new ChunkPlacer(net, store, dhtNode, REPLICAS, PER_PEER, TIMEOUT);
+    }
+
+    private Set<Contact> closest(String chunkId, Set<Contact> excluded) {
+        NodeId key = NodeId.fromHex(chunkId);
+        return contacts.stream()
+                .filter(c -> !excluded.contains(c))
+                .sorted(Comparator.comparing(Contact::getNodeId,
+                        (a, b) -> key.distanceCompare(a, b)))
+                .limit(REPLICAS)
+                .collect(Collectors.toSet());
+    }
+
+    @Test
+    public void testEachChunkGoesToTheClosestNodesWithinLimit() throws Exception {
+        ChunkPlacer.Result result = placer().replicate(chunkIds);
+
+        assertEquals(chunkIds.size() * REPLICAS, result.getStored());
+        assertEquals(0, result.getFailures());
+        for (String id : chunkIds) {
+            assertEquals(closest(id, Set.of()), net.holdersOf(id), "chunk " + id);
+        }
+        for (AtomicInteger max : net.maxInFlight.values()) {
+            assertTrue(max.get() <= PER_PEER, "in flight " + max.get());
+        }
+    }
+
+    @Test
+    public void testReplicatedChunksAreNotPushedAgain() throws Exception {
+        ChunkPlacer placer = placer();
+        placer.replicate(chunkIds);
+
+        ChunkPlacer.Result again = placer.replicate(chunkIds);
+        assertEquals(chunkIds.size(), again.getSatisfied());
+        assertEquals(0, again.getRequests());
+    }
+
+    @Test
+    public void testRepairReplacesHoldersThatLeftTheRoutingTable() throws Exception {
+        ChunkPlacer placer = placer();
+        placer.replicate(chunkIds);
+
+        // The node closest to the first chunk leaves the network
+        String first = chunkIds.get(0);
+        NodeId key = NodeId.fromHex(first);
+        Contact gone = contacts.stream()
+                .min(Comparator.comparing(Contact::getNodeId, (a, b) -> key.distanceCompare(a, b)))
+                .get();
+        routingTable.getBuckets()[routingTable.getBucketId(gone.getNodeId())].removeContact(gone);
+        net.dead.add(gone);
+
+        ChunkPlacer.Result result = placer.replicate(chunkIds);
+
+        // Only chunks that lost a copy are pushed, to the next-closest node
+        int lost = 0;
+        for (String id : chunkIds) {
+            if (net.holdersOf(id).contains(gone)) lost++;
+        }
+        assertEquals(lost, result.getStored());
+        assertEquals(chunkIds.size() - lost, result.getSatisfied());
+
+        Set<Contact> expected = closest(first, Set.of(gone));
+        Set<Contact> live = new HashSet<>(net.holdersOf(first));
+        live.remove(gone);
+        assertEquals(expected, live);
+    }
+
+    @Test
+    public void testFailedPushIsRetriedOnTheNextClosestNode() throws Exception {
+        String id = chunkIds.get(0);
+        Contact target = closest(id, Set.of()).iterator().next();
+        net.dead.add(target);
+
+        ChunkPlacer.Result result = placer().replicate(List.of(id));
+
+        assertEquals(1, result.getFailures());
+        assertEquals(REPLICAS, result.getStored());
+        assertEquals(1, target.staleCount());
+        assertEquals(closest(id, Set.of(target)), net.holdersOf(id));
+    }
+
+    @Test
+    public void testFailedShardPushAvoidsTheGroupsOtherNodes() throws Exception {
+        List<String> group = chunkIds.subList(0, 6);
+        ChunkPlacer placer = placer();
+        List<Contact> assigned = placer.assign(group);
+        net.dead.add(assigned.get(0));
+
+        ChunkPlacer.Result result = placer.spread(List.of(group));
+
+        assertEquals(6, result.getStored());
+        Set<Contact> standIn = net.holdersOf(group.get(0));
+        assertEquals(1, standIn.size());
+        assertFalse(assigned.contains(standIn.iterator().next()));
+    }
+
+    @Test
+    public void testShardsOfAGroupLandOnDistinctNodes() throws Exception {
+        List<List<String>> groups = List.of(chunkIds.subList(0, 6), chunkIds.subList(6, 12));
+        ChunkPlacer placer = placer();
+
+        ChunkPlacer.Result result = placer.spread(groups);
+        assertEquals(12, result.getStored());
+
+        for (List<String> group : groups) {
+            List<Contact> assigned = placer.assign(group);
+            assertEquals(group.size(), new HashSet<>(assigned).size());
+            for (int i = 0; i < group.size(); i++) {
+                assertEquals(Set.of(assigned.get(i)), net.holdersOf(group.get(i)));
+            }
+        }
+        assertEquals(12, placer.spread(groups).getSatisfied());
+    }
+
+    /* ================= HELPERS ================= */
+
+    private final class FakePeers implements MessageSender {
+        final Map<String, Set<Contact>> stored = new ConcurrentHashMap<>();
+        final Map<Contact, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+        final Map<Contact, AtomicInteger> maxInFlight = new ConcurrentHashMap<>();
+        final Set<Contact> dead = ConcurrentHashMap.newKeySet();
+
+        Set<Contact> holdersOf(String chunkId) {
+            return stored.getOrDefault(chunkId, Set.of());
+        }
+
+        @Override
+        public CompletableFuture<DHTMessage> sendAsync(Contact remote,
+                                                       DHTMessage request,
+                                                       Duration timeout) {
+            CompletableFuture<DHTMessage> f = new CompletableFuture<>();
+            int now = inFlight.computeIfAbsent(remote, c -> new AtomicInteger()).incrementAndGet();
+            maxInFlight.computeIfAbsent(remote, c -> new AtomicInteger()).accumulateAndGet(now, Math::max);
+
+            timer.schedule(() -> {
+                // Count the request done before the caller can see its reply
+                inFlight.get(remote).decrementAndGet();
+                if (dead.contains(remote)) {
+                    f.completeExceptionally(new TimeoutException());
+                    return;
+                }
+                assertEquals(MessageType.STORE_CHUNK, request.getType());
+                assertNotNull(request.getChunkData());
+                stored.computeIfAbsent(request.getChunkId(), id -> ConcurrentHashMap.newKeySet())
+                      .add(remote);
+
+                DHTMessage ack = new DHTMessage();
+                ack.setType(MessageType.STORE_CHUNK);
+                f.complete(ack);
+            }, 5, TimeUnit.MILLISECONDS);
+            return f;
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.decen.client;
+
+import com.decen.dht.Contact;
+import com.decen.dht.NodeId;
+import com.decen.dht.RoutingTable;
+import com.decen.networking.DHTMessage;
+import com.decen.networking.MessageSender;
+import com.decen.networking.MessageType;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the lookup engine against a simulated 1000-node network.
+ */
+public class NodeLookupTest {
+
+    private static final int NODES = 1000;
+    private static final int K = 20;
+    private static final int ALPHA = 3;
+
+    private static final List<Contact> contacts = new ArrayList<>();
+    private static final Map<NodeId, RoutingTable> tables = new HashMap<>();
+
+    @BeforeAll
+    static void buildNetwork() {
+        Random random = new Random(42);
+
+        for (int i = 0; i < NODES; i++) {
+            byte[] id = new byte[NodeId.ID_LENGTH_BYTES];
+            random.nextBytes(id);
+            contacts.add(new Contact(new NodeId(id), "10.0.0." + (i % 250), 5000 + i));
+        }
+
+        // Every node sees every other node; its k-buckets keep what fits
+        for (Contact self : contacts) {
+            RoutingTable table = new RoutingTable(self.getNodeId(), K);
+            List<Contact> others = new ArrayList<>(contacts);
+            Collections.shuffle(others, random);
+            for (Contact c : others) {
+                if (!c.equals(self)) table.insert(c);
+            }
+            tables.put(self.getNodeId(), table);
+        }
+    }
+
+    @Test
+    public void testFindNodeReturnsTrueClosestInLogarithmicHops() throws Exception {
+        SimulatedNetwork network = new SimulatedNetwork(Collections.emptySet(), null);
+        Random random = new Random(1);
+        int maxHops = (int) Math.ceil(Math.log(NODES) / Math.log(2));
+
+        for (int trial = 0; trial < 20; trial++) {
+            Contact origin = contacts.get(random.nextInt(NODES));
+            NodeId target = randomId(random);
+
+            NodeLookup lookup = new NodeLookup(
+                    network, origin.getNodeId(), K, ALPHA, Duration.ofSeconds(1));
+
+            NodeLookup.Result result = lookup.findNode(
+                    target, tables.get(origin.getNodeId()).findClosest(target, K));
+
+            assertEquals(bruteForceClosest(target, origin, Collections.emptySet()),
+                    result.getClosest());
+            assertTrue(result.getHops() <= maxHops, "hops=" + result.getHops());
+            assertTrue(result.getQueries() < NODES / 10, "queries=" + result.getQueries());
+        }
+    }
+
+    @Test
+    public void testLookupRoutesAroundDeadNodes() throws Exception {
+        Random random = new Random(2);
+        Set<NodeId> dead = new HashSet<>();
+        for (int i = 0; i < NODES / 10; i++) {
+            dead.add(contacts.get(random.nextInt(NODES)).getNodeId());
+        }
+        SimulatedNetwork network = new SimulatedNetwork(dead, null);
+
+        Contact origin = contacts.stream()
+                .filter(c -> !dead.contains(c.getNodeId()))
+                .findFirst().get();
+
+        for (int trial = 0; trial < 20; trial++) {
+            NodeId target = randomId(random);
+
+            NodeLookup lookup = new NodeLookup(
+                    network, origin.getNodeId(), K, ALPHA, Duration.ofSeconds(1));
+            NodeLookup.Result result = lookup.findNode(
+                    target, tables.get(origin.getNodeId()).findClosest(target, K));
+
+            // Dead entries crowd referrals, so the far edge of the k set is
+            // approximate; the nearer half must always be found
+            List<Contact> expected = bruteForceClosest(target, origin, dead);
+            List<Contact> closest = result.getClosest();
+            assertTrue(closest.size() >= K - result.getFailed().size(),
+                    "size=" + closest.size());
+            assertEquals(expected.get(0), closest.get(0));
+            assertTrue(closest.containsAll(expected.subList(0, K / 2)),
+                    "ranks=" + closest.stream().map(expected::indexOf).collect(Collectors.toList()));
+            for (Contact c : closest) {
+                assertFalse(dead.contains(c.getNodeId()));
+            }
+        }
+    }
+
+    @Test
+    public void testFindValueStopsAtFirstHolder() throws Exception {
+        NodeId key = randomId(new Random(3));
+        Contact origin = contacts.get(7);
+
+        // The value lives on the node closest to the key
+        Contact holder = bruteForceClosest(key, origin, Collections.emptySet()).get(0);
+        SimulatedNetwork network = new SimulatedNetwork(Collections.emptySet(), holder.getNodeId());
+
+        NodeLookup lookup = new NodeLookup(
+                network, origin.getNodeId(), K, ALPHA, Duration.ofSeconds(1));
+        NodeLookup.Result result = lookup.findValue(
+                key.toString(), tables.get(origin.getNodeId()).findClosest(key, K));
+
+        assertEquals(Arrays.asList("chunk-1", "chunk-2"), result.getValue());
+        assertTrue(result.getResponded().contains(holder));
+    }
+
+    /* ================= HELPERS ================= */
+
+    private static NodeId randomId(Random random) {
+        byte[] id = new byte[NodeId.ID_LENGTH_BYTES];
+        random.nextBytes(id);
+        return new NodeId(id);
+    }
+
+    private static List<Contact> bruteForceClosest(NodeId target, Contact origin, Set<NodeId> dead) {
+        List<Contact> live = new ArrayList<>();
+        for (Contact c : contacts) {
+            if (!c.equals(origin) && !dead.contains(c.getNodeId())) live.add(c);
+        }
+        live.sort(byDistanceTo(target));
+        return live.subList(0, K);
+    }
+
+    private static Comparator<Contact> byDistanceTo(NodeId target) {
+        return (a, b) -> target.distanceCompare(a.getNodeId(), b.getNodeId());
+    }
+
+    /**
+     * In-memory transport: every node answers from its own routing table.
+     */
+    private static final class SimulatedNetwork implements MessageSender {
+
+        private final Set<NodeId> dead;
+        private final NodeId valueHolder;
+
+        SimulatedNetwork(Set<NodeId> dead, NodeId valueHolder) {
+            this.dead = dead;
+            this.valueHolder = valueHolder;
+        }
+
+        @Override
+        public CompletableFuture<DHTMessage> sendAsync(Contact remote,
+                                                       DHTMessage request,
+                                                       Duration timeout) {
+            CompletableFuture<DHTMessage> f = new CompletableFuture<>();
+            NodeId id = remote.getNodeId();
+
+            if (dead.contains(id)) {
+                f.completeExceptionally(new IOException("unreachable"));
+                return f;
+            }
+
+            DHTMessage r = new DHTMessage();
+            r.setSenderNodeId(id);
+
+            if (request.getType() == MessageType.FIND_VALUE && id.equals(valueHolder)) {
+                r.setType(MessageType.FIND_VALUE_RESPONSE);
+                r.setChunkIds(Arrays.asList("chunk-1", "chunk-2"));
+            } else {
+                NodeId target = request.getType() == MessageType.FIND_VALUE
+                        ? NodeId.fromHex(request.getFileId())
+                        : request.getTargetNodeId();
+
+                List<Contact> known = tables.get(id).getAllContacts();
+                known.sort(byDistanceTo(target));
+
+                r.setType(MessageType.FIND_NODE_RESPONSE);
+                r.setPayload(new ArrayList<>(known.subList(0, Math.min(K, known.size()))));
+            }
+
+            f.complete(r);
+            return f;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.decen.crypto;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.crypto.AEADBadTagException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the AES-GCM chunk cipher and the SHA-256 helpers.
+ */
+public class AESUtilTest {
+
+    private final AESUtil aes = new AESUtil();
+
+    @Test
+    public void testByteArrayAndBufferFormsInteroperate() throws Exception {
+        byte[] key = AESUtil.generateKey();
+        byte[] plain = new byte[10_000];
+        new Random(16).nextBytes(plain);
+
+        // byte[] in, ByteBuffer out
+        byte[] enc = aes.encrypt(plain, key);
+        assertEquals(AESUtil.encryptedLength(plain.length), enc.length);
+
+        ByteBuffer dst = ByteBuffer.allocate(plain.length);
+        assertEquals(plain.length, aes.decrypt(ByteBuffer.wrap(enc), dst, key));
+        assertArrayEquals(plain, dst.array());
+
+        // ByteBuffer in (direct, offset), byte[] out
+        ByteBuffer src = ByteBuffer.allocateDirect(plain.length + 7);
+        src.position(7);
+        src.put(plain).flip().position(7);
+        ByteBuffer out = ByteBuffer.allocate(AESUtil.encryptedLength(plain.length));
+        assertEquals(out.capacity(), aes.encrypt(src, out, key));
+        assertFalse(src.hasRemaining());
+
+        assertArrayEquals(plain, aes.decrypt(out.array(), key));
+    }
+
+    @Test
+    public void testFreshIvPerChunkAndTamperDetected() throws Exception {
+        byte[] key = AESUtil.generateKey();
+        byte[] plain = "same chunk".getBytes(StandardCharsets.UTF_8);
+
+        byte[] a = aes.encrypt(plain, key);
+        byte[] b = aes.encrypt(plain, key);
+        assertFalse(Arrays.equals(a, b));
+
+        a[a.length - 1] ^= 1;
+        assertThrows(AEADBadTagException.class, () -> aes.decrypt(a, key));
+        // The thread's cipher is still usable after a failure
+        assertArrayEquals(plain, aes.decrypt(b, key));
+    }
+
+    @Test
+    public void testKeysAreNotMixedUpAcrossCallsAndThreads() throws Exception {
+        byte[] k1 = AESUtil.generateKey();
+        byte[] k2 = AESUtil.generateKey();
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                int seed = t;
+                results.add(pool.submit(() -> {
+                    Random random = new Random(seed);
+                    for (int i = 0; i < 200; i++) {
+                        byte[] key = random.nextBoolean() ? k1 : k2;
+                        byte[] other = key == k1 ? k2 : k1;
+                        byte[] plain = new byte[random.nextInt(2000)];
+                        random.nextBytes(plain);
+
+                        byte[] enc = aes.encrypt(plain, key);
+                        assertArrayEquals(plain, aes.decrypt(enc, key));
+                        assertThrows(Exception.class, () -> aes.decrypt(enc, other));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> f : results) f.get();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testSha256HexMatchesKnownVector() throws Exception {
+        assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad",
+                HashUtil.sha256Hex("abc".getBytes(StandardCharsets.US_ASCII)));
+        assertEquals(HashUtil.toHex(HashUtil.sha256(new byte[] { 1, 2, 3 })),
+                HashUtil.toHex(HashUtil.sha256(ByteBuffer.wrap(new byte[] { 1, 2, 3 }))));
+        assertEquals("00ff10", HashUtil.toHex(new byte[] { 0, (byte) 0xFF, 0x10 }));
+    }
+}
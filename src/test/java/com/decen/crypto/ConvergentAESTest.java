@@ -0,0 +1,108 @@
+package com.decen.crypto;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for convergent chunk encryption.
+ */
+public class ConvergentAESTest {
+
+    private final ConvergentAES aes = new ConvergentAES();
+
+    private static byte[] bytes(int n, long seed) {
+        byte[] b = new byte[n];
+        new Random(seed).nextBytes(b);
+        return b;
+    }
+
+    private byte[] encrypt(byte[] plain, byte[] secret) throws Exception {
+        return aes.encrypt(plain, aes.chunkKey(ByteBuffer.wrap(plain), secret));
+    }
+
+    @Test
+    public void testSamePlaintextAndSecretGiveSameChunk() throws Exception {
+        byte[] secret = AESUtil.generateKey();
+        byte[] plain = bytes(100_000, 1);
+
+        // Back to back on one thread: GCM must not see a reused key/IV pair
+        byte[] a = encrypt(plain, secret);
+        byte[] b = encrypt(plain.clone(), secret);
+
+        assertArrayEquals(a, b);
+        assertEquals(HashUtil.sha256Hex(a), HashUtil.sha256Hex(b));
+        assertEquals(plain.length + ConvergentAES.OVERHEAD, a.length);
+        assertArrayEquals(plain, aes.decrypt(a, aes.chunkKey(ByteBuffer.wrap(plain), secret)));
+    }
+
+    @Test
+    public void testDifferentSecretOrPlaintextDiffer() throws Exception {
+        byte[] s1 = AESUtil.generateKey();
+        byte[] s2 = AESUtil.generateKey();
+        byte[] plain = bytes(1000, 2);
+        byte[] other = plain.clone();
+        other[999] ^= 1;
+
+        assertFalse(Arrays.equals(encrypt(plain, s1), encrypt(plain, s2)));
+        assertFalse(Arrays.equals(encrypt(plain, s1), encrypt(other, s1)));
+    }
+
+    @Test
+    public void testTamperAndWrongKeyAreRejected() throws Exception {
+        byte[] secret = AESUtil.generateKey();
+        byte[] plain = bytes(500, 3);
+        byte[] key = aes.chunkKey(ByteBuffer.wrap(plain), secret);
+        byte[] enc = aes.encrypt(plain, key);
+
+        for (int pos : new int[] { 0, 20, enc.length - 1 }) {
+            byte[] bad = enc.clone();
+            bad[pos] ^= 1;
+            assertThrows(Exception.class, () -> aes.decrypt(bad, key), "byte " + pos);
+        }
+        // Neither the secret nor another chunk's key opens it
+        assertThrows(Exception.class, () -> aes.decrypt(enc, secret));
+        assertThrows(Exception.class,
+                () -> aes.decrypt(enc, aes.chunkKey(ByteBuffer.wrap(bytes(500, 4)), secret)));
+    }
+
+    @Test
+    public void testChunkKeyLeavesBufferInPlace() throws Exception {
+        ByteBuffer plain = ByteBuffer.wrap(bytes(64, 5));
+        byte[] key = aes.chunkKey(plain, AESUtil.generateKey());
+
+        assertEquals(ConvergentAES.KEY_LENGTH, key.length);
+        assertEquals(0, plain.position());
+    }
+
+    @Test
+    public void testSealedKeysOpenOnlyWithTheFileKey() throws Exception {
+        byte[] secret = AESUtil.generateKey();
+        byte[] fileKey = AESUtil.generateKey();
+        List<byte[]> keys = List.of(
+                aes.chunkKey(ByteBuffer.wrap(bytes(10, 6)), secret),
+                aes.chunkKey(ByteBuffer.wrap(bytes(10, 7)), secret));
+
+        byte[] sealed = ConvergentAES.sealKeys(keys, fileKey);
+        List<byte[]> opened = ConvergentAES.openKeys(sealed, fileKey);
+
+        assertEquals(2, opened.size());
+        for (int i = 0; i < keys.size(); i++) {
+            assertArrayEquals(keys.get(i), opened.get(i));
+        }
+        assertThrows(Exception.class, () -> ConvergentAES.openKeys(sealed, AESUtil.generateKey()));
+        assertThrows(Exception.class, () -> ConvergentAES.openKeys(sealed, secret));
+    }
+
+    @Test
+    public void testEmptyChunk() throws Exception {
+        byte[] secret = AESUtil.generateKey();
+        byte[] key = aes.chunkKey(ByteBuffer.allocate(0), secret);
+        assertArrayEquals(new byte[0], aes.decrypt(aes.encrypt(new byte[0], key), key));
+    }
+}
@@ -0,0 +1,84 @@
+package com.decen.crypto;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Random;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Per-chunk cost of AES-GCM + SHA-256 hex, comparing the previous
+ * per-call getInstance / String.format code with AESUtil and HashUtil.
+ * Run this as a normal Java application.
+ */
+public class CryptoBenchmark {
+
+    private static final int[] SIZES = { 4 << 10, 64 << 10, 1 << 20, 4 << 20 };
+    private static final long BYTES_PER_RUN = 256L << 20;
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        byte[] key = AESUtil.generateKey();
+        AESUtil aes = new AESUtil();
+
+        for (int size : SIZES) {
+            byte[] chunk = new byte[size];
+            new Random(16).nextBytes(chunk);
+            ByteBuffer src = ByteBuffer.wrap(chunk);
+            ByteBuffer dst = ByteBuffer.allocate(AESUtil.encryptedLength(size));
+            int ops = (int) Math.max(1, BYTES_PER_RUN / size);
+
+            for (int round = 0; round < ROUNDS; round++) {
+                long start = System.nanoTime();
+                for (int i = 0; i < ops; i++) {
+                    oldSha256Hex(oldEncrypt(chunk, key));
+                }
+                long oldNs = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                for (int i = 0; i < ops; i++) {
+                    src.clear();
+                    dst.clear();
+                    aes.encrypt(src, dst, key);
+                    dst.flip();
+                    HashUtil.toHex(HashUtil.sha256(dst));
+                }
+                long newNs = System.nanoTime() - start;
+
+                System.out.printf("%7d B round %d  old=%8.1f us/op  new=%8.1f us/op  (%.0f MB/s)%n",
+                        size, round,
+                        oldNs / 1e3 / ops,
+                        newNs / 1e3 / ops,
+                        (double) size * ops / (newNs / 1e9) / (1 << 20));
+            }
+        }
+    }
+
+    /* ================= PREVIOUS CODE ================= */
+
+    private static byte[] oldEncrypt(byte[] plaintext, byte[] key) throws Exception {
+        byte[] iv = new byte[12];
+        new SecureRandom().nextBytes(iv);
+
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"),
+                new GCMParameterSpec(128, iv));
+
+        byte[] ciphertext = cipher.doFinal(plaintext);
+        byte[] output = new byte[iv.length + ciphertext.length];
+        System.arraycopy(iv, 0, output, 0, iv.length);
+        System.arraycopy(ciphertext, 0, output, iv.length, ciphertext.length);
+        return output;
+    }
+
+    private static String oldSha256Hex(byte[] data) throws Exception {
+        byte[] hash = MessageDigest.getInstance("SHA-256").digest(data);
+        StringBuilder sb = new StringBuilder();
+        for (byte b : hash) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,151 @@
+package com.decen.crypto;
+
+import com.decen.storage.FileChunker;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for segmented streaming AES-GCM: round trips at segment
+ * boundaries and detection of truncated, reordered or altered data.
+ */
+public class StreamingAESTest {
+
+    private static final int SEGMENT = 100;
+    private static final int SEALED = SEGMENT + 16;
+
+    private final StreamingAES aes = new StreamingAES(SEGMENT);
+    private final Random random = new Random(17);
+
+    private byte[] bytes(int n) {
+        byte[] b = new byte[n];
+        random.nextBytes(b);
+        return b;
+    }
+
+    @Test
+    public void testRoundTripAroundSegmentBoundaries() throws Exception {
+        byte[] key = AESUtil.generateKey();
+
+        for (int size : new int[] { 0, 1, SEGMENT - 1, SEGMENT, SEGMENT + 1, 3 * SEGMENT, 3 * SEGMENT + 5 }) {
+            byte[] plain = bytes(size);
+            byte[] enc = aes.encrypt(plain, key);
+
+            assertEquals(aes.ciphertextLength(size), enc.length, "size " + size);
+            assertArrayEquals(plain, aes.decrypt(enc, key), "size " + size);
+        }
+    }
+
+    @Test
+    public void testStreamsWithOddWriteAndReadSizes() throws Exception {
+        byte[] key = AESUtil.generateKey();
+        byte[] plain = bytes(10_000);
+
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        try (OutputStream out = aes.encryptingStream(sink, key)) {
+            int off = 0;
+            while (off < plain.length) {
+                int n = Math.min(plain.length - off, 1 + random.nextInt(250));
+                out.write(plain, off, n);
+                off += n;
+            }
+        }
+
+        ByteArrayOutputStream restored = new ByteArrayOutputStream();
+        try (InputStream in = aes.decryptingStream(new ByteArrayInputStream(sink.toByteArray()), key)) {
+            byte[] buf = new byte[37];
+            int n;
+            while ((n = in.read(buf)) > 0) restored.write(buf, 0, n);
+        }
+        assertArrayEquals(plain, restored.toByteArray());
+    }
+
+    @Test
+    public void testDroppedLastSegmentIsDetected() throws Exception {
+        byte[] key = AESUtil.generateKey();
+        byte[] enc = aes.encrypt(bytes(3 * SEGMENT + 5), key);
+
+        // Cut exactly at a segment boundary: the new tail is not flagged last
+        byte[] cut = Arrays.copyOf(enc, StreamingAES.HEADER_LENGTH + 3 * SEALED);
+        assertThrows(IOException.class, () -> aes.decrypt(cut, key));
+
+        // Cut inside a segment
+        byte[] torn = Arrays.copyOf(enc, enc.length - 3);
+        assertThrows(IOException.class, () -> aes.decrypt(torn, key));
+    }
+
+    @Test
+    public void testReorderedSegmentsAreDetected() throws Exception {
+        byte[] key = AESUtil.generateKey();
+        byte[] enc = aes.encrypt(bytes(3 * SEGMENT), key);
+
+        int h = StreamingAES.HEADER_LENGTH;
+        byte[] swapped = enc.clone();
+        System.arraycopy(enc, h, swapped, h + SEALED, SEALED);
+        System.arraycopy(enc, h + SEALED, swapped, h, SEALED);
+
+        assertThrows(IOException.class, () -> aes.decrypt(swapped, key));
+    }
+
+    @Test
+    public void testAlteredByteOrWrongKeyIsDetected() throws Exception {
+        byte[] key = AESUtil.generateKey();
+        byte[] plain = bytes(2 * SEGMENT);
+        byte[] enc = aes.encrypt(plain, key);
+
+        byte[] flipped = enc.clone();
+        flipped[StreamingAES.HEADER_LENGTH + SEALED + 4] ^= 1;
+
+        // The first segment is still served before the bad one is reached
+        try (InputStream in = aes.decryptingStream(new ByteArrayInputStream(flipped), key)) {
+            assertArrayEquals(Arrays.copyOf(plain, SEGMENT), in.readNBytes(SEGMENT));
+            assertThrows(IOException.class, in::read);
+        }
+
+        assertThrows(IOException.class, () -> aes.decrypt(enc, AESUtil.generateKey()));
+    }
+
+    @Test
+    public void testBufferPathMatchesStreams() throws Exception {
+        byte[] key = AESUtil.generateKey();
+
+        for (int size : new int[] { 0, SEGMENT, 3 * SEGMENT + 5 }) {
+            byte[] plain = bytes(size);
+            ByteBuffer dst = ByteBuffer.allocateDirect((int) aes.ciphertextLength(size));
+            ByteBuffer src = ByteBuffer.allocateDirect(size).put(plain).flip();
+
+            assertEquals(dst.capacity(), aes.encrypt(src, dst, key));
+            assertFalse(src.hasRemaining());
+            byte[] enc = new byte[dst.flip().remaining()];
+            dst.get(enc);
+
+            try (InputStream in = aes.decryptingStream(new ByteArrayInputStream(enc), key)) {
+                assertArrayEquals(plain, in.readAllBytes(), "size " + size);
+            }
+        }
+    }
+
+    @Test
+    public void testStreamingModeUsesLargeChunks() {
+        assertTrue(EncryptionMode.STREAMING.newCipher() instanceof StreamingAES);
+        assertEquals(EncryptionMode.STREAMING, EncryptionMode.fromLabel("streaming"));
+        assertEquals(FileChunker.LARGE_CHUNK_SIZE, FileChunker.chunkSize(EncryptionMode.STREAMING));
+        assertEquals(FileChunker.CHUNK_SIZE, FileChunker.chunkSize(EncryptionMode.RANDOM));
+    }
+
+    @Test
+    public void testSameInputEncryptsDifferently() throws Exception {
+        byte[] key = AESUtil.generateKey();
+        byte[] plain = bytes(50);
+        assertFalse(Arrays.equals(aes.encrypt(plain, key), aes.encrypt(plain, key)));
+    }
+}
@@ -0,0 +1,135 @@
+package com.decen.dht;
+
+import com.decen.crypto.HashUtil;
+import com.decen.storage.FileMetadata;
+import com.decen.storage.FileMetadataStore;
+import com.decen.storage.MetadataStore;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for values stored on behalf of other nodes: TTL, expiry and
+ * never overwriting our own records.
+ */
+public class DHTNodeTest {
+
+    @TempDir
+    Path dir;
+
+    private MetadataStore metadataStore;
+    private DHTNode node;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        metadataStore = new FileMetadataStore(dir);
+        NodeId id = new NodeId();
+        node = new DHTNode(id, new RoutingTable(id, 20), metadataStore);
+    }
+
+    private static String hash(String s) throws Exception {
+        return HashUtil.sha256Hex(s.getBytes());
+    }
+
+    private static FileMetadata value(String... chunks) throws Exception {
+        String[] ids = new String[chunks.length];
+        for (int i = 0; i < chunks.length; i++) ids[i] = hash(chunks[i]);
+        return new FileMetadata(List.of(ids));
+    }
+
+    @Test
+    public void testStoredValueIsFoundUntilItExpires() throws Exception {
+        String fileId = hash("a");
+
+        assertTrue(node.storeValue(fileId, value("x", "y"), Duration.ofMillis(50)));
+        assertTrue(node.findValue(fileId, 20).hasValue());
+        assertFalse(metadataStore.getFile(fileId).isPermanent());
+
+        Thread.sleep(100);
+        assertFalse(node.findValue(fileId, 20).hasValue());
+        assertFalse(metadataStore.hasFile(fileId));
+    }
+
+    @Test
+    public void testTtlIsCappedAndNeverShortened() throws Exception {
+        String fileId = hash("b");
+        long before = System.currentTimeMillis();
+
+        node.storeValue(fileId, value("x"), Duration.ofDays(30));
+        long capped = metadataStore.getFile(fileId).getExpiresAt();
+        assertTrue(capped <= System.currentTimeMillis() + DHTNode.VALUE_TTL.toMillis());
+        assertTrue(capped >= before + DHTNode.VALUE_TTL.toMillis());
+
+        // A republish with less TTL left keeps the later expiry
+        node.storeValue(fileId, value("x"), Duration.ofMinutes(5));
+        assertEquals(capped, metadataStore.getFile(fileId).getExpiresAt());
+
+        // New content replaces the old record outright
+        node.storeValue(fileId, value("z"), Duration.ofMinutes(5));
+        assertEquals(value("z").getChunkIds(), metadataStore.getChunks(fileId));
+        assertTrue(metadataStore.getFile(fileId).getExpiresAt() < capped);
+    }
+
+    @Test
+    public void testOwnRecordIsNeverReplaced() throws Exception {
+        String fileId = hash("c");
+        metadataStore.putFile(fileId, value("mine"));
+
+        assertFalse(node.storeValue(fileId, value("theirs"), Duration.ofHours(1)));
+        assertEquals(value("mine").getChunkIds(), metadataStore.getChunks(fileId));
+        assertTrue(metadataStore.getFile(fileId).isPermanent());
+    }
+
+    @Test
+    public void testExpireValuesRemovesOnlyExpiredReplicas() throws Exception {
+        metadataStore.putFile(hash("own"), value("o"));
+        node.storeValue(hash("short"), value("s"), Duration.ofMillis(10));
+        node.storeValue(hash("long"), value("l"), Duration.ofHours(1));
+
+        Thread.sleep(50);
+        assertEquals(1, node.expireValues());
+
+        assertTrue(metadataStore.hasFile(hash("own")));
+        assertTrue(metadataStore.hasFile(hash("long")));
+        assertFalse(metadataStore.hasFile(hash("short")));
+    }
+
+    @Test
+    public void testRefreshWhileExpiringIsKept() throws Exception {
+        FileMetadata fresh = value("refreshed");
+        DHTNode[] racing = new DHTNode[1];
+        Set<String> refreshed = new HashSet<>();
+        // A republish lands right after the expired copy has been read
+        MetadataStore store = new FileMetadataStore(dir.resolve("racy")) {
+            @Override
+            public FileMetadata getFile(String fileId) throws IOException {
+                FileMetadata m = super.getFile(fileId);
+                if (m != null && m.isExpired(System.currentTimeMillis()) && refreshed.add(fileId)) {
+                    racing[0].storeValue(fileId, fresh, Duration.ofHours(1));
+                }
+                return m;
+            }
+        };
+        racing[0] = new DHTNode(new NodeId(), store);
+
+        racing[0].storeValue(hash("a"), value("old"), Duration.ofMillis(10));
+        racing[0].storeValue(hash("b"), value("old"), Duration.ofMillis(10));
+        Thread.sleep(50);
+
+        assertFalse(racing[0].findValue(hash("b"), 20).hasValue(), "the stale copy is not served");
+        assertEquals(fresh.getChunkIds(), store.getChunks(hash("b")));
+
+        assertEquals(0, racing[0].expireValues());
+        assertEquals(fresh.getChunkIds(), store.getChunks(hash("a")));
+    }
+}
@@ -1,7 +1,5 @@
 package com.decen.dht;
 
-import org.junit.Test;
-
 import java.util.Arrays;
 import java.util.List;
 
@@ -11,8 +9,6 @@ import com.decen.dht.NodeId;
 
 import static org.junit.jupiter.api.Assertions.*;
 
-import static org.junit.Assert.*;
-
 public class FindValueResultTest {
 
     @Test
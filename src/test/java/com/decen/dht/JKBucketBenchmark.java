@@ -0,0 +1,97 @@
+package com.decen.dht;
+
+import java.util.LinkedList;
+import java.util.Random;
+
+/**
+ * Compares JKBucket with the previous LinkedList-backed bucket.
+ * Run this as a normal Java application.
+ *
+ * The workload mirrors MessageHandler: most inserts re-touch a known
+ * contact, a few are newcomers arriving at a full bucket.
+ */
+public class JKBucketBenchmark {
+
+    private static final int[] BUCKET_SIZES = { 8, 20, 64, 256 };
+    private static final int OPS = 5_000_000;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        Contact[] newcomers = contacts(1024, 2);
+
+        for (int k : BUCKET_SIZES) {
+            Contact[] known = contacts(k, 1);
+            int[] workload = workload(k);
+
+            for (int round = 0; round < ROUNDS; round++) {
+                long listNs = runLinkedList(k, known, newcomers, workload);
+                long bucketNs = runJKBucket(k, known, newcomers, workload);
+
+                System.out.printf("k=%-4d round %d  LinkedList=%.1f ns/op  JKBucket=%.1f ns/op%n",
+                        k, round,
+                        (double) listNs / OPS,
+                        (double) bucketNs / OPS);
+            }
+        }
+    }
+
+    /** Index into known (>= 0) or newcomers (< 0) */
+    private static int[] workload(int k) {
+        Random random = new Random(3);
+        int[] ops = new int[OPS];
+        for (int i = 0; i < OPS; i++) {
+            ops[i] = random.nextInt(10) == 0
+                    ? -1 - random.nextInt(1024)
+                    : random.nextInt(k);
+        }
+        return ops;
+    }
+
+    private static long runJKBucket(int k, Contact[] known, Contact[] newcomers, int[] ops) {
+        JKBucket bucket = new JKBucket(0, k);
+        for (Contact c : known) bucket.insert(c);
+
+        long start = System.nanoTime();
+        for (int op : ops) {
+            bucket.insert(op >= 0 ? known[op] : newcomers[-1 - op]);
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * The pre-index implementation: two linear scans per insert.
+     * Touches lastSeen like JKBucket so only the structure differs.
+     */
+    private static long runLinkedList(int k, Contact[] known, Contact[] newcomers, int[] ops) {
+        LinkedList<Contact> contacts = new LinkedList<>();
+        for (Contact c : known) contacts.addLast(c);
+
+        long start = System.nanoTime();
+        for (int op : ops) {
+            Contact c = op >= 0 ? known[op] : newcomers[-1 - op];
+            c.setSeenNow();
+            c.resetStaleCount();
+            if (contacts.contains(c)) {
+                contacts.remove(c);
+                contacts.addLast(c);
+            } else if (contacts.size() < k) {
+                contacts.addLast(c);
+            } else {
+                contacts.removeFirst();
+                contacts.addLast(c);
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static Contact[] contacts(int n, long seed) {
+        Random random = new Random(seed);
+        Contact[] result = new Contact[n];
+        for (int i = 0; i < n; i++) {
+            byte[] id = new byte[NodeId.ID_LENGTH_BYTES];
+            random.nextBytes(id);
+            result[i] = new Contact(new NodeId(id), "127.0.0.1", 6000 + i);
+        }
+        return result;
+    }
+}
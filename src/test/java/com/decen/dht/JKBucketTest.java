@@ -8,7 +8,8 @@ import java.util.List;
 
 /**
  * Unit tests for JKBucket.
- * Focuses on LRU behavior and bucket size enforcement.
+ * Focuses on LRU behavior, bucket size enforcement and the
+ * replacement cache.
  */
 public class JKBucketTest {
 
@@ -58,7 +59,7 @@ public class JKBucketTest {
     }
 
     @Test
-    public void testEvictionWhenFull() {
+    public void testNewcomerWaitsInReplacementCacheWhenFull() {
         JKBucket bucket = new JKBucket(0, 3);
 
         Contact a = contact("A");
@@ -70,16 +71,95 @@ public class JKBucketTest {
         bucket.insert(b);
         bucket.insert(c);
 
-        // Insert D → evict A
+        // Insert D → live contacts are kept, D is parked
         bucket.insert(d);
 
         List<Contact> contacts = bucket.getContacts();
 
         assertEquals(3, contacts.size());
-        assertFalse(contacts.contains(a));
+        assertTrue(contacts.contains(a));
         assertTrue(contacts.contains(b));
         assertTrue(contacts.contains(c));
-        assertTrue(contacts.contains(d));
+        assertFalse(contacts.contains(d));
+        assertEquals(List.of(d), bucket.getReplacementCache());
+    }
+
+    @Test
+    public void testStaleContactIsReplacedAfterThreshold() {
+        JKBucket bucket = new JKBucket(0, 3, 3, 2);
+
+        Contact a = contact("A");
+        Contact b = contact("B");
+        Contact c = contact("C");
+        Contact d = contact("D");
+
+        bucket.insert(a);
+        bucket.insert(b);
+        bucket.insert(c);
+        bucket.insert(d);
+
+        bucket.markStale(a);
+        assertTrue(bucket.containsContact(a)); // one failure is tolerated
+
+        bucket.markStale(a);
+        assertFalse(bucket.containsContact(a));
+        assertTrue(bucket.containsContact(d));
+        assertTrue(bucket.getReplacementCache().isEmpty());
+    }
+
+    @Test
+    public void testStaleLruIsEvictedByNewcomer() {
+        JKBucket bucket = new JKBucket(0, 3, 3, 2);
+
+        Contact a = contact("A");
+        Contact b = contact("B");
+        Contact c = contact("C");
+        Contact d = contact("D");
+
+        bucket.insert(a);
+        bucket.insert(b);
+        bucket.insert(c);
+
+        // No replacement yet, so A stays despite failing
+        bucket.markStale(a);
+        bucket.markStale(a);
+        assertTrue(bucket.containsContact(a));
+
+        bucket.insert(d);
+
+        assertFalse(bucket.containsContact(a));
+        assertTrue(bucket.containsContact(d));
+    }
+
+    @Test
+    public void testSeenAgainResetsStaleCount() {
+        JKBucket bucket = new JKBucket(0, 2, 2, 2);
+
+        Contact a = contact("A");
+        Contact b = contact("B");
+        Contact c = contact("C");
+
+        bucket.insert(a);
+        bucket.insert(b);
+        bucket.insert(c);
+
+        bucket.markStale(a);
+        bucket.insert(a); // a answered again
+        bucket.markStale(a);
+
+        assertTrue(bucket.containsContact(a));
+    }
+
+    @Test
+    public void testReplacementCacheIsBounded() {
+        JKBucket bucket = new JKBucket(0, 1, 2, 2);
+
+        bucket.insert(contact("A"));
+        bucket.insert(contact("B"));
+        bucket.insert(contact("C"));
+        bucket.insert(contact("D"));
+
+        assertEquals(List.of(contact("C"), contact("D")), bucket.getReplacementCache());
     }
 
     @Test
@@ -0,0 +1,183 @@
+package com.decen.dht;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Unit tests for RoutingTable.
+ * Checks the bucket-ordered closest-k search against a full sort,
+ * and that concurrent writers and readers keep the table consistent.
+ */
+public class RoutingTableTest {
+
+    private static final int K = 20;
+
+    private static NodeId randomId(Random random) {
+        byte[] bytes = new byte[NodeId.ID_LENGTH_BYTES];
+        random.nextBytes(bytes);
+        return new NodeId(bytes);
+    }
+
+    /* A table whose near buckets are well populated, like a live node */
+    private static RoutingTable table(NodeId local, Random random) {
+        RoutingTable table = new RoutingTable(local, K);
+        for (int i = 0; i < 3000; i++) {
+            byte[] bytes = local.getBytes();
+            int flip = random.nextInt(24);
+            bytes[flip / 8] ^= (byte) (0x80 >>> (flip % 8));
+            for (int j = flip / 8 + 1; j < bytes.length; j++) {
+                bytes[j] = (byte) random.nextInt(256);
+            }
+            table.insert(new Contact(new NodeId(bytes), "127.0.0.1", 9000 + i));
+            table.insert(new Contact(randomId(random), "127.0.0.1", 20000 + i));
+        }
+        return table;
+    }
+
+    private static List<Contact> bruteForce(RoutingTable table, NodeId target, int count) {
+        List<Contact> all = new ArrayList<>(table.getAllContacts());
+        all.sort((a, b) -> target.distanceCompare(a.getNodeId(), b.getNodeId()));
+        return all.subList(0, Math.min(count, all.size()));
+    }
+
+    @Test
+    public void testFindClosestMatchesFullSort() {
+        Random random = new Random(5);
+        NodeId local = randomId(random);
+        RoutingTable table = table(local, random);
+
+        for (int i = 0; i < 200; i++) {
+            NodeId target = randomId(random);
+            assertEquals(bruteForce(table, target, K), table.findClosest(target, K));
+        }
+    }
+
+    @Test
+    public void testFindClosestNearLocalId() {
+        Random random = new Random(6);
+        NodeId local = randomId(random);
+        RoutingTable table = table(local, random);
+
+        // Targets sharing long prefixes with us land in sparse deep buckets
+        for (int bit = 0; bit < 24; bit++) {
+            byte[] bytes = local.getBytes();
+            bytes[bit / 8] ^= (byte) (0x80 >>> (bit % 8));
+            NodeId target = new NodeId(bytes);
+            assertEquals(bruteForce(table, target, K), table.findClosest(target, K));
+        }
+
+        assertEquals(bruteForce(table, local, K), table.findClosest(local, K));
+    }
+
+    @Test
+    public void testFindClosestOnSmallTable() {
+        Random random = new Random(7);
+        NodeId local = randomId(random);
+        RoutingTable table = new RoutingTable(local, K);
+
+        for (int i = 0; i < 5; i++) {
+            table.insert(new Contact(randomId(random), "127.0.0.1", 9000 + i));
+        }
+
+        NodeId target = randomId(random);
+        assertEquals(bruteForce(table, target, K), table.findClosest(target, K));
+        assertEquals(5, table.findClosest(target, K).size());
+        assertTrue(table.findClosest(target, 0).isEmpty());
+    }
+
+    @Test
+    public void testConcurrentInsertAndLookupKeepInvariants() throws Exception {
+        int threads = 8;
+        int opsPerThread = 250_000;
+
+        Random seed = new Random(8);
+        NodeId local = randomId(seed);
+        RoutingTable table = new RoutingTable(local, K);
+
+        // A shared id pool makes threads collide on the same buckets
+        List<Contact> pool = new ArrayList<>();
+        for (int i = 0; i < 4096; i++) {
+            pool.add(new Contact(randomId(seed), "127.0.0.1", 10000 + i));
+        }
+
+        AtomicBoolean done = new AtomicBoolean();
+        ExecutorService executor = Executors.newFixedThreadPool(threads + 1);
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                long workerSeed = t;
+                workers.add(executor.submit(() -> {
+                    Random random = new Random(workerSeed);
+                    for (int i = 0; i < opsPerThread; i++) {
+                        Contact c = pool.get(random.nextInt(pool.size()));
+                        int op = random.nextInt(10);
+                        if (op < 5) {
+                            table.insert(c);
+                        } else if (op < 6) {
+                            table.markStale(c);
+                        } else if (op < 7) {
+                            table.getBuckets()[table.getBucketId(c.getNodeId())].removeContact(c);
+                        } else {
+                            assertSortedAndUnique(c.getNodeId(), table.findClosest(c.getNodeId(), K));
+                        }
+                    }
+                    return null;
+                }));
+            }
+
+            // Readers must see consistent buckets while writers run
+            Future<?> auditor = executor.submit(() -> {
+                while (!done.get()) {
+                    assertBucketsConsistent(table);
+                }
+                return null;
+            });
+
+            for (Future<?> w : workers) w.get();
+            done.set(true);
+            auditor.get();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertBucketsConsistent(table);
+        for (KBucket bucket : table.getBuckets()) {
+            assertEquals(bucket.getContacts().size(), bucket.numContacts());
+        }
+    }
+
+    private static void assertSortedAndUnique(NodeId target, List<Contact> closest) {
+        assertTrue(closest.size() <= K);
+        Set<NodeId> seen = new HashSet<>();
+        for (int i = 0; i < closest.size(); i++) {
+            assertTrue(seen.add(closest.get(i).getNodeId()), "duplicate contact");
+            if (i > 0) {
+                assertTrue(target.distanceCompare(
+                        closest.get(i - 1).getNodeId(), closest.get(i).getNodeId()) < 0);
+            }
+        }
+    }
+
+    private static void assertBucketsConsistent(RoutingTable table) {
+        for (KBucket bucket : table.getBuckets()) {
+            Contact[] contacts = bucket.snapshot();
+            assertTrue(contacts.length <= K, "bucket over capacity");
+
+            Set<NodeId> seen = new HashSet<>();
+            for (Contact c : contacts) {
+                assertTrue(seen.add(c.getNodeId()), "duplicate in bucket");
+                assertEquals(bucket.getDepth(), table.getBucketId(c.getNodeId()));
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.decen.networking;
+
+import com.decen.dht.Contact;
+import com.decen.dht.NodeId;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the binary codec with Java serialization.
+ * Run this as a normal Java application.
+ *
+ * Reports bytes on the wire and average encode / decode time
+ * for typical message shapes.
+ */
+public class MessageCodecBenchmark {
+
+    private static final int WARMUP = 2_000;
+    private static final int ITERATIONS = 10_000;
+
+    public static void main(String[] args) throws Exception {
+        run("FIND_NODE", findNode(), ITERATIONS);
+        run("FIND_NODE_RESPONSE (20 contacts)", findNodeResponse(), ITERATIONS);
+        run("FIND_VALUE_RESPONSE (100 chunk ids)", findValueResponse(), ITERATIONS);
+        run("CHUNK_RESPONSE (1 MB)", chunkResponse(), 200);
+    }
+
+    private static void run(String name, DHTMessage m, int iterations) throws Exception {
+        byte[] binary = MessageCodec.encode(m);
+        byte[] serialized = serialize(m);
+
+        for (int i = 0; i < WARMUP; i++) {
+            MessageCodec.decode(MessageCodec.encode(m));
+            deserialize(serialize(m));
+        }
+
+        long t0 = System.nanoTime();
+        for (int i = 0; i < iterations; i++) MessageCodec.encode(m);
+        long t1 = System.nanoTime();
+        for (int i = 0; i < iterations; i++) MessageCodec.decode(binary);
+        long t2 = System.nanoTime();
+        for (int i = 0; i < iterations; i++) serialize(m);
+        long t3 = System.nanoTime();
+        for (int i = 0; i < iterations; i++) deserialize(serialized);
+        long t4 = System.nanoTime();
+
+        System.out.println("== " + name);
+        System.out.printf("  bytes   binary=%d  serialization=%d  (%.1fx)%n",
+                binary.length, serialized.length,
+                (double) serialized.length / binary.length);
+        System.out.printf("  encode  binary=%.2f us  serialization=%.2f us%n",
+                (t1 - t0) / 1e3 / iterations, (t3 - t2) / 1e3 / iterations);
+        System.out.printf("  decode  binary=%.2f us  serialization=%.2f us%n",
+                (t2 - t1) / 1e3 / iterations, (t4 - t3) / 1e3 / iterations);
+    }
+
+    /* ================= JAVA SERIALIZATION BASELINE ================= */
+
+    private static byte[] serialize(DHTMessage m) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(m);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static DHTMessage deserialize(byte[] bytes) throws Exception {
+        try (ObjectInputStream in =
+                     new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return (DHTMessage) in.readObject();
+        }
+    }
+
+    /* ================= MESSAGES ================= */
+
+    private static DHTMessage base(MessageType type) {
+        DHTMessage m = new DHTMessage();
+        m.setType(type);
+        m.setRequestId(123456);
+        m.setSenderNodeId(new NodeId());
+        m.setSenderIp("192.168.1.20");
+        m.setSenderPort(5001);
+        return m;
+    }
+
+    private static DHTMessage findNode() {
+        DHTMessage m = base(MessageType.FIND_NODE);
+        m.setTargetNodeId(new NodeId());
+        return m;
+    }
+
+    private static DHTMessage findNodeResponse() {
+        DHTMessage m = base(MessageType.FIND_NODE_RESPONSE);
+        List<Contact> contacts = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            contacts.add(new Contact(new NodeId(), "192.168.1." + i, 5000 + i));
+        }
+        m.setPayload(contacts);
+        return m;
+    }
+
+    private static DHTMessage findValueResponse() {
+        DHTMessage m = base(MessageType.FIND_VALUE_RESPONSE);
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            ids.add(new NodeId().toString());
+        }
+        m.setChunkIds(ids);
+        return m;
+    }
+
+    private static DHTMessage chunkResponse() {
+        DHTMessage m = base(MessageType.CHUNK_RESPONSE);
+        m.setChunkId(new NodeId().toString());
+        m.setChunkData(new byte[1024 * 1024]);
+        return m;
+    }
+}
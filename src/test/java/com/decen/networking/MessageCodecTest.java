@@ -0,0 +1,250 @@
+package com.decen.networking;
+
+import com.decen.crypto.EncryptionMode;
+import com.decen.dht.Contact;
+import com.decen.dht.NodeId;
+import com.decen.storage.Chunking;
+import com.decen.storage.ErasureCoding;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Round-trip tests for the binary DHTMessage wire format.
+ */
+public class MessageCodecTest {
+
+    @Test
+    public void testEveryMessageTypeRoundTrips() throws Exception {
+        for (MessageType type : MessageType.values()) {
+            DHTMessage m = new DHTMessage();
+            m.setType(type);
+            m.setRequestId(42);
+            m.setSenderNodeId(new NodeId());
+            m.setSenderIp("127.0.0.1");
+            m.setSenderPort(5001);
+
+            DHTMessage back = MessageCodec.decode(MessageCodec.encode(m));
+
+            assertEquals(type, back.getType());
+            assertEquals(42, back.getRequestId());
+            assertEquals(m.getSenderNodeId(), back.getSenderNodeId());
+            assertEquals("127.0.0.1", back.getSenderIp());
+            assertEquals(5001, back.getSenderPort());
+        }
+    }
+
+    @Test
+    public void testAllFieldsRoundTrip() throws Exception {
+        DHTMessage m = fullMessage();
+
+        DHTMessage back = MessageCodec.decode(MessageCodec.encode(m));
+
+        assertEquals(m.getTargetNodeId(), back.getTargetNodeId());
+        assertEquals(m.getFileId(), back.getFileId());
+        assertEquals(m.getChunkIds(), back.getChunkIds());
+        assertEquals(m.getChunkId(), back.getChunkId());
+        assertArrayEquals(m.getChunkData(), back.getChunkData());
+        assertArrayEquals(m.getPublicKey(), back.getPublicKey());
+        assertArrayEquals(m.getEncryptedAesKey(), back.getEncryptedAesKey());
+        assertEquals(Chunking.FASTCDC, back.getChunking());
+        assertEquals(EncryptionMode.CONVERGENT, back.getEncryption());
+        assertEquals(86_400, back.getTtlSeconds());
+        assertEquals(new ErasureCoding(4, 2), back.getErasure());
+        assertEquals(m.getParityIds(), back.getParityIds());
+        assertArrayEquals(m.getChunkKeys(), back.getChunkKeys());
+
+        Contact c = (Contact) back.getPayload().get(0);
+        Contact original = (Contact) m.getPayload().get(0);
+        assertEquals(original, c);
+        assertEquals(original.getIp(), c.getIp());
+        assertEquals(original.getPort(), c.getPort());
+    }
+
+    @Test
+    public void testFramesMatchAcrossStreamAndBufferPaths() throws Exception {
+        DHTMessage m = fullMessage();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        MessageCodec.writeFrame(new DataOutputStream(bytes), m);
+
+        ByteBuffer frame = MessageCodec.encodeFrame(m);
+        byte[] fromBuffer = new byte[frame.remaining()];
+        frame.get(fromBuffer);
+
+        assertArrayEquals(bytes.toByteArray(), fromBuffer);
+
+        DHTMessage back = MessageCodec.readFrame(
+                new DataInputStream(new ByteArrayInputStream(fromBuffer)));
+        assertArrayEquals(m.getChunkData(), back.getChunkData());
+    }
+
+    @Test
+    public void testBufferDecodeLeavesChunkInPlace() throws Exception {
+        DHTMessage m = fullMessage();
+        byte[] payload = MessageCodec.encode(m);
+        ByteBuffer direct = ByteBuffer.allocateDirect(payload.length);
+        direct.put(payload).flip();
+
+        DHTMessage back = MessageCodec.decode(direct);
+        assertEquals(0, direct.position(), "the caller's buffer is not consumed");
+        assertEquals(m.getChunkId(), back.getChunkId());
+        assertEquals(m.getParityIds(), back.getParityIds());
+
+        ByteBuffer chunk = back.getChunkBuffer();
+        assertTrue(chunk.isDirect());
+        assertEquals(m.getChunkLength(), back.getChunkLength());
+        assertArrayEquals(m.getChunkData(), back.getChunkData());
+
+        // Re-encoding from the buffer gives the same bytes
+        assertArrayEquals(payload, MessageCodec.encode(back));
+
+        direct.limit(payload.length - 1);
+        assertThrows(IOException.class, () -> MessageCodec.decode(direct));
+    }
+
+    @Test
+    public void testUnknownVersionIsRejected() throws Exception {
+        DHTMessage m = new DHTMessage();
+        m.setType(MessageType.FIND_NODE);
+
+        byte[] payload = MessageCodec.encode(m);
+        payload[0] = (byte) (DHTMessage.WIRE_VERSION + 1);
+
+        assertThrows(IOException.class, () -> MessageCodec.decode(payload));
+    }
+
+    @Test
+    public void testMessagesAreSentWithTheOldestVersionThatFits() throws Exception {
+        DHTMessage plain = new DHTMessage();
+        plain.setType(MessageType.GET_CHUNK);
+        plain.setChunkId(fullMessage().getChunkId());
+        assertEquals(1, MessageCodec.encode(plain)[0]);
+
+        byte[] payload = MessageCodec.encode(fullMessage());
+        assertEquals(DHTMessage.WIRE_VERSION, payload[0]);
+
+        // A version 1 reader does not know the TTL and chunking fields
+        payload[0] = 1;
+        assertThrows(IOException.class, () -> MessageCodec.decode(payload));
+    }
+
+    @Test
+    public void testTypesAreWrittenAsTheirWireCode() throws Exception {
+        Set<Integer> codes = new HashSet<>();
+        for (MessageType type : MessageType.values()) {
+            assertTrue(codes.add(type.getCode()), "duplicate code " + type.getCode());
+
+            DHTMessage m = new DHTMessage();
+            m.setType(type);
+            assertEquals(type.getCode(), MessageCodec.encode(m)[1]);
+        }
+
+        byte[] payload = MessageCodec.encode(fullMessage());
+        payload[1] = (byte) 99;
+        assertThrows(IOException.class, () -> MessageCodec.decode(payload));
+    }
+
+    @Test
+    public void testTruncatedPayloadIsRejected() throws Exception {
+        byte[] payload = MessageCodec.encode(fullMessage());
+        byte[] truncated = Arrays.copyOf(payload, payload.length / 2);
+
+        assertThrows(IOException.class, () -> MessageCodec.decode(truncated));
+    }
+
+    @Test
+    public void testLengthsPastTheFrameAreRejected() throws Exception {
+        // Each length fits MAX_FRAME_BYTES but not the few bytes sent
+        int length = MessageCodec.MAX_FRAME_BYTES - 1;
+        byte[][] payloads = {
+                header(1 << 8, length),             // public key
+                header(1 << 4, length + 1),         // file id, string form
+                header(1 << 10, length),            // chunk data
+        };
+        for (byte[] payload : payloads) {
+            // Refused up front, not after allocating and failing to fill
+            IOException e = assertThrows(IOException.class, () -> MessageCodec.decode(payload));
+            assertTrue(e.getMessage().contains("left in the frame"), e.getMessage());
+            assertThrows(IOException.class, () -> MessageCodec.decode(ByteBuffer.wrap(payload)));
+        }
+    }
+
+    @Test
+    public void testFindNodeResponseIsSmallerThanJavaSerialization() throws Exception {
+        DHTMessage m = new DHTMessage();
+        m.setType(MessageType.FIND_NODE_RESPONSE);
+        m.setSenderNodeId(new NodeId());
+        List<Contact> contacts = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            contacts.add(new Contact(new NodeId(), "10.0.0." + i, 5000 + i));
+        }
+        m.setPayload(contacts);
+
+        ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(serialized)) {
+            out.writeObject(m);
+        }
+
+        int binary = MessageCodec.encode(m).length;
+        assertTrue(binary * 2 < serialized.size(),
+                "binary=" + binary + " serialized=" + serialized.size());
+    }
+
+    /* ================= HELPERS ================= */
+
+    /* A FIND_NODE header with one field whose length prefix is a lie */
+    private static byte[] header(int mask, int length) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(1);
+        out.writeByte(MessageType.FIND_NODE.getCode());
+        WireFormat.writeVarLong(out, 0);
+        WireFormat.writeVarInt(out, mask);
+        WireFormat.writeVarInt(out, length);
+        out.write(new byte[16]);
+        return bytes.toByteArray();
+    }
+
+    private static DHTMessage fullMessage() {
+        Random random = new Random(7);
+        byte[] data = new byte[4096];
+        random.nextBytes(data);
+
+        DHTMessage m = new DHTMessage();
+        m.setType(MessageType.CHUNK_RESPONSE);
+        m.setRequestId(Long.MAX_VALUE);
+        m.setSenderNodeId(new NodeId());
+        m.setSenderIp("localhost");
+        m.setSenderPort(65535);
+        m.setTargetNodeId(new NodeId());
+        m.setFileId(new NodeId().toString());
+        m.setChunkIds(Arrays.asList(new NodeId().toString(), "not-a-hash", "ÄÖÜ"));
+        m.setChunkId(new NodeId().toString());
+        m.setPayload(Arrays.asList(new Contact(new NodeId(), "10.1.2.3", 7000)));
+        m.setPublicKey(new byte[] {1, 2, 3});
+        m.setEncryptedAesKey(new byte[32]);
+        m.setChunking(Chunking.FASTCDC);
+        m.setEncryption(EncryptionMode.CONVERGENT);
+        m.setTtlSeconds(86_400);
+        m.setErasure(new ErasureCoding(4, 2), List.of(new NodeId().toString(), new NodeId().toString()));
+        m.setChunkKeys(new byte[] {9, 8, 7});
+        m.setChunkData(data);
+        return m;
+    }
+}
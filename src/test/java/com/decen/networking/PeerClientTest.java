@@ -0,0 +1,223 @@
+package com.decen.networking;
+
+import com.decen.crypto.ECCKeyExchangeUtil;
+import com.decen.dht.Contact;
+import com.decen.dht.DHTNode;
+import com.decen.dht.NodeId;
+import com.decen.dht.RoutingTable;
+import com.decen.storage.FileChunkStore;
+import com.decen.storage.FileMetadataStore;
+import com.decen.storage.MetadataStore;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.ServerSocket;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for PeerClient connection pooling and request correlation.
+ */
+public class PeerClientTest {
+
+    @TempDir
+    Path dataDir;
+
+    private final List<PeerServer> servers = new ArrayList<>();
+
+    @AfterEach
+    void stopServers() {
+        servers.forEach(PeerServer::shutdown);
+    }
+
+    @Test
+    public void testConcurrentRequestsShareOneConnection() throws Exception {
+        Contact server = startServer("a");
+        PeerClient client = new PeerClient(new NodeId(), "127.0.0.1", 0);
+
+        ExecutorService pool = Executors.newFixedThreadPool(16);
+        try {
+            List<NodeId> targets = new ArrayList<>();
+            List<Future<DHTMessage>> results = new ArrayList<>();
+
+            for (int i = 0; i < 200; i++) {
+                NodeId target = new NodeId();
+                targets.add(target);
+                results.add(pool.submit(() -> client.send(server, findNode(target))));
+            }
+
+            for (Future<DHTMessage> f : results) {
+                DHTMessage r = f.get(10, TimeUnit.SECONDS);
+                assertEquals(MessageType.FIND_NODE_RESPONSE, r.getType());
+            }
+            assertEquals(1, client.connectionCount());
+        } finally {
+            pool.shutdownNow();
+            client.close();
+        }
+    }
+
+    @Test
+    public void testIdleConnectionsAreEvicted() throws Exception {
+        Contact server = startServer("b");
+        PeerClient client = new PeerClient(new NodeId(), "127.0.0.1", 0, 8, 200);
+
+        try {
+            client.send(server, findNode(new NodeId()));
+            assertEquals(1, client.connectionCount());
+
+            Thread.sleep(700);
+            assertEquals(0, client.connectionCount());
+
+            // A new request transparently reconnects
+            DHTMessage r = client.send(server, findNode(new NodeId()));
+            assertEquals(MessageType.FIND_NODE_RESPONSE, r.getType());
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testMaxConnectionsIsEnforced() throws Exception {
+        Contact a = startServer("c");
+        Contact b = startServer("d");
+        Contact c = startServer("e");
+        PeerClient client = new PeerClient(new NodeId(), "127.0.0.1", 0, 2, 60_000);
+
+        try {
+            client.send(a, findNode(new NodeId()));
+            client.send(b, findNode(new NodeId()));
+            client.send(c, findNode(new NodeId()));
+
+            assertEquals(2, client.connectionCount());
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testSilentPeerTimesOutQuickly() throws Exception {
+        try (ServerSocket silent = new ServerSocket(0)) {
+            Contact peer = new Contact(new NodeId(), "127.0.0.1", silent.getLocalPort());
+            PeerClient client = new PeerClient(new NodeId(), "127.0.0.1", 0);
+
+            try {
+                long start = System.nanoTime();
+                CompletableFuture<DHTMessage> f =
+                        client.sendAsync(peer, findNode(new NodeId()), Duration.ofMillis(300));
+
+                ExecutionException e = assertThrows(ExecutionException.class,
+                        () -> f.get(5, TimeUnit.SECONDS));
+                assertTrue(e.getCause() instanceof TimeoutException);
+                assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+                assertEquals(0, client.inFlightCount());
+            } finally {
+                client.close();
+            }
+        }
+    }
+
+    @Test
+    public void testCancelledRequestIsForgotten() throws Exception {
+        try (ServerSocket silent = new ServerSocket(0)) {
+            Contact peer = new Contact(new NodeId(), "127.0.0.1", silent.getLocalPort());
+            PeerClient client = new PeerClient(new NodeId(), "127.0.0.1", 0);
+
+            try {
+                CompletableFuture<DHTMessage> f =
+                        client.sendAsync(peer, findNode(new NodeId()), Duration.ofSeconds(30));
+
+                // Wait until the request is actually on the wire
+                for (int i = 0; i < 100 && client.inFlightCount() == 0; i++) {
+                    Thread.sleep(20);
+                }
+                assertEquals(1, client.inFlightCount());
+
+                f.cancel(true);
+                assertEquals(0, client.inFlightCount());
+            } finally {
+                client.close();
+            }
+        }
+    }
+
+    @Test
+    public void testSendAsyncDoesNotBlockOnAStalledPeer() throws Exception {
+        try (ServerSocket stalled = new ServerSocket(0)) {
+            Contact peer = new Contact(new NodeId(), "127.0.0.1", stalled.getLocalPort());
+            PeerClient client = new PeerClient(new NodeId(), "127.0.0.1", 0);
+
+            try {
+                // Far more than the socket buffers hold; the peer never reads
+                List<CompletableFuture<DHTMessage>> futures = new ArrayList<>();
+                long start = System.nanoTime();
+                for (int i = 0; i < 8; i++) {
+                    DHTMessage store = new DHTMessage();
+                    store.setType(MessageType.STORE_CHUNK);
+                    store.setChunkId(Integer.toString(i));
+                    store.setChunkData(new byte[4 * 1024 * 1024]);
+                    futures.add(client.sendAsync(peer, store, Duration.ofMillis(500)));
+                }
+                assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(400),
+                        "sendAsync waited for the socket");
+
+                for (CompletableFuture<DHTMessage> f : futures) {
+                    ExecutionException e = assertThrows(ExecutionException.class,
+                            () -> f.get(5, TimeUnit.SECONDS));
+                    assertTrue(e.getCause() instanceof TimeoutException);
+                }
+            } finally {
+                client.close();
+            }
+        }
+    }
+
+    /* ================= HELPERS ================= */
+
+    private Contact startServer(String name) throws Exception {
+        Path dir = dataDir.resolve(name);
+        NodeId serverId = new NodeId();
+        MetadataStore metadataStore = new FileMetadataStore(dir);
+        DHTNode dhtNode = new DHTNode(serverId, new RoutingTable(serverId, 20), metadataStore);
+
+        MessageHandler handler = new MessageHandler(
+                dhtNode,
+                new FileChunkStore(dir),
+                metadataStore,
+                ECCKeyExchangeUtil.generateKeyPair(),
+                20
+        );
+
+        int port;
+        try (ServerSocket s = new ServerSocket(0)) {
+            port = s.getLocalPort();
+        }
+
+        PeerServer server = new PeerServer(port, serverId, handler);
+        servers.add(server);
+        new Thread(server).start();
+        Thread.sleep(200);
+
+        return new Contact(serverId, "127.0.0.1", port);
+    }
+
+    private static DHTMessage findNode(NodeId target) {
+        DHTMessage m = new DHTMessage();
+        m.setType(MessageType.FIND_NODE);
+        m.setTargetNodeId(target);
+        return m;
+    }
+}
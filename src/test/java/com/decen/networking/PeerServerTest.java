@@ -0,0 +1,281 @@
+package com.decen.networking;
+
+import com.decen.crypto.AESUtil;
+import com.decen.crypto.ECCKeyExchangeUtil;
+import com.decen.crypto.HashUtil;
+import com.decen.dht.Contact;
+import com.decen.dht.DHTNode;
+import com.decen.dht.NodeId;
+import com.decen.dht.RoutingTable;
+import com.decen.storage.BufferPool;
+import com.decen.storage.CachingChunkStore;
+import com.decen.storage.Chunking;
+import com.decen.storage.FileChunkStore;
+import com.decen.storage.FileChunker;
+import com.decen.storage.FileMetadataStore;
+import com.decen.storage.MetadataStore;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the selector-based PeerServer.
+ */
+public class PeerServerTest {
+
+    @TempDir
+    Path dataDir;
+
+    private NodeId serverId;
+    private FileChunkStore chunkStore;
+    private int port;
+    private PeerServer server;
+    private PeerClient client;
+
+    @BeforeEach
+    void startServer() throws Exception {
+        serverId = new NodeId();
+        RoutingTable routingTable = new RoutingTable(serverId, 20);
+        MetadataStore metadataStore = new FileMetadataStore(dataDir);
+        DHTNode dhtNode = new DHTNode(serverId, routingTable, metadataStore);
+
+        chunkStore = new FileChunkStore(dataDir);
+        MessageHandler handler = new MessageHandler(
+                dhtNode,
+                new CachingChunkStore(chunkStore, 64L * 1024 * 1024, true),
+                metadataStore,
+                ECCKeyExchangeUtil.generateKeyPair(),
+                20
+        );
+
+        port = freePort();
+        server = new PeerServer(port, serverId, handler);
+        new Thread(server).start();
+        Thread.sleep(200);
+
+        client = new PeerClient(new NodeId(), "127.0.0.1", 0);
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.shutdown();
+    }
+
+    @Test
+    public void testFindNodeRoundTrip() throws Exception {
+        DHTMessage response = client.send(contact(), findNode());
+
+        assertEquals(MessageType.FIND_NODE_RESPONSE, response.getType());
+        assertEquals(serverId, response.getSenderNodeId());
+    }
+
+    @Test
+    public void testFindNodeWithoutTargetIsAnError() throws Exception {
+        DHTMessage noTarget = new DHTMessage();
+        noTarget.setType(MessageType.FIND_NODE);
+
+        assertEquals(MessageType.ERROR, client.send(contact(), noTarget).getType());
+        assertEquals(MessageType.FIND_NODE_RESPONSE,
+                client.send(contact(), findNode()).getType());
+    }
+
+    @Test
+    public void testStalledPeerDoesNotBlockOthers() throws Exception {
+        try (Socket stalled = new Socket("127.0.0.1", port)) {
+            // Announce a large frame, then send only a few bytes of it
+            OutputStream out = stalled.getOutputStream();
+            out.write(new byte[] {0, 0x10, 0, 0, 1, 2, 3});
+            out.flush();
+
+            ExecutorService pool = Executors.newFixedThreadPool(8);
+            try {
+                List<Future<DHTMessage>> results = new ArrayList<>();
+                for (int i = 0; i < 32; i++) {
+                    results.add(pool.submit(() -> client.send(contact(), findNode())));
+                }
+                for (Future<DHTMessage> f : results) {
+                    DHTMessage r = f.get(5, TimeUnit.SECONDS);
+                    assertEquals(MessageType.FIND_NODE_RESPONSE, r.getType());
+                }
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+    }
+
+    @Test
+    public void testStoredChunksArriveThroughPooledFrames() throws Exception {
+        BufferPool pool = BufferPool.shared();
+        long overflows = pool.getOverflows();
+
+        for (int i = 0; i < 4; i++) {
+            byte[] data = new byte[FileChunker.CHUNK_SIZE + AESUtil.OVERHEAD];
+            new Random(i).nextBytes(data);
+            String id = HashUtil.sha256Hex(data);
+
+            DHTMessage store = new DHTMessage();
+            store.setType(MessageType.STORE_CHUNK);
+            store.setChunkId(id);
+            store.setChunkData(data);
+
+            assertEquals(MessageType.STORE_CHUNK, client.send(contact(), store).getType());
+            assertArrayEquals(data, chunkStore.getChunk(id));
+        }
+        assertEquals(overflows, pool.getOverflows(), "full chunk frames fit in a slab");
+    }
+
+    @Test
+    public void testStoredChunksAreCheckedAgainstTheirId() throws Exception {
+        byte[] data = new byte[5000];
+        new Random(19).nextBytes(data);
+        String id = HashUtil.sha256Hex(data);
+
+        DHTMessage forged = new DHTMessage();
+        forged.setType(MessageType.STORE_CHUNK);
+        forged.setChunkId(id);
+        forged.setChunkData(new byte[5000]);
+        assertEquals(MessageType.ERROR, client.send(contact(), forged).getType());
+        assertFalse(chunkStore.hasChunk(id));
+
+        // A copy that rotted on disk earns no duplicate ack; it is replaced
+        chunkStore.putChunk(id, data);
+        Path file = dataDir.resolve("chunks").resolve(id.substring(0, 2))
+                .resolve(id.substring(2, 4)).resolve(id);
+        Files.write(file, new byte[] { 1, 2, 3 });
+
+        assertEquals(MessageType.ERROR, client.send(contact(), forged).getType());
+
+        DHTMessage store = new DHTMessage();
+        store.setType(MessageType.STORE_CHUNK);
+        store.setChunkId(id);
+        store.setChunkData(data);
+        assertEquals(MessageType.STORE_CHUNK, client.send(contact(), store).getType());
+        assertArrayEquals(data, chunkStore.getChunk(id));
+    }
+
+    @Test
+    public void testFramesPastTheLargestChunkStillArrive() throws Exception {
+        // Read into a buffer that grows as the bytes come in
+        byte[] data = new byte[9 * 1024 * 1024 + 5];
+        new Random(1).nextBytes(data);
+        String id = HashUtil.sha256Hex(data);
+
+        DHTMessage store = new DHTMessage();
+        store.setType(MessageType.STORE_CHUNK);
+        store.setChunkId(id);
+        store.setChunkData(data);
+
+        assertEquals(MessageType.STORE_CHUNK, client.send(contact(), store).getType());
+        assertArrayEquals(data, chunkStore.getChunk(id));
+        assertEquals(MessageType.FIND_NODE_RESPONSE,
+                client.send(contact(), findNode()).getType());
+    }
+
+    @Test
+    public void testGetChunkIsServedFromFile() throws Exception {
+        byte[] data = new byte[1024 * 1024 + 17];
+        new Random(9).nextBytes(data);
+        String id = HashUtil.sha256Hex(data);
+        chunkStore.putChunk(id, data);
+
+        DHTMessage get = new DHTMessage();
+        get.setType(MessageType.GET_CHUNK);
+        get.setChunkId(id);
+
+        // From the file, then read into the off-heap cache, then a cache hit
+        for (int i = 0; i < 3; i++) {
+            DHTMessage r = client.send(contact(), get);
+            assertEquals(MessageType.CHUNK_RESPONSE, r.getType());
+            assertArrayEquals(data, r.getChunkData());
+        }
+
+        // The connection stays usable after a region-backed frame
+        assertEquals(MessageType.FIND_NODE_RESPONSE,
+                client.send(contact(), findNode()).getType());
+    }
+
+    @Test
+    public void testMissingChunkHasNoData() throws Exception {
+        DHTMessage get = new DHTMessage();
+        get.setType(MessageType.GET_CHUNK);
+        get.setChunkId(HashUtil.sha256Hex(new byte[] { 1 }));
+
+        DHTMessage r = client.send(contact(), get);
+        assertEquals(MessageType.CHUNK_RESPONSE, r.getType());
+        assertNull(r.getChunkData());
+    }
+
+    @Test
+    public void testStoredValueIsServedByFindValue() throws Exception {
+        String fileId = HashUtil.sha256Hex("report.pdf".getBytes());
+        List<String> chunkIds = List.of(
+                HashUtil.sha256Hex(new byte[] { 1 }),
+                HashUtil.sha256Hex(new byte[] { 2 }));
+
+        DHTMessage store = new DHTMessage();
+        store.setType(MessageType.STORE);
+        store.setFileId(fileId);
+        store.setChunkIds(chunkIds);
+        store.setChunking(Chunking.FASTCDC);
+        store.setTtlSeconds(3600);
+        assertEquals(MessageType.STORE, client.send(contact(), store).getType());
+
+        DHTMessage find = new DHTMessage();
+        find.setType(MessageType.FIND_VALUE);
+        find.setFileId(fileId);
+
+        DHTMessage r = client.send(contact(), find);
+        assertEquals(MessageType.FIND_VALUE_RESPONSE, r.getType());
+        assertEquals(chunkIds, r.getChunkIds());
+        assertEquals(Chunking.FASTCDC, r.getChunking());
+    }
+
+    @Test
+    public void testBadPayloadGetsErrorResponse() throws Exception {
+        try (Socket socket = new Socket("127.0.0.1", port)) {
+            OutputStream out = socket.getOutputStream();
+            out.write(new byte[] {0, 0, 0, 3, 9, 9, 9});
+            out.flush();
+
+            DHTMessage r = MessageCodec.readFrame(
+                    new java.io.DataInputStream(socket.getInputStream()));
+            assertEquals(MessageType.ERROR, r.getType());
+        }
+    }
+
+    /* ================= HELPERS ================= */
+
+    private Contact contact() {
+        return new Contact(serverId, "127.0.0.1", port);
+    }
+
+    private static DHTMessage findNode() {
+        DHTMessage m = new DHTMessage();
+        m.setType(MessageType.FIND_NODE);
+        m.setTargetNodeId(new NodeId());
+        return m;
+    }
+
+    private static int freePort() throws Exception {
+        try (ServerSocket s = new ServerSocket(0)) {
+            return s.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.decen.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the direct buffer pool and the pooled chunk read and
+ * write paths.
+ */
+public class BufferPoolTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testReleasedSlabsAreReused() {
+        BufferPool pool = new BufferPool(1024, 4);
+
+        PooledBuffer a = pool.acquire();
+        assertTrue(a.isPooled());
+        assertTrue(a.buffer().isDirect());
+        ByteBuffer slab = a.buffer();
+        slab.putInt(7);
+
+        // Two holders: the slab goes back only after both let go
+        a.retain();
+        a.release();
+        assertEquals(1, pool.getOutstanding());
+        a.release();
+        assertEquals(0, pool.getOutstanding());
+        assertThrows(IllegalStateException.class, a::release);
+        assertThrows(IllegalStateException.class, a::buffer);
+
+        PooledBuffer b = pool.acquire();
+        assertSame(slab, b.buffer());
+        assertEquals(0, b.buffer().position(), "reused slabs come back cleared");
+        assertEquals(1024, b.buffer().limit());
+        b.release();
+
+        assertEquals(1, pool.getAllocated());
+        assertEquals(1, pool.getReused());
+    }
+
+    @Test
+    public void testExhaustedOrOversizedRequestsFallBackToTheHeap() {
+        BufferPool pool = new BufferPool(1024, 2);
+
+        PooledBuffer a = pool.acquire();
+        PooledBuffer b = pool.acquire();
+        PooledBuffer c = pool.acquire();
+        assertFalse(c.isPooled());
+        assertFalse(c.buffer().isDirect());
+
+        PooledBuffer big = pool.acquire(4096);
+        assertFalse(big.isPooled());
+        assertEquals(4096, big.buffer().capacity());
+        assertEquals(2, pool.getOverflows());
+
+        for (PooledBuffer p : List.of(a, b, c, big)) p.release();
+        assertEquals(0, pool.getOutstanding());
+        assertEquals(2, pool.getAllocated());
+    }
+
+    @Test
+    public void testPooledFileSourceReadsTheSameChunks() throws Exception {
+        byte[] data = new byte[FileChunker.CHUNK_SIZE * 2 + 999];
+        new Random(25).nextBytes(data);
+        Path in = dir.resolve("in.bin");
+        Files.write(in, data);
+
+        BufferPool pool = new BufferPool(BufferPool.SLAB_SIZE, 2);
+        try (ChunkSource plain = FileChunker.open(in);
+             ChunkSource pooled = FileChunker.open(in)) {
+            byte[] expected;
+            while ((expected = plain.nextChunk()) != null) {
+                PooledBuffer chunk = pooled.nextChunk(pool);
+                assertTrue(chunk.isPooled());
+                assertArrayEquals(expected, chunk.toArray());
+                chunk.release();
+            }
+            assertNull(pooled.nextChunk(pool));
+        }
+        assertEquals(0, pool.getOutstanding());
+        assertEquals(1, pool.getAllocated());
+    }
+
+    @Test
+    public void testStoresWriteDirectBuffers() throws Exception {
+        byte[] data = new byte[5000];
+        new Random(26).nextBytes(data);
+        String id = ChunkStore.sha256Hex(data);
+
+        try (ChunkStore files = new FileChunkStore(dir.resolve("files"));
+             ChunkStore segments = new SegmentChunkStore(dir.resolve("segments"))) {
+            for (ChunkStore store : List.of(files, segments)) {
+                ByteBuffer direct = ByteBuffer.allocateDirect(data.length + 10);
+                direct.position(10);
+                direct.put(data).flip().position(10);
+
+                store.putChunk(id, direct);
+                assertArrayEquals(data, store.getChunk(id));
+            }
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package com.decen.storage;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the segmented-LRU chunk cache.
+ */
+public class CachingChunkStoreTest {
+
+    private static final int CHUNK = 1000;
+
+    @TempDir
+    Path dir;
+
+    private CountingStore disk;
+    private final List<String> ids = new ArrayList<>();
+    private final List<byte[]> data = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        disk = new CountingStore(new FileChunkStore(dir));
+        Random random = new Random(24);
+        for (int i = 0; i < 20; i++) {
+            byte[] chunk = new byte[CHUNK];
+            random.nextBytes(chunk);
+            String id = ChunkStore.sha256Hex(chunk);
+            disk.putChunk(id, chunk);
+            ids.add(id);
+            data.add(chunk);
+        }
+    }
+
+    @Test
+    public void testRepeatedReadsAreServedFromMemory() throws Exception {
+        CachingChunkStore cache = new CachingChunkStore(disk, 10 * CHUNK, false);
+
+        for (int round = 0; round < 3; round++) {
+            assertArrayEquals(data.get(0), cache.getChunk(ids.get(0)));
+        }
+        assertEquals(1, disk.reads.get());
+        assertEquals(1, cache.getMisses());
+        assertEquals(2, cache.getHits());
+        assertNull(cache.getChunk(new String(new char[64]).replace('\0', 'a')));
+    }
+
+    @Test
+    public void testSizeBoundEvictsAndCounts() throws Exception {
+        CachingChunkStore cache = new CachingChunkStore(disk, 5 * CHUNK, false);
+
+        for (String id : ids) cache.getChunk(id);
+
+        assertTrue(cache.getCachedBytes() <= 5 * CHUNK);
+        assertEquals(ids.size() - 5, cache.getEvictions());
+        // The oldest chunk is gone, the newest is still there
+        cache.getChunk(ids.get(ids.size() - 1));
+        assertEquals(1, cache.getHits());
+        cache.getChunk(ids.get(0));
+        assertEquals(ids.size() + 1, disk.reads.get());
+    }
+
+    @Test
+    public void testScanDoesNotFlushHotChunks() throws Exception {
+        CachingChunkStore cache = new CachingChunkStore(disk, 10 * CHUNK, false);
+
+        // Chunks 0-3 are read twice: protected
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < 4; i++) cache.getChunk(ids.get(i));
+        }
+        // One pass over everything else
+        for (int i = 4; i < ids.size(); i++) cache.getChunk(ids.get(i));
+
+        int before = disk.reads.get();
+        for (int i = 0; i < 4; i++) {
+            assertArrayEquals(data.get(i), cache.getChunk(ids.get(i)));
+        }
+        assertEquals(before, disk.reads.get());
+    }
+
+    @Test
+    public void testConcurrentMissesShareOneRead() throws Exception {
+        CachingChunkStore cache = new CachingChunkStore(disk, 10 * CHUNK, false);
+        disk.gate = new CountDownLatch(1);
+
+        int threads = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<byte[]>> results = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                results.add(pool.submit(() -> cache.getChunk(ids.get(0))));
+            }
+            // Let every thread reach the cache before the read finishes
+            Thread.sleep(100);
+            disk.gate.countDown();
+
+            for (Future<byte[]> f : results) {
+                assertArrayEquals(data.get(0), f.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(1, disk.reads.get());
+        assertEquals(1, cache.getLoads());
+    }
+
+    @Test
+    public void testOffHeapEntriesAndDeletion() throws Exception {
+        CachingChunkStore cache = new CachingChunkStore(disk, 10 * CHUNK, true);
+
+        assertArrayEquals(data.get(1), cache.getChunk(ids.get(1)));
+        assertArrayEquals(data.get(1), cache.getChunk(ids.get(1)));
+        assertEquals(1, cache.getHits());
+
+        assertTrue(cache.deleteChunk(ids.get(1)));
+        assertFalse(cache.hasChunk(ids.get(1)));
+        assertNull(cache.getChunk(ids.get(1)));
+        assertEquals(0, cache.getCachedBytes());
+    }
+
+    @Test
+    public void testChunkServedTwiceBecomesHot() throws Exception {
+        CachingChunkStore cache = new CachingChunkStore(disk, 10 * CHUNK, false);
+        String id = ids.get(2);
+
+        // First GET_CHUNK goes out zero-copy, the second reads it in
+        assertNull(cache.getCachedChunk(id));
+        assertEquals(0, disk.reads.get());
+        assertArrayEquals(data.get(2), bytes(cache.getCachedChunk(id)));
+        assertArrayEquals(data.get(2), bytes(cache.getCachedChunk(id)));
+        assertEquals(1, disk.reads.get());
+
+        // Plain stores have no cache
+        assertNull(disk.getCachedChunk(id));
+    }
+
+    @Test
+    public void testOffHeapHitsAreReadOnlyViewsNotCopies() throws Exception {
+        CachingChunkStore cache = new CachingChunkStore(disk, 10 * CHUNK, true);
+        String id = ids.get(3);
+        cache.getChunk(id);
+
+        ByteBuffer first = cache.getCachedChunk(id);
+        ByteBuffer second = cache.getCachedChunk(id);
+        assertTrue(first.isDirect());
+        assertTrue(first.isReadOnly());
+        assertThrows(ReadOnlyBufferException.class, () -> first.put(0, (byte) 1));
+
+        // Each view has its own position
+        first.get(new byte[10]);
+        assertEquals(CHUNK, second.remaining());
+        assertArrayEquals(data.get(3), bytes(second));
+    }
+
+    /* ================= HELPERS ================= */
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] out = new byte[buffer.remaining()];
+        buffer.duplicate().get(out);
+        return out;
+    }
+
+    /** Counts reads and can hold them until released */
+    private static final class CountingStore implements ChunkStore {
+        final ChunkStore inner;
+        final AtomicInteger reads = new AtomicInteger();
+        volatile CountDownLatch gate;
+
+        CountingStore(ChunkStore inner) {
+            this.inner = inner;
+        }
+
+        @Override
+        public void putChunk(String chunkId, byte[] data) throws IOException {
+            inner.putChunk(chunkId, data);
+        }
+
+        @Override
+        public byte[] getChunk(String chunkId) throws IOException {
+            reads.incrementAndGet();
+            CountDownLatch g = gate;
+            if (g != null) {
+                try {
+                    g.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            return inner.getChunk(chunkId);
+        }
+
+        @Override
+        public ChunkRegion openChunk(String chunkId) throws IOException {
+            return inner.openChunk(chunkId);
+        }
+
+        @Override
+        public boolean hasChunk(String chunkId) {
+            return inner.hasChunk(chunkId);
+        }
+
+        @Override
+        public boolean deleteChunk(String chunkId) throws IOException {
+            return inner.deleteChunk(chunkId);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.decen.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for content-defined chunking: size bounds, stability of
+ * boundaries, and how much an edit changes.
+ */
+public class FastCDCTest {
+
+    /* Scaled down 64x from the defaults to keep tests quick */
+    private static final int MIN = 4 * 1024;
+    private static final int AVG = 16 * 1024;
+    private static final int MAX = 64 * 1024;
+
+    private final FastCDC cdc = new FastCDC(MIN, AVG, MAX);
+
+    private static byte[] data(int n, long seed) {
+        byte[] b = new byte[n];
+        new Random(seed).nextBytes(b);
+        return b;
+    }
+
+    private List<byte[]> chunks(byte[] data) throws Exception {
+        // Tiny reads make the source refill its window many times
+        InputStream trickle = new ByteArrayInputStream(data) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 1000));
+            }
+        };
+        List<byte[]> out = new ArrayList<>();
+        try (ChunkSource source = cdc.source(trickle)) {
+            byte[] c;
+            while ((c = source.nextChunk()) != null) out.add(c);
+        }
+        return out;
+    }
+
+    @Test
+    public void testChunksRespectBoundsAndReassemble() throws Exception {
+        byte[] data = data(4 * 1024 * 1024, 18);
+        List<byte[]> chunks = chunks(data);
+
+        ByteArrayOutputStream joined = new ByteArrayOutputStream();
+        for (int i = 0; i < chunks.size(); i++) {
+            int len = chunks.get(i).length;
+            assertTrue(len <= MAX, "chunk " + i + " too big: " + len);
+            if (i < chunks.size() - 1) {
+                assertTrue(len >= MIN, "chunk " + i + " too small: " + len);
+            }
+            joined.write(chunks.get(i));
+        }
+        assertArrayEquals(data, joined.toByteArray());
+
+        double avg = (double) data.length / chunks.size();
+        assertTrue(avg > AVG / 2.0 && avg < AVG * 2.0, "average " + avg);
+    }
+
+    @Test
+    public void testInsertNearStartOnlyChangesNearbyChunks() throws Exception {
+        byte[] original = data(4 * 1024 * 1024, 19);
+
+        // One byte inserted 1 KB in
+        byte[] edited = ByteBuffer.allocate(original.length + 1)
+                .put(original, 0, 1024)
+                .put((byte) 42)
+                .put(original, 1024, original.length - 1024)
+                .array();
+
+        Set<ByteBuffer> before = new HashSet<>();
+        for (byte[] c : chunks(original)) before.add(ByteBuffer.wrap(c));
+
+        List<byte[]> after = chunks(edited);
+        int changed = 0;
+        for (byte[] c : after) {
+            if (!before.contains(ByteBuffer.wrap(c))) changed++;
+        }
+
+        // Fixed-size chunking would change every chunk
+        assertTrue(changed <= 2, changed + " of " + after.size() + " chunks changed");
+    }
+
+    @Test
+    public void testBoundariesAreDeterministic() throws Exception {
+        byte[] data = data(1024 * 1024, 20);
+
+        int offset = 0;
+        List<Integer> cuts = new ArrayList<>();
+        while (offset < data.length) {
+            int len = cdc.cut(data, offset, data.length - offset);
+            offset += len;
+            cuts.add(offset);
+        }
+
+        List<Integer> streamed = new ArrayList<>();
+        int total = 0;
+        for (byte[] c : chunks(data)) {
+            total += c.length;
+            streamed.add(total);
+        }
+        assertEquals(cuts, streamed);
+    }
+
+    @Test
+    public void testShortInputIsOneChunk() throws Exception {
+        assertEquals(0, chunks(new byte[0]).size());
+        assertEquals(1, chunks(data(MIN - 1, 21)).size());
+    }
+}
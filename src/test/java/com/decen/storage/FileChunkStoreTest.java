@@ -0,0 +1,154 @@
+package com.decen.storage;
+
+import com.decen.crypto.HashUtil;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the sharded, content-addressed FileChunkStore.
+ */
+public class FileChunkStoreTest {
+
+    @TempDir
+    Path dir;
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testPutAndGetUsesShardedPath() throws Exception {
+        FileChunkStore store = new FileChunkStore(dir);
+        byte[] data = bytes("hello chunk");
+        String id = HashUtil.sha256Hex(data);
+
+        store.putChunk(id, data);
+
+        Path expected = dir.resolve("chunks")
+                .resolve(id.substring(0, 2))
+                .resolve(id.substring(2, 4))
+                .resolve(id);
+        assertTrue(Files.exists(expected));
+        assertArrayEquals(data, store.getChunk(id));
+        assertTrue(store.hasChunk(id));
+
+        // No temp files left behind
+        try (var tmp = Files.list(dir.resolve("chunks").resolve("tmp"))) {
+            assertEquals(0, tmp.count());
+        }
+    }
+
+    @Test
+    public void testMissingChunkIsNull() throws Exception {
+        FileChunkStore store = new FileChunkStore(dir);
+        assertNull(store.getChunk(HashUtil.sha256Hex(bytes("absent"))));
+    }
+
+    @Test
+    public void testCorruptChunkIsDiscarded() throws Exception {
+        FileChunkStore store = new FileChunkStore(dir);
+        byte[] data = bytes("original");
+        String id = HashUtil.sha256Hex(data);
+        store.putChunk(id, data);
+
+        Files.write(store.pathFor(id), bytes("origina")); // torn write
+
+        assertNull(store.getChunk(id));
+        assertFalse(store.hasChunk(id));
+    }
+
+    @Test
+    public void testPutChecksTheDataAgainstTheId() throws Exception {
+        FileChunkStore store = new FileChunkStore(dir);
+        String id = HashUtil.sha256Hex(bytes("real"));
+
+        assertThrows(IllegalArgumentException.class, () -> store.putChunk(id, bytes("forged")));
+        assertFalse(store.hasChunk(id));
+    }
+
+    @Test
+    public void testPutReplacesACorruptCopy() throws Exception {
+        FileChunkStore store = new FileChunkStore(dir);
+        byte[] data = bytes("original");
+        String id = HashUtil.sha256Hex(data);
+        store.putChunk(id, data);
+
+        Files.write(store.pathFor(id), bytes("origina")); // torn write
+        store.putChunk(id, data);
+
+        assertArrayEquals(data, Files.readAllBytes(store.pathFor(id)));
+    }
+
+    @Test
+    public void testPutTrustsAFullSizeCopyUntilItIsRead() throws Exception {
+        FileChunkStore store = new FileChunkStore(dir);
+        byte[] data = bytes("original");
+        String id = HashUtil.sha256Hex(data);
+        store.putChunk(id, data);
+
+        // Same size, flipped bits: put does not re-read it, get does
+        Files.write(store.pathFor(id), bytes("Original"));
+        store.putChunk(id, data);
+        assertArrayEquals(bytes("Original"), Files.readAllBytes(store.pathFor(id)));
+
+        assertNull(store.getChunk(id));
+        store.putChunk(id, data);
+        assertArrayEquals(data, store.getChunk(id));
+    }
+
+    @Test
+    public void testRejectsIdsThatAreNotHashes() throws Exception {
+        FileChunkStore store = new FileChunkStore(dir);
+
+        assertThrows(IllegalArgumentException.class,
+                () -> store.putChunk("../../etc/passwd", bytes("x")));
+        assertThrows(IllegalArgumentException.class,
+                () -> store.getChunk("ABCD"));
+    }
+
+    @Test
+    public void testStaleTempFilesAreClearedOnOpen() throws Exception {
+        new FileChunkStore(dir);
+        Path leftover = dir.resolve("chunks").resolve("tmp").resolve("half-written.tmp");
+        Files.write(leftover, bytes("partial"));
+
+        new FileChunkStore(dir);
+
+        assertFalse(Files.exists(leftover));
+    }
+
+    @Test
+    public void testMigrationMovesFlatChunks() throws Exception {
+        Path chunks = Files.createDirectories(dir.resolve("chunks"));
+
+        byte[] good = bytes("good chunk");
+        String goodId = HashUtil.sha256Hex(good);
+        Files.write(chunks.resolve(goodId), good);
+
+        String badId = HashUtil.sha256Hex(bytes("expected"));
+        Files.write(chunks.resolve(badId), bytes("something else"));
+
+        Files.write(chunks.resolve("notes.txt"), bytes("not a chunk"));
+
+        ChunkStoreMigration.Report report = ChunkStoreMigration.migrate(dir);
+
+        assertEquals(1, report.getMigrated());
+        assertEquals(1, report.getCorrupt());
+        assertEquals(1, report.getSkipped());
+
+        FileChunkStore store = new FileChunkStore(dir);
+        assertArrayEquals(good, store.getChunk(goodId));
+        assertFalse(Files.exists(chunks.resolve(goodId)));
+        assertTrue(Files.exists(chunks.resolve(badId + ".corrupt")));
+
+        // Re-running finds nothing new to move
+        assertEquals(0, ChunkStoreMigration.migrate(dir).getMigrated());
+    }
+}
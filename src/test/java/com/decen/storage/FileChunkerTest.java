@@ -0,0 +1,100 @@
+package com.decen.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for streaming chunking and reassembly.
+ */
+public class FileChunkerTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testRoundTripWithPartialLastChunk() throws Exception {
+        byte[] data = new byte[FileChunker.CHUNK_SIZE * 2 + 12345];
+        new Random(13).nextBytes(data);
+        Path in = dir.resolve("in.bin");
+        Files.write(in, data);
+
+        Path out = dir.resolve("restored").resolve("out.bin");
+        int chunks = 0;
+        try (ChunkSource source = FileChunker.open(in);
+             ChunkSink sink = FileChunker.create(out)) {
+            byte[] chunk;
+            while ((chunk = source.nextChunk()) != null) {
+                int expected = chunks < 2 ? FileChunker.CHUNK_SIZE : 12345;
+                assertEquals(expected, chunk.length);
+                sink.write(chunk);
+                chunks++;
+            }
+            assertFalse(Files.exists(out), "nothing visible before commit");
+            sink.commit();
+        }
+
+        assertEquals(3, chunks);
+        assertArrayEquals(data, Files.readAllBytes(out));
+    }
+
+    @Test
+    public void testFixedChunksOfAnotherSize() throws Exception {
+        Path in = dir.resolve("large.bin");
+        Files.write(in, new byte[5000]);
+
+        try (ChunkSource source = FileChunker.open(in, Chunking.FIXED, 2048)) {
+            assertEquals(2048, source.nextChunk().length);
+            PooledBuffer second = source.nextChunk(new BufferPool(1024, 1));
+            assertEquals(2048, second.buffer().remaining(), "too big for the slab, still whole");
+            second.release();
+            assertEquals(5000 - 4096, source.nextChunk().length);
+            assertNull(source.nextChunk());
+        }
+    }
+
+    @Test
+    public void testOutOfOrderWritesLandAtTheirOffsets() throws Exception {
+        Path out = dir.resolve("out.bin");
+
+        try (ChunkSink sink = FileChunker.create(out)) {
+            sink.write(6, new byte[] { 7, 8, 9 });
+            sink.write(0, new byte[] { 1, 2, 3 });
+            sink.write(3, new byte[] { 4, 5, 6 });
+            sink.commit();
+        }
+
+        assertArrayEquals(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9 }, Files.readAllBytes(out));
+    }
+
+    @Test
+    public void testEmptyFileHasNoChunks() throws Exception {
+        Path in = dir.resolve("empty");
+        Files.createFile(in);
+
+        try (ChunkSource source = FileChunker.open(in)) {
+            assertNull(source.nextChunk());
+        }
+    }
+
+    @Test
+    public void testUncommittedSinkLeavesNoFile() throws Exception {
+        Path out = dir.resolve("out.bin");
+
+        try (ChunkSink sink = FileChunker.create(out)) {
+            sink.write(new byte[] { 1, 2, 3 });
+            // failure before commit
+        }
+
+        assertFalse(Files.exists(out));
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(0, files.count(), "temporary file cleaned up");
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package com.decen.storage;
+
+import com.decen.crypto.EncryptionMode;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the log-structured LogMetadataStore and the LRU cache
+ * in front of it.
+ */
+public class LogMetadataStoreTest {
+
+    @TempDir
+    Path dir;
+
+    private final Random random = new Random(20);
+
+    private LogMetadataStore open() throws Exception {
+        return new LogMetadataStore(dir, 0.5, 0);
+    }
+
+    private List<String> chunkIds(int n) throws Exception {
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            byte[] data = new byte[16];
+            random.nextBytes(data);
+            ids.add(ChunkStore.sha256Hex(data));
+        }
+        return ids;
+    }
+
+    @Test
+    public void testPutGetAndRestart() throws Exception {
+        List<String> plain = chunkIds(5);
+        List<String> cdc = chunkIds(3);
+
+        try (LogMetadataStore store = open()) {
+            store.putFile("a", plain);
+            store.putFile("b", cdc, Chunking.FASTCDC, EncryptionMode.CONVERGENT);
+            store.putEncryptedKey("a", new byte[] { 1, 2, 3 });
+
+            assertEquals(plain, store.getChunks("a"));
+            assertEquals(Chunking.FASTCDC, store.getChunking("b"));
+            assertNull(store.getFile("missing"));
+        }
+
+        try (LogMetadataStore store = open()) {
+            assertEquals(plain, store.getChunks("a"));
+            assertEquals(Chunking.FIXED, store.getChunking("a"));
+            assertEquals(EncryptionMode.RANDOM, store.getEncryption("a"));
+
+            FileMetadata b = store.getFile("b");
+            assertEquals(cdc, b.getChunkIds());
+            assertEquals(Chunking.FASTCDC, b.getChunking());
+            assertEquals(EncryptionMode.CONVERGENT, b.getEncryption());
+
+            assertArrayEquals(new byte[] { 1, 2, 3 }, store.getEncryptedKey("a"));
+            assertNull(store.getEncryptedKey("b"));
+        }
+    }
+
+    @Test
+    public void testExpiringRecordsSurviveRestartAndCompaction() throws Exception {
+        List<String> ids = chunkIds(2);
+        FileMetadata replica = new FileMetadata(ids, Chunking.FASTCDC, EncryptionMode.CONVERGENT,
+                1234567L, null, List.of(), new byte[] { 4, 5, 6 });
+
+        try (LogMetadataStore store = open()) {
+            store.putFile("own", chunkIds(1));
+            store.putFile("replica", replica);
+            store.compact();
+        }
+
+        try (LogMetadataStore store = open()) {
+            assertTrue(store.getFile("own").isPermanent());
+
+            FileMetadata back = store.getFile("replica");
+            assertEquals(ids, back.getChunkIds());
+            assertEquals(Chunking.FASTCDC, back.getChunking());
+            assertEquals(1234567L, back.getExpiresAt());
+            assertEquals(EncryptionMode.CONVERGENT, back.getEncryption());
+            assertArrayEquals(new byte[] { 4, 5, 6 }, back.getChunkKeys());
+            assertNull(store.getFile("own").getChunkKeys());
+            assertEquals(2, store.getFileIds().size());
+        }
+    }
+
+    @Test
+    public void testChunkIdsAreStoredAsRawHashes() throws Exception {
+        try (LogMetadataStore store = open()) {
+            store.putFile("f", chunkIds(100));
+            // header + "f" + chunking, encryption, count + 100 × 32 bytes
+            assertEquals(15 + 1 + 6 + 100 * 32, store.logSize());
+
+            assertThrows(IllegalArgumentException.class,
+                    () -> store.putFile("g", List.of("not-a-chunk-id")));
+            assertFalse(store.hasFile("g"));
+        }
+    }
+
+    @Test
+    public void testRemoveAndOverwriteSurviveRestart() throws Exception {
+        List<String> second = chunkIds(2);
+
+        try (LogMetadataStore store = open()) {
+            store.putFile("a", chunkIds(4));
+            store.putFile("a", second);
+            store.putFile("b", chunkIds(1));
+            store.removeFile("b");
+            assertFalse(store.hasFile("b"));
+        }
+
+        try (LogMetadataStore store = open()) {
+            assertEquals(second, store.getChunks("a"));
+            assertFalse(store.hasFile("b"));
+        }
+    }
+
+    @Test
+    public void testTornTailIsTruncatedOnRecovery() throws Exception {
+        List<String> ids = chunkIds(3);
+        try (LogMetadataStore store = open()) {
+            store.putFile("a", ids);
+        }
+
+        // Simulate a crash halfway through appending a record
+        Path log = dir.resolve("metadata").resolve("metadata.log");
+        try (FileChannel ch = FileChannel.open(log, StandardOpenOption.APPEND)) {
+            ch.write(ByteBuffer.wrap(new byte[] { 0x4D, 0x45, 0x54, 0x41, 0, 0, 1 }));
+        }
+
+        try (LogMetadataStore store = open()) {
+            assertEquals(ids, store.getChunks("a"));
+
+            List<String> next = chunkIds(2);
+            store.putFile("b", next);
+            assertEquals(next, store.getChunks("b"));
+        }
+        try (LogMetadataStore store = open()) {
+            assertEquals(ids, store.getChunks("a"));
+            assertTrue(store.hasFile("b"));
+        }
+    }
+
+    @Test
+    public void testCorruptRecordIsDiscarded() throws Exception {
+        try (LogMetadataStore store = open()) {
+            store.putFile("a", chunkIds(3));
+        }
+
+        Path log = dir.resolve("metadata").resolve("metadata.log");
+        byte[] raw = Files.readAllBytes(log);
+        raw[raw.length - 1] ^= 1;
+        Files.write(log, raw);
+
+        try (LogMetadataStore store = open()) {
+            assertFalse(store.hasFile("a"));
+        }
+    }
+
+    @Test
+    public void testCompactionDropsDeadRecords() throws Exception {
+        List<String> last = null;
+        try (LogMetadataStore store = new LogMetadataStore(dir, 0.5, Long.MAX_VALUE)) {
+            for (int i = 0; i < 20; i++) {
+                last = chunkIds(10);
+                store.putFile("a", last);
+            }
+            store.putEncryptedKey("a", new byte[] { 7 });
+            store.putFile("gone", chunkIds(10));
+            store.removeFile("gone");
+
+            long before = store.logSize();
+            assertTrue(store.compact() > 0);
+            assertTrue(store.logSize() < before / 10, before + " -> " + store.logSize());
+
+            assertEquals(last, store.getChunks("a"));
+            assertFalse(store.hasFile("gone"));
+        }
+
+        try (LogMetadataStore store = open()) {
+            assertEquals(last, store.getChunks("a"));
+            assertArrayEquals(new byte[] { 7 }, store.getEncryptedKey("a"));
+            assertFalse(store.hasFile("gone"));
+        }
+    }
+
+    @Test
+    public void testBatchPutAndGet() throws Exception {
+        Map<String, FileMetadata> batch = new LinkedHashMap<>();
+        for (int i = 0; i < 50; i++) {
+            batch.put("file" + i, new FileMetadata(chunkIds(3)));
+        }
+
+        try (LogMetadataStore store = open()) {
+            store.putFiles(batch);
+        }
+
+        try (LogMetadataStore store = open()) {
+            Map<String, List<String>> found =
+                    store.getChunks(List.of("file7", "missing", "file42"));
+
+            assertEquals(List.of("file7", "file42"), new ArrayList<>(found.keySet()));
+            assertEquals(batch.get("file7").getChunkIds(), found.get("file7"));
+            assertEquals(batch.get("file42").getChunkIds(), found.get("file42"));
+        }
+    }
+
+    @Test
+    public void testCacheServesRepeatedReadsAndSeesWrites() throws Exception {
+        List<String> first = chunkIds(2);
+        List<String> second = chunkIds(2);
+
+        try (CachedMetadataStore store = new CachedMetadataStore(open(), 2)) {
+            store.putFile("a", first);
+            store.putFile("b", chunkIds(1));
+            store.putFile("c", chunkIds(1)); // evicts "a"
+
+            assertEquals(first, store.getChunks("a"));
+            assertEquals(first, store.getChunks("a"));
+            assertEquals(1, store.getMisses());
+            assertEquals(1, store.getHits());
+
+            store.putFile("a", second);
+            assertEquals(second, store.getChunks("a"));
+
+            store.removeFile("a");
+            assertNull(store.getFile("a"));
+            assertFalse(store.hasFile("a"));
+        }
+    }
+
+    @Test
+    public void testRemoveDuringAMissIsNotUndone() throws Exception {
+        CountDownLatch read = new CountDownLatch(1);
+        CountDownLatch removed = new CountDownLatch(1);
+        // Holds the first read back until the file has been removed
+        FileMetadataStore backend = new FileMetadataStore(dir.resolve("slow")) {
+            @Override
+            public FileMetadata getFile(String fileId) throws IOException {
+                FileMetadata m = super.getFile(fileId);
+                if (read.getCount() > 0) {
+                    read.countDown();
+                    try {
+                        removed.await();
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                }
+                return m;
+            }
+        };
+
+        CachedMetadataStore store = new CachedMetadataStore(backend);
+        backend.putFile("a", chunkIds(1));
+
+        CompletableFuture<FileMetadata> miss = CompletableFuture.supplyAsync(() -> {
+            try {
+                return store.getFile("a");
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        read.await();
+        store.removeFile("a");
+        removed.countDown();
+
+        assertNotNull(miss.get(), "the racing read saw the old record");
+        assertNull(store.getFile("a"), "but did not cache it");
+        assertFalse(store.hasFile("a"));
+    }
+
+    @Test
+    public void testLockFreeReadsSeeFilesDuringCompaction() throws Exception {
+        try (LogMetadataStore store = open()) {
+            for (int i = 0; i < 200; i++) store.putFile("file" + i, chunkIds(1));
+
+            CompletableFuture<Void> compacting = CompletableFuture.runAsync(() -> {
+                try {
+                    for (int i = 0; i < 50; i++) store.compact();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            while (!compacting.isDone()) {
+                assertTrue(store.hasFile("file7"));
+                assertEquals(200, store.getFileIds().size());
+            }
+            compacting.get();
+        }
+    }
+
+    @Test
+    public void testRemoveFileIfOnlyRemovesTheRecordThatWasRead() throws Exception {
+        try (CachedMetadataStore store = new CachedMetadataStore(open())) {
+            store.putFile("replica", new FileMetadata(chunkIds(1), Chunking.FIXED, EncryptionMode.RANDOM, 1000L));
+            store.putFile("own", chunkIds(1));
+
+            assertFalse(store.removeFileIf("replica", 999L));
+            assertFalse(store.removeFileIf("own", 1000L));
+            assertFalse(store.removeFileIf("missing", 0));
+            assertTrue(store.hasFile("replica"));
+
+            assertTrue(store.removeFileIf("replica", 1000L));
+            assertNull(store.getFile("replica"));
+            assertTrue(store.removeFileIf("own", 0));
+            assertTrue(store.getFileIds().isEmpty());
+        }
+    }
+}
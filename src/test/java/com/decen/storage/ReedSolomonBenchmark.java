@@ -0,0 +1,90 @@
+package com.decen.storage;
+
+import java.util.Random;
+
+/**
+ * Reed-Solomon encode and rebuild throughput for a few k+m layouts,
+ * 1 MB shards, against a shift-and-xor multiply without tables.
+ * Run this as a normal Java application.
+ *
+ * MB/s counts data bytes (k shards) per second on one thread.
+ */
+public class ReedSolomonBenchmark {
+
+    private static final int SHARD = 1 << 20;
+    private static final long BYTES_PER_RUN = 512L << 20;
+    private static final int ROUNDS = 3;
+    private static final int[][] LAYOUTS = { { 4, 2 }, { 6, 3 }, { 10, 4 } };
+
+    public static void main(String[] args) {
+        Random random = new Random(23);
+
+        for (int[] layout : LAYOUTS) {
+            int k = layout[0], m = layout[1];
+            ReedSolomon rs = new ReedSolomon(k, m);
+
+            byte[][] shards = new byte[k + m][SHARD];
+            for (int i = 0; i < k; i++) random.nextBytes(shards[i]);
+            int ops = (int) Math.max(1, BYTES_PER_RUN / ((long) k * SHARD));
+
+            // Lose the first m data shards
+            boolean[] present = new boolean[k + m];
+            for (int i = m; i < k + m; i++) present[i] = true;
+
+            for (int round = 0; round < ROUNDS; round++) {
+                long start = System.nanoTime();
+                for (int i = 0; i < ops; i++) rs.encodeParity(shards, 0, SHARD);
+                long encodeNs = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                for (int i = 0; i < ops; i++) rs.reconstruct(shards, present, 0, SHARD);
+                long rebuildNs = System.nanoTime() - start;
+
+                System.out.printf("rs-%d+%d round %d  encode=%6.0f MB/s  rebuild(%d lost)=%6.0f MB/s%n",
+                        k, m, round,
+                        mbPerSec(k, ops, encodeNs), m,
+                        mbPerSec(k, ops, rebuildNs));
+            }
+        }
+
+        /* Baseline: the same 4+2 parity with a per-byte bitwise multiply */
+        int k = 4, m = 2;
+        byte[][] shards = new byte[k + m][SHARD];
+        for (int i = 0; i < k; i++) random.nextBytes(shards[i]);
+        byte[][] coefficients = new byte[m][k];
+        for (byte[] row : coefficients) random.nextBytes(row);
+
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int p = 0; p < m; p++) {
+                byte[] out = shards[k + p];
+                for (int b = 0; b < SHARD; b++) {
+                    int v = 0;
+                    for (int i = 0; i < k; i++) v ^= slowMultiply(coefficients[p][i], shards[i][b]);
+                    out[b] = (byte) v;
+                }
+            }
+            long ns = System.nanoTime() - start;
+            System.out.printf("baseline rs-4+2 round %d  encode=%6.0f MB/s%n",
+                    round, mbPerSec(k, 1, ns));
+        }
+    }
+
+    private static double mbPerSec(int k, int ops, long ns) {
+        return (double) k * SHARD * ops / (ns / 1e9) / (1 << 20);
+    }
+
+    /** Carry-less multiply reduced by 0x11D, no tables */
+    private static int slowMultiply(int a, int b) {
+        a &= 0xFF;
+        b &= 0xFF;
+        int product = 0;
+        while (b != 0) {
+            if ((b & 1) != 0) product ^= a;
+            a <<= 1;
+            if ((a & 0x100) != 0) a ^= 0x11D;
+            b >>= 1;
+        }
+        return product;
+    }
+}
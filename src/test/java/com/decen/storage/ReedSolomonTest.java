@@ -0,0 +1,177 @@
+package com.decen.storage;
+
+import com.decen.crypto.EncryptionMode;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for GF(256) arithmetic, Reed-Solomon coding and the erasure
+ * coding layer over a ChunkStore.
+ */
+public class ReedSolomonTest {
+
+    @TempDir
+    Path dir;
+
+    private final Random random = new Random(23);
+
+    private byte[] bytes(int n) {
+        byte[] b = new byte[n];
+        random.nextBytes(b);
+        return b;
+    }
+
+    @Test
+    public void testFieldArithmetic() {
+        for (int a = 1; a < 256; a++) {
+            byte inv = Galois.divide((byte) 1, (byte) a);
+            assertEquals(1, Galois.multiply((byte) a, inv), "inverse of " + a);
+            assertEquals(0, Galois.multiply((byte) a, (byte) 0));
+        }
+        // 2^8 reduces by the polynomial 0x11D
+        assertEquals((byte) 0x1D, Galois.power((byte) 2, 8));
+        assertEquals((byte) 0x06, Galois.multiply((byte) 3, (byte) 2));
+    }
+
+    @Test
+    public void testMatrixInverse() {
+        byte[][] v = Galois.vandermonde(5, 5);
+        byte[][] id = Galois.multiply(v, Galois.invert(v));
+        for (int r = 0; r < 5; r++) {
+            for (int c = 0; c < 5; c++) {
+                assertEquals(r == c ? 1 : 0, id[r][c]);
+            }
+        }
+        assertThrows(IllegalArgumentException.class,
+                () -> Galois.invert(new byte[][] { { 1, 1 }, { 1, 1 } }));
+    }
+
+    @Test
+    public void testAnyKShardsRebuildTheRest() {
+        int k = 4, m = 2, size = 1000;
+        ReedSolomon rs = new ReedSolomon(k, m);
+
+        byte[][] original = new byte[k + m][];
+        for (int i = 0; i < k; i++) original[i] = bytes(size);
+        for (int p = 0; p < m; p++) original[k + p] = new byte[size];
+        rs.encodeParity(original, 0, size);
+
+        // Every way of losing m shards
+        for (int a = 0; a < k + m; a++) {
+            for (int b = a + 1; b < k + m; b++) {
+                byte[][] shards = new byte[k + m][];
+                boolean[] present = new boolean[k + m];
+                for (int i = 0; i < k + m; i++) {
+                    present[i] = i != a && i != b;
+                    shards[i] = present[i] ? original[i].clone() : new byte[size];
+                }
+                rs.reconstruct(shards, present, 0, size);
+                for (int i = 0; i < k + m; i++) {
+                    assertArrayEquals(original[i], shards[i], "lost " + a + "," + b + " shard " + i);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testTooFewShardsIsRejected() {
+        ReedSolomon rs = new ReedSolomon(3, 2);
+        byte[][] shards = new byte[5][16];
+        boolean[] present = { true, false, false, false, true };
+        assertThrows(IllegalArgumentException.class, () -> rs.reconstruct(shards, present, 0, 16));
+        assertThrows(IllegalArgumentException.class, () -> new ReedSolomon(200, 57));
+    }
+
+    @Test
+    public void testCoderRebuildsUnevenChunksOfAShortGroup() throws Exception {
+        ErasureCoding coding = new ErasureCoding(4, 3);
+        try (FileChunkStore store = new FileChunkStore(dir)) {
+            // Two full groups and a last group of 2, chunk sizes all different
+            List<String> ids = new ArrayList<>();
+            List<byte[]> data = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                byte[] chunk = bytes(300 + 37 * i);
+                String id = ChunkStore.sha256Hex(chunk);
+                store.putChunk(id, chunk);
+                ids.add(id);
+                data.add(chunk);
+            }
+
+            ErasureCoder coder = new ErasureCoder(store, coding);
+            List<String> parityIds = coder.encode(ids);
+            assertEquals(3 * 3, parityIds.size());
+
+            List<List<String>> groups = coding.groups(ids, parityIds);
+            assertEquals(List.of(7, 7, 5), List.of(
+                    groups.get(0).size(), groups.get(1).size(), groups.get(2).size()));
+
+            // Last group: both chunks lost, rebuilt from parity alone
+            List<byte[]> rebuilt = coder.decodeGroup(shards(store, groups.get(2), 2, coding, 0, 1), 2);
+            assertArrayEquals(data.get(8), rebuilt.get(0));
+            assertArrayEquals(data.get(9), rebuilt.get(1));
+
+            // Middle group: three chunks lost
+            rebuilt = coder.decodeGroup(shards(store, groups.get(1), 4, coding, 0, 2, 3), 4);
+            for (int i = 0; i < 4; i++) {
+                assertArrayEquals(data.get(4 + i), rebuilt.get(i), "chunk " + (4 + i));
+            }
+
+            // Four lost out of 4+3 cannot be rebuilt
+            byte[][] tooFew = shards(store, groups.get(0), 4, coding, 0, 1, 2, 3);
+            assertThrows(IOException.class, () -> coder.decodeGroup(tooFew, 4));
+        }
+    }
+
+    @Test
+    public void testErasureLayoutSurvivesBothMetadataStores() throws Exception {
+        List<String> ids = new ArrayList<>();
+        List<String> parity = new ArrayList<>();
+        for (int i = 0; i < 5; i++) ids.add(ChunkStore.sha256Hex(bytes(8)));
+        for (int i = 0; i < 4; i++) parity.add(ChunkStore.sha256Hex(bytes(8)));
+        FileMetadata m = new FileMetadata(ids, Chunking.FASTCDC, EncryptionMode.RANDOM,
+                0, new ErasureCoding(3, 2), parity);
+
+        try (MetadataStore log = new LogMetadataStore(dir.resolve("log"), 0.5, 0);
+             MetadataStore files = new FileMetadataStore(dir.resolve("files"))) {
+            for (MetadataStore store : List.of(log, files)) {
+                store.putFile("f", m);
+                store.putFile("plain", new FileMetadata(ids));
+
+                FileMetadata back = store.getFile("f");
+                assertEquals(new ErasureCoding(3, 2), back.getErasure());
+                assertEquals(parity, back.getParityIds());
+                assertEquals(ids, back.getChunkIds());
+                assertFalse(store.getFile("plain").isErasureCoded());
+            }
+        }
+
+        assertThrows(IllegalArgumentException.class, () -> new FileMetadata(
+                ids, Chunking.FIXED, EncryptionMode.RANDOM, 0, new ErasureCoding(3, 2), List.of()));
+        assertEquals(new ErasureCoding(10, 4), ErasureCoding.fromLabel("rs-10+4"));
+    }
+
+    /** A group's k + m slots with the given data slots missing */
+    private static byte[][] shards(ChunkStore store,
+                                   List<String> group,
+                                   int dataCount,
+                                   ErasureCoding coding,
+                                   int... lost) throws IOException {
+        int k = coding.getDataShards();
+        byte[][] shards = new byte[coding.getTotalShards()][];
+        for (int i = 0; i < group.size(); i++) {
+            int slot = i < dataCount ? i : k + i - dataCount;
+            shards[slot] = store.getChunk(group.get(i));
+        }
+        for (int i : lost) shards[i] = null;
+        return shards;
+    }
+}
@@ -0,0 +1,222 @@
+package com.decen.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the log-structured SegmentChunkStore: recovery from
+ * footers and torn tails, tombstones and compaction.
+ */
+public class SegmentChunkStoreTest {
+
+    /** Small segments so a few chunks span several files */
+    private static final long SEGMENT_BYTES = 8 * 1024;
+
+    @TempDir
+    Path dir;
+
+    private final Random random = new Random(4);
+
+    private SegmentChunkStore open() throws Exception {
+        return new SegmentChunkStore(dir, SEGMENT_BYTES, null, 0.5);
+    }
+
+    private byte[] chunk() {
+        byte[] data = new byte[1000];
+        random.nextBytes(data);
+        return data;
+    }
+
+    private List<byte[]> putChunks(SegmentChunkStore store, int n) throws Exception {
+        List<byte[]> chunks = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            byte[] data = chunk();
+            store.putChunk(ChunkStore.sha256Hex(data), data);
+            chunks.add(data);
+        }
+        return chunks;
+    }
+
+    @Test
+    public void testPutGetAcrossSegmentsAndRestart() throws Exception {
+        List<byte[]> chunks;
+        try (SegmentChunkStore store = open()) {
+            chunks = putChunks(store, 30);
+            assertTrue(store.segmentCount() > 3);
+
+            for (byte[] data : chunks) {
+                assertArrayEquals(data, store.getChunk(ChunkStore.sha256Hex(data)));
+            }
+        }
+
+        // Sealed segments come back from their footers, the last one by scan
+        try (SegmentChunkStore store = open()) {
+            for (byte[] data : chunks) {
+                assertArrayEquals(data, store.getChunk(ChunkStore.sha256Hex(data)));
+            }
+            assertNull(store.getChunk(ChunkStore.sha256Hex(chunk())));
+        }
+    }
+
+    @Test
+    public void testOpenChunkReturnsFileRegion() throws Exception {
+        try (SegmentChunkStore store = open()) {
+            List<byte[]> chunks = putChunks(store, 12);
+
+            for (byte[] data : chunks) {
+                try (ChunkRegion region = store.openChunk(ChunkStore.sha256Hex(data))) {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    region.writeTo(out);
+                    assertArrayEquals(data, out.toByteArray());
+                }
+            }
+            assertNull(store.openChunk(ChunkStore.sha256Hex(chunk())));
+        }
+    }
+
+    @Test
+    public void testTornTailIsTruncatedOnRecovery() throws Exception {
+        List<byte[]> chunks;
+        try (SegmentChunkStore store = open()) {
+            chunks = putChunks(store, 3);
+        }
+
+        // Simulate a crash halfway through appending a record
+        Path last;
+        try (Stream<Path> files = Files.list(dir.resolve("segments"))) {
+            last = files.sorted().reduce((a, b) -> b).get();
+        }
+        try (FileChannel ch = FileChannel.open(last, StandardOpenOption.APPEND)) {
+            ch.write(ByteBuffer.wrap(new byte[] { 0x43, 0x48, 0x4E, 0x4B, 0, 1, 2 }));
+        }
+
+        try (SegmentChunkStore store = open()) {
+            for (byte[] data : chunks) {
+                assertArrayEquals(data, store.getChunk(ChunkStore.sha256Hex(data)));
+            }
+
+            byte[] next = chunk();
+            store.putChunk(ChunkStore.sha256Hex(next), next);
+            assertArrayEquals(next, store.getChunk(ChunkStore.sha256Hex(next)));
+        }
+    }
+
+    @Test
+    public void testCompactionReclaimsDeletedChunks() throws Exception {
+        List<byte[]> kept = new ArrayList<>();
+        List<byte[]> deleted = new ArrayList<>();
+
+        try (SegmentChunkStore store = open()) {
+            List<byte[]> chunks = putChunks(store, 40);
+            for (int i = 0; i < chunks.size(); i++) {
+                byte[] data = chunks.get(i);
+                if (i % 4 == 0) {
+                    kept.add(data);
+                } else {
+                    assertTrue(store.deleteChunk(ChunkStore.sha256Hex(data)));
+                    deleted.add(data);
+                }
+            }
+
+            int before = store.segmentCount();
+            assertTrue(store.compact() > 0);
+            assertTrue(store.segmentCount() < before,
+                    before + " -> " + store.segmentCount());
+
+            for (byte[] data : kept) {
+                assertArrayEquals(data, store.getChunk(ChunkStore.sha256Hex(data)));
+            }
+            for (byte[] data : deleted) {
+                assertFalse(store.hasChunk(ChunkStore.sha256Hex(data)));
+            }
+        }
+
+        // Tombstones and moved records survive a restart
+        try (SegmentChunkStore store = open()) {
+            for (byte[] data : kept) {
+                assertArrayEquals(data, store.getChunk(ChunkStore.sha256Hex(data)));
+            }
+            for (byte[] data : deleted) {
+                assertNull(store.getChunk(ChunkStore.sha256Hex(data)));
+            }
+        }
+    }
+
+    @Test
+    public void testChunkStoredAgainAfterDeleteSurvivesCompaction() throws Exception {
+        byte[] data = chunk();
+        String id = ChunkStore.sha256Hex(data);
+
+        try (SegmentChunkStore store = open()) {
+            store.putChunk(id, data);
+            putChunks(store, 10);
+            store.deleteChunk(id);
+            putChunks(store, 10);
+            store.putChunk(id, data);
+            putChunks(store, 10);
+
+            store.compact();
+            assertArrayEquals(data, store.getChunk(id));
+        }
+
+        try (SegmentChunkStore store = open()) {
+            assertArrayEquals(data, store.getChunk(id));
+        }
+    }
+
+    @Test
+    public void testPutChecksTheDataAgainstTheId() throws Exception {
+        byte[] data = chunk();
+        String id = ChunkStore.sha256Hex(data);
+
+        try (SegmentChunkStore store = open()) {
+            assertThrows(IllegalArgumentException.class, () -> store.putChunk(id, chunk()));
+            assertFalse(store.hasChunk(id));
+
+            // A copy that rots on disk is replaced by the next put
+            store.putChunk(id, data);
+            Path segment = dir.resolve("segments").resolve("00000001.seg");
+            byte[] raw = Files.readAllBytes(segment);
+            raw[raw.length - 1] ^= 1;
+            Files.write(segment, raw);
+
+            store.putChunk(id, data);
+            assertArrayEquals(data, store.getChunk(id));
+        }
+    }
+
+    @Test
+    public void testCorruptRecordIsDiscarded() throws Exception {
+        byte[] data = chunk();
+        String id = ChunkStore.sha256Hex(data);
+
+        try (SegmentChunkStore store = open()) {
+            store.putChunk(id, data);
+        }
+
+        // Flip one byte of the chunk data
+        Path segment = dir.resolve("segments").resolve("00000001.seg");
+        byte[] raw = Files.readAllBytes(segment);
+        raw[raw.length - 1] ^= 1;
+        Files.write(segment, raw);
+
+        try (SegmentChunkStore store = open()) {
+            // The CRC no longer matches, so recovery drops the record
+            assertNull(store.getChunk(id));
+            assertFalse(store.hasChunk(id));
+        }
+    }
+}